@@ -4,8 +4,11 @@ import android.media.AudioFormat;
 import android.media.AudioRecord;
 import android.media.MediaRecorder;
 
+import me.lake.librestreaming.core.RESAudioTimestamper;
+import me.lake.librestreaming.core.RESEncoderStats;
 import me.lake.librestreaming.core.RESSoftAudioCore;
 import me.lake.librestreaming.filter.softaudiofilter.BaseSoftAudioFilter;
+import me.lake.librestreaming.model.RESAudioBuff;
 import me.lake.librestreaming.model.RESConfig;
 import me.lake.librestreaming.model.RESCoreParameters;
 import me.lake.librestreaming.rtmp.RESFlvDataCollecter;
@@ -21,6 +24,8 @@ public class RESAudioClient {
     private AudioRecord audioRecord;
     private byte[] audioBuffer;
     private RESSoftAudioCore softAudioCore;
+    private RESAudioTimestamper audioTimestamper;
+    private int bytesPerFrame;
 
     public RESAudioClient(RESCoreParameters parameters) {
         resCoreParameters = parameters;
@@ -48,6 +53,7 @@ public class RESAudioClient {
     public boolean start(RESFlvDataCollecter flvDataCollecter) {
         synchronized (syncOp) {
             softAudioCore.start(flvDataCollecter);
+            audioTimestamper.reset();
             audioRecord.startRecording();
             audioRecordThread = new AudioRecordThread();
             audioRecordThread.start();
@@ -73,6 +79,7 @@ public class RESAudioClient {
     public boolean destroy() {
         synchronized (syncOp) {
             audioRecord.release();
+            softAudioCore.destroy();
             return true;
         }
     }
@@ -87,6 +94,21 @@ public class RESAudioClient {
         softAudioCore.releaseAudioFilter();
     }
 
+    public long[] getSoftAudioFilterCostNs() {
+        return softAudioCore == null ? null : softAudioCore.getAudioFilterCostNs();
+    }
+
+    /**
+     * @return audio slices abandoned since start because filter/encoder fell behind
+     */
+    public long getOverrunCount() {
+        return softAudioCore == null ? 0 : softAudioCore.getOverrunCount();
+    }
+
+    public RESEncoderStats.Snapshot getEncoderStats() {
+        return softAudioCore == null ? null : softAudioCore.getEncoderStats();
+    }
+
     private boolean prepareAudio() {
         int minBufferSize = AudioRecord.getMinBufferSize(resCoreParameters.audioRecoderSampleRate,
                 resCoreParameters.audioRecoderChannelConfig,
@@ -97,6 +119,9 @@ public class RESAudioClient {
                 resCoreParameters.audioRecoderFormat,
                 minBufferSize * 5);
         audioBuffer = new byte[resCoreParameters.audioRecoderBufferSize];
+        //16bit pcm
+        bytesPerFrame = 2 * (resCoreParameters.audioRecoderChannelConfig == AudioFormat.CHANNEL_IN_STEREO ? 2 : 1);
+        audioTimestamper = new RESAudioTimestamper(resCoreParameters.audioRecoderSampleRate);
         if (AudioRecord.STATE_INITIALIZED != audioRecord.getState()) {
             LogTools.e("audioRecord.getState()!=AudioRecord.STATE_INITIALIZED!");
             return false;
@@ -109,7 +134,7 @@ public class RESAudioClient {
     }
 
     class AudioRecordThread extends Thread {
-        private boolean isRunning = true;
+        private volatile boolean isRunning = true;
 
         AudioRecordThread() {
             isRunning = true;
@@ -123,9 +148,22 @@ public class RESAudioClient {
         public void run() {
             LogTools.d("AudioRecordThread,tid=" + Thread.currentThread().getId());
             while (isRunning) {
-                int size = audioRecord.read(audioBuffer, 0, audioBuffer.length);
-                if (isRunning && softAudioCore != null && size > 0) {
-                    softAudioCore.queueAudio(audioBuffer, size);
+                //read into a slot owned by softAudioCore,into audioBuffer to discard it when overrun
+                RESAudioBuff fillBuff = softAudioCore == null ? null : softAudioCore.dequeueFillBuff();
+                byte[] target = fillBuff == null ? audioBuffer : fillBuff.buff;
+                int size = audioRecord.read(target, 0, target.length);
+                long ptsUs = 0;
+                if (size > 0) {
+                    //overrun samples are counted too,so pts jumps over them
+                    ptsUs = audioTimestamper.onSamplesRead(size / bytesPerFrame, System.nanoTime() / 1000);
+                }
+                if (fillBuff != null) {
+                    fillBuff.timestampUs = ptsUs;
+                    if (isRunning && size > 0) {
+                        softAudioCore.queueFillBuff(fillBuff, size);
+                    } else {
+                        softAudioCore.cancelFillBuff(fillBuff);
+                    }
                 }
             }
         }
@@ -0,0 +1,107 @@
+package me.lake.librestreaming.client;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.os.SystemClock;
+
+import me.lake.librestreaming.core.RESBitrateAlgorithm;
+import me.lake.librestreaming.core.listener.RESBitrateListener;
+import me.lake.librestreaming.rtmp.RESRtmpSender;
+import me.lake.librestreaming.tools.LogTools;
+
+/**
+ * Samples sender queue and throughput every TICK_INTERVAL_MS while streaming,
+ * lets {@link RESBitrateAlgorithm} decide and applies it to video encoder.
+ */
+public class RESBitrateController {
+    private static final int TICK_INTERVAL_MS = 500;
+    private final Object syncOp = new Object();
+    private final Object syncBitrateListener = new Object();
+    private final RESRtmpSender rtmpSender;
+    private final RESVideoClient videoClient;
+    private final RESBitrateAlgorithm algorithm;
+    private RESBitrateListener bitrateListener;
+    private HandlerThread tickThread;
+    private TickHandler tickHandler;
+
+    public RESBitrateController(RESRtmpSender rtmpSender, RESVideoClient videoClient, int minBitrate, int maxBitrate) {
+        this.rtmpSender = rtmpSender;
+        this.videoClient = videoClient;
+        algorithm = new RESBitrateAlgorithm(minBitrate, maxBitrate);
+    }
+
+    public void setBitrateListener(RESBitrateListener bitrateListener) {
+        synchronized (syncBitrateListener) {
+            this.bitrateListener = bitrateListener;
+        }
+    }
+
+    public void start() {
+        synchronized (syncOp) {
+            if (tickThread != null) {
+                return;
+            }
+            algorithm.reset();
+            tickThread = new HandlerThread("RESBitrateController,tickThread");
+            tickThread.start();
+            tickHandler = new TickHandler(tickThread.getLooper());
+            tickHandler.sendEmptyMessageDelayed(TickHandler.WHAT_TICK, TICK_INTERVAL_MS);
+        }
+    }
+
+    public void stop() {
+        synchronized (syncOp) {
+            if (tickThread == null) {
+                return;
+            }
+            tickHandler.removeCallbacksAndMessages(null);
+            tickThread.quit();
+            tickThread = null;
+            tickHandler = null;
+        }
+    }
+
+    /**
+     * @return RESBitrateAlgorithm.STATE_HOLD/STATE_INCREASE/STATE_DECREASE of last tick
+     */
+    public int getState() {
+        return algorithm.getState();
+    }
+
+    private void tick() {
+        int currentBitrate = videoClient.getVideoBitrate();
+        float queueOccupancy = 1.0f - rtmpSender.getSendBufferFreePercent();
+        int sendBitrate = rtmpSender.getVideoSpeed() * 8;
+        int newBitrate = algorithm.onSample(currentBitrate, queueOccupancy, sendBitrate, SystemClock.uptimeMillis());
+        if (newBitrate == currentBitrate) {
+            return;
+        }
+        LogTools.d("RESBitrateController,bitrate " + currentBitrate + "->" + newBitrate
+                + ",queue=" + queueOccupancy + ",send=" + sendBitrate);
+        videoClient.reSetVideoBitrate(newBitrate);
+        synchronized (syncBitrateListener) {
+            if (bitrateListener != null) {
+                CallbackDelivery.i().post(new RESBitrateListener.RESBitrateChangedRunable(bitrateListener,
+                        currentBitrate, newBitrate, queueOccupancy, sendBitrate));
+            }
+        }
+    }
+
+    private class TickHandler extends Handler {
+        static final int WHAT_TICK = 1;
+
+        TickHandler(Looper looper) {
+            super(looper);
+        }
+
+        @Override
+        public void handleMessage(Message msg) {
+            if (msg.what == WHAT_TICK) {
+                tick();
+                sendEmptyMessageDelayed(WHAT_TICK, TICK_INTERVAL_MS);
+            }
+        }
+    }
+}
@@ -5,6 +5,11 @@ import android.annotation.TargetApi;
 import android.graphics.SurfaceTexture;
 import android.os.Build;
 
+import me.lake.librestreaming.core.MediaCodecHelper;
+import me.lake.librestreaming.core.RESCapabilityCache;
+import me.lake.librestreaming.core.RESEncoderStats;
+import me.lake.librestreaming.core.RESPipelineStats;
+import me.lake.librestreaming.core.listener.RESBitrateListener;
 import me.lake.librestreaming.core.listener.RESConnectionListener;
 import me.lake.librestreaming.core.listener.RESScreenShotListener;
 import me.lake.librestreaming.core.listener.RESVideoChangeListener;
@@ -16,19 +21,27 @@ import me.lake.librestreaming.model.RESCoreParameters;
 import me.lake.librestreaming.model.Size;
 import me.lake.librestreaming.rtmp.RESFlvData;
 import me.lake.librestreaming.rtmp.RESFlvDataCollecter;
+import me.lake.librestreaming.rtmp.RESFlvDataFanOut;
+import me.lake.librestreaming.rtmp.RESFlvFileRecorder;
+import me.lake.librestreaming.rtmp.RESFlvDataPool;
 import me.lake.librestreaming.rtmp.RESRtmpSender;
+import me.lake.librestreaming.rtmp.RESSendDropPolicy;
 import me.lake.librestreaming.tools.LogTools;
 
 /**
  * Created by lake on 16-3-16.
  */
 public class RESClient {
+    private static final long RECORDER_STOP_TIMEOUT_MS = 3000;
     private RESVideoClient videoClient;
     private RESAudioClient audioClient;
     private final Object SyncOp;
     //parameters
     RESCoreParameters coreParameters;
     private RESRtmpSender rtmpSender;
+    private RESBitrateController bitrateController;
+    private RESFlvDataFanOut flvDataFanOut;
+    private RESFlvFileRecorder flvFileRecorder;
     private RESFlvDataCollecter dataCollecter;
 
     public RESClient() {
@@ -50,9 +63,23 @@ public class RESClient {
             coreParameters.rtmpAddr = resConfig.getRtmpAddr();
             coreParameters.printDetailMsg = resConfig.isPrintDetailMsg();
             coreParameters.senderQueueLength = 150;
+            coreParameters.senderMuxer = resConfig.getRtmpMuxer();
+            coreParameters.senderChunkSize = Math.max(128, Math.min(65536, resConfig.getRtmpChunkSize()));
+            coreParameters.senderDropPolicy = resConfig.getSendDropPolicy();
+            coreParameters.senderRequestKeyFrameOnDrop = resConfig.isRequestKeyFrameOnDrop();
+            coreParameters.adaptiveBitrate = resConfig.isAdaptiveBitrate();
+            coreParameters.pipelineStatsLogInterval = Math.max(0, resConfig.getPipelineStatsLogInterval());
+            RESCapabilityCache.i().open(resConfig.getCapabilityCacheDir());
+            coreParameters.videoCodec = MediaCodecHelper.selectVideoCodec(resConfig.getVideoCodec(), coreParameters.senderMuxer);
+            coreParameters.mediacodecAVCProfile = resConfig.getVideoProfile();
+            coreParameters.mediacodecAVCMaxBFrames = coreParameters.senderMuxer == RESCoreParameters.RTMP_MUXER_JAVA ?
+                    Math.max(0, resConfig.getVideoMaxBFrames()) : 0;
+            coreParameters.mediacodecAsync = resConfig.isEncoderAsync();
             videoClient = new RESVideoClient(coreParameters);
             audioClient = new RESAudioClient(coreParameters);
-            if (!videoClient.prepare(resConfig)) {
+            boolean isVideoPrepared = videoClient.prepare(resConfig);
+            RESCapabilityCache.i().save();
+            if (!isVideoPrepared) {
                 LogTools.d("!!!!!videoClient.prepare()failed");
                 LogTools.d(coreParameters.toString());
                 return false;
@@ -64,12 +91,30 @@ public class RESClient {
             }
             rtmpSender = new RESRtmpSender();
             rtmpSender.prepare(coreParameters);
-            dataCollecter = new RESFlvDataCollecter() {
+            coreParameters.senderDirectBuffer = rtmpSender.isDirectBufferPreferred();
+            if (coreParameters.senderRequestKeyFrameOnDrop) {
+                rtmpSender.setKeyFrameRequester(new RESRtmpSender.KeyFrameRequester() {
+                    @Override
+                    public void requestKeyFrame() {
+                        videoClient.requestKeyFrame();
+                    }
+                });
+            }
+            if (coreParameters.adaptiveBitrate) {
+                coreParameters.adaptiveMaxBitRate = resConfig.getMaxBitRate() > 0 ? resConfig.getMaxBitRate() : coreParameters.mediacdoecAVCBitRate;
+                coreParameters.adaptiveMinBitRate = Math.min(resConfig.getMinBitRate(), coreParameters.adaptiveMaxBitRate);
+                bitrateController = new RESBitrateController(rtmpSender, videoClient,
+                        coreParameters.adaptiveMinBitRate,
+                        coreParameters.adaptiveMaxBitRate);
+            }
+            flvDataFanOut = new RESFlvDataFanOut();
+            flvDataFanOut.addCollecter(new RESFlvDataCollecter() {
                 @Override
                 public void collect(RESFlvData flvData, int type) {
                     rtmpSender.feed(flvData, type);
                 }
-            };
+            }, false);
+            dataCollecter = flvDataFanOut;
             coreParameters.done = true;
             LogTools.d("===INFO===coreParametersReady:");
             LogTools.d(coreParameters.toString());
@@ -83,21 +128,45 @@ public class RESClient {
      */
     public void startStreaming() {
         synchronized (SyncOp) {
+            RESPipelineStats.i().reset();
+            RESPipelineStats.i().startLogging(coreParameters.pipelineStatsLogInterval);
+            coreParameters.mediaClockBaseUs = System.nanoTime() / 1000;
             videoClient.startStreaming(dataCollecter);
             rtmpSender.start(coreParameters.rtmpAddr);
             audioClient.start(dataCollecter);
+            if (bitrateController != null) {
+                bitrateController.start();
+            }
             LogTools.d("RESClient,startStreaming()");
         }
     }
 
+    /**
+     * reconnect rtmp without restarting encoders,call it between {@link #startStreaming()} & {@link #stopStreaming()}.<br/>
+     * sequence headers are sent again on the new connection and video restarts from next keyframe.
+     */
+    public void reconnectStreaming() {
+        synchronized (SyncOp) {
+            rtmpSender.stop();
+            rtmpSender.start(coreParameters.rtmpAddr);
+            //video is held back until next keyframe,do not wait for a whole GOP
+            videoClient.requestKeyFrame();
+            LogTools.d("RESClient,reconnectStreaming()");
+        }
+    }
+
     /**
      * stop streaming
      */
     public void stopStreaming() {
         synchronized (SyncOp) {
+            if (bitrateController != null) {
+                bitrateController.stop();
+            }
             videoClient.stopStreaming();
             audioClient.stop();
             rtmpSender.stop();
+            RESPipelineStats.i().stopLogging();
             LogTools.d("RESClient,stopStreaming()");
         }
     }
@@ -107,6 +176,12 @@ public class RESClient {
      */
     public void destroy() {
         synchronized (SyncOp) {
+            if (bitrateController != null) {
+                bitrateController.stop();
+                bitrateController = null;
+            }
+            stopRecording();
+            RESPipelineStats.i().stopLogging();
             rtmpSender.destroy();
             videoClient.destroy();
             audioClient.destroy();
@@ -297,6 +372,141 @@ public class RESClient {
         audioClient.releaseSoftAudioFilter();
     }
 
+    /**
+     * record what is streamed into a flv file,in parallel with rtmp.<br/>
+     * call it AFTER {@link #prepare(RESConfig)}
+     *
+     * @param filePath flv file,overwritten if exists
+     * @return false if already recording or file can not be created
+     */
+    public boolean startRecording(String filePath) {
+        synchronized (SyncOp) {
+            if (flvDataFanOut == null || flvFileRecorder != null) {
+                return false;
+            }
+            RESFlvFileRecorder recorder = new RESFlvFileRecorder(coreParameters, filePath);
+            if (!recorder.start()) {
+                return false;
+            }
+            flvFileRecorder = recorder;
+            flvDataFanOut.addCollecter(recorder, true);
+            LogTools.d("RESClient,startRecording()" + filePath);
+            return true;
+        }
+    }
+
+    /**
+     * stop recording,queued frames are written before file is closed
+     */
+    public void stopRecording() {
+        synchronized (SyncOp) {
+            if (flvFileRecorder == null) {
+                return;
+            }
+            flvDataFanOut.removeCollecter(flvFileRecorder);
+            flvFileRecorder.stop(RECORDER_STOP_TIMEOUT_MS);
+            LogTools.d("RESClient,stopRecording(),dropped=" + flvFileRecorder.getDroppedTagCount()
+                    + ",maxQueueDepth=" + flvFileRecorder.getMaxQueueDepth());
+            flvFileRecorder = null;
+        }
+    }
+
+    public boolean isRecording() {
+        synchronized (SyncOp) {
+            return flvFileRecorder != null;
+        }
+    }
+
+    /**
+     * frames abandoned by recorder because storage is slower than encoders
+     *
+     * @return tag count since {@link #startRecording(String)}
+     */
+    public long getRecordingDroppedFrames() {
+        synchronized (SyncOp) {
+            return flvFileRecorder == null ? 0 : flvFileRecorder.getDroppedTagCount();
+        }
+    }
+
+    /**
+     * get recorder queue usage
+     *
+     * @return [0.0,1.0],highest usage since recording started
+     */
+    public float getRecordingMaxQueueUsage() {
+        synchronized (SyncOp) {
+            return flvFileRecorder == null ? 0 : (float) flvFileRecorder.getMaxQueueDepth() / (float) flvFileRecorder.getQueueCapacity();
+        }
+    }
+
+    /**
+     * get number of audio slices abandoned because audio filter or encoder fell behind recording
+     *
+     * @return slice count since {@link #startStreaming()}
+     */
+    public long getAudioOverrunCount() {
+        synchronized (SyncOp) {
+            return audioClient == null ? 0 : audioClient.getOverrunCount();
+        }
+    }
+
+    /**
+     * get cpu time spent in soft audio filter.<br/>
+     * one entry per filter of a {@link me.lake.librestreaming.filter.softaudiofilter.SoftAudioGroupFilter},
+     * or one entry for any other filter
+     *
+     * @return nanoseconds since the filter was set,null if no filter
+     */
+    public long[] getSoftAudioFilterCostNs() {
+        synchronized (SyncOp) {
+            return audioClient == null ? null : audioClient.getSoftAudioFilterCostNs();
+        }
+    }
+
+    /**
+     * get queue depth,input->output latency and dropped inputs of video encoder
+     *
+     * @return stats of current or last streaming session,null before {@link #prepare(RESConfig)}
+     */
+    public RESEncoderStats.Snapshot getVideoEncoderStats() {
+        synchronized (SyncOp) {
+            return videoClient == null ? null : videoClient.getEncoderStats();
+        }
+    }
+
+    /**
+     * get queue depth,input->output latency and dropped inputs of audio encoder
+     *
+     * @return stats of current or last streaming session,null before {@link #prepare(RESConfig)}
+     */
+    public RESEncoderStats.Snapshot getAudioEncoderStats() {
+        synchronized (SyncOp) {
+            return audioClient == null ? null : audioClient.getEncoderStats();
+        }
+    }
+
+    /**
+     * get number of camera frames replaced by a newer one before being drawn,soft mode only
+     *
+     * @return frame count since {@link #prepare(RESConfig)}
+     */
+    public long getVideoDroppedFrameCount() {
+        synchronized (SyncOp) {
+            return videoClient == null ? 0 : videoClient.getDroppedFrameCount();
+        }
+    }
+
+    /**
+     * get number of draws that repeated the last camera frame,soft mode only
+     *
+     * @return draw count since {@link #prepare(RESConfig)}
+     */
+    public long getVideoDuplicatedFrameCount() {
+        synchronized (SyncOp) {
+            return videoClient == null ? 0 : videoClient.getDuplicatedFrameCount();
+        }
+    }
+
     /**
      * get video & audio real send Speed
      *
@@ -308,6 +518,79 @@ public class RESClient {
         }
     }
 
+    /**
+     * get hit rate of the buffer pool shared by encoders and rtmp sender
+     *
+     * @return [0.0,1.0],low value means encoded frames are allocated instead of reused
+     */
+    public float getFlvDataPoolHitRate() {
+        return RESFlvDataPool.i().getHitRate();
+    }
+
+    /**
+     * get number of encoded frames leased from buffer pool and not returned yet
+     *
+     * @return outstanding lease count
+     */
+    public int getFlvDataPoolOutstanding() {
+        return RESFlvDataPool.i().getOutstandingCount();
+    }
+
+    /**
+     * get video latency of every pipeline stage since {@link #startStreaming()}
+     *
+     * @return p50/p95/p99/max in us for capture,draw,encode,send and total
+     */
+    public RESPipelineStats.Snapshot getPipelineStats() {
+        return RESPipelineStats.i().snapshot();
+    }
+
+    /**
+     * listener for bitrate changes made by adaptive bitrate controller,
+     * only works with {@link RESConfig#setAdaptiveBitrate(boolean)} enabled<br/>
+     * call it AFTER {@link #prepare(RESConfig)}
+     *
+     * @param bitrateListener
+     */
+    public void setBitrateListener(RESBitrateListener bitrateListener) {
+        synchronized (SyncOp) {
+            if (bitrateController != null) {
+                bitrateController.setBitrateListener(bitrateListener);
+            }
+        }
+    }
+
+    /**
+     * replace the policy chosen by {@link RESConfig#setSendDropPolicy(int)}<br/>
+     * call it AFTER {@link #prepare(RESConfig)}
+     *
+     * @param dropPolicy decides which tags are abandoned when network is slow
+     */
+    public void setSendDropPolicy(RESSendDropPolicy dropPolicy) {
+        synchronized (SyncOp) {
+            if (rtmpSender != null) {
+                rtmpSender.setDropPolicy(dropPolicy);
+            }
+        }
+    }
+
+    /**
+     * get average bytes copied in java per encoded frame,
+     * from MediaCodec output to RESFlvData and from RESFlvData to muxer
+     *
+     * @return bytes/frame
+     */
+    public float getCopiedBytesPerFrame() {
+        synchronized (SyncOp) {
+            long frames = RESFlvDataPool.i().getLeaseCount();
+            if (frames == 0) {
+                return 0;
+            }
+            long bridged = rtmpSender == null ? 0 : rtmpSender.getBridgedBytes();
+            return (float) (RESFlvDataPool.i().getCopiedBytes() + bridged) / (float) frames;
+        }
+    }
+
     /**
      * call it AFTER {@link #prepare(RESConfig)}
      *
@@ -7,6 +7,8 @@ import java.io.IOException;
 import java.util.List;
 
 import me.lake.librestreaming.core.CameraHelper;
+import me.lake.librestreaming.core.RESCapabilityCache;
+import me.lake.librestreaming.core.RESEncoderStats;
 import me.lake.librestreaming.core.RESHardVideoCore;
 import me.lake.librestreaming.core.RESSoftVideoCore;
 import me.lake.librestreaming.core.RESVideoCore;
@@ -52,24 +54,35 @@ public class RESVideoClient {
                 LogTools.e("can not open camera");
                 return false;
             }
-            Camera.Parameters parameters = camera.getParameters();
-            CameraHelper.selectCameraPreviewWH(parameters, resCoreParameters, resConfig.getTargetVideoSize());
-            CameraHelper.selectCameraFpsRange(parameters, resCoreParameters);
-            if (resConfig.getVideoFPS() > resCoreParameters.previewMaxFps / 1000) {
-                resCoreParameters.videoFPS = resCoreParameters.previewMaxFps / 1000;
-            } else {
-                resCoreParameters.videoFPS = resConfig.getVideoFPS();
+            RESCapabilityCache.CameraCaps caps = RESCapabilityCache.i().getCamera(currentCameraIndex);
+            boolean isCached = caps != null;
+            if (!isCached) {
+                caps = probeCamera();
             }
-            resoveResolution(resCoreParameters, resConfig.getTargetVideoSize());
-            if (!CameraHelper.selectCameraColorFormat(parameters, resCoreParameters)) {
-                LogTools.e("CameraHelper.selectCameraColorFormat,Failed");
-                resCoreParameters.dump();
+            if (!selectCameraParameters(caps, resConfig)) {
                 return false;
             }
             if (!CameraHelper.configCamera(camera, resCoreParameters)) {
-                LogTools.e("CameraHelper.configCamera,Failed");
-                resCoreParameters.dump();
-                return false;
+                if (!isCached) {
+                    LogTools.e("CameraHelper.configCamera,Failed");
+                    resCoreParameters.dump();
+                    return false;
+                }
+                //configCamera released it,cached capabilities may be out of date
+                LogTools.d("RESVideoClient,cached camera capabilities refused,probe again");
+                RESCapabilityCache.i().removeCamera(currentCameraIndex);
+                if (null == (camera = createCamera(currentCameraIndex))) {
+                    LogTools.e("can not open camera");
+                    return false;
+                }
+                if (!selectCameraParameters(probeCamera(), resConfig)) {
+                    return false;
+                }
+                if (!CameraHelper.configCamera(camera, resCoreParameters)) {
+                    LogTools.e("CameraHelper.configCamera,Failed");
+                    resCoreParameters.dump();
+                    return false;
+                }
             }
             switch (resCoreParameters.filterMode) {
                 case RESCoreParameters.FILTER_MODE_SOFT:
@@ -88,6 +101,29 @@ public class RESVideoClient {
         }
     }
 
+    private RESCapabilityCache.CameraCaps probeCamera() {
+        RESCapabilityCache.CameraCaps caps = RESCapabilityCache.CameraCaps.of(camera.getParameters());
+        RESCapabilityCache.i().putCamera(currentCameraIndex, caps);
+        return caps;
+    }
+
+    private boolean selectCameraParameters(RESCapabilityCache.CameraCaps caps, RESConfig resConfig) {
+        CameraHelper.selectCameraPreviewWH(caps, resCoreParameters, resConfig.getTargetVideoSize());
+        CameraHelper.selectCameraFpsRange(caps, resCoreParameters);
+        if (resConfig.getVideoFPS() > resCoreParameters.previewMaxFps / 1000) {
+            resCoreParameters.videoFPS = resCoreParameters.previewMaxFps / 1000;
+        } else {
+            resCoreParameters.videoFPS = resConfig.getVideoFPS();
+        }
+        resoveResolution(resCoreParameters, resConfig.getTargetVideoSize());
+        if (!CameraHelper.selectCameraColorFormat(caps, resCoreParameters)) {
+            LogTools.e("CameraHelper.selectCameraColorFormat,Failed");
+            resCoreParameters.dump();
+            return false;
+        }
+        return true;
+    }
+
     private Camera createCamera(int cameraId) {
         try {
             camera = Camera.open(cameraId);
@@ -235,8 +271,10 @@ public class RESVideoClient {
                 return false;
             }
             videoCore.setCurrentCamera(currentCameraIndex);
-            CameraHelper.selectCameraFpsRange(camera.getParameters(), resCoreParameters);
+            RESCapabilityCache.CameraCaps caps = RESCapabilityCache.i().getCamera(currentCameraIndex);
+            CameraHelper.selectCameraFpsRange(caps != null ? caps : probeCamera(), resCoreParameters);
             if (!CameraHelper.configCamera(camera, resCoreParameters)) {
+                RESCapabilityCache.i().removeCamera(currentCameraIndex);
                 camera.release();
                 return false;
             }
@@ -294,6 +332,14 @@ public class RESVideoClient {
         }
     }
 
+    public void requestKeyFrame() {
+        synchronized (syncOp) {
+            if (videoCore != null) {
+                videoCore.requestKeyFrame();
+            }
+        }
+    }
+
     public int getVideoBitrate() {
         synchronized (syncOp) {
             if (videoCore != null) {
@@ -419,6 +465,24 @@ public class RESVideoClient {
         }
     }
 
+    public RESEncoderStats.Snapshot getEncoderStats() {
+        synchronized (syncOp) {
+            return videoCore == null ? null : videoCore.getEncoderStats();
+        }
+    }
+
+    public long getDroppedFrameCount() {
+        synchronized (syncOp) {
+            return videoCore instanceof RESSoftVideoCore ? ((RESSoftVideoCore) videoCore).getDroppedFrameCount() : 0;
+        }
+    }
+
+    public long getDuplicatedFrameCount() {
+        synchronized (syncOp) {
+            return videoCore instanceof RESSoftVideoCore ? ((RESSoftVideoCore) videoCore).getDuplicatedFrameCount() : 0;
+        }
+    }
+
     private void resoveResolution(RESCoreParameters resCoreParameters, Size targetVideoSize) {
         if (resCoreParameters.filterMode == RESCoreParameters.FILTER_MODE_SOFT) {
             if (resCoreParameters.isPortrait) {
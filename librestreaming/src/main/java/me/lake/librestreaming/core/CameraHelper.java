@@ -3,6 +3,7 @@ package me.lake.librestreaming.core;
 import android.graphics.ImageFormat;
 import android.hardware.Camera;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.LinkedList;
@@ -44,7 +45,11 @@ public class CameraHelper {
     }
 
     public static void selectCameraFpsRange(Camera.Parameters parameters, RESCoreParameters coreParameters) {
-        List<int[]> fpsRanges = parameters.getSupportedPreviewFpsRange();
+        selectCameraFpsRange(RESCapabilityCache.CameraCaps.of(parameters), coreParameters);
+    }
+
+    public static void selectCameraFpsRange(RESCapabilityCache.CameraCaps caps, RESCoreParameters coreParameters) {
+        List<int[]> fpsRanges = new ArrayList<>(caps.fpsRanges);
         Collections.sort(fpsRanges, new Comparator<int[]>() {
             @Override
             public int compare(int[] lhs, int[] rhs) {
@@ -64,29 +69,37 @@ public class CameraHelper {
     }
 
     public static void selectCameraPreviewWH(Camera.Parameters parameters, RESCoreParameters coreParameters, Size targetSize) {
-        List<Camera.Size> previewsSizes = parameters.getSupportedPreviewSizes();
-        Collections.sort(previewsSizes, new Comparator<Camera.Size>() {
+        selectCameraPreviewWH(RESCapabilityCache.CameraCaps.of(parameters), coreParameters, targetSize);
+    }
+
+    public static void selectCameraPreviewWH(RESCapabilityCache.CameraCaps caps, RESCoreParameters coreParameters, Size targetSize) {
+        List<Size> previewsSizes = new ArrayList<>(caps.previewSizes);
+        Collections.sort(previewsSizes, new Comparator<Size>() {
             @Override
-            public int compare(Camera.Size lhs, Camera.Size rhs) {
-                if ((lhs.width * lhs.height) > (rhs.width * rhs.height)) {
+            public int compare(Size lhs, Size rhs) {
+                if ((lhs.getWidth() * lhs.getHeight()) > (rhs.getWidth() * rhs.getHeight())) {
                     return 1;
                 } else {
                     return -1;
                 }
             }
         });
-        for (Camera.Size size : previewsSizes) {
-            if (size.width >= targetSize.getWidth() && size.height >= targetSize.getHeight()) {
-                coreParameters.previewVideoWidth = size.width;
-                coreParameters.previewVideoHeight = size.height;
+        for (Size size : previewsSizes) {
+            if (size.getWidth() >= targetSize.getWidth() && size.getHeight() >= targetSize.getHeight()) {
+                coreParameters.previewVideoWidth = size.getWidth();
+                coreParameters.previewVideoHeight = size.getHeight();
                 return;
             }
         }
     }
 
     public static boolean selectCameraColorFormat(Camera.Parameters parameters, RESCoreParameters coreParameters) {
+        return selectCameraColorFormat(RESCapabilityCache.CameraCaps.of(parameters), coreParameters);
+    }
+
+    public static boolean selectCameraColorFormat(RESCapabilityCache.CameraCaps caps, RESCoreParameters coreParameters) {
         List<Integer> srcColorTypes = new LinkedList<>();
-        List<Integer> supportedPreviewFormates = parameters.getSupportedPreviewFormats();
+        List<Integer> supportedPreviewFormates = caps.previewFormats;
         for (int colortype : supportedSrcVideoFrameColorType) {
             if (supportedPreviewFormates.contains(colortype)) {
                 srcColorTypes.add(colortype);
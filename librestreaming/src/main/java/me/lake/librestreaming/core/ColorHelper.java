@@ -1,5 +1,7 @@
 package me.lake.librestreaming.core;
 
+import java.nio.ByteBuffer;
+
 /**
  * Created by lake on 16-4-5.
  */
@@ -16,6 +18,19 @@ public class ColorHelper {
 
     static public native void FIXGLPIXEL(int[] src,int[] dst, int width,int height);
 
-    //slow
     static public native void NV21Transform(byte[] src, byte[] dst, int srcwidth,int srcheight,int directionFlag);
+
+    /**
+     * NV21Transform and conversion in one pass
+     *
+     * @param dstColorFormat ImageFormat.NV21,COLOR_FormatYUV420SemiPlanar or COLOR_FormatYUV420Planar
+     */
+    static public native void NV21TransformTo(byte[] src, byte[] dst, int srcwidth, int srcheight, int directionFlag, int dstColorFormat);
+
+    /**
+     * same as NV21TransformTo,writing from dst offset 0,such as a MediaCodec input buffer
+     *
+     * @return false if dst is not direct or too small,nothing written
+     */
+    static public native boolean NV21TransformToBuffer(byte[] src, ByteBuffer dst, int srcwidth, int srcheight, int directionFlag, int dstColorFormat);
 }
@@ -2,6 +2,7 @@ package me.lake.librestreaming.core;
 
 import android.media.MediaCodec;
 import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
 import android.media.MediaFormat;
 import android.os.Build;
 
@@ -14,23 +15,140 @@ import me.lake.librestreaming.tools.LogTools;
  * Created by lake on 16-3-16.
  */
 public class MediaCodecHelper {
+    /**
+     * MediaFormat.KEY_MAX_B_FRAMES,API 29
+     */
+    private static final String KEY_MAX_B_FRAMES = "max-bframes";
+    /**
+     * preferred first
+     */
+    private static final int[] AVC_PROFILES = {
+            MediaCodecInfo.CodecProfileLevel.AVCProfileHigh,
+            MediaCodecInfo.CodecProfileLevel.AVCProfileMain,
+            MediaCodecInfo.CodecProfileLevel.AVCProfileBaseline};
+    /**
+     * H.264 Table A-1:level,MaxMBPS(MB/s),MaxFS(MBs),MaxBR(1000 bits/s for Baseline/Main)
+     */
+    private static final int[][] AVC_LEVEL_LIMITS = {
+            {MediaCodecInfo.CodecProfileLevel.AVCLevel1, 1485, 99, 64},
+            {MediaCodecInfo.CodecProfileLevel.AVCLevel11, 3000, 396, 192},
+            {MediaCodecInfo.CodecProfileLevel.AVCLevel12, 6000, 396, 384},
+            {MediaCodecInfo.CodecProfileLevel.AVCLevel13, 11880, 396, 768},
+            {MediaCodecInfo.CodecProfileLevel.AVCLevel2, 11880, 396, 2000},
+            {MediaCodecInfo.CodecProfileLevel.AVCLevel21, 19800, 792, 4000},
+            {MediaCodecInfo.CodecProfileLevel.AVCLevel22, 20250, 1620, 4000},
+            {MediaCodecInfo.CodecProfileLevel.AVCLevel3, 40500, 1620, 10000},
+            {MediaCodecInfo.CodecProfileLevel.AVCLevel31, 108000, 3600, 14000},
+            {MediaCodecInfo.CodecProfileLevel.AVCLevel32, 216000, 5120, 20000},
+            {MediaCodecInfo.CodecProfileLevel.AVCLevel4, 245760, 8192, 20000},
+            {MediaCodecInfo.CodecProfileLevel.AVCLevel41, 245760, 8192, 50000},
+            {MediaCodecInfo.CodecProfileLevel.AVCLevel42, 522240, 8704, 50000},
+            {MediaCodecInfo.CodecProfileLevel.AVCLevel5, 589824, 22080, 135000},
+            {MediaCodecInfo.CodecProfileLevel.AVCLevel51, 983040, 36864, 240000},
+            {MediaCodecInfo.CodecProfileLevel.AVCLevel52, 2073600, 36864, 240000}};
+    /**
+     * H.265 Table A.8/A.9,Main tier:level,MaxLumaPs(samples),MaxLumaSr(samples/s),MaxBR(1000 bits/s for Main)
+     */
+    private static final long[][] HEVC_LEVEL_LIMITS = {
+            {MediaCodecInfo.CodecProfileLevel.HEVCMainTierLevel1, 36864, 552960, 128},
+            {MediaCodecInfo.CodecProfileLevel.HEVCMainTierLevel2, 122880, 3686400, 1500},
+            {MediaCodecInfo.CodecProfileLevel.HEVCMainTierLevel21, 245760, 7372800, 3000},
+            {MediaCodecInfo.CodecProfileLevel.HEVCMainTierLevel3, 552960, 16588800, 6000},
+            {MediaCodecInfo.CodecProfileLevel.HEVCMainTierLevel31, 983040, 33177600, 10000},
+            {MediaCodecInfo.CodecProfileLevel.HEVCMainTierLevel4, 2228224, 66846720, 12000},
+            {MediaCodecInfo.CodecProfileLevel.HEVCMainTierLevel41, 2228224, 133693440, 20000},
+            {MediaCodecInfo.CodecProfileLevel.HEVCMainTierLevel5, 8912896, 267386880, 25000},
+            {MediaCodecInfo.CodecProfileLevel.HEVCMainTierLevel51, 8912896, 534773760, 40000},
+            {MediaCodecInfo.CodecProfileLevel.HEVCMainTierLevel52, 8912896, 1069547520, 60000},
+            {MediaCodecInfo.CodecProfileLevel.HEVCMainTierLevel6, 35651584, 1069547520, 60000},
+            {MediaCodecInfo.CodecProfileLevel.HEVCMainTierLevel61, 35651584, 2139095040, 120000},
+            {MediaCodecInfo.CodecProfileLevel.HEVCMainTierLevel62, 35651584, 4278190080L, 240000}};
+
+    /**
+     * @return {@link RESCoreParameters#VIDEO_CODEC_HEVC} only if asked,muxer can send it and device has a hevc encoder
+     */
+    public static int selectVideoCodec(int videoCodec, int senderMuxer) {
+        if (videoCodec != RESCoreParameters.VIDEO_CODEC_HEVC) {
+            return RESCoreParameters.VIDEO_CODEC_AVC;
+        }
+        if (senderMuxer != RESCoreParameters.RTMP_MUXER_JAVA) {
+            LogTools.e("MediaCodecHelper,hevc needs java rtmp muxer,fall back to avc");
+            return RESCoreParameters.VIDEO_CODEC_AVC;
+        }
+        if (!getEncoderCaps(MediaFormat.MIMETYPE_VIDEO_HEVC).isPresent) {
+            LogTools.e("MediaCodecHelper,no hevc encoder,fall back to avc");
+            return RESCoreParameters.VIDEO_CODEC_AVC;
+        }
+        return RESCoreParameters.VIDEO_CODEC_HEVC;
+    }
+
+    public static String mimeOf(int videoCodec) {
+        return videoCodec == RESCoreParameters.VIDEO_CODEC_HEVC ? MediaFormat.MIMETYPE_VIDEO_HEVC : MediaFormat.MIMETYPE_VIDEO_AVC;
+    }
+
+    /**
+     * @return capabilities from {@link RESCapabilityCache},MediaCodecList is walked on a miss only
+     */
+    public static RESCapabilityCache.EncoderCaps getEncoderCaps(String mime) {
+        RESCapabilityCache.EncoderCaps caps = RESCapabilityCache.i().getEncoder(mime);
+        if (caps == null) {
+            caps = probeEncoder(mime);
+            RESCapabilityCache.i().putEncoder(mime, caps);
+        }
+        return caps;
+    }
+
+    private static RESCapabilityCache.EncoderCaps probeEncoder(String mime) {
+        for (MediaCodecInfo codecInfo : new MediaCodecList(MediaCodecList.REGULAR_CODECS).getCodecInfos()) {
+            if (!codecInfo.isEncoder()) {
+                continue;
+            }
+            for (String type : codecInfo.getSupportedTypes()) {
+                if (type.equalsIgnoreCase(mime)) {
+                    return RESCapabilityCache.EncoderCaps.of(codecInfo.getCapabilitiesForType(type));
+                }
+            }
+        }
+        return RESCapabilityCache.EncoderCaps.ABSENT;
+    }
+
+    /**
+     * capabilities of the encoder really created,cache is corrected if it differs
+     */
+    private static RESCapabilityCache.EncoderCaps verifyEncoderCaps(MediaCodec codec, String mime) {
+        RESCapabilityCache.EncoderCaps caps = RESCapabilityCache.EncoderCaps.of(codec.getCodecInfo().getCapabilitiesForType(mime));
+        if (RESCapabilityCache.i().putEncoder(mime, caps)) {
+            LogTools.d("MediaCodecHelper,encoder capabilities of " + mime + " updated");
+            RESCapabilityCache.i().save();
+        }
+        return caps;
+    }
+
+    /**
+     * CBR if encoder supports it,keeps bitrate steady for live streaming
+     */
+    private static void selectBitrateMode(RESCapabilityCache.EncoderCaps caps, MediaFormat videoFormat) {
+        int mode = MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_CBR;
+        if (!caps.isBitrateModeSupported(mode) && caps.isBitrateModeSupported(MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_VBR)) {
+            mode = MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_VBR;
+        }
+        videoFormat.setInteger(MediaFormat.KEY_BITRATE_MODE, mode);
+    }
+
     public static MediaCodec createSoftVideoMediaCodec(RESCoreParameters coreParameters, MediaFormat videoFormat) {
-        videoFormat.setString(MediaFormat.KEY_MIME, "video/avc");
+        videoFormat.setString(MediaFormat.KEY_MIME, mimeOf(coreParameters.videoCodec));
         videoFormat.setInteger(MediaFormat.KEY_WIDTH, coreParameters.videoWidth);
         videoFormat.setInteger(MediaFormat.KEY_HEIGHT, coreParameters.videoHeight);
         videoFormat.setInteger(MediaFormat.KEY_BIT_RATE, coreParameters.mediacdoecAVCBitRate);
         videoFormat.setInteger(MediaFormat.KEY_FRAME_RATE, coreParameters.mediacodecAVCFrameRate);
         videoFormat.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, coreParameters.mediacodecAVCIFrameInterval);
-        videoFormat.setInteger(MediaFormat.KEY_PROFILE, MediaCodecInfo.CodecProfileLevel.AVCProfileBaseline);
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-            videoFormat.setInteger(MediaFormat.KEY_LEVEL, MediaCodecInfo.CodecProfileLevel.AVCLevel31);
-        }
-        videoFormat.setInteger(MediaFormat.KEY_BITRATE_MODE, MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_CBR);
         MediaCodec result;
         try {
             result = MediaCodec.createEncoderByType(videoFormat.getString(MediaFormat.KEY_MIME));
+            RESCapabilityCache.EncoderCaps caps = verifyEncoderCaps(result, videoFormat.getString(MediaFormat.KEY_MIME));
+            selectBitrateMode(caps, videoFormat);
             //select color
-            int[] colorful = result.getCodecInfo().getCapabilitiesForType(videoFormat.getString(MediaFormat.KEY_MIME)).colorFormats;
+            int[] colorful = caps.colorFormats;
             int dstVideoColorFormat = -1;
             //select mediacodec colorformat
             if (isArrayContain(colorful, MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar)) {
@@ -46,20 +164,7 @@ public class MediaCodecHelper {
                 return null;
             }
             videoFormat.setInteger(MediaFormat.KEY_COLOR_FORMAT, dstVideoColorFormat);
-            //selectprofile
-//            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-//                MediaCodecInfo.CodecProfileLevel[] profileLevels = result.getCodecInfo().getCapabilitiesForType(videoFormat.getString(MediaFormat.KEY_MIME)).profileLevels;
-//                if (isProfileContain(profileLevels, MediaCodecInfo.CodecProfileLevel.AVCProfileMain)) {
-//                    coreParameters.mediacodecAVCProfile = MediaCodecInfo.CodecProfileLevel.AVCProfileMain;
-//                    coreParameters.mediacodecAVClevel = MediaCodecInfo.CodecProfileLevel.AVCLevel31;
-//                } else {
-//                    coreParameters.mediacodecAVCProfile = MediaCodecInfo.CodecProfileLevel.AVCProfileBaseline;
-//                    coreParameters.mediacodecAVClevel = MediaCodecInfo.CodecProfileLevel.AVCLevel31;
-//                }
-//                videoFormat.setInteger(MediaFormat.KEY_PROFILE, coreParameters.mediacodecAVCProfile);
-//                //level must be set even below M
-//                videoFormat.setInteger(MediaFormat.KEY_LEVEL, coreParameters.mediacodecAVClevel);
-//            }
+            selectProfile(coreParameters, caps, videoFormat);
         } catch (IOException e) {
             LogTools.trace(e);
             return null;
@@ -87,35 +192,19 @@ public class MediaCodecHelper {
     }
 
     public static MediaCodec createHardVideoMediaCodec(RESCoreParameters coreParameters, MediaFormat videoFormat) {
-        videoFormat.setString(MediaFormat.KEY_MIME, "video/avc");
+        videoFormat.setString(MediaFormat.KEY_MIME, mimeOf(coreParameters.videoCodec));
         videoFormat.setInteger(MediaFormat.KEY_WIDTH, coreParameters.videoWidth);
         videoFormat.setInteger(MediaFormat.KEY_HEIGHT, coreParameters.videoHeight);
         videoFormat.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
         videoFormat.setInteger(MediaFormat.KEY_BIT_RATE, coreParameters.mediacdoecAVCBitRate);
         videoFormat.setInteger(MediaFormat.KEY_FRAME_RATE, coreParameters.mediacodecAVCFrameRate);
         videoFormat.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, coreParameters.mediacodecAVCIFrameInterval);
-        videoFormat.setInteger(MediaFormat.KEY_PROFILE, MediaCodecInfo.CodecProfileLevel.AVCProfileBaseline);
-        if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-            videoFormat.setInteger(MediaFormat.KEY_LEVEL, MediaCodecInfo.CodecProfileLevel.AVCLevel31);
-        }
-        videoFormat.setInteger(MediaFormat.KEY_BITRATE_MODE, MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_CBR);
         MediaCodec result;
         try {
             result = MediaCodec.createEncoderByType(videoFormat.getString(MediaFormat.KEY_MIME));
-            //selectprofile
-//            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-//                MediaCodecInfo.CodecProfileLevel[] profileLevels = result.getCodecInfo().getCapabilitiesForType(videoFormat.getString(MediaFormat.KEY_MIME)).profileLevels;
-//                if (isProfileContain(profileLevels, MediaCodecInfo.CodecProfileLevel.AVCProfileMain)) {
-//                    coreParameters.mediacodecAVCProfile = MediaCodecInfo.CodecProfileLevel.AVCProfileMain;
-//                    coreParameters.mediacodecAVClevel = MediaCodecInfo.CodecProfileLevel.AVCLevel31;
-//                } else {
-//                    coreParameters.mediacodecAVCProfile = MediaCodecInfo.CodecProfileLevel.AVCProfileBaseline;
-//                    coreParameters.mediacodecAVClevel = MediaCodecInfo.CodecProfileLevel.AVCLevel31;
-//                }
-//                videoFormat.setInteger(MediaFormat.KEY_PROFILE, coreParameters.mediacodecAVCProfile);
-//                //level must be set even below M
-//                videoFormat.setInteger(MediaFormat.KEY_LEVEL, coreParameters.mediacodecAVClevel);
-//            }
+            RESCapabilityCache.EncoderCaps caps = verifyEncoderCaps(result, videoFormat.getString(MediaFormat.KEY_MIME));
+            selectBitrateMode(caps, videoFormat);
+            selectProfile(coreParameters, caps, videoFormat);
         } catch (IOException e) {
             LogTools.trace(e);
             return null;
@@ -132,12 +221,108 @@ public class MediaCodecHelper {
         return false;
     }
 
-    private static boolean isProfileContain(MediaCodecInfo.CodecProfileLevel[] src, int target) {
-        for (MediaCodecInfo.CodecProfileLevel color : src) {
-            if (color.profile == target) {
-                return true;
+    /**
+     * pick the best profile not above coreParameters.mediacodecAVCProfile which encoder supports,
+     * with the lowest level size/fps/bitrate fit in,at most the highest one encoder supports for it.
+     * hevc always uses Main.<br/>
+     * chosen profile/level are written back to coreParameters,
+     * mediacodecAVCMaxBFrames is set to 0 if B-frames can not be asked for.
+     */
+    private static void selectProfile(RESCoreParameters coreParameters, RESCapabilityCache.EncoderCaps caps, MediaFormat videoFormat) {
+        if (coreParameters.videoCodec == RESCoreParameters.VIDEO_CODEC_HEVC) {
+            int level = caps.maxLevelOf(MediaCodecInfo.CodecProfileLevel.HEVCProfileMain);
+            if (level > 0) {
+                level = Math.min(level, hevcLevelOf(coreParameters.videoWidth, coreParameters.videoHeight,
+                        coreParameters.mediacodecAVCFrameRate, coreParameters.mediacdoecAVCBitRate));
+                coreParameters.mediacodecAVCProfile = MediaCodecInfo.CodecProfileLevel.HEVCProfileMain;
+                coreParameters.mediacodecAVClevel = level;
+                videoFormat.setInteger(MediaFormat.KEY_PROFILE, MediaCodecInfo.CodecProfileLevel.HEVCProfileMain);
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                    videoFormat.setInteger(MediaFormat.KEY_LEVEL, level);
+                }
             }
+            setMaxBFrames(coreParameters, videoFormat, Build.VERSION.SDK_INT >= 29);
+            LogTools.d("MediaCodecHelper,hevc level=" + level + ",maxBFrames=" + coreParameters.mediacodecAVCMaxBFrames);
+            return;
+        }
+        int wanted = coreParameters.mediacodecAVCProfile;
+        if (wanted != MediaCodecInfo.CodecProfileLevel.AVCProfileHigh
+                && wanted != MediaCodecInfo.CodecProfileLevel.AVCProfileMain) {
+            wanted = MediaCodecInfo.CodecProfileLevel.AVCProfileBaseline;
+        }
+        int profile = MediaCodecInfo.CodecProfileLevel.AVCProfileBaseline;
+        int level = MediaCodecInfo.CodecProfileLevel.AVCLevel31;
+        boolean isWantedReached = false;
+        for (int candidate : AVC_PROFILES) {
+            isWantedReached |= candidate == wanted;
+            int maxLevel = caps.maxLevelOf(candidate);
+            if (isWantedReached && maxLevel > 0) {
+                profile = candidate;
+                level = Math.min(maxLevel, avcLevelOf(candidate, coreParameters.videoWidth, coreParameters.videoHeight,
+                        coreParameters.mediacodecAVCFrameRate, coreParameters.mediacdoecAVCBitRate));
+                break;
+            }
+        }
+        coreParameters.mediacodecAVCProfile = profile;
+        coreParameters.mediacodecAVClevel = level;
+        videoFormat.setInteger(MediaFormat.KEY_PROFILE, profile);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            videoFormat.setInteger(MediaFormat.KEY_LEVEL, level);
+        }
+        setMaxBFrames(coreParameters, videoFormat,
+                profile != MediaCodecInfo.CodecProfileLevel.AVCProfileBaseline && Build.VERSION.SDK_INT >= 29);
+        LogTools.d("MediaCodecHelper,avc profile=" + profile + ",level=" + level + ",maxBFrames=" + coreParameters.mediacodecAVCMaxBFrames);
+    }
+
+    /**
+     * H.264 A.3.1,levels are bit flags growing with the level,so they compare as numbers
+     *
+     * @param bitRate bits/s
+     * @return lowest level whose Table A-1 limits hold,AVCLevel52 if none
+     */
+    static int avcLevelOf(int profile, int width, int height, int frameRate, int bitRate) {
+        long frameMbs = (long) ((width + 15) / 16) * ((height + 15) / 16);
+        long mbps = frameMbs * Math.max(1, frameRate);
+        //cpbBrVclFactor,Table A-2
+        int brFactor = profile == MediaCodecInfo.CodecProfileLevel.AVCProfileHigh ? 1250 : 1000;
+        for (int[] limits : AVC_LEVEL_LIMITS) {
+            //frame width and height in MBs are at most sqrt(8*MaxFS)
+            long maxSideMbs = (long) Math.sqrt(8.0 * limits[2]);
+            if (mbps <= limits[1] && frameMbs <= limits[2]
+                    && (width + 15) / 16 <= maxSideMbs && (height + 15) / 16 <= maxSideMbs
+                    && (long) bitRate <= (long) limits[3] * brFactor) {
+                return limits[0];
+            }
+        }
+        return AVC_LEVEL_LIMITS[AVC_LEVEL_LIMITS.length - 1][0];
+    }
+
+    /**
+     * H.265 A.4.1,Main tier of Main profile
+     *
+     * @param bitRate bits/s
+     * @return lowest level whose Table A.8/A.9 limits hold,HEVCMainTierLevel62 if none
+     */
+    static int hevcLevelOf(int width, int height, int frameRate, int bitRate) {
+        long lumaPs = (long) width * height;
+        long lumaSr = lumaPs * Math.max(1, frameRate);
+        for (long[] limits : HEVC_LEVEL_LIMITS) {
+            //pic_width and pic_height are at most sqrt(8*MaxLumaPs)
+            long maxSide = (long) Math.sqrt(8.0 * limits[1]);
+            if (lumaPs <= limits[1] && width <= maxSide && height <= maxSide
+                    && lumaSr <= limits[2] && bitRate <= limits[3] * 1000) {
+                return (int) limits[0];
+            }
+        }
+        return (int) HEVC_LEVEL_LIMITS[HEVC_LEVEL_LIMITS.length - 1][0];
+    }
+
+    private static void setMaxBFrames(RESCoreParameters coreParameters, MediaFormat videoFormat, boolean isSupported) {
+        if (!isSupported) {
+            coreParameters.mediacodecAVCMaxBFrames = 0;
+        }
+        if (coreParameters.mediacodecAVCMaxBFrames > 0) {
+            videoFormat.setInteger(KEY_MAX_B_FRAMES, coreParameters.mediacodecAVCMaxBFrames);
         }
-        return false;
     }
-}
\ No newline at end of file
+}
@@ -5,6 +5,7 @@ import android.media.MediaFormat;
 import java.nio.ByteBuffer;
 
 import me.lake.librestreaming.tools.ByteArrayTools;
+import me.lake.librestreaming.tools.LogTools;
 
 /**
  * Created by lake on 16-3-30.
@@ -12,11 +13,26 @@ import me.lake.librestreaming.tools.ByteArrayTools;
 public class Packager {
     public static class H264Packager {
 
+        public static final int NALU_TYPE_SLICE = 1;
+        public static final int NALU_TYPE_IDR = 5;
+        public static final int NALU_TYPE_SEI = 6;
+        public static final int NALU_TYPE_SPS = 7;
+        public static final int NALU_TYPE_PPS = 8;
+        public static final int NALU_TYPE_AUD = 9;
+
         public static byte[] generateAVCDecoderConfigurationRecord(MediaFormat mediaFormat) {
             ByteBuffer SPSByteBuff = mediaFormat.getByteBuffer("csd-0");
             SPSByteBuff.position(4);
             ByteBuffer PPSByteBuff = mediaFormat.getByteBuffer("csd-1");
             PPSByteBuff.position(4);
+            return generateAVCDecoderConfigurationRecord(SPSByteBuff, PPSByteBuff);
+        }
+
+        /**
+         * @param SPSByteBuff sps nalu without start code,from position to limit
+         * @param PPSByteBuff pps nalu without start code,from position to limit
+         */
+        public static byte[] generateAVCDecoderConfigurationRecord(ByteBuffer SPSByteBuff, ByteBuffer PPSByteBuff) {
             int spslength = SPSByteBuff.remaining();
             int ppslength = PPSByteBuff.remaining();
             int length = 11 + spslength + ppslength;
@@ -51,6 +67,239 @@ public class Packager {
 
             return result;
         }
+
+        /**
+         * find next Annex-B start code(00 00 01) in data[from,to)
+         *
+         * @return index of the first 00,-1 if not found.
+         * a 4 bytes start code is found as its last 3 bytes,callers strip trailing zeros of previous nalu.
+         */
+        public static int findStartCode(ByteBuffer data, int from, int to) {
+            int i = from;
+            while (i + 2 < to) {
+                byte b2 = data.get(i + 2);
+                if (b2 != 0 && b2 != 1) {
+                    //no start code can begin at i,i+1 or i+2
+                    i += 3;
+                } else if (b2 == 1 && data.get(i) == 0 && data.get(i + 1) == 0) {
+                    return i;
+                } else {
+                    ++i;
+                }
+            }
+            return -1;
+        }
+
+        public static int getNaluType(ByteBuffer data, int naluStart) {
+            return data.get(naluStart) & 0x1F;
+        }
+    }
+
+    public static class H265Packager {
+        public static final int NALU_TYPE_IRAP_FIRST = 16;
+        public static final int NALU_TYPE_IRAP_LAST = 23;
+        public static final int NALU_TYPE_VPS = 32;
+        public static final int NALU_TYPE_SPS = 33;
+        public static final int NALU_TYPE_PPS = 34;
+        public static final int NALU_TYPE_AUD = 35;
+        /**
+         * types below it are slices
+         */
+        public static final int NALU_TYPE_VCL_END = 32;
+        private static final int HVCC_HEADER_LENGTH = 23;
+
+        public static int getNaluType(ByteBuffer data, int naluStart) {
+            return (data.get(naluStart) >> 1) & 0x3F;
+        }
+
+        public static boolean isKeyFrame(int naluType) {
+            return naluType >= NALU_TYPE_IRAP_FIRST && naluType <= NALU_TYPE_IRAP_LAST;
+        }
+
+        /**
+         * HEVCDecoderConfigurationRecord(ISO/IEC 14496-15 8.3.3.1.2) with one vps,sps and pps,
+         * profile/level/chroma/bit depth are read from sps.
+         * parameter sets are not repeated in frames,so every array is marked complete.
+         *
+         * @param VPSByteBuff vps nalu without start code,from position to limit
+         * @param SPSByteBuff sps nalu without start code,from position to limit
+         * @param PPSByteBuff pps nalu without start code,from position to limit
+         * @return null if sps can not be parsed
+         */
+        public static byte[] generateHEVCDecoderConfigurationRecord(ByteBuffer VPSByteBuff, ByteBuffer SPSByteBuff, ByteBuffer PPSByteBuff) {
+            SpsInfo sps = parseSps(SPSByteBuff);
+            if (sps == null) {
+                return null;
+            }
+            ByteBuffer[] nalus = {VPSByteBuff, SPSByteBuff, PPSByteBuff};
+            int length = HVCC_HEADER_LENGTH;
+            for (ByteBuffer nalu : nalus) {
+                length += 5 + nalu.remaining();
+            }
+            byte[] result = new byte[length];
+            //configurationVersion
+            result[0] = 0x01;
+            //general_profile_space,general_tier_flag,general_profile_idc,compatibility flags,constraint flags,general_level_idc
+            System.arraycopy(sps.generalProfile, 0, result, 1, sps.generalProfile.length);
+            //reserved 1111,min_spatial_segmentation_idc 0
+            result[13] = (byte) 0xF0;
+            result[14] = 0x00;
+            //reserved 111111,parallelismType 0
+            result[15] = (byte) 0xFC;
+            result[16] = (byte) (0xFC | sps.chromaFormatIdc);
+            result[17] = (byte) (0xF8 | sps.bitDepthLumaMinus8);
+            result[18] = (byte) (0xF8 | sps.bitDepthChromaMinus8);
+            //avgFrameRate 0
+            result[19] = 0x00;
+            result[20] = 0x00;
+            //constantFrameRate 0,numTemporalLayers,temporalIdNested,lengthSizeMinusOne 3
+            result[21] = (byte) ((sps.maxSubLayers << 3) | (sps.temporalIdNesting << 2) | 0x03);
+            //numOfArrays
+            result[22] = (byte) nalus.length;
+            int pos = HVCC_HEADER_LENGTH;
+            for (ByteBuffer nalu : nalus) {
+                int naluLength = nalu.remaining();
+                //array_completeness 1,reserved 0,NAL_unit_type
+                result[pos] = (byte) (0x80 | getNaluType(nalu, nalu.position()));
+                ByteArrayTools.intToByteArrayTwoByte(result, pos + 1, 1);
+                ByteArrayTools.intToByteArrayTwoByte(result, pos + 3, naluLength);
+                nalu.duplicate().get(result, pos + 5, naluLength);
+                pos += 5 + naluLength;
+            }
+            return result;
+        }
+
+        static class SpsInfo {
+            /**
+             * general_profile_tier_level bytes,12
+             */
+            byte[] generalProfile;
+            int maxSubLayers;
+            int temporalIdNesting;
+            int chromaFormatIdc;
+            int bitDepthLumaMinus8;
+            int bitDepthChromaMinus8;
+        }
+
+        /**
+         * H.265 7.3.2.2,only up to bit_depth_chroma_minus8
+         */
+        static SpsInfo parseSps(ByteBuffer sps) {
+            BitReader reader = new BitReader(unescape(sps));
+            try {
+                SpsInfo info = new SpsInfo();
+                //nal_unit_header
+                reader.skip(16);
+                //sps_video_parameter_set_id
+                reader.skip(4);
+                int maxSubLayersMinus1 = reader.read(3);
+                info.maxSubLayers = maxSubLayersMinus1 + 1;
+                info.temporalIdNesting = reader.read(1);
+                info.generalProfile = new byte[12];
+                for (int i = 0; i < info.generalProfile.length; i++) {
+                    info.generalProfile[i] = (byte) reader.read(8);
+                }
+                boolean[] subLayerProfilePresent = new boolean[maxSubLayersMinus1];
+                boolean[] subLayerLevelPresent = new boolean[maxSubLayersMinus1];
+                for (int i = 0; i < maxSubLayersMinus1; i++) {
+                    subLayerProfilePresent[i] = reader.read(1) == 1;
+                    subLayerLevelPresent[i] = reader.read(1) == 1;
+                }
+                if (maxSubLayersMinus1 > 0) {
+                    reader.skip(2 * (8 - maxSubLayersMinus1));
+                }
+                for (int i = 0; i < maxSubLayersMinus1; i++) {
+                    reader.skip((subLayerProfilePresent[i] ? 88 : 0) + (subLayerLevelPresent[i] ? 8 : 0));
+                }
+                //sps_seq_parameter_set_id
+                reader.readUe();
+                info.chromaFormatIdc = reader.readUe();
+                if (info.chromaFormatIdc == 3) {
+                    //separate_colour_plane_flag
+                    reader.skip(1);
+                }
+                //pic_width_in_luma_samples,pic_height_in_luma_samples
+                reader.readUe();
+                reader.readUe();
+                if (reader.read(1) == 1) {
+                    //conf_win offsets
+                    for (int i = 0; i < 4; i++) {
+                        reader.readUe();
+                    }
+                }
+                info.bitDepthLumaMinus8 = reader.readUe();
+                info.bitDepthChromaMinus8 = reader.readUe();
+                if (info.chromaFormatIdc > 3 || info.bitDepthLumaMinus8 > 7 || info.bitDepthChromaMinus8 > 7) {
+                    return null;
+                }
+                return info;
+            } catch (IndexOutOfBoundsException e) {
+                LogTools.e("H265Packager,sps too short");
+                return null;
+            }
+        }
+
+        /**
+         * @return nalu from position to limit,emulation prevention bytes removed
+         */
+        static byte[] unescape(ByteBuffer nalu) {
+            byte[] result = new byte[nalu.remaining()];
+            int length = 0;
+            int zeros = 0;
+            for (int i = nalu.position(); i < nalu.limit(); i++) {
+                byte b = nalu.get(i);
+                if (zeros >= 2 && b == 0x03) {
+                    zeros = 0;
+                    continue;
+                }
+                zeros = b == 0 ? zeros + 1 : 0;
+                result[length++] = b;
+            }
+            byte[] trimmed = new byte[length];
+            System.arraycopy(result, 0, trimmed, 0, length);
+            return trimmed;
+        }
+
+        static class BitReader {
+            private final byte[] data;
+            private int bitPos;
+
+            BitReader(byte[] data) {
+                this.data = data;
+            }
+
+            int read(int bits) {
+                int value = 0;
+                for (int i = 0; i < bits; i++) {
+                    if ((bitPos >> 3) >= data.length) {
+                        throw new IndexOutOfBoundsException("bit " + bitPos);
+                    }
+                    value = (value << 1) | ((data[bitPos >> 3] >> (7 - (bitPos & 7))) & 1);
+                    bitPos++;
+                }
+                return value;
+            }
+
+            void skip(int bits) {
+                if ((bitPos + bits + 7) >> 3 > data.length) {
+                    throw new IndexOutOfBoundsException("bit " + (bitPos + bits));
+                }
+                bitPos += bits;
+            }
+
+            /**
+             * exp-golomb
+             */
+            int readUe() {
+                int zeros = 0;
+                while (read(1) == 0) {
+                    if (++zeros > 31) {
+                        throw new IndexOutOfBoundsException("bad exp-golomb");
+                    }
+                }
+                return (int) ((1L << zeros) - 1 + read(zeros));
+            }
+        }
     }
 
     public static class FLVPackager {
@@ -59,22 +308,64 @@ public class Packager {
         public static final int FLV_AUDIO_TAG_LENGTH = 2;
         public static final int FLV_TAG_FOOTER_LENGTH = 4;
         public static final int NALU_HEADER_LENGTH = 4;
+        /**
+         * Enhanced RTMP ExVideoTagHeader:IsExHeader|FrameType|PacketType,FourCC,[SI24 CompositionTime]
+         */
+        public static final int FLV_EX_VIDEO_TAG_LENGTH = 5;
+        public static final int FLV_EX_VIDEO_TAG_MAX_LENGTH = 8;
+        public static final int FOURCC_HVC1 = ('h' << 24) | ('v' << 16) | ('c' << 8) | '1';
+        public static final int EX_PACKET_TYPE_SEQUENCE_START = 0;
+        public static final int EX_PACKET_TYPE_CODED_FRAMES = 1;
+        public static final int EX_PACKET_TYPE_CODED_FRAMES_X = 3;
 
-        public static void fillFlvVideoTag(byte[] dst, int pos, boolean isAVCSequenceHeader, boolean isIDR, int readDataLength) {
+        /**
+         * @param compositionTime pts-dts in ms,signed 24bit
+         */
+        public static void fillFlvVideoTag(byte[] dst, int pos, boolean isAVCSequenceHeader, boolean isIDR, int compositionTime, int readDataLength) {
             //FrameType&CodecID
             dst[pos] = isIDR ? (byte) 0x17 : (byte) 0x27;
             //AVCPacketType
             dst[pos + 1] = isAVCSequenceHeader ? (byte) 0x00 : (byte) 0x01;
-            //LAKETODO CompositionTime
-            dst[pos + 2] = 0x00;
-            dst[pos + 3] = 0x00;
-            dst[pos + 4] = 0x00;
+            //CompositionTime,SI24
+            compositionTime = isAVCSequenceHeader ? 0 : clampCompositionTime(compositionTime);
+            dst[pos + 2] = (byte) (compositionTime >> 16);
+            dst[pos + 3] = (byte) (compositionTime >> 8);
+            dst[pos + 4] = (byte) compositionTime;
             if (!isAVCSequenceHeader) {
                 //NALU HEADER
                 ByteArrayTools.intToByteArrayFull(dst, pos + 5, readDataLength);
             }
         }
 
+        /**
+         * Enhanced RTMP video tag header,CodedFramesX is used for frames whose compositionTime is 0
+         *
+         * @param compositionTime pts-dts in ms,signed 24bit
+         * @return header length,{@link #FLV_EX_VIDEO_TAG_LENGTH} or {@link #FLV_EX_VIDEO_TAG_MAX_LENGTH}
+         */
+        public static int fillFlvExVideoTag(byte[] dst, int pos, int fourCC, boolean isSequenceHeader, boolean isKeyFrame, int compositionTime) {
+            compositionTime = isSequenceHeader ? 0 : clampCompositionTime(compositionTime);
+            int packetType = isSequenceHeader ? EX_PACKET_TYPE_SEQUENCE_START :
+                    (compositionTime == 0 ? EX_PACKET_TYPE_CODED_FRAMES_X : EX_PACKET_TYPE_CODED_FRAMES);
+            //IsExHeader 1,FrameType 1=key 2=inter
+            dst[pos] = (byte) (0x80 | (isKeyFrame ? 0x10 : 0x20) | packetType);
+            ByteArrayTools.intToByteArrayFull(dst, pos + 1, fourCC);
+            if (packetType != EX_PACKET_TYPE_CODED_FRAMES) {
+                return FLV_EX_VIDEO_TAG_LENGTH;
+            }
+            dst[pos + 5] = (byte) (compositionTime >> 16);
+            dst[pos + 6] = (byte) (compositionTime >> 8);
+            dst[pos + 7] = (byte) compositionTime;
+            return FLV_EX_VIDEO_TAG_MAX_LENGTH;
+        }
+
+        /**
+         * @return compositionTime limited to SI24 range
+         */
+        public static int clampCompositionTime(int compositionTime) {
+            return Math.max(-0x800000, Math.min(0x7FFFFF, compositionTime));
+        }
+
         public static void fillFlvAudioTag(byte[] dst, int pos, boolean isAACSequenceHeader) {
             /**
              * UB[4] 10=AAC
@@ -0,0 +1,123 @@
+package me.lake.librestreaming.core;
+
+import me.lake.librestreaming.model.RESAudioBuff;
+import me.lake.librestreaming.tools.LogTools;
+
+/**
+ * PCM slots filled by one producer and consumed by one consumer in order.<br/>
+ * a slot belongs to producer from {@link #dequeueFillBuff()} to {@link #queueFillBuff(RESAudioBuff, int)},
+ * then to consumer until {@link #releaseBuff(RESAudioBuff)},so nothing is read while it is refilled.
+ */
+class RESAudioBuffRing {
+    private final Object syncBuffs = new Object();
+    private final long fillWaitMs;
+    private final OnBuffQueuedListener onBuffQueuedListener;
+    private RESAudioBuff[] buffs;
+    private int lastFillBuffIndex;
+    private boolean isStarting = false;
+    private long overrunCount = 0;
+
+    /**
+     * @param fillWaitMs how long producer waits for consumer to give back the next slot
+     */
+    RESAudioBuffRing(long fillWaitMs, OnBuffQueuedListener onBuffQueuedListener) {
+        this.fillWaitMs = fillWaitMs;
+        this.onBuffQueuedListener = onBuffQueuedListener;
+    }
+
+    /**
+     * reuse slots if queueNum and size do not change,every slot is free afterwards
+     */
+    void start(int queueNum, int size, int audioFormat) {
+        synchronized (syncBuffs) {
+            if (buffs == null || buffs.length != queueNum || buffs[0].buff.length != size) {
+                buffs = new RESAudioBuff[queueNum];
+                for (int i = 0; i < queueNum; i++) {
+                    buffs[i] = new RESAudioBuff(audioFormat, size);
+                }
+            }
+            for (RESAudioBuff buff : buffs) {
+                buff.isReadyToFill = true;
+            }
+            lastFillBuffIndex = 0;
+            overrunCount = 0;
+            isStarting = true;
+        }
+    }
+
+    /**
+     * wake a waiting producer,slots queued afterwards are released at once
+     */
+    void stop() {
+        synchronized (syncBuffs) {
+            isStarting = false;
+            syncBuffs.notifyAll();
+        }
+    }
+
+    /**
+     * @return slot to fill,null if not started or next slot is still in use(overrun)
+     */
+    RESAudioBuff dequeueFillBuff() {
+        synchronized (syncBuffs) {
+            if (!isStarting || buffs == null) {
+                return null;
+            }
+            RESAudioBuff fillBuff = buffs[(lastFillBuffIndex + 1) % buffs.length];
+            if (!fillBuff.isReadyToFill) {
+                try {
+                    syncBuffs.wait(fillWaitMs);
+                } catch (InterruptedException ignored) {
+                }
+            }
+            if (!isStarting || !fillBuff.isReadyToFill) {
+                ++overrunCount;
+                LogTools.d("dequeueFillBuff,overrun,count=" + overrunCount);
+                return null;
+            }
+            fillBuff.isReadyToFill = false;
+            return fillBuff;
+        }
+    }
+
+    /**
+     * hand fillBuff to consumer through {@link OnBuffQueuedListener},in the order slots were filled
+     *
+     * @return true if fillBuff now belongs to consumer,false if it was released because ring is stopped
+     */
+    boolean queueFillBuff(RESAudioBuff fillBuff, int size) {
+        synchronized (syncBuffs) {
+            fillBuff.size = size;
+            if (!isStarting) {
+                releaseBuff(fillBuff);
+                return false;
+            }
+            lastFillBuffIndex = (lastFillBuffIndex + 1) % buffs.length;
+            onBuffQueuedListener.onBuffQueued(fillBuff);
+            return true;
+        }
+    }
+
+    /**
+     * consumer is done with it,or producer gives it back unfilled
+     */
+    void releaseBuff(RESAudioBuff buff) {
+        synchronized (syncBuffs) {
+            buff.isReadyToFill = true;
+            syncBuffs.notifyAll();
+        }
+    }
+
+    long getOverrunCount() {
+        synchronized (syncBuffs) {
+            return overrunCount;
+        }
+    }
+
+    interface OnBuffQueuedListener {
+        /**
+         * called on producer thread with ring locked,so {@link #stop()} can not run in between
+         */
+        void onBuffQueued(RESAudioBuff buff);
+    }
+}
@@ -0,0 +1,68 @@
+package me.lake.librestreaming.core;
+
+/**
+ * Derives audio pts from the number of pcm samples read,instead of the time reads return.<br/>
+ * pts=anchorUs+samples*1000000/sampleRate,so delivery jitter does not reach the stream.<br/>
+ * anchorUs follows the monotonic clock slowly:
+ * read latency can only delay a read,so the smallest (readTime-expectedTime) over WINDOW_US
+ * is the error of anchorUs,it is corrected by at most MAX_SLEW_US per window,
+ * or at once when it is over RESYNC_US(device clock broken,or samples lost).
+ */
+public class RESAudioTimestamper {
+    static final long WINDOW_US = 2000000;
+    static final long MAX_SLEW_US = 1000;
+    static final long RESYNC_US = 100000;
+    private final int sampleRate;
+    private boolean isStarted = false;
+    private long anchorUs;
+    private long sampleCount;
+    private long lastPtsUs;
+    private long windowStartUs;
+    private long windowMinOffsetUs;
+
+    public RESAudioTimestamper(int sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * @param samples samples per channel just read
+     * @param readDoneUs monotonic time the read returned
+     * @return pts of the first sample read
+     */
+    public long onSamplesRead(int samples, long readDoneUs) {
+        if (!isStarted) {
+            isStarted = true;
+            anchorUs = readDoneUs - samplesToUs(samples);
+            sampleCount = 0;
+            lastPtsUs = Long.MIN_VALUE;
+            windowStartUs = readDoneUs;
+            windowMinOffsetUs = Long.MAX_VALUE;
+        }
+        long ptsUs = anchorUs + samplesToUs(sampleCount);
+        if (ptsUs <= lastPtsUs) {
+            ptsUs = lastPtsUs + 1;
+        }
+        lastPtsUs = ptsUs;
+        sampleCount += samples;
+        long offsetUs = readDoneUs - (anchorUs + samplesToUs(sampleCount));
+        windowMinOffsetUs = Math.min(windowMinOffsetUs, offsetUs);
+        if (readDoneUs - windowStartUs >= WINDOW_US) {
+            if (Math.abs(windowMinOffsetUs) >= RESYNC_US) {
+                anchorUs += windowMinOffsetUs;
+            } else {
+                anchorUs += Math.max(-MAX_SLEW_US, Math.min(MAX_SLEW_US, windowMinOffsetUs));
+            }
+            windowStartUs = readDoneUs;
+            windowMinOffsetUs = Long.MAX_VALUE;
+        }
+        return ptsUs;
+    }
+
+    public void reset() {
+        isStarted = false;
+    }
+
+    private long samplesToUs(long samples) {
+        return samples * 1000000 / sampleRate;
+    }
+}
@@ -0,0 +1,116 @@
+package me.lake.librestreaming.core;
+
+/**
+ * AIMD bitrate decision from send queue occupancy and measured video throughput.<br/>
+ * pure java,no android dependency,feed it one sample per tick and apply what it returns.<br/>
+ * <ul>
+ * <li>queue filling up:cut bitrate to the lower of current*DECREASE_FACTOR and measured throughput,
+ * then wait DECREASE_COOLDOWN_MS before cutting again so the queue has time to drain</li>
+ * <li>queue nearly empty for INCREASE_STABLE_TICKS ticks in a row:add INCREASE_STEP_RATIO*max</li>
+ * <li>anything between:hold</li>
+ * </ul>
+ */
+public class RESBitrateAlgorithm {
+    public static final int STATE_HOLD = 0;
+    public static final int STATE_INCREASE = 1;
+    public static final int STATE_DECREASE = 2;
+
+    static final float CONGESTED_OCCUPANCY = 0.3f;
+    static final float CLEAR_OCCUPANCY = 0.05f;
+    static final float DECREASE_FACTOR = 0.7f;
+    static final float THROUGHPUT_HEADROOM = 0.9f;
+    static final float INCREASE_STEP_RATIO = 0.05f;
+    static final int INCREASE_STABLE_TICKS = 4;
+    static final long DECREASE_COOLDOWN_MS = 2000;
+    static final long INCREASE_AFTER_DECREASE_MS = 5000;
+
+    private final int minBitrate;
+    private final int maxBitrate;
+    private final int increaseStep;
+    private int stableTicks;
+    private long lastDecreaseTime;
+    private int state;
+
+    /**
+     * @param minBitrate bits/sec
+     * @param maxBitrate bits/sec
+     */
+    public RESBitrateAlgorithm(int minBitrate, int maxBitrate) {
+        if (minBitrate <= 0 || maxBitrate < minBitrate) {
+            throw new IllegalArgumentException("invalid bitrate range:" + minBitrate + "~" + maxBitrate);
+        }
+        this.minBitrate = minBitrate;
+        this.maxBitrate = maxBitrate;
+        increaseStep = Math.max(1, (int) (maxBitrate * INCREASE_STEP_RATIO));
+        reset();
+    }
+
+    public void reset() {
+        stableTicks = 0;
+        lastDecreaseTime = Long.MIN_VALUE / 2;
+        state = STATE_HOLD;
+    }
+
+    /**
+     * @param currentBitrate        bitrate encoder is using,bits/sec
+     * @param queueOccupancy        [0.0,1.0] of sender queue
+     * @param measuredVideoBitrate  video bits/sec actually sent,0 if unknown
+     * @param nowMs                 monotonic time
+     * @return bitrate to apply,equal to currentBitrate if nothing should change
+     */
+    public int onSample(int currentBitrate, float queueOccupancy, int measuredVideoBitrate, long nowMs) {
+        int target = clamp(currentBitrate);
+        if (queueOccupancy >= CONGESTED_OCCUPANCY) {
+            stableTicks = 0;
+            if (nowMs - lastDecreaseTime < DECREASE_COOLDOWN_MS) {
+                state = STATE_HOLD;
+                return target;
+            }
+            int decreased = (int) (target * DECREASE_FACTOR);
+            if (measuredVideoBitrate > 0) {
+                decreased = Math.min(decreased, (int) (measuredVideoBitrate * THROUGHPUT_HEADROOM));
+            }
+            decreased = clamp(decreased);
+            if (decreased < target) {
+                lastDecreaseTime = nowMs;
+                state = STATE_DECREASE;
+                return decreased;
+            }
+            state = STATE_HOLD;
+            return target;
+        }
+        if (queueOccupancy <= CLEAR_OCCUPANCY) {
+            ++stableTicks;
+            if (stableTicks >= INCREASE_STABLE_TICKS
+                    && nowMs - lastDecreaseTime >= INCREASE_AFTER_DECREASE_MS
+                    && target < maxBitrate) {
+                stableTicks = 0;
+                state = STATE_INCREASE;
+                return clamp(target + increaseStep);
+            }
+        } else {
+            stableTicks = 0;
+        }
+        state = STATE_HOLD;
+        return target;
+    }
+
+    /**
+     * @return STATE_HOLD,STATE_INCREASE or STATE_DECREASE of the last sample
+     */
+    public int getState() {
+        return state;
+    }
+
+    public int getMinBitrate() {
+        return minBitrate;
+    }
+
+    public int getMaxBitrate() {
+        return maxBitrate;
+    }
+
+    private int clamp(int bitrate) {
+        return Math.max(minBitrate, Math.min(maxBitrate, bitrate));
+    }
+}
@@ -1,59 +1,151 @@
 package me.lake.librestreaming.core;
 
-import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * Created by lake on 16-4-8.
+ * Sliding window byte counter made of one millisecond buckets.<br/>
+ * every bucket packs its epoch(time in ms),a sealed bit and byte count into one long,
+ * {@link #gain(int)} adds to its bucket and to the window sum,both by CAS without lock or allocation.
+ * buckets leaving the window are sealed and taken off the sum by whoever calls next,
+ * so {@link #getSpeed()} reads the sum after sealing only buckets expired since last call.<br/>
+ * bytes gained in the last timeGranularity ms,both ends included, are counted,
+ * same as the former list of every gain.
  */
 public class RESByteSpeedometer {
+    private static final int COUNT_BITS = 24;
+    private static final int EPOCH_BITS = 64 - COUNT_BITS - 1;
+    private static final long EPOCH_MASK = (1L << EPOCH_BITS) - 1;
+    private static final long SEALED = 1L << (64 - 1);
+    /**
+     * a bucket saturates at it,flv tags are shorter than 16MB
+     */
+    private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
     private int timeGranularity;
-    private LinkedList<ByteFrame> byteList;
-    private final Object syncByteList = new Object();
+    private final AtomicLongArray buckets;
+    private final AtomicLong windowSum = new AtomicLong(0);
+    /**
+     * newest expired epoch,buckets not newer than it are sealed and off the sum
+     */
+    private final AtomicLong expiredEpoch = new AtomicLong(Long.MIN_VALUE);
 
     public RESByteSpeedometer(int timeGranularity) {
         this.timeGranularity = timeGranularity;
-        byteList = new LinkedList<>();
+        //now and timeGranularity ms before it
+        buckets = new AtomicLongArray(Math.max(0, timeGranularity) + 1);
+        reset();
     }
 
     public int getSpeed() {
-        synchronized (syncByteList) {
-            long now = System.currentTimeMillis();
-            trim(now);
-            long sumByte = 0;
-            for (ByteFrame byteFrame : byteList) {
-                sumByte += byteFrame.bytenum;
-            }
-            return (int) (sumByte * 1000 / timeGranularity);
-        }
+        expire(now());
+        return (int) (windowSum.get() * 1000 / timeGranularity);
     }
 
     public void gain(int byteCount) {
-        synchronized (syncByteList) {
-            long now = System.currentTimeMillis();
-            byteList.addLast(new ByteFrame(now, byteCount));
-            trim(now);
+        long epoch = now();
+        expire(epoch);
+        int index = indexOf(epoch);
+        long packedEpoch = (epoch & EPOCH_MASK) << COUNT_BITS;
+        while (true) {
+            if (epoch <= expiredEpoch.get()) {
+                //clock read before the bucket expired
+                return;
+            }
+            long old = buckets.get(index);
+            long oldCount = old & COUNT_MASK;
+            if ((old & ~SEALED) >>> COUNT_BITS != (epoch & EPOCH_MASK)) {
+                if ((old & SEALED) == 0) {
+                    sealIfExpired(index, epoch - 1);
+                    continue;
+                }
+                //older epoch off the sum
+                oldCount = 0;
+            } else if ((old & SEALED) != 0) {
+                return;
+            }
+            long count = Math.min(oldCount + byteCount, COUNT_MASK);
+            if (buckets.compareAndSet(index, old, packedEpoch | count)) {
+                windowSum.addAndGet(count - oldCount);
+                if (epoch <= expiredEpoch.get()) {
+                    //expired meanwhile,its sealer may have passed the bucket already
+                    sealIfExpired(index, epoch);
+                }
+                return;
+            }
         }
     }
 
-    private void trim(long time) {
-        while (!byteList.isEmpty() && (time - byteList.getFirst().time) > timeGranularity) {
-            byteList.removeFirst();
+    public void reset() {
+        for (int i = 0; i < buckets.length(); i++) {
+            buckets.set(i, SEALED);
         }
+        windowSum.set(0);
+        expiredEpoch.set(Long.MIN_VALUE);
     }
 
-    public void reset() {
-        synchronized (syncByteList) {
-            byteList.clear();
-        }
+    /**
+     * ms clock,overridden by tests
+     */
+    long now() {
+        return System.currentTimeMillis();
     }
 
-    private class ByteFrame {
-        long time;
-        long bytenum;
+    /**
+     * seal buckets older than timeGranularity ms before now and take them off the sum,
+     * the thread moving expiredEpoch seals the epochs it passed
+     */
+    private void expire(long now) {
+        long target = now - timeGranularity - 1;
+        while (true) {
+            long expired = expiredEpoch.get();
+            if (expired >= target) {
+                return;
+            }
+            if (!expiredEpoch.compareAndSet(expired, target)) {
+                continue;
+            }
+            if (expired == Long.MIN_VALUE || target - expired >= buckets.length()) {
+                //every bucket may hold an expired epoch
+                for (int i = 0; i < buckets.length(); i++) {
+                    sealIfExpired(i, target);
+                }
+            } else {
+                for (long epoch = expired + 1; epoch <= target; epoch++) {
+                    sealIfExpired(indexOf(epoch), epoch);
+                }
+            }
+            return;
+        }
+    }
 
-        public ByteFrame(long time, long bytenum) {
-            this.time = time;
-            this.bytenum = bytenum;
+    /**
+     * seal bucket at index if its epoch is not newer than target,
+     * only the thread sealing it takes its count off the sum
+     */
+    private void sealIfExpired(int index, long target) {
+        while (true) {
+            long value = buckets.get(index);
+            if ((value & SEALED) != 0 || isNewer((value >>> COUNT_BITS) & EPOCH_MASK, target)) {
+                return;
+            }
+            if (buckets.compareAndSet(index, value, value | SEALED)) {
+                windowSum.addAndGet(-(value & COUNT_MASK));
+                return;
+            }
         }
     }
+
+    /**
+     * @param packedEpoch epoch as stored in a bucket
+     * @return true if it is after epoch,epochs in the ring are less than half of the epoch range apart
+     */
+    private static boolean isNewer(long packedEpoch, long epoch) {
+        long diff = (packedEpoch - epoch) & EPOCH_MASK;
+        return diff != 0 && diff < (1L << (EPOCH_BITS - 1));
+    }
+
+    private int indexOf(long epoch) {
+        return (int) (((epoch % buckets.length()) + buckets.length()) % buckets.length());
+    }
 }
@@ -0,0 +1,399 @@
+package me.lake.librestreaming.core;
+
+import android.hardware.Camera;
+import android.media.MediaCodecInfo;
+import android.os.Build;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import me.lake.librestreaming.model.Size;
+import me.lake.librestreaming.tools.LogTools;
+
+/**
+ * Camera and video encoder capabilities,so prepare() does not walk Camera.Parameters and MediaCodecList every time.<br/>
+ * kept in memory for the process,and in a file of the given directory if {@link #open(String)} is called.
+ * the file is dropped when its VERSION or the device fingerprint(changes with every OTA) differs.<br/>
+ * entries are verified lazily:users call {@link #removeCamera(int)} when cached values are refused by the device,
+ * {@link #putEncoder(String, EncoderCaps)} replaces an entry which differs from a real encoder.
+ */
+public class RESCapabilityCache {
+    static final int VERSION = 1;
+    static final String FILE_NAME = "res_capabilities";
+    private static final int MAGIC = 0x52455343;
+    private static RESCapabilityCache instance;
+
+    private final HashMap<Integer, CameraCaps> cameras = new HashMap<>();
+    private final HashMap<String, EncoderCaps> encoders = new HashMap<>();
+    private String fingerprint;
+    private File file;
+    private boolean isDirty = false;
+
+    public static synchronized RESCapabilityCache i() {
+        if (instance == null) {
+            instance = new RESCapabilityCache();
+        }
+        return instance;
+    }
+
+    RESCapabilityCache() {
+    }
+
+    /**
+     * load the cache file in dir,entries already in memory are replaced if the file is valid.
+     * nothing is read again if dir was opened already
+     *
+     * @param dir directory to keep the cache file,null to keep memory only
+     */
+    public void open(String dir) {
+        open(dir == null ? null : new File(dir, FILE_NAME), Build.FINGERPRINT);
+    }
+
+    synchronized void open(File file, String fingerprint) {
+        if (file != null && file.equals(this.file) && fingerprint.equals(this.fingerprint)) {
+            return;
+        }
+        this.file = file;
+        this.fingerprint = fingerprint;
+        if (file == null || !file.exists()) {
+            return;
+        }
+        try {
+            read(file, fingerprint);
+        } catch (IOException e) {
+            LogTools.d("RESCapabilityCache,drop " + file + ":" + e);
+            cameras.clear();
+            encoders.clear();
+            if (!file.delete()) {
+                LogTools.e("RESCapabilityCache,can not delete " + file);
+            }
+        }
+    }
+
+    /**
+     * write cache file if anything changed since open/last save
+     */
+    public synchronized void save() {
+        if (!isDirty || file == null) {
+            return;
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            try {
+                write(out);
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(file)) {
+                throw new IOException("rename failed");
+            }
+            isDirty = false;
+        } catch (IOException e) {
+            LogTools.trace("RESCapabilityCache,save failed", e);
+            tmp.delete();
+        }
+    }
+
+    /**
+     * @return null if not cached
+     */
+    public synchronized CameraCaps getCamera(int cameraId) {
+        return cameras.get(cameraId);
+    }
+
+    public synchronized void putCamera(int cameraId, CameraCaps caps) {
+        cameras.put(cameraId, caps);
+        isDirty = true;
+    }
+
+    public synchronized void removeCamera(int cameraId) {
+        if (cameras.remove(cameraId) != null) {
+            isDirty = true;
+        }
+    }
+
+    /**
+     * @return null if not cached
+     */
+    public synchronized EncoderCaps getEncoder(String mime) {
+        return encoders.get(mime);
+    }
+
+    /**
+     * @return true if caps differ from the cached ones
+     */
+    public synchronized boolean putEncoder(String mime, EncoderCaps caps) {
+        if (caps.equals(encoders.get(mime))) {
+            return false;
+        }
+        encoders.put(mime, caps);
+        isDirty = true;
+        return true;
+    }
+
+    public synchronized void clear() {
+        cameras.clear();
+        encoders.clear();
+        isDirty = true;
+    }
+
+    private void read(File file, String fingerprint) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("bad magic");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("version " + version);
+            }
+            if (!in.readUTF().equals(fingerprint)) {
+                throw new IOException("fingerprint changed");
+            }
+            HashMap<Integer, CameraCaps> readCameras = new HashMap<>();
+            for (int i = in.readInt(); i > 0; i--) {
+                int cameraId = in.readInt();
+                readCameras.put(cameraId, CameraCaps.read(in));
+            }
+            HashMap<String, EncoderCaps> readEncoders = new HashMap<>();
+            for (int i = in.readInt(); i > 0; i--) {
+                String mime = in.readUTF();
+                readEncoders.put(mime, EncoderCaps.read(in));
+            }
+            cameras.clear();
+            cameras.putAll(readCameras);
+            encoders.clear();
+            encoders.putAll(readEncoders);
+            isDirty = false;
+        } finally {
+            in.close();
+        }
+    }
+
+    private void write(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeUTF(fingerprint == null ? "" : fingerprint);
+        out.writeInt(cameras.size());
+        for (Map.Entry<Integer, CameraCaps> entry : cameras.entrySet()) {
+            out.writeInt(entry.getKey());
+            entry.getValue().write(out);
+        }
+        out.writeInt(encoders.size());
+        for (Map.Entry<String, EncoderCaps> entry : encoders.entrySet()) {
+            out.writeUTF(entry.getKey());
+            entry.getValue().write(out);
+        }
+    }
+
+    public static class CameraCaps {
+        public final List<Size> previewSizes;
+        /**
+         * {min,max}*1000
+         */
+        public final List<int[]> fpsRanges;
+        public final List<Integer> previewFormats;
+
+        public CameraCaps(List<Size> previewSizes, List<int[]> fpsRanges, List<Integer> previewFormats) {
+            this.previewSizes = Collections.unmodifiableList(previewSizes);
+            this.fpsRanges = Collections.unmodifiableList(fpsRanges);
+            this.previewFormats = Collections.unmodifiableList(previewFormats);
+        }
+
+        public static CameraCaps of(Camera.Parameters parameters) {
+            List<Size> sizes = new ArrayList<>();
+            for (Camera.Size size : parameters.getSupportedPreviewSizes()) {
+                sizes.add(new Size(size.width, size.height));
+            }
+            List<int[]> fpsRanges = new ArrayList<>();
+            for (int[] range : parameters.getSupportedPreviewFpsRange()) {
+                fpsRanges.add(new int[]{range[0], range[1]});
+            }
+            return new CameraCaps(sizes, fpsRanges, new ArrayList<>(parameters.getSupportedPreviewFormats()));
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeInt(previewSizes.size());
+            for (Size size : previewSizes) {
+                out.writeInt(size.getWidth());
+                out.writeInt(size.getHeight());
+            }
+            out.writeInt(fpsRanges.size());
+            for (int[] range : fpsRanges) {
+                out.writeInt(range[0]);
+                out.writeInt(range[1]);
+            }
+            out.writeInt(previewFormats.size());
+            for (int format : previewFormats) {
+                out.writeInt(format);
+            }
+        }
+
+        static CameraCaps read(DataInputStream in) throws IOException {
+            List<Size> sizes = new ArrayList<>();
+            for (int i = readCount(in); i > 0; i--) {
+                sizes.add(new Size(in.readInt(), in.readInt()));
+            }
+            List<int[]> fpsRanges = new ArrayList<>();
+            for (int i = readCount(in); i > 0; i--) {
+                fpsRanges.add(new int[]{in.readInt(), in.readInt()});
+            }
+            List<Integer> formats = new ArrayList<>();
+            for (int i = readCount(in); i > 0; i--) {
+                formats.add(in.readInt());
+            }
+            if (sizes.isEmpty() || fpsRanges.isEmpty() || formats.isEmpty()) {
+                throw new IOException("empty camera caps");
+            }
+            return new CameraCaps(sizes, fpsRanges, formats);
+        }
+    }
+
+    /**
+     * first encoder of a mime,as MediaCodec.createEncoderByType picks
+     */
+    public static class EncoderCaps {
+        public static final EncoderCaps ABSENT = new EncoderCaps(false, new int[0], new int[0], new int[0], new int[0]);
+        public final boolean isPresent;
+        public final int[] colorFormats;
+        /**
+         * profiles[i] supports levels[i]
+         */
+        public final int[] profiles;
+        public final int[] levels;
+        /**
+         * supported MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_*
+         */
+        public final int[] bitrateModes;
+
+        public EncoderCaps(boolean isPresent, int[] colorFormats, int[] profiles, int[] levels, int[] bitrateModes) {
+            this.isPresent = isPresent;
+            this.colorFormats = colorFormats;
+            this.profiles = profiles;
+            this.levels = levels;
+            this.bitrateModes = bitrateModes;
+        }
+
+        public static EncoderCaps of(MediaCodecInfo.CodecCapabilities capabilities) {
+            MediaCodecInfo.CodecProfileLevel[] profileLevels = capabilities.profileLevels;
+            int[] profiles = new int[profileLevels.length];
+            int[] levels = new int[profileLevels.length];
+            for (int i = 0; i < profileLevels.length; i++) {
+                profiles[i] = profileLevels[i].profile;
+                levels[i] = profileLevels[i].level;
+            }
+            int[] allModes = {MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_CBR,
+                    MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_VBR,
+                    MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_CQ};
+            int modeNum = 0;
+            int[] modes = new int[allModes.length];
+            MediaCodecInfo.EncoderCapabilities encoderCapabilities = capabilities.getEncoderCapabilities();
+            for (int mode : allModes) {
+                if (encoderCapabilities != null && encoderCapabilities.isBitrateModeSupported(mode)) {
+                    modes[modeNum++] = mode;
+                }
+            }
+            int[] bitrateModes = new int[modeNum];
+            System.arraycopy(modes, 0, bitrateModes, 0, modeNum);
+            return new EncoderCaps(true, capabilities.colorFormats.clone(), profiles, levels, bitrateModes);
+        }
+
+        /**
+         * @return 0 if profile is not supported
+         */
+        public int maxLevelOf(int profile) {
+            int maxLevel = 0;
+            for (int i = 0; i < profiles.length; i++) {
+                if (profiles[i] == profile) {
+                    maxLevel = Math.max(maxLevel, levels[i]);
+                }
+            }
+            return maxLevel;
+        }
+
+        public boolean isBitrateModeSupported(int mode) {
+            for (int supported : bitrateModes) {
+                if (supported == mode) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof EncoderCaps)) {
+                return false;
+            }
+            EncoderCaps other = (EncoderCaps) o;
+            return isPresent == other.isPresent
+                    && java.util.Arrays.equals(colorFormats, other.colorFormats)
+                    && java.util.Arrays.equals(profiles, other.profiles)
+                    && java.util.Arrays.equals(levels, other.levels)
+                    && java.util.Arrays.equals(bitrateModes, other.bitrateModes);
+        }
+
+        @Override
+        public int hashCode() {
+            return java.util.Arrays.hashCode(profiles) * 31 + java.util.Arrays.hashCode(colorFormats);
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeBoolean(isPresent);
+            writeInts(out, colorFormats);
+            writeInts(out, profiles);
+            writeInts(out, levels);
+            writeInts(out, bitrateModes);
+        }
+
+        static EncoderCaps read(DataInputStream in) throws IOException {
+            boolean isPresent = in.readBoolean();
+            int[] colorFormats = readInts(in);
+            int[] profiles = readInts(in);
+            int[] levels = readInts(in);
+            int[] bitrateModes = readInts(in);
+            if (profiles.length != levels.length) {
+                throw new IOException("profiles/levels mismatch");
+            }
+            return new EncoderCaps(isPresent, colorFormats, profiles, levels, bitrateModes);
+        }
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        out.writeInt(values.length);
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    private static int[] readInts(DataInputStream in) throws IOException {
+        int[] values = new int[readCount(in)];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.readInt();
+        }
+        return values;
+    }
+
+    /**
+     * guards against allocating for a corrupted count
+     */
+    private static int readCount(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count > 4096) {
+            throw new IOException("bad count " + count);
+        }
+        return count;
+    }
+}
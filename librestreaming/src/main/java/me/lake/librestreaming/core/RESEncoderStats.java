@@ -0,0 +1,131 @@
+package me.lake.librestreaming.core;
+
+/**
+ * Queue depth and input->output latency of one MediaCodec encoder.<br/>
+ * inputs are remembered by pts in queueing order,an output is matched with the newest input not after it,
+ * so aac frames cut from one pcm slice all count from the time the slice was queued.<br/>
+ * queue depth is inputs after the newest output pts,i.e. frames still inside the encoder.
+ */
+public class RESEncoderStats {
+    private static final int INPUT_NUM = 64;
+    private final long[] inputPtsUs = new long[INPUT_NUM];
+    private final long[] inputTimeNs = new long[INPUT_NUM];
+    private int inputHead;
+    private int inputCount;
+    private long maxOutputPtsUs;
+    private int maxQueueDepth;
+    private long droppedInputNum;
+    private long errorNum;
+    private final RESLatencyHistogram latencyHistogram = new RESLatencyHistogram();
+
+    public RESEncoderStats() {
+        reset();
+    }
+
+    /**
+     * @param ptsUs pts of the input just queued
+     */
+    public synchronized void onInput(long ptsUs) {
+        if (inputCount == INPUT_NUM) {
+            inputHead = (inputHead + 1) % INPUT_NUM;
+            inputCount--;
+        }
+        int index = (inputHead + inputCount) % INPUT_NUM;
+        inputPtsUs[index] = ptsUs;
+        inputTimeNs[index] = System.nanoTime();
+        inputCount++;
+        maxQueueDepth = Math.max(maxQueueDepth, getQueueDepthLocked());
+    }
+
+    /**
+     * @param ptsUs pts of the output just dequeued
+     * @return {@link System#nanoTime()} its input was queued,0 if unknown
+     */
+    public synchronized long onOutput(long ptsUs) {
+        maxOutputPtsUs = Math.max(maxOutputPtsUs, ptsUs);
+        long timeNs = 0;
+        for (int i = inputCount - 1; i >= 0; i--) {
+            int index = (inputHead + i) % INPUT_NUM;
+            if (inputPtsUs[index] <= ptsUs) {
+                timeNs = inputTimeNs[index];
+                break;
+            }
+        }
+        if (timeNs != 0) {
+            latencyHistogram.record((System.nanoTime() - timeNs) / 1000);
+        }
+        //older inputs are out unless reordered,which never spans INPUT_NUM/2 frames
+        while (inputCount > INPUT_NUM / 2 && inputPtsUs[inputHead] <= maxOutputPtsUs) {
+            inputHead = (inputHead + 1) % INPUT_NUM;
+            inputCount--;
+        }
+        return timeNs;
+    }
+
+    /**
+     * input given up because encoder had no free input buffer in time
+     */
+    public synchronized void onDrop() {
+        droppedInputNum++;
+    }
+
+    public synchronized void onError() {
+        errorNum++;
+    }
+
+    public synchronized void reset() {
+        inputHead = 0;
+        inputCount = 0;
+        maxOutputPtsUs = Long.MIN_VALUE;
+        maxQueueDepth = 0;
+        droppedInputNum = 0;
+        errorNum = 0;
+        latencyHistogram.reset();
+    }
+
+    public synchronized Snapshot snapshot() {
+        return new Snapshot(getQueueDepthLocked(), maxQueueDepth, droppedInputNum, errorNum, latencyHistogram.snapshot());
+    }
+
+    private int getQueueDepthLocked() {
+        int depth = 0;
+        for (int i = inputCount - 1; i >= 0; i--) {
+            if (inputPtsUs[(inputHead + i) % INPUT_NUM] <= maxOutputPtsUs) {
+                break;
+            }
+            depth++;
+        }
+        return depth;
+    }
+
+    public static class Snapshot {
+        /**
+         * frames inside encoder now
+         */
+        public final int queueDepth;
+        public final int maxQueueDepth;
+        public final long droppedInputNum;
+        public final long errorNum;
+        /**
+         * input queued -> output dequeued
+         */
+        public final RESLatencyHistogram.Snapshot latency;
+
+        Snapshot(int queueDepth, int maxQueueDepth, long droppedInputNum, long errorNum, RESLatencyHistogram.Snapshot latency) {
+            this.queueDepth = queueDepth;
+            this.maxQueueDepth = maxQueueDepth;
+            this.droppedInputNum = droppedInputNum;
+            this.errorNum = errorNum;
+            this.latency = latency;
+        }
+
+        @Override
+        public String toString() {
+            return "queueDepth=" + queueDepth +
+                    ",maxQueueDepth=" + maxQueueDepth +
+                    ",dropped=" + droppedInputNum +
+                    ",errors=" + errorNum +
+                    ",latency[" + latency + "]";
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package me.lake.librestreaming.core;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import me.lake.librestreaming.filter.softvideofilter.BaseTiledSoftVideoFilter;
+
+/**
+ * runs {@link BaseTiledSoftVideoFilter} bands on a fixed size ForkJoinPool
+ */
+public class RESFilterBandExecutor {
+    /**
+     * used when thread num is not set
+     */
+    static final int MAX_AUTO_THREAD_NUM = 4;
+    //bands shorter than this cost more to schedule than to filter
+    static final int MIN_BAND_ROWS = 16;
+    private final ForkJoinPool pool;
+    private final int parallelism;
+
+    /**
+     * @param threadNum <=0 to use cpu count,at most MAX_AUTO_THREAD_NUM
+     */
+    public RESFilterBandExecutor(int threadNum) {
+        parallelism = threadNum > 0 ? threadNum : Math.min(MAX_AUTO_THREAD_NUM, Runtime.getRuntime().availableProcessors());
+        pool = new ForkJoinPool(parallelism);
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * same result as filter.onFrame,blocks until every band is done
+     */
+    public boolean runFilter(BaseTiledSoftVideoFilter filter, byte[] orignBuff, byte[] targetBuff,
+                             int height, long presentationTimeMs, int sequenceNum) {
+        if (!filter.onFrameBegin(orignBuff, targetBuff, presentationTimeMs, sequenceNum)) {
+            return false;
+        }
+        //2 bands per thread,so a slow band does not keep others idle
+        int bandRows = Math.max(Math.max(MIN_BAND_ROWS, filter.getHaloRows()), height / (parallelism * 2));
+        bandRows = (bandRows + 1) & ~1;
+        if (parallelism <= 1 || bandRows >= height) {
+            filter.onFrameBand(orignBuff, targetBuff, 0, height, presentationTimeMs, sequenceNum);
+        } else {
+            pool.invoke(new BandAction(filter, orignBuff, targetBuff, 0, height, bandRows, presentationTimeMs, sequenceNum));
+        }
+        return true;
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    private static class BandAction extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final BaseTiledSoftVideoFilter filter;
+        private final byte[] orignBuff;
+        private final byte[] targetBuff;
+        private final int yStart;
+        private final int yEnd;
+        private final int bandRows;
+        private final long presentationTimeMs;
+        private final int sequenceNum;
+
+        BandAction(BaseTiledSoftVideoFilter filter, byte[] orignBuff, byte[] targetBuff, int yStart, int yEnd,
+                   int bandRows, long presentationTimeMs, int sequenceNum) {
+            this.filter = filter;
+            this.orignBuff = orignBuff;
+            this.targetBuff = targetBuff;
+            this.yStart = yStart;
+            this.yEnd = yEnd;
+            this.bandRows = bandRows;
+            this.presentationTimeMs = presentationTimeMs;
+            this.sequenceNum = sequenceNum;
+        }
+
+        @Override
+        protected void compute() {
+            int rows = yEnd - yStart;
+            if (rows <= bandRows) {
+                filter.onFrameBand(orignBuff, targetBuff, yStart, yEnd, presentationTimeMs, sequenceNum);
+                return;
+            }
+            //split on a band boundary,so every band but the last has bandRows rows
+            int middle = yStart + (rows / bandRows + 1) / 2 * bandRows;
+            invokeAll(new BandAction(filter, orignBuff, targetBuff, yStart, middle, bandRows, presentationTimeMs, sequenceNum),
+                    new BandAction(filter, orignBuff, targetBuff, middle, yEnd, bandRows, presentationTimeMs, sequenceNum));
+        }
+    }
+}
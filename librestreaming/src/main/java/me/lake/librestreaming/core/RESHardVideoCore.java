@@ -49,6 +49,8 @@ public class RESHardVideoCore implements RESVideoCore {
     private BaseHardVideoFilter videoFilter;
 //    private MediaCodec dstVideoEncoder;
     private MediaFormat dstVideoFormat;
+    //created in prepare,reused by every streaming session
+    private VideoEncoder videoEncoder;
     private final Object syncPreview = new Object();
     private HandlerThread videoGLHandlerThread;
     private VideoGLHandler videoGLHander;
@@ -83,6 +85,13 @@ public class RESHardVideoCore implements RESVideoCore {
             resCoreParameters.mediacodecAVCFrameRate = resCoreParameters.videoFPS;
             loopingInterval = 1000 / resCoreParameters.videoFPS;
             dstVideoFormat = new MediaFormat();
+            try {
+                //created here so startStreaming does not wait for it
+                videoEncoder = new VideoEncoder(resCoreParameters);
+            } catch (Exception e) {
+                LogTools.trace("RESHardVideoCore,create VideoEncoder failed", e);
+                return false;
+            }
             videoGLHandlerThread = new HandlerThread("GLThread");
             videoGLHandlerThread.start();
             videoGLHander = new VideoGLHandler(videoGLHandlerThread.getLooper());
@@ -171,6 +180,8 @@ public class RESHardVideoCore implements RESVideoCore {
             }
             videoGLHandlerThread = null;
             videoGLHander = null;
+            videoEncoder.release();
+            videoEncoder = null;
             return true;
         }
     }
@@ -187,6 +198,15 @@ public class RESHardVideoCore implements RESVideoCore {
         }
     }
 
+    @Override
+    public void requestKeyFrame() {
+        synchronized (syncOp) {
+            if (videoGLHander != null) {
+                videoGLHander.sendEmptyMessage(VideoGLHandler.WHAT_REQUEST_KEYFRAME);
+            }
+        }
+    }
+
     @TargetApi(Build.VERSION_CODES.KITKAT)
     @Override
     public int getVideoBitrate() {
@@ -260,6 +280,13 @@ public class RESHardVideoCore implements RESVideoCore {
         }
     }
 
+    @Override
+    public RESEncoderStats.Snapshot getEncoderStats() {
+        synchronized (syncOp) {
+            return videoEncoder == null ? null : videoEncoder.getStats();
+        }
+    }
+
     private class VideoGLHandler extends Handler {
         static final int WHAT_INIT = 0x001;
         static final int WHAT_UNINIT = 0x002;
@@ -271,11 +298,16 @@ public class RESHardVideoCore implements RESVideoCore {
         static final int WHAT_START_STREAMING = 0x100;
         static final int WHAT_STOP_STREAMING = 0x200;
         static final int WHAT_RESET_BITRATE = 0x300;
+        static final int WHAT_REQUEST_KEYFRAME = 0x400;
         private Size screenSize;
         //=========================
         public static final int FILTER_LOCK_TOLERATION = 3;//3ms
         private final Object syncFrameNum = new Object();
         private int frameNum = 0;
+        /**
+         * when first not yet taken frame became available
+         */
+        private long frameAvailableTimeNs = 0;
         //gl stuff
         private final Object syncCameraTex = new Object();
         private SurfaceTexture cameraTexture;
@@ -301,8 +333,6 @@ public class RESHardVideoCore implements RESVideoCore {
         private BaseHardVideoFilter innerVideoFilter = null;
         private RESFrameRateMeter drawFrameRateMeter;
         private int directionFlag;
-        //sender
-        private VideoEncoder videoEncoder;
 
         boolean hasNewFrame = false;
         public boolean dropNextFrame = false;
@@ -325,6 +355,9 @@ public class RESHardVideoCore implements RESVideoCore {
                     synchronized (syncFrameNum) {
                         synchronized (syncCameraTex) {
                             if (cameraTexture != null) {
+                                if (frameNum != 0) {
+                                    RESPipelineStats.i().recordSince(RESPipelineStats.STAGE_CAPTURE, frameAvailableTimeNs);
+                                }
                                 while (frameNum != 0) {
                                     cameraTexture.updateTexImage();
                                     --frameNum;
@@ -361,8 +394,13 @@ public class RESHardVideoCore implements RESVideoCore {
                         }
                     }
                     if (hasNewFrame) {
+                        long drawStartNs = System.nanoTime();
                         drawFrameBuffer();
                         drawMediaCodec(time * 1000000);
+                        if (videoEncoder != null && mediaCodecGLWapper != null) {
+                            videoEncoder.markInputTime(time * 1000);
+                        }
+                        RESPipelineStats.i().recordSince(RESPipelineStats.STAGE_DRAW, drawStartNs);
                         drawScreen();
                         drawFrameRateMeter.count();
                         hasNewFrame = false;
@@ -399,18 +437,13 @@ public class RESHardVideoCore implements RESVideoCore {
                 break;
                 case WHAT_START_STREAMING: {
                     dataCollecter = (RESFlvDataCollecter) msg.obj;
-                    videoEncoder = new VideoEncoder(resCoreParameters, dataCollecter);
-
                     initMediaCodecGL(videoEncoder.getInputSurface());
-                    videoEncoder.start();
-
+                    videoEncoder.start(dataCollecter);
                 }
                 break;
                 case WHAT_STOP_STREAMING: {
-                    videoEncoder.quit();
-                    videoEncoder = null;
                     uninitMediaCodecGL();
-
+                    videoEncoder.stop();
                 }
                 break;
                 case WHAT_RESET_BITRATE: {
@@ -424,6 +457,12 @@ public class RESHardVideoCore implements RESVideoCore {
 //                    }
                 }
                 break;
+                case WHAT_REQUEST_KEYFRAME: {
+                    if (videoEncoder != null) {
+                        videoEncoder.requestKeyFrame();
+                    }
+                }
+                break;
                 case WHAT_RESET_VIDEO: {
                     RESCoreParameters newParameters = (RESCoreParameters) msg.obj;
                     resCoreParameters.videoWidth = newParameters.videoWidth;
@@ -433,9 +472,12 @@ public class RESHardVideoCore implements RESVideoCore {
                     resetFrameBuff();
                     if (mediaCodecGLWapper != null) {
                         uninitMediaCodecGL();
-                        videoEncoder = new VideoEncoder(resCoreParameters, dataCollecter);
+                        videoEncoder.stop();
+                        videoEncoder.resize();
                         initMediaCodecGL(videoEncoder.getInputSurface());
-                        videoEncoder.start();
+                        videoEncoder.start(dataCollecter);
+                    } else {
+                        videoEncoder.resize();
                     }
                     synchronized (syncResVideoChangeListener) {
                         if (resVideoChangeListener != null) {
@@ -772,6 +814,9 @@ public class RESHardVideoCore implements RESVideoCore {
 
         void addFrameNum() {
             synchronized (syncFrameNum) {
+                if (frameNum == 0) {
+                    frameAvailableTimeNs = System.nanoTime();
+                }
                 ++frameNum;
                 this.removeMessages(WHAT_FRAME);
                 this.sendMessageAtFrontOfQueue(this.obtainMessage(VideoGLHandler.WHAT_FRAME));
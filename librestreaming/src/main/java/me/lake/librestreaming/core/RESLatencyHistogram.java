@@ -0,0 +1,140 @@
+package me.lake.librestreaming.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histogram with log-linear buckets,like HdrHistogram.<br/>
+ * values are microseconds,[0,SUB_BUCKET_COUNT) are exact,
+ * larger values share a bucket with values within 1/SUB_BUCKET_HALF(~3%) of them.<br/>
+ * {@link #record(long)} is lock free and allocation free,values above MAX_VALUE_US are clamped.
+ */
+public class RESLatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT / 2;
+    public static final long MAX_VALUE_US = 60L * 1000 * 1000;
+    private static final int BUCKET_NUM = indexOf(MAX_VALUE_US) + 1;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_NUM);
+    private final AtomicLong totalCount = new AtomicLong(0);
+    private final AtomicLong totalValue = new AtomicLong(0);
+    private final AtomicLong maxValue = new AtomicLong(0);
+
+    public void record(long valueUs) {
+        if (valueUs < 0) {
+            valueUs = 0;
+        } else if (valueUs > MAX_VALUE_US) {
+            valueUs = MAX_VALUE_US;
+        }
+        counts.incrementAndGet(indexOf(valueUs));
+        totalCount.incrementAndGet();
+        totalValue.addAndGet(valueUs);
+        long max;
+        while (valueUs > (max = maxValue.get())) {
+            if (maxValue.compareAndSet(max, valueUs)) {
+                break;
+            }
+        }
+    }
+
+    public long getCount() {
+        return totalCount.get();
+    }
+
+    public long getMax() {
+        return maxValue.get();
+    }
+
+    public long getMean() {
+        long count = totalCount.get();
+        return count == 0 ? 0 : totalValue.get() / count;
+    }
+
+    /**
+     * @param percentile (0,100]
+     * @return highest value equivalent to the bucket holding percentile,not above max
+     */
+    public long getValueAtPercentile(double percentile) {
+        long count = totalCount.get();
+        if (count == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(Math.min(100, percentile) / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_NUM; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(highestValueOf(i), maxValue.get());
+            }
+        }
+        return maxValue.get();
+    }
+
+    /**
+     * not atomic with concurrent {@link #record(long)},a sample can be lost
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_NUM; i++) {
+            counts.set(i, 0);
+        }
+        totalCount.set(0);
+        totalValue.set(0);
+        maxValue.set(0);
+    }
+
+    public Snapshot snapshot() {
+        return new Snapshot(getCount(),
+                getValueAtPercentile(50),
+                getValueAtPercentile(95),
+                getValueAtPercentile(99),
+                getMax(),
+                getMean());
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+        return shift * SUB_BUCKET_HALF + (int) (value >>> shift);
+    }
+
+    static long highestValueOf(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_HALF - 1;
+        long sub = index - shift * SUB_BUCKET_HALF;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    /**
+     * values in microseconds
+     */
+    public static class Snapshot {
+        public final long count;
+        public final long p50;
+        public final long p95;
+        public final long p99;
+        public final long max;
+        public final long mean;
+
+        Snapshot(long count, long p50, long p95, long p99, long max, long mean) {
+            this.count = count;
+            this.p50 = p50;
+            this.p95 = p95;
+            this.p99 = p99;
+            this.max = max;
+            this.mean = mean;
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + count +
+                    ",p50=" + p50 / 1000f + "ms" +
+                    ",p95=" + p95 / 1000f + "ms" +
+                    ",p99=" + p99 / 1000f + "ms" +
+                    ",max=" + max / 1000f + "ms";
+        }
+    }
+}
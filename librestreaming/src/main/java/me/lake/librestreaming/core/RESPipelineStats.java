@@ -0,0 +1,133 @@
+package me.lake.librestreaming.core;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+
+import me.lake.librestreaming.tools.LogTools;
+
+/**
+ * Per stage video latency of capture->filter->encode->send pipeline.<br/>
+ * STAGE_CAPTURE:camera callback -> frame taken by filter/gl thread<br/>
+ * STAGE_DRAW:filter/gl drawing of one frame,till it is handed to encoder<br/>
+ * STAGE_ENCODE:frame handed to encoder -> MediaCodec output<br/>
+ * STAGE_SEND:MediaCodec output -> written to muxer<br/>
+ * STAGE_TOTAL:frame pts(draw start) -> written to muxer,
+ * glass to wire is about STAGE_CAPTURE+STAGE_TOTAL<br/>
+ * STAGE_FIRST_FRAME:video encoder session start -> its first encoded frame,once per session,
+ * grows by create/configure time when encoder could not be kept warm
+ */
+public class RESPipelineStats {
+    public static final int STAGE_CAPTURE = 0;
+    public static final int STAGE_DRAW = 1;
+    public static final int STAGE_ENCODE = 2;
+    public static final int STAGE_SEND = 3;
+    public static final int STAGE_TOTAL = 4;
+    public static final int STAGE_FIRST_FRAME = 5;
+    public static final int STAGE_NUM = 6;
+    private static final String[] STAGE_NAMES = {"capture", "draw", "encode", "send", "total", "first_frame"};
+    private static final RESPipelineStats instance = new RESPipelineStats();
+    private final RESLatencyHistogram[] histograms;
+    private final Object syncLogging = new Object();
+    private HandlerThread logHandlerThread;
+
+    public static RESPipelineStats i() {
+        return instance;
+    }
+
+    private RESPipelineStats() {
+        histograms = new RESLatencyHistogram[STAGE_NUM];
+        for (int i = 0; i < STAGE_NUM; i++) {
+            histograms[i] = new RESLatencyHistogram();
+        }
+    }
+
+    public void record(int stage, long latencyUs) {
+        histograms[stage].record(latencyUs);
+    }
+
+    /**
+     * @param startNs {@link System#nanoTime()} when stage started
+     */
+    public void recordSince(int stage, long startNs) {
+        histograms[stage].record((System.nanoTime() - startNs) / 1000);
+    }
+
+    /**
+     * @param ptsUs presentation time based on {@link SystemClock#uptimeMillis()}
+     */
+    public void recordSincePts(int stage, long ptsUs) {
+        histograms[stage].record(SystemClock.uptimeMillis() * 1000 - ptsUs);
+    }
+
+    public Snapshot snapshot() {
+        RESLatencyHistogram.Snapshot[] stages = new RESLatencyHistogram.Snapshot[STAGE_NUM];
+        for (int i = 0; i < STAGE_NUM; i++) {
+            stages[i] = histograms[i].snapshot();
+        }
+        return new Snapshot(stages);
+    }
+
+    public void reset() {
+        for (RESLatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * dump snapshot to log every intervalMs,till {@link #stopLogging()}
+     */
+    public void startLogging(final long intervalMs) {
+        synchronized (syncLogging) {
+            if (logHandlerThread != null || intervalMs <= 0) {
+                return;
+            }
+            logHandlerThread = new HandlerThread("pipelineStatsLogThread");
+            logHandlerThread.start();
+            final Handler handler = new Handler(logHandlerThread.getLooper());
+            handler.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    LogTools.d("RESPipelineStats," + snapshot());
+                    handler.postDelayed(this, intervalMs);
+                }
+            }, intervalMs);
+        }
+    }
+
+    public void stopLogging() {
+        synchronized (syncLogging) {
+            if (logHandlerThread != null) {
+                logHandlerThread.quit();
+                logHandlerThread = null;
+            }
+        }
+    }
+
+    public static class Snapshot {
+        private final RESLatencyHistogram.Snapshot[] stages;
+
+        Snapshot(RESLatencyHistogram.Snapshot[] stages) {
+            this.stages = stages;
+        }
+
+        /**
+         * @param stage STAGE_*
+         */
+        public RESLatencyHistogram.Snapshot getStage(int stage) {
+            return stages[stage];
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < STAGE_NUM; i++) {
+                sb.append(STAGE_NAMES[i]).append('[').append(stages[i]).append(']');
+                if (i != STAGE_NUM - 1) {
+                    sb.append(';');
+                }
+            }
+            return sb.toString();
+        }
+    }
+}
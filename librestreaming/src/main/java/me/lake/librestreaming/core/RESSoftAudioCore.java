@@ -12,6 +12,8 @@ import java.util.concurrent.locks.ReentrantLock;
 
 import me.lake.librestreaming.encoder.AudioEncoder;
 import me.lake.librestreaming.filter.softaudiofilter.BaseSoftAudioFilter;
+import me.lake.librestreaming.filter.softaudiofilter.SoftAudioGroupFilter;
+import me.lake.librestreaming.model.RESAudioBuff;
 import me.lake.librestreaming.model.RESConfig;
 import me.lake.librestreaming.model.RESCoreParameters;
 import me.lake.librestreaming.rtmp.RESFlvDataCollecter;
@@ -21,25 +23,87 @@ import me.lake.librestreaming.tools.LogTools;
  * Created by lake on 16-5-24.
  */
 public class RESSoftAudioCore {
+    private static final long FILL_WAIT_MS = 20;
     RESCoreParameters resCoreParameters;
     private final Object syncOp = new Object();
     //filter
     private Lock lockAudioFilter;
     private BaseSoftAudioFilter audioFilter;
+    //onFrame nanoseconds of audioFilter,guarded by lockAudioFilter
+    private long audioFilterCostNs;
     private AudioEncodeFilterHandler audioEncodeFilterHandler;
     private HandlerThread audioFilterHandlerThread;
     private AudioEncoder audioEncoder;
-    private boolean isStarting = false;
+    //AudioBuffs
+    //slots filled by AudioRecordThread and consumed by AudioEncodeFilterHandler in order
+    private final RESAudioBuffRing orignAudioBuffs;
+    //buffer to handle filtered pcm from filter if filter are set
+    private RESAudioBuff filteredAudioBuff;
 
     public RESSoftAudioCore(RESCoreParameters parameters) {
         resCoreParameters = parameters;
         lockAudioFilter = new ReentrantLock(false);
+        orignAudioBuffs = new RESAudioBuffRing(FILL_WAIT_MS, new RESAudioBuffRing.OnBuffQueuedListener() {
+            @Override
+            public void onBuffQueued(RESAudioBuff buff) {
+                audioEncodeFilterHandler.sendMessage(audioEncodeFilterHandler.obtainMessage(AudioEncodeFilterHandler.WHAT_INCOMING_BUFF, buff));
+            }
+        });
     }
 
+    /**
+     * copy rawAudioFrame into a free slot,
+     * prefer {@link #dequeueFillBuff()} to read into the slot directly
+     */
     public void queueAudio(byte[] rawAudioFrame, int size) {
-        //TODO此处需要添加buffer的逻辑
-        if (isStarting) {
-            audioEncodeFilterHandler.sendMessage(audioEncodeFilterHandler.obtainMessage(AudioEncodeFilterHandler.WHAT_INCOMING_BUFF, size, 0, rawAudioFrame));
+        RESAudioBuff fillBuff = dequeueFillBuff();
+        if (fillBuff == null) {
+            return;
+        }
+        size = Math.min(size, fillBuff.buff.length);
+        System.arraycopy(rawAudioFrame, 0, fillBuff.buff, 0, size);
+        fillBuff.timestampUs = System.nanoTime() / 1000;
+        queueFillBuff(fillBuff, size);
+    }
+
+    /**
+     * called by the only producer thread,
+     * waits up to FILL_WAIT_MS for the filter thread to give back the next slot.<br/>
+     * the slot belongs to caller until {@link #queueFillBuff(RESAudioBuff, int)} or {@link #cancelFillBuff(RESAudioBuff)}
+     *
+     * @return slot to fill,null if not started or all slots are in use(overrun)
+     */
+    public RESAudioBuff dequeueFillBuff() {
+        return orignAudioBuffs.dequeueFillBuff();
+    }
+
+    /**
+     * hand a filled slot to filter thread,fillBuff.timestampUs should be set
+     */
+    public void queueFillBuff(RESAudioBuff fillBuff, int size) {
+        orignAudioBuffs.queueFillBuff(fillBuff, size);
+    }
+
+    /**
+     * give back a slot without queueing it,e.g. AudioRecord.read failed
+     */
+    public void cancelFillBuff(RESAudioBuff fillBuff) {
+        orignAudioBuffs.releaseBuff(fillBuff);
+    }
+
+    /**
+     * @return slices abandoned because every slot was waiting for filter/encoder
+     */
+    public long getOverrunCount() {
+        return orignAudioBuffs.getOverrunCount();
+    }
+
+    /**
+     * @return null before prepare
+     */
+    public RESEncoderStats.Snapshot getEncoderStats() {
+        synchronized (syncOp) {
+            return audioEncoder == null ? null : audioEncoder.getStats();
         }
     }
 
@@ -50,6 +114,13 @@ public class RESSoftAudioCore {
             resCoreParameters.mediacodecAACChannelCount = 1;
             resCoreParameters.mediacodecAACBitRate = 32 * 1024;
             resCoreParameters.mediacodecAACMaxInputSize = 8820;
+            try {
+                //created here so start does not wait for it
+                audioEncoder = new AudioEncoder(resCoreParameters);
+            } catch (Exception e) {
+                LogTools.trace("RESSoftAudioCore,create AudioEncoder failed", e);
+                return false;
+            }
             return true;
         }
     }
@@ -57,15 +128,17 @@ public class RESSoftAudioCore {
     public void start(RESFlvDataCollecter flvDataCollecter) {
         synchronized (syncOp) {
             try {
-                //每次start重新创建
-                audioEncoder = new AudioEncoder(resCoreParameters, flvDataCollecter);
-                audioEncoder.start();
+                audioEncoder.start(flvDataCollecter);
 
                 audioFilterHandlerThread = new HandlerThread("audioFilterHandlerThread");
                 audioFilterHandlerThread.start();
                 audioEncodeFilterHandler = new AudioEncodeFilterHandler(audioFilterHandlerThread.getLooper());
 
-                isStarting = true;
+                int size = resCoreParameters.audioRecoderBufferSize;
+                if (filteredAudioBuff == null || filteredAudioBuff.buff.length != size) {
+                    filteredAudioBuff = new RESAudioBuff(resCoreParameters.audioRecoderFormat, size);
+                }
+                orignAudioBuffs.start(resCoreParameters.audioBufferQueueNum, size, resCoreParameters.audioRecoderFormat);
             } catch (Exception e) {
                 LogTools.trace("RESSoftAudioCore", e);
             }
@@ -74,15 +147,15 @@ public class RESSoftAudioCore {
 
     public void stop() {
         synchronized (syncOp) {
-            isStarting = false;
+            orignAudioBuffs.stop();
             audioEncodeFilterHandler.removeCallbacksAndMessages(null);
             audioFilterHandlerThread.quit();
             try {
                 audioFilterHandlerThread.join();
-                audioEncoder.quit();
             } catch (InterruptedException e) {
                 LogTools.trace("RESSoftAudioCore", e);
             }
+            audioEncoder.stop();
         }
     }
 
@@ -101,14 +174,38 @@ public class RESSoftAudioCore {
             audioFilter.onDestroy();
         }
         audioFilter = baseSoftAudioFilter;
+        audioFilterCostNs = 0;
         if (audioFilter != null) {
-            audioFilter.onInit(resCoreParameters.mediacodecAACSampleRate / 5);
+            audioFilter.onInit(resCoreParameters.mediacodecAACSampleRate / 5, resCoreParameters.mediacodecAACSampleRate);
         }
         lockAudioFilter.unlock();
     }
 
+    /**
+     * @return onFrame nanoseconds of every filter in a {@link SoftAudioGroupFilter},
+     * or of the only filter,since it was set.null if there is no filter
+     */
+    public long[] getAudioFilterCostNs() {
+        lockAudioFilter.lock();
+        try {
+            if (audioFilter == null) {
+                return null;
+            }
+            if (audioFilter instanceof SoftAudioGroupFilter) {
+                return ((SoftAudioGroupFilter) audioFilter).getFilterCostNs();
+            }
+            return new long[]{audioFilterCostNs};
+        } finally {
+            lockAudioFilter.unlock();
+        }
+    }
+
     public void destroy() {
         synchronized (syncOp) {
+            if (audioEncoder != null) {
+                audioEncoder.release();
+                audioEncoder = null;
+            }
             lockAudioFilter.lock();
             if (audioFilter != null) {
                 audioFilter.onDestroy();
@@ -134,20 +231,26 @@ public class RESSoftAudioCore {
             }
             sequenceNum++;
             long nowTimeMs = System.currentTimeMillis();
-            byte[] orginBufferData = (byte[]) msg.obj;
-            int length = msg.arg1;
+            RESAudioBuff orignAudioBuff = (RESAudioBuff) msg.obj;
+            long ptsUs = orignAudioBuff.timestampUs;
+            byte[] orginBufferData = orignAudioBuff.buff;
+            int length = orignAudioBuff.size;
             boolean isFilterLocked = lockAudioFilter();
-            boolean filtered;
+            boolean filtered = false;
             if (isFilterLocked) {
-                byte[] filteredData = new byte[orginBufferData.length];
-                filtered = audioFilter.onFrame(orginBufferData, filteredData, nowTimeMs, sequenceNum);
+                if (!audioFilter.isPassthrough()) {
+                    long startNs = System.nanoTime();
+                    filtered = audioFilter.onFrame(orginBufferData, filteredAudioBuff.buff, ptsUs / 1000, sequenceNum);
+                    audioFilterCostNs += System.nanoTime() - startNs;
+                }
                 unlockAudioFilter();
                 if (filtered) {
-                    orginBufferData = filteredData;
+                    orginBufferData = filteredAudioBuff.buff;
                 }
             }
             //orignAudioBuff is ready
-            audioEncoder.queueData(orginBufferData, length, nowTimeMs);
+            audioEncoder.queueData(orginBufferData, length, ptsUs);
+            orignAudioBuffs.releaseBuff(orignAudioBuff);
             LogTools.d("AudioFilterHandler,ProcessTime:" + (System.currentTimeMillis() - nowTimeMs));
         }
 
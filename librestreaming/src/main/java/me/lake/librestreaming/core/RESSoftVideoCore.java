@@ -21,6 +21,8 @@ import me.lake.librestreaming.core.listener.RESScreenShotListener;
 import me.lake.librestreaming.core.listener.RESVideoChangeListener;
 import me.lake.librestreaming.encoder.VideoEncoder;
 import me.lake.librestreaming.filter.softvideofilter.BaseSoftVideoFilter;
+import me.lake.librestreaming.filter.softvideofilter.BaseTiledSoftVideoFilter;
+import me.lake.librestreaming.filter.softvideofilter.SoftVideoGroupFilter;
 import me.lake.librestreaming.model.RESConfig;
 import me.lake.librestreaming.model.RESCoreParameters;
 import me.lake.librestreaming.model.RESVideoBuff;
@@ -30,6 +32,7 @@ import me.lake.librestreaming.render.NativeRender;
 import me.lake.librestreaming.rtmp.RESFlvDataCollecter;
 import me.lake.librestreaming.tools.BuffSizeCalculator;
 import me.lake.librestreaming.tools.LogTools;
+import me.lake.librestreaming.tools.RESTripleBuffer;
 
 /**
  * Created by lake on 16-5-24.
@@ -39,7 +42,7 @@ public class RESSoftVideoCore implements RESVideoCore {
     private final Object syncOp = new Object();
     private SurfaceTexture cameraTexture;
 
-    private int currentCamera;
+    private volatile int currentCamera;
     private boolean isEncoderStarted;
     private final Object syncDstVideoEncoder = new Object();
     //render
@@ -50,18 +53,15 @@ public class RESSoftVideoCore implements RESVideoCore {
     private BaseSoftVideoFilter videoFilter;
     private VideoEncoderFilterHandler videoEncoderFilterHandler;
     private HandlerThread videoFilterHandlerThread;
+    private RESFilterBandExecutor filterBandExecutor;
     //sender
     private VideoEncoder videoEncoder;
     //VideoBuffs
-    //buffers to handle buff from queueVideo
-    private RESVideoBuff[] orignVideoBuffs;
-    private int lastVideoQueueBuffIndex;
-    //buffer to convert orignVideoBuff to NV21 if filter are set
-    private RESVideoBuff orignNV21VideoBuff;
+    //NV21 frames from queueVideo to filter thread,latest frame wins.
+    //queueVideo does not take syncOp,so camera delivery never waits for start/stop
+    private volatile RESTripleBuffer<RESVideoBuff> orignVideoBuffs;
     //buffer to handle filtered color from filter if filter are set
     private RESVideoBuff filteredNV21VideoBuff;
-    //buffer to convert other color format to suitable color format for dstVideoEncoder if nessesary
-    private RESVideoBuff suitable4VideoEncoderBuff;
 
     final private Object syncResScreenShotListener = new Object();
     private RESScreenShotListener resScreenShotListener;
@@ -79,16 +79,10 @@ public class RESSoftVideoCore implements RESVideoCore {
 
     public void setCurrentCamera(int camIndex) {
         if (currentCamera != camIndex) {
-            synchronized (syncOp) {
-                if (videoEncoderFilterHandler != null) {
-                    videoEncoderFilterHandler.removeMessages(VideoEncoderFilterHandler.WHAT_INCOMING_BUFF);
-                }
-                if (orignVideoBuffs != null) {
-                    for (RESVideoBuff buff : orignVideoBuffs) {
-                        buff.isReadyToFill = true;
-                    }
-                    lastVideoQueueBuffIndex = 0;
-                }
+            //latest frame is from previous camera
+            RESTripleBuffer<RESVideoBuff> buffs = orignVideoBuffs;
+            if (buffs != null) {
+                buffs.discardLatest();
             }
         }
         currentCamera = camIndex;
@@ -99,9 +93,9 @@ public class RESSoftVideoCore implements RESVideoCore {
         synchronized (syncOp) {
             resCoreParameters.renderingMode = resConfig.getRenderingMode();
             resCoreParameters.mediacdoecAVCBitRate = resConfig.getBitRate();
-            resCoreParameters.videoBufferQueueNum = resConfig.getVideoBufferQueueNum();
             resCoreParameters.mediacodecAVCIFrameInterval = resConfig.getVideoGOP();
             resCoreParameters.mediacodecAVCFrameRate = resCoreParameters.videoFPS;
+            resCoreParameters.softVideoFilterThreadNum = Math.max(0, resConfig.getSoftVideoFilterThreadNum());
             loopingInterval = 1000 / resCoreParameters.videoFPS;
             synchronized (syncDstVideoEncoder) {
                 isEncoderStarted = false;
@@ -111,18 +105,25 @@ public class RESSoftVideoCore implements RESVideoCore {
             //video
             int videoWidth = resCoreParameters.videoWidth;
             int videoHeight = resCoreParameters.videoHeight;
-            int videoQueueNum = resCoreParameters.videoBufferQueueNum;
-            orignVideoBuffs = new RESVideoBuff[videoQueueNum];
-            for (int i = 0; i < videoQueueNum; i++) {
-                orignVideoBuffs[i] = new RESVideoBuff(resCoreParameters.previewColorFormat, resCoreParameters.previewBufferSize);
-            }
-            lastVideoQueueBuffIndex = 0;
-            orignNV21VideoBuff = new RESVideoBuff(MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar,
-                    BuffSizeCalculator.calculator(videoWidth, videoHeight, MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar));
+            orignVideoBuffs = new RESTripleBuffer<>(
+                    new RESVideoBuff(resCoreParameters.previewColorFormat, resCoreParameters.previewBufferSize),
+                    new RESVideoBuff(resCoreParameters.previewColorFormat, resCoreParameters.previewBufferSize),
+                    new RESVideoBuff(resCoreParameters.previewColorFormat, resCoreParameters.previewBufferSize));
             filteredNV21VideoBuff = new RESVideoBuff(MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar,
                     BuffSizeCalculator.calculator(videoWidth, videoHeight, MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar));
-            suitable4VideoEncoderBuff = new RESVideoBuff(resCoreParameters.mediacodecAVCColorFormat,
-                    BuffSizeCalculator.calculator(videoWidth, videoHeight, resCoreParameters.mediacodecAVCColorFormat));
+            lockVideoFilter.lock();
+            filterBandExecutor = new RESFilterBandExecutor(resCoreParameters.softVideoFilterThreadNum);
+            if (videoFilter instanceof SoftVideoGroupFilter) {
+                ((SoftVideoGroupFilter) videoFilter).setBandExecutor(filterBandExecutor);
+            }
+            lockVideoFilter.unlock();
+            try {
+                //created here so startStreaming does not wait for it
+                videoEncoder = new VideoEncoder(resCoreParameters);
+            } catch (Exception e) {
+                LogTools.trace("RESSoftVideoCore,create VideoEncoder failed", e);
+                return false;
+            }
             videoFilterHandlerThread = new HandlerThread("videoFilterHandlerThread");
             videoFilterHandlerThread.start();
             videoEncoderFilterHandler = new VideoEncoderFilterHandler(videoFilterHandlerThread.getLooper());
@@ -135,8 +136,7 @@ public class RESSoftVideoCore implements RESVideoCore {
         synchronized (syncOp) {
             try {
                 synchronized (syncDstVideoEncoder) {
-                    videoEncoder = new VideoEncoder(resCoreParameters, flvDataCollecter);
-                    videoEncoder.start();
+                    videoEncoder.start(flvDataCollecter);
                     isEncoderStarted = true;
                 }
                 synchronized (syncIsLooping) {
@@ -163,14 +163,13 @@ public class RESSoftVideoCore implements RESVideoCore {
         synchronized (syncOp) {
             synchronized (syncDstVideoEncoder) {
                 if (videoEncoder != null) {
-                    videoEncoder.quit();
+                    videoEncoder.stop();
                 }
                 isEncoderStarted = false;
             }
             synchronized (syncIsLooping) {
                 isStreaming = false;
             }
-            videoEncoder = null;
             return true;
         }
     }
@@ -179,10 +178,27 @@ public class RESSoftVideoCore implements RESVideoCore {
     @Override
     public boolean destroy() {
         synchronized (syncOp) {
+            videoFilterHandlerThread.quitSafely();
+            try {
+                videoFilterHandlerThread.join();
+            } catch (InterruptedException ignored) {
+            }
+            synchronized (syncDstVideoEncoder) {
+                videoEncoder.release();
+                videoEncoder = null;
+            }
             lockVideoFilter.lock();
             if (videoFilter != null) {
                 videoFilter.onDestroy();
             }
+            //bands only run with lockVideoFilter held
+            if (videoFilter instanceof SoftVideoGroupFilter) {
+                ((SoftVideoGroupFilter) videoFilter).setBandExecutor(null);
+            }
+            if (filterBandExecutor != null) {
+                filterBandExecutor.shutdown();
+                filterBandExecutor = null;
+            }
             lockVideoFilter.unlock();
             return true;
         }
@@ -199,6 +215,15 @@ public class RESSoftVideoCore implements RESVideoCore {
         }
     }
 
+    @Override
+    public void requestKeyFrame() {
+        synchronized (syncOp) {
+            if (videoEncoderFilterHandler != null) {
+                videoEncoderFilterHandler.sendEmptyMessage(VideoEncoderFilterHandler.WHAT_REQUEST_KEYFRAME);
+            }
+        }
+    }
+
     @TargetApi(Build.VERSION_CODES.KITKAT)
     @Override
     public int getVideoBitrate() {
@@ -276,19 +301,34 @@ public class RESSoftVideoCore implements RESVideoCore {
         }
     }
 
+    /**
+     * called from camera thread only,the single producer of orignVideoBuffs
+     */
     public void queueVideo(byte[] rawVideoFrame) {
-        synchronized (syncOp) {
-            int targetIndex = (lastVideoQueueBuffIndex + 1) % orignVideoBuffs.length;
-            if (orignVideoBuffs[targetIndex].isReadyToFill) {
-                LogTools.d("queueVideo,accept ,targetIndex" + targetIndex);
-                acceptVideo(rawVideoFrame, orignVideoBuffs[targetIndex].buff);
-                orignVideoBuffs[targetIndex].isReadyToFill = false;
-                lastVideoQueueBuffIndex = targetIndex;
-                videoEncoderFilterHandler.sendMessage(videoEncoderFilterHandler.obtainMessage(VideoEncoderFilterHandler.WHAT_INCOMING_BUFF, targetIndex, 0));
-            } else {
-                LogTools.d("queueVideo,abandon,targetIndex" + targetIndex);
-            }
+        RESTripleBuffer<RESVideoBuff> buffs = orignVideoBuffs;
+        if (buffs == null) {
+            return;
         }
+        RESVideoBuff targetBuff = buffs.getWriteBuff();
+        targetBuff.timestampNs = System.nanoTime();
+        acceptVideo(rawVideoFrame, targetBuff.buff);
+        buffs.publish();
+    }
+
+    /**
+     * @return camera frames overwritten before filter thread took them
+     */
+    public long getDroppedFrameCount() {
+        RESTripleBuffer<RESVideoBuff> buffs = orignVideoBuffs;
+        return buffs == null ? 0 : buffs.getDroppedCount();
+    }
+
+    /**
+     * @return draws that found no new camera frame and encoded the last one again
+     */
+    public long getDuplicatedFrameCount() {
+        RESTripleBuffer<RESVideoBuff> buffs = orignVideoBuffs;
+        return buffs == null ? 0 : buffs.getDuplicatedCount();
     }
 
 
@@ -319,6 +359,9 @@ public class RESSoftVideoCore implements RESVideoCore {
         if (videoFilter != null) {
             videoFilter.onInit(resCoreParameters.videoWidth, resCoreParameters.videoHeight);
         }
+        if (videoFilter instanceof SoftVideoGroupFilter) {
+            ((SoftVideoGroupFilter) videoFilter).setBandExecutor(filterBandExecutor);
+        }
         lockVideoFilter.unlock();
     }
 
@@ -340,12 +383,19 @@ public class RESSoftVideoCore implements RESVideoCore {
         }
     }
 
+    @Override
+    public RESEncoderStats.Snapshot getEncoderStats() {
+        synchronized (syncOp) {
+            return videoEncoder == null ? null : videoEncoder.getStats();
+        }
+    }
+
     //worker handler
     private class VideoEncoderFilterHandler extends Handler {
         public static final int FILTER_LOCK_TOLERATION = 3;//3ms
-        public static final int WHAT_INCOMING_BUFF = 1;
         public static final int WHAT_DRAW = 2;
         public static final int WHAT_RESET_BITRATE = 3;
+        public static final int WHAT_REQUEST_KEYFRAME = 4;
         private int sequenceNum;
         private RESFrameRateMeter drawFrameRateMeter;
 
@@ -362,17 +412,6 @@ public class RESSoftVideoCore implements RESVideoCore {
         @Override
         public void handleMessage(Message msg) {
             switch (msg.what) {
-                case WHAT_INCOMING_BUFF: {
-                    int targetIndex = msg.arg1;
-                    /**
-                     * orignVideoBuffs[targetIndex] is ready
-                     * orignVideoBuffs[targetIndex]->orignNV21VideoBuff
-                     */
-                    System.arraycopy(orignVideoBuffs[targetIndex].buff, 0,
-                            orignNV21VideoBuff.buff, 0, orignNV21VideoBuff.buff.length);
-                    orignVideoBuffs[targetIndex].isReadyToFill = true;
-                }
-                break;
                 case WHAT_DRAW: {
                     long time = (Long) msg.obj;
                     long interval = time + loopingInterval - SystemClock.uptimeMillis();
@@ -391,54 +430,59 @@ public class RESSoftVideoCore implements RESVideoCore {
                         }
                     }
                     sequenceNum++;
+                    long drawStartNs = System.nanoTime();
                     long nowTimeMs = SystemClock.uptimeMillis();
+                    if (orignVideoBuffs.acquireLatest()) {
+                        RESPipelineStats.i().recordSince(RESPipelineStats.STAGE_CAPTURE, orignVideoBuffs.getReadBuff().timestampNs);
+                    }
+                    byte[] orignNV21 = orignVideoBuffs.getReadBuff().buff;
+                    byte[] nv21 = orignNV21;
                     boolean isFilterLocked = lockVideoFilter();
                     if (isFilterLocked) {
                         boolean modified;
-                        modified = videoFilter.onFrame(orignNV21VideoBuff.buff, filteredNV21VideoBuff.buff, nowTimeMs, sequenceNum);
-                        unlockVideoFilter();
-                        rendering(modified ? filteredNV21VideoBuff.buff : orignNV21VideoBuff.buff);
-                        checkScreenShot(modified ? filteredNV21VideoBuff.buff : orignNV21VideoBuff.buff);
-                        /**
-                         * orignNV21VideoBuff is ready
-                         * orignNV21VideoBuff->suitable4VideoEncoderBuff
-                         */
-                        if (resCoreParameters.mediacodecAVCColorFormat == MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar) {
-                            ColorHelper.NV21TOYUV420SP(modified ? filteredNV21VideoBuff.buff : orignNV21VideoBuff.buff,
-                                    suitable4VideoEncoderBuff.buff, resCoreParameters.videoWidth * resCoreParameters.videoHeight);
-                        } else if (resCoreParameters.mediacodecAVCColorFormat == MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Planar) {
-                            ColorHelper.NV21TOYUV420P(modified ? filteredNV21VideoBuff.buff : orignNV21VideoBuff.buff,
-                                    suitable4VideoEncoderBuff.buff, resCoreParameters.videoWidth * resCoreParameters.videoHeight);
-                        } else {//LAKETODO colorConvert
+                        if (videoFilter.isPassthrough()) {
+                            modified = false;
+                        } else if (videoFilter instanceof BaseTiledSoftVideoFilter && filterBandExecutor != null) {
+                            modified = filterBandExecutor.runFilter((BaseTiledSoftVideoFilter) videoFilter,
+                                    orignNV21, filteredNV21VideoBuff.buff, resCoreParameters.videoHeight, nowTimeMs, sequenceNum);
+                        } else {
+                            modified = videoFilter.onFrame(orignNV21, filteredNV21VideoBuff.buff, nowTimeMs, sequenceNum);
                         }
-                    } else {
-                        rendering(orignNV21VideoBuff.buff);
-                        checkScreenShot(orignNV21VideoBuff.buff);
-                        if (resCoreParameters.mediacodecAVCColorFormat == MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar) {
-                            ColorHelper.NV21TOYUV420SP(orignNV21VideoBuff.buff,
-                                    suitable4VideoEncoderBuff.buff,
-                                    resCoreParameters.videoWidth * resCoreParameters.videoHeight);
-                        } else if (resCoreParameters.mediacodecAVCColorFormat == MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Planar) {
-                            ColorHelper.NV21TOYUV420P(orignNV21VideoBuff.buff,
-                                    suitable4VideoEncoderBuff.buff,
-                                    resCoreParameters.videoWidth * resCoreParameters.videoHeight);
+                        unlockVideoFilter();
+                        if (modified) {
+                            nv21 = filteredNV21VideoBuff.buff;
                         }
-                        orignNV21VideoBuff.isReadyToFill = true;
                     }
+                    rendering(nv21);
+                    checkScreenShot(nv21);
                     drawFrameRateMeter.count();
-                    //suitable4VideoEncoderBuff is ready
+                    /**
+                     * nv21 is ready
+                     * nv21->encoder input buffer in mediacodecAVCColorFormat
+                     */
                     synchronized (syncDstVideoEncoder) {
                         if (videoEncoder != null) {
-                            videoEncoder.queueData(suitable4VideoEncoderBuff.buff, nowTimeMs);
+                            videoEncoder.queueNV21Data(nv21, nowTimeMs);
                         }
                     }
+                    RESPipelineStats.i().recordSince(RESPipelineStats.STAGE_DRAW, drawStartNs);
 
                     LogTools.d("VideoFilterHandler,ProcessTime:" + (System.currentTimeMillis() - nowTimeMs));
                 }
                 break;
                 case WHAT_RESET_BITRATE: {
-                    if (videoEncoder != null) {
-                        videoEncoder.resetBitRate(msg.arg1);
+                    synchronized (syncDstVideoEncoder) {
+                        if (videoEncoder != null) {
+                            videoEncoder.resetBitRate(msg.arg1);
+                        }
+                    }
+                }
+                break;
+                case WHAT_REQUEST_KEYFRAME: {
+                    synchronized (syncDstVideoEncoder) {
+                        if (videoEncoder != null) {
+                            videoEncoder.requestKeyFrame();
+                        }
                     }
                 }
                 break;
@@ -34,6 +34,8 @@ public interface RESVideoCore {
 
     int getVideoBitrate();
 
+    void requestKeyFrame();
+
     void reSetVideoFPS(int fps);
 
     void reSetVideoSize(RESCoreParameters newParameters);
@@ -45,4 +47,9 @@ public interface RESVideoCore {
     void setVideoChangeListener(RESVideoChangeListener listener);
 
     float getDrawFrameRate();
+
+    /**
+     * @return null before prepare
+     */
+    RESEncoderStats.Snapshot getEncoderStats();
 }
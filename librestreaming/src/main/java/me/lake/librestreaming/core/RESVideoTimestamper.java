@@ -0,0 +1,83 @@
+package me.lake.librestreaming.core;
+
+/**
+ * Derives monotonic video dts for frames output in decode order,pts may go back when encoder uses B-frames.<br/>
+ * n-th output is decoded at pts of n-th input,shifted back by delayUs so that dts&lt;=pts.
+ * delayUs starts at the reorder depth the encoder was configured with,and grows whenever an output pts falls before its dts.<br/>
+ * inputs never output(skipped by encoder) are forgotten:at once while nothing was reordered,
+ * STALE_US after newest output pts otherwise.<br/>
+ * without reordering dts==pts.
+ */
+public class RESVideoTimestamper {
+    static final long STALE_US = 1000000;
+    private static final int INPUT_NUM = 64;
+    private final long initialDelayUs;
+    private final long[] inputPtsUs = new long[INPUT_NUM];
+    private int inputHead;
+    private int inputCount;
+    private long delayUs;
+    private long lastDtsUs;
+    private long maxPtsUs;
+
+    /**
+     * @param initialDelayUs expected reorder depth,0 if encoder is not asked for B-frames
+     */
+    public RESVideoTimestamper(long initialDelayUs) {
+        this.initialDelayUs = Math.max(0, initialDelayUs);
+        reset();
+    }
+
+    /**
+     * @param ptsUs pts of the frame just queued into encoder
+     */
+    public synchronized void onInput(long ptsUs) {
+        if (inputCount == INPUT_NUM) {
+            popInput();
+        }
+        inputPtsUs[(inputHead + inputCount) % INPUT_NUM] = ptsUs;
+        inputCount++;
+    }
+
+    /**
+     * @param ptsUs pts of the frame encoder just output
+     * @return its dts,never smaller than the last one
+     */
+    public synchronized long onOutput(long ptsUs) {
+        maxPtsUs = Math.max(maxPtsUs, ptsUs);
+        long staleUs = delayUs == 0 ? ptsUs : maxPtsUs - STALE_US;
+        while (inputCount > 0 && inputPtsUs[inputHead] < staleUs) {
+            popInput();
+        }
+        long dtsUs = Math.max(lastDtsUs, (inputCount > 0 ? popInput() : ptsUs) - delayUs);
+        if (dtsUs > ptsUs) {
+            //reordered deeper than delayUs,also when its input was taken as skipped
+            delayUs += dtsUs - ptsUs;
+            //may leave dts>pts once while delayUs is still growing
+            dtsUs = Math.max(ptsUs, lastDtsUs);
+        }
+        lastDtsUs = dtsUs;
+        return dtsUs;
+    }
+
+    /**
+     * @return current pts-dts shift
+     */
+    public synchronized long getDelayUs() {
+        return delayUs;
+    }
+
+    public synchronized void reset() {
+        inputHead = 0;
+        inputCount = 0;
+        delayUs = initialDelayUs;
+        lastDtsUs = Long.MIN_VALUE;
+        maxPtsUs = Long.MIN_VALUE;
+    }
+
+    private long popInput() {
+        long ptsUs = inputPtsUs[inputHead];
+        inputHead = (inputHead + 1) % INPUT_NUM;
+        inputCount--;
+        return ptsUs;
+    }
+}
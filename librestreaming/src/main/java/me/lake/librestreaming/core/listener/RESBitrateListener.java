@@ -0,0 +1,37 @@
+package me.lake.librestreaming.core.listener;
+
+/**
+ * callback of adaptive bitrate controller,called on main thread
+ */
+public interface RESBitrateListener {
+    /**
+     * @param oldBitrate     bits/sec
+     * @param newBitrate     bits/sec
+     * @param queueOccupancy [0.0,1.0] of sender queue when decided
+     * @param sendBitrate    video bits/sec measured when decided
+     */
+    void onBitrateChanged(int oldBitrate, int newBitrate, float queueOccupancy, int sendBitrate);
+
+    class RESBitrateChangedRunable implements Runnable {
+        RESBitrateListener bitrateListener;
+        int oldBitrate;
+        int newBitrate;
+        float queueOccupancy;
+        int sendBitrate;
+
+        public RESBitrateChangedRunable(RESBitrateListener bitrateListener, int oldBitrate, int newBitrate, float queueOccupancy, int sendBitrate) {
+            this.bitrateListener = bitrateListener;
+            this.oldBitrate = oldBitrate;
+            this.newBitrate = newBitrate;
+            this.queueOccupancy = queueOccupancy;
+            this.sendBitrate = sendBitrate;
+        }
+
+        @Override
+        public void run() {
+            if (bitrateListener != null) {
+                bitrateListener.onBitrateChanged(oldBitrate, newBitrate, queueOccupancy, sendBitrate);
+            }
+        }
+    }
+}
@@ -1,54 +1,194 @@
 package me.lake.librestreaming.encoder;
 
+import android.annotation.TargetApi;
 import android.media.MediaCodec;
 import android.media.MediaFormat;
+import android.os.Build;
 import android.os.Handler;
 import android.os.HandlerThread;
 
 import java.nio.ByteBuffer;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import me.lake.librestreaming.core.MediaCodecHelper;
+import me.lake.librestreaming.core.RESEncoderStats;
 import me.lake.librestreaming.model.RESCoreParameters;
 import me.lake.librestreaming.rtmp.RESFlvData;
 import me.lake.librestreaming.rtmp.RESFlvDataCollecter;
+import me.lake.librestreaming.rtmp.RESFlvDataPool;
 import me.lake.librestreaming.rtmp.RESRtmpSender;
 import me.lake.librestreaming.tools.LogTools;
 
 /**
- * Created by lakeinchina on 26/05/16.
+ * Created by lakeinchina on 26/05/16.<br/>
+ * MediaCodec is created and configured once,stop() configures it again for next start(),
+ * output is drained by one HandlerThread living till {@link #release()},
+ * by MediaCodec.Callback if {@link RESCoreParameters#mediacodecAsync},by polling otherwise.<br/>
+ * queueData waits INPUT_WAIT_US at most for a free input buffer,the pcm is dropped and counted otherwise.
  */
 public class AudioEncoder {
-    private static final long WAIT_TIME = -1;//1ms;
-    private long startTime;
+    //finite,so stop() does not wait for an output which never comes
+    private static final long WAIT_TIME = 5000;//5ms
+    private static final long INPUT_WAIT_US = 10000;
+    private static final MediaCodecFactory AUDIO_CODEC_FACTORY = new MediaCodecFactory() {
+        @Override
+        public MediaCodec create(RESCoreParameters resCoreParameters, MediaFormat format) {
+            return MediaCodecHelper.createAudioMediaCodec(resCoreParameters, format);
+        }
+    };
     private MediaCodec dstAudioEncoder;
+    private final boolean isAsync;
+    private final MediaCodecFactory codecFactory;
+    //async mode,input buffers given by onInputBufferAvailable
+    private final LinkedBlockingQueue<Integer> freeInputIndexes = new LinkedBlockingQueue<>();
+    private final RESEncoderStats encoderStats = new RESEncoderStats();
     private RESFlvDataCollecter dataCollecter;
-    private boolean shouldQuit = false;
+    private volatile boolean shouldQuit = true;
+    private final Object syncRunning = new Object();
+    private boolean isRunning = false;
+    private boolean isConfigured = false;
     private RESCoreParameters resCoreParameters;
     private MediaFormat dstAudioFormat;
+    private HandlerThread audioEncoderThread;
+    private Handler audioEncoderHandler;
+
+    /**
+     * creates and configures the encoder,call it in prepare so streaming need not wait for it
+     */
+    public AudioEncoder(RESCoreParameters resCoreParameters) {
+        this(resCoreParameters, resCoreParameters.mediacodecAsync && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M,
+                AUDIO_CODEC_FACTORY);
+    }
 
-    public AudioEncoder(RESCoreParameters resCoreParameters, RESFlvDataCollecter flvDataCollecter) {
-        startTime = System.currentTimeMillis();
-        dataCollecter = flvDataCollecter;
+    AudioEncoder(RESCoreParameters resCoreParameters, boolean isAsync, MediaCodecFactory codecFactory) {
+        this.resCoreParameters = resCoreParameters;
+        this.isAsync = isAsync;
+        this.codecFactory = codecFactory;
+        //callbacks are bound to its looper,so it is needed before configure
+        audioEncoderThread = new HandlerThread("Audio Encoder Thread");
+        audioEncoderThread.start();
+        audioEncoderHandler = new Handler(audioEncoderThread.getLooper());
         dstAudioFormat = new MediaFormat();
-        dstAudioEncoder = MediaCodecHelper.createAudioMediaCodec(resCoreParameters, dstAudioFormat);
-        if (dstAudioEncoder != null) {
-            dstAudioEncoder.configure(dstAudioFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        dstAudioEncoder = codecFactory.create(resCoreParameters, dstAudioFormat);
+        if (dstAudioEncoder == null) {
+            audioEncoderThread.quit();
+            throw new RuntimeException("create Audio MediaCodec failed");
+        }
+        configure();
+    }
+
+    /**
+     * configure if not configured,
+     * a codec failing to configure again is replaced by a new one
+     */
+    private void configure() {
+        if (isConfigured) {
+            return;
+        }
+        try {
+            configureCodec();
+        } catch (Exception e) {
+            LogTools.trace("AudioEncoder,configure failed,create a new encoder", e);
+            dstAudioEncoder.release();
+            dstAudioFormat = new MediaFormat();
+            dstAudioEncoder = codecFactory.create(resCoreParameters, dstAudioFormat);
+            if (dstAudioEncoder == null) {
+                throw new RuntimeException("create Audio MediaCodec failed");
+            }
+            configureCodec();
         }
+        isConfigured = true;
     }
 
-    public void start() {
-        shouldQuit = false;
-        dstAudioEncoder.start();
-        run();
+    @TargetApi(Build.VERSION_CODES.M)
+    private void configureCodec() {
+        if (isAsync) {
+            //callback is cleared by reset,set it every time
+            dstAudioEncoder.setCallback(new EncoderCallback(), audioEncoderHandler);
+        }
+        dstAudioEncoder.configure(dstAudioFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
     }
 
-    public void quit() {
-        shouldQuit = true;
+    public void start(RESFlvDataCollecter flvDataCollecter) {
+        synchronized (syncRunning) {
+            if (isRunning) {
+                return;
+            }
+            configure();
+            dataCollecter = flvDataCollecter;
+            encoderStats.reset();
+            freeInputIndexes.clear();
+            shouldQuit = false;
+            isRunning = true;
+            dstAudioEncoder.start();
+        }
+        if (!isAsync) {
+            audioEncoderHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    encode();
+                }
+            });
+        }
     }
 
-    public void queueData(byte[] data, int length, long timeMs) {
+    /**
+     * blocks till encode thread has stopped the encoder and configured it again
+     */
+    public void stop() {
+        synchronized (syncRunning) {
+            if (isAsync && !shouldQuit) {
+                //callbacks arriving before it are ignored
+                audioEncoderHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        finishSession();
+                    }
+                });
+            }
+            shouldQuit = true;
+            while (isRunning) {
+                try {
+                    syncRunning.wait();
+                } catch (InterruptedException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * stop and release the encoder and its thread,it can not be started again
+     */
+    public void release() {
+        stop();
+        audioEncoderThread.quitSafely();
+        try {
+            audioEncoderThread.join();
+        } catch (InterruptedException ignored) {
+        }
+        synchronized (syncRunning) {
+            dstAudioEncoder.release();
+            isConfigured = false;
+        }
+    }
+
+    /**
+     * @return queue depth,latency,dropped inputs and errors of current/last session
+     */
+    public RESEncoderStats.Snapshot getStats() {
+        return encoderStats.snapshot();
+    }
+
+    /**
+     * @param ptsUs pts of first sample,output frames are stamped by the pts MediaCodec derives from it
+     */
+    public void queueData(byte[] data, int length, long ptsUs) {
+        if (shouldQuit) {
+            return;
+        }
         //orignAudioBuff is ready
-        int eibIndex = dstAudioEncoder.dequeueInputBuffer(-1);
+        int eibIndex = dequeueInputBuffer();
         if (eibIndex >= 0) {
             ByteBuffer inputBuffer = dstAudioEncoder.getInputBuffer(eibIndex);
             if (inputBuffer != null) {
@@ -56,73 +196,149 @@ public class AudioEncoder {
                 int bufferRemaining = inputBuffer.remaining();
                 //剩余buffer大小
                 inputBuffer.put(data, 0, Math.min(bufferRemaining, length));
-                dstAudioEncoder.queueInputBuffer(eibIndex, 0, inputBuffer.position(), timeMs * 1000, 0);
+                dstAudioEncoder.queueInputBuffer(eibIndex, 0, inputBuffer.position(), ptsUs, 0);
+                encoderStats.onInput(ptsUs);
             }
-        } else {
-            LogTools.d("dstAudioEncoder.dequeueInputBuffer(-1)<0");
         }
     }
 
-    private void run() {
-        HandlerThread audioEncoderThread = new HandlerThread("Audio Encoder Thread");
-        audioEncoderThread.start();
-
-        Handler handler = new Handler(audioEncoderThread.getLooper());
-        handler.post(new Runnable() {
-            @Override
-            public void run() {
-                encode();
+    /**
+     * @return -1 if no input buffer got free in INPUT_WAIT_US,the pcm is counted as dropped
+     */
+    private int dequeueInputBuffer() {
+        int index = -1;
+        try {
+            if (isAsync) {
+                Integer freeIndex = freeInputIndexes.poll(INPUT_WAIT_US, TimeUnit.MICROSECONDS);
+                index = freeIndex == null ? -1 : freeIndex;
+            } else {
+                index = dstAudioEncoder.dequeueInputBuffer(INPUT_WAIT_US);
             }
-        });
+        } catch (InterruptedException ignored) {
+        } catch (IllegalStateException e) {
+            LogTools.trace("AudioEncoder,dequeueInputBuffer", e);
+        }
+        if (index < 0) {
+            encoderStats.onDrop();
+            LogTools.d("AudioEncoder,no input buffer in " + INPUT_WAIT_US + "us,pcm dropped");
+        }
+        return index;
     }
 
+    /**
+     * sync mode,polls output till stop()
+     */
     private void encode() {
         MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
         while (!shouldQuit) {
-            int outputBufferIndex = dstAudioEncoder.dequeueOutputBuffer(bufferInfo, WAIT_TIME);
-            if (outputBufferIndex > 0) {
-                ByteBuffer encodedData = dstAudioEncoder.getOutputBuffer(outputBufferIndex);
-                if (encodedData == null) {
-                    continue;
+            int outputBufferIndex = MediaCodec.INFO_TRY_AGAIN_LATER;
+            try {
+                outputBufferIndex = dstAudioEncoder.dequeueOutputBuffer(bufferInfo, WAIT_TIME);
+            } catch (Exception e) {
+                LogTools.trace("AudioEncoder,dequeueOutputBuffer", e);
+                encoderStats.onError();
+            }
+            if (outputBufferIndex >= 0) {
+                onOutputBuffer(outputBufferIndex, bufferInfo);
+                if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                    //end of stream
+                    break;
                 }
-                encodedData.position(bufferInfo.offset);
-                encodedData.limit(bufferInfo.offset + bufferInfo.size);
-                byte[] data = new byte[bufferInfo.size];
-                encodedData.get(data, 0, bufferInfo.size);
-//                encodedData.position(bufferInfo.offset);
+            } else if (outputBufferIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                onOutputFormatChanged(dstAudioEncoder.getOutputFormat());
+            }
+        }
+        finishSession();
+    }
 
-                long time = System.currentTimeMillis() - startTime;
-                sendRealData(time, data);
+    private void onOutputFormatChanged(MediaFormat format) {
+        ByteBuffer byteBuffer = format.getByteBuffer("csd-0");
+        if (byteBuffer != null) {
+            byte[] data = new byte[byteBuffer.remaining()];
+            byteBuffer.get(data, 0, byteBuffer.remaining());
+            sendAudioSpecificConfig(0, data);
+        }
+    }
 
-                dstAudioEncoder.releaseOutputBuffer(outputBufferIndex, false);
-            } else if (outputBufferIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
-                ByteBuffer byteBuffer = dstAudioEncoder.getOutputFormat().getByteBuffer("csd-0");
-                if (byteBuffer != null) {
-                    byte[] data = new byte[byteBuffer.remaining()];
-                    byteBuffer.get(data, 0, byteBuffer.remaining());
-                    long time = System.currentTimeMillis() - startTime;
-                    sendAudioSpecificConfig(time, data);
-                }
+    /**
+     * send and release one output buffer,encode thread only
+     */
+    private void onOutputBuffer(int index, MediaCodec.BufferInfo bufferInfo) {
+        //AudioSpecificConfig is sent from output format
+        if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) == 0 && bufferInfo.size != 0) {
+            ByteBuffer encodedData = dstAudioEncoder.getOutputBuffer(index);
+            if (encodedData != null) {
+                encodedData.limit(bufferInfo.offset + bufferInfo.size);
+                encodedData.position(bufferInfo.offset);
+                encoderStats.onOutput(bufferInfo.presentationTimeUs);
+                long time = Math.max(0, (bufferInfo.presentationTimeUs - resCoreParameters.mediaClockBaseUs) / 1000);
+                sendRealData(time, encodedData);
+            }
+        }
+        dstAudioEncoder.releaseOutputBuffer(index, false);
+    }
+
+    /**
+     * encode thread,stop the codec and configure it for next session
+     */
+    private void finishSession() {
+        synchronized (syncRunning) {
+            try {
+                dstAudioEncoder.stop();
+            } catch (Exception e) {
+                LogTools.trace("AudioEncoder,stop", e);
             }
-            if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
-                //end of stream
-                break;
+            isConfigured = false;
+            try {
+                configure();
+            } catch (Exception e) {
+                //tried again by next start
+                LogTools.trace("AudioEncoder,configure", e);
             }
+            shouldQuit = true;
+            isRunning = false;
+            syncRunning.notifyAll();
         }
-        release();
     }
 
-    private void release() {
-        shouldQuit = true;
-        dstAudioEncoder.stop();
-        dstAudioEncoder.release();
-        dstAudioEncoder = null;
+    /**
+     * async mode,called on encode thread
+     */
+    @TargetApi(Build.VERSION_CODES.M)
+    private class EncoderCallback extends MediaCodec.Callback {
+        @Override
+        public void onInputBufferAvailable(MediaCodec codec, int index) {
+            if (!shouldQuit) {
+                freeInputIndexes.offer(index);
+            }
+        }
+
+        @Override
+        public void onOutputBufferAvailable(MediaCodec codec, int index, MediaCodec.BufferInfo info) {
+            if (!shouldQuit) {
+                onOutputBuffer(index, info);
+            }
+        }
+
+        @Override
+        public void onError(MediaCodec codec, MediaCodec.CodecException e) {
+            LogTools.trace("AudioEncoder,onError", e);
+            encoderStats.onError();
+        }
+
+        @Override
+        public void onOutputFormatChanged(MediaCodec codec, MediaFormat format) {
+            if (!shouldQuit) {
+                AudioEncoder.this.onOutputFormatChanged(format);
+            }
+        }
     }
 
     private void sendAudioSpecificConfig(long tms, byte[] data) {
         //不发送此信息可能导致拉流播放失败
         RESFlvData resFlvData = new RESFlvData();
         resFlvData.droppable = false;
+        resFlvData.isSequenceHeader = true;
         resFlvData.byteBuffer = data;
         resFlvData.size = data.length;
         resFlvData.dts = (int) tms;
@@ -130,11 +346,9 @@ public class AudioEncoder {
         dataCollecter.collect(resFlvData, RESRtmpSender.FROM_AUDIO);
     }
 
-    private void sendRealData(long tms, byte[] data) {
-        RESFlvData resFlvData = new RESFlvData();
+    private void sendRealData(long tms, ByteBuffer realData) {
+        RESFlvData resFlvData = RESFlvDataPool.i().obtainCopyOf(realData, resCoreParameters.senderDirectBuffer);
         resFlvData.droppable = true;
-        resFlvData.byteBuffer = data;
-        resFlvData.size = data.length;
         resFlvData.dts = (int) tms;
         resFlvData.flvTagType = RESFlvData.FLV_RTMP_PACKET_TYPE_AUDIO;
         dataCollecter.collect(resFlvData, RESRtmpSender.FROM_AUDIO);
@@ -0,0 +1,17 @@
+package me.lake.librestreaming.encoder;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import me.lake.librestreaming.model.RESCoreParameters;
+
+/**
+ * creates the codec of an encoder and fills the format it is configured with,
+ * tests hand in fake codecs through it
+ */
+interface MediaCodecFactory {
+    /**
+     * @return null if no codec fits
+     */
+    MediaCodec create(RESCoreParameters resCoreParameters, MediaFormat format);
+}
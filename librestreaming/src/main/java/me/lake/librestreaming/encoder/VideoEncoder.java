@@ -1,5 +1,6 @@
 package me.lake.librestreaming.encoder;
 
+import android.annotation.TargetApi;
 import android.media.MediaCodec;
 import android.media.MediaFormat;
 import android.os.Build;
@@ -9,43 +10,152 @@ import android.os.HandlerThread;
 import android.view.Surface;
 
 import java.nio.ByteBuffer;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
+import me.lake.librestreaming.core.ColorHelper;
 import me.lake.librestreaming.core.MediaCodecHelper;
+import me.lake.librestreaming.core.RESEncoderStats;
+import me.lake.librestreaming.core.RESPipelineStats;
+import me.lake.librestreaming.core.RESVideoTimestamper;
 import me.lake.librestreaming.model.RESCoreParameters;
 import me.lake.librestreaming.rtmp.RESFlvData;
 import me.lake.librestreaming.rtmp.RESFlvDataCollecter;
+import me.lake.librestreaming.rtmp.RESFlvDataPool;
 import me.lake.librestreaming.rtmp.RESRtmpSender;
 import me.lake.librestreaming.tools.LogTools;
 
 /**
- * 主要负责encode源数据，封装成RESFlvData
+ * 主要负责encode源数据，封装成RESFlvData<br/>
+ * MediaCodec is created and configured once,every {@link #start(RESFlvDataCollecter)}/{@link #stop()} session reuses it:
+ * stop() stops the codec and configures it again,so next start() only starts it.
+ * output is drained by one HandlerThread living till {@link #release()}:
+ * MediaCodec.Callback runs on it if {@link RESCoreParameters#mediacodecAsync},else it polls dequeueOutputBuffer.<br/>
+ * byte buffer input waits INPUT_WAIT_US at most for a free input buffer,the frame is dropped and counted otherwise.
  */
 public class VideoEncoder {
     private static final long WAIT_TIME = 5000;
+    private static final long INPUT_WAIT_US = 10000;
+    private static final MediaCodecFactory HARD_VIDEO_CODEC_FACTORY = new MediaCodecFactory() {
+        @Override
+        public MediaCodec create(RESCoreParameters resCoreParameters, MediaFormat format) {
+            return MediaCodecHelper.createHardVideoMediaCodec(resCoreParameters, format);
+        }
+    };
     private MediaCodec.BufferInfo eInfo;
-    private long startTime;
     private MediaCodec dstVideoEncoder;
-    private final Object syncDstVideoEncoder = new Object();
+    private final boolean isAsync;
+    private final MediaCodecFactory codecFactory;
+    //async mode,input buffers given by onInputBufferAvailable
+    private final LinkedBlockingQueue<Integer> freeInputIndexes = new LinkedBlockingQueue<>();
+    private final RESEncoderStats encoderStats = new RESEncoderStats();
     private RESFlvDataCollecter dataCollecter;
-    private boolean shouldQuit = false;
+    private volatile boolean shouldQuit = true;
+    private final Object syncRunning = new Object();
+    private boolean isRunning = false;
+    private boolean isConfigured = false;
+    private boolean isFirstFrameSent;
+    //first getInputSurface/start of a session,0 between sessions
+    private long sessionStartNs = 0;
+    private Surface inputSurface;
+    private HandlerThread videoEncodeThread;
+    private Handler videoEncodeHandler;
     private RESCoreParameters resCoreParameters;
     private MediaFormat dstVideoFormat;
+    private RESVideoTimestamper videoTimestamper;
+    //only used if encoder input buffer is not direct
+    private byte[] convertBuff;
+
+    /**
+     * creates and configures the encoder,call it in prepare so streaming need not wait for it
+     */
+    public VideoEncoder(RESCoreParameters resCoreParameters) {
+        this(resCoreParameters, resCoreParameters.mediacodecAsync && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M,
+                HARD_VIDEO_CODEC_FACTORY);
+    }
 
-    public VideoEncoder(RESCoreParameters resCoreParameters, RESFlvDataCollecter flvDataCollecter) {
+    VideoEncoder(RESCoreParameters resCoreParameters, boolean isAsync, MediaCodecFactory codecFactory) {
         this.resCoreParameters = resCoreParameters;
+        this.isAsync = isAsync;
+        this.codecFactory = codecFactory;
         eInfo = new MediaCodec.BufferInfo();
-        startTime = 0;
-        dataCollecter = flvDataCollecter;
+        int frameRate = Math.max(1, resCoreParameters.mediacodecAVCFrameRate);
+        videoTimestamper = new RESVideoTimestamper(resCoreParameters.mediacodecAVCMaxBFrames * 1000000L / frameRate);
+        //callbacks are bound to its looper,so it is needed before configure
+        videoEncodeThread = new HandlerThread("video encode thread");
+        videoEncodeThread.start();
+        videoEncodeHandler = new Handler(videoEncodeThread.getLooper());
         dstVideoFormat = new MediaFormat();
-        dstVideoEncoder = MediaCodecHelper.createHardVideoMediaCodec(resCoreParameters, dstVideoFormat);
+        dstVideoEncoder = codecFactory.create(resCoreParameters, dstVideoFormat);
         if (dstVideoEncoder == null) {
+            videoEncodeThread.quit();
             throw new RuntimeException("create Video MediaCodec failed");
         }
-        dstVideoEncoder.configure(dstVideoFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        configure();
     }
 
+    /**
+     * call it before {@link #start(RESFlvDataCollecter)},the surface is released by {@link #stop()}
+     */
     public Surface getInputSurface() {
-        return dstVideoEncoder.createInputSurface();
+        synchronized (syncRunning) {
+            markSessionStart();
+            configure();
+            if (inputSurface == null) {
+                inputSurface = dstVideoEncoder.createInputSurface();
+            }
+            return inputSurface;
+        }
+    }
+
+    /**
+     * take new size of resCoreParameters,call it while stopped
+     */
+    public void resize() {
+        synchronized (syncRunning) {
+            if (isRunning) {
+                throw new IllegalStateException("resize while running");
+            }
+            releaseInputSurface();
+            dstVideoEncoder.reset();
+            isConfigured = false;
+            dstVideoFormat.setInteger(MediaFormat.KEY_WIDTH, resCoreParameters.videoWidth);
+            dstVideoFormat.setInteger(MediaFormat.KEY_HEIGHT, resCoreParameters.videoHeight);
+            configure();
+        }
+    }
+
+    /**
+     * configure with current bitrate if not configured,
+     * a codec failing to configure again is replaced by a new one
+     */
+    private void configure() {
+        if (isConfigured) {
+            return;
+        }
+        dstVideoFormat.setInteger(MediaFormat.KEY_BIT_RATE, resCoreParameters.mediacdoecAVCBitRate);
+        try {
+            configureCodec();
+        } catch (Exception e) {
+            LogTools.trace("VideoEncoder,configure failed,create a new encoder", e);
+            dstVideoEncoder.release();
+            dstVideoFormat = new MediaFormat();
+            dstVideoEncoder = codecFactory.create(resCoreParameters, dstVideoFormat);
+            if (dstVideoEncoder == null) {
+                throw new RuntimeException("create Video MediaCodec failed");
+            }
+            configureCodec();
+        }
+        isConfigured = true;
+    }
+
+    @TargetApi(Build.VERSION_CODES.M)
+    private void configureCodec() {
+        if (isAsync) {
+            //callback is cleared by reset,set it every time
+            dstVideoEncoder.setCallback(new EncoderCallback(), videoEncodeHandler);
+        }
+        dstVideoEncoder.configure(dstVideoFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
     }
 
 
@@ -53,112 +163,333 @@ public class VideoEncoder {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
             Bundle bitrateBundle = new Bundle();
             bitrateBundle.putInt(MediaCodec.PARAMETER_KEY_VIDEO_BITRATE, bitrate);
-            dstVideoEncoder.setParameters(bitrateBundle);
+            setParameters(bitrateBundle);
         }
     }
 
-    public void start() {
-        shouldQuit = false;
-        dstVideoEncoder.start();
-        run();
+    /**
+     * ask encoder to produce a keyframe as soon as possible
+     */
+    public void requestKeyFrame() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            Bundle syncFrameBundle = new Bundle();
+            syncFrameBundle.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
+            setParameters(syncFrameBundle);
+        }
     }
 
-    public void quit() {
-        shouldQuit = true;
+    /**
+     * ignored unless a session is running,the codec may be stopped or replaced by encode thread otherwise
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private void setParameters(Bundle params) {
+        synchronized (syncRunning) {
+            if (!isRunning || shouldQuit) {
+                return;
+            }
+            try {
+                dstVideoEncoder.setParameters(params);
+            } catch (IllegalStateException e) {
+                LogTools.trace("VideoEncoder,setParameters", e);
+            }
+        }
+    }
+
+    public void start(RESFlvDataCollecter flvDataCollecter) {
+        synchronized (syncRunning) {
+            if (isRunning) {
+                return;
+            }
+            markSessionStart();
+            configure();
+            dataCollecter = flvDataCollecter;
+            videoTimestamper.reset();
+            encoderStats.reset();
+            freeInputIndexes.clear();
+            isFirstFrameSent = false;
+            shouldQuit = false;
+            isRunning = true;
+            dstVideoEncoder.start();
+        }
+        if (!isAsync) {
+            videoEncodeHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    encode();
+                }
+            });
+        }
+    }
+
+    /**
+     * blocks till encode thread has stopped the encoder and configured it again
+     */
+    public void stop() {
+        synchronized (syncRunning) {
+            if (isAsync && !shouldQuit) {
+                //callbacks arriving before it are ignored
+                videoEncodeHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        finishSession();
+                    }
+                });
+            }
+            shouldQuit = true;
+            while (isRunning) {
+                try {
+                    syncRunning.wait();
+                } catch (InterruptedException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * stop and release the encoder and its thread,it can not be started again
+     */
+    public void release() {
+        stop();
+        videoEncodeThread.quitSafely();
+        try {
+            videoEncodeThread.join();
+        } catch (InterruptedException ignored) {
+        }
+        synchronized (syncRunning) {
+            releaseInputSurface();
+            dstVideoEncoder.release();
+            isConfigured = false;
+        }
+    }
+
+    /**
+     * @return queue depth,latency,dropped inputs and errors of current/last session
+     */
+    public RESEncoderStats.Snapshot getStats() {
+        return encoderStats.snapshot();
+    }
+
+    private void markSessionStart() {
+        if (sessionStartNs == 0) {
+            sessionStartNs = System.nanoTime();
+        }
+    }
+
+    private void releaseInputSurface() {
+        if (inputSurface != null) {
+            inputSurface.release();
+            inputSurface = null;
+        }
     }
 
     public void queueData(byte[] data, long timeMs) {
         if (dstVideoEncoder != null && !shouldQuit) {
-            int eibIndex = dstVideoEncoder.dequeueInputBuffer(-1);
+            int eibIndex = dequeueInputBuffer();
             if (eibIndex >= 0) {
-                ByteBuffer dstVideoEncoderIBuffer = dstVideoEncoder.getInputBuffers()[eibIndex];
-                dstVideoEncoderIBuffer.position(0);
+                ByteBuffer dstVideoEncoderIBuffer = dstVideoEncoder.getInputBuffer(eibIndex);
+                dstVideoEncoderIBuffer.clear();
                 dstVideoEncoderIBuffer.put(data, 0, data.length);
                 dstVideoEncoder.queueInputBuffer(eibIndex, 0, data.length, timeMs * 1000, 0);
-            } else {
-                LogTools.d("dstVideoEncoder.dequeueInputBuffer(-1)<0");
+                markInputTime(timeMs * 1000);
             }
         }
     }
 
-    private void run() {
-        HandlerThread videoEncodeThread = new HandlerThread("video encode thread");
-        videoEncodeThread.start();
-
-        Handler handler = new Handler(videoEncodeThread.getLooper());
+    /**
+     * convert nv21 frame(videoWidth*videoHeight) into mediacodecAVCColorFormat,
+     * straight into the dequeued input buffer
+     */
+    public void queueNV21Data(byte[] nv21, long timeMs) {
+        if (dstVideoEncoder != null && !shouldQuit) {
+            int eibIndex = dequeueInputBuffer();
+            if (eibIndex >= 0) {
+                ByteBuffer dstVideoEncoderIBuffer = dstVideoEncoder.getInputBuffer(eibIndex);
+                if (!ColorHelper.NV21TransformToBuffer(nv21, dstVideoEncoderIBuffer,
+                        resCoreParameters.videoWidth, resCoreParameters.videoHeight,
+                        RESCoreParameters.FLAG_DIRECTION_ROATATION_0, resCoreParameters.mediacodecAVCColorFormat)) {
+                    if (convertBuff == null || convertBuff.length != nv21.length) {
+                        convertBuff = new byte[nv21.length];
+                    }
+                    ColorHelper.NV21TransformTo(nv21, convertBuff,
+                            resCoreParameters.videoWidth, resCoreParameters.videoHeight,
+                            RESCoreParameters.FLAG_DIRECTION_ROATATION_0, resCoreParameters.mediacodecAVCColorFormat);
+                    dstVideoEncoderIBuffer.position(0);
+                    dstVideoEncoderIBuffer.put(convertBuff, 0, convertBuff.length);
+                }
+                dstVideoEncoder.queueInputBuffer(eibIndex, 0, nv21.length, timeMs * 1000, 0);
+                markInputTime(timeMs * 1000);
+            }
+        }
+    }
 
-        handler.post(new Runnable() {
-            @Override
-            public void run() {
-                encode();
+    /**
+     * waits INPUT_WAIT_US at most,so the caller thread never stalls on a busy encoder
+     *
+     * @return -1 if no input buffer got free in time,the frame is counted as dropped
+     */
+    private int dequeueInputBuffer() {
+        int index = -1;
+        try {
+            if (isAsync) {
+                Integer freeIndex = freeInputIndexes.poll(INPUT_WAIT_US, TimeUnit.MICROSECONDS);
+                index = freeIndex == null ? -1 : freeIndex;
+            } else {
+                index = dstVideoEncoder.dequeueInputBuffer(INPUT_WAIT_US);
             }
-        });
+        } catch (InterruptedException ignored) {
+        } catch (IllegalStateException e) {
+            LogTools.trace("VideoEncoder,dequeueInputBuffer", e);
+        }
+        if (index < 0) {
+            encoderStats.onDrop();
+            LogTools.d("VideoEncoder,no input buffer in " + INPUT_WAIT_US + "us,frame dropped");
+        }
+        return index;
     }
 
+    /**
+     * remember when frame with ptsUs entered encoder,
+     * called by surface input users after eglSwapBuffers
+     */
+    public void markInputTime(long ptsUs) {
+        videoTimestamper.onInput(ptsUs);
+        encoderStats.onInput(ptsUs);
+    }
+
+    /**
+     * sync mode,polls output till stop()
+     */
     private void encode() {
         while (!shouldQuit) {
-            synchronized (syncDstVideoEncoder) {
-                int eobIndex = MediaCodec.INFO_TRY_AGAIN_LATER;
-                try {
-                    eobIndex = dstVideoEncoder.dequeueOutputBuffer(eInfo, WAIT_TIME);
-                } catch (Exception ignored) {
+            int eobIndex = MediaCodec.INFO_TRY_AGAIN_LATER;
+            try {
+                eobIndex = dstVideoEncoder.dequeueOutputBuffer(eInfo, WAIT_TIME);
+            } catch (Exception e) {
+                LogTools.trace("VideoEncoder,dequeueOutputBuffer", e);
+                encoderStats.onError();
+            }
+            if (eobIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                onOutputFormatChanged(dstVideoEncoder.getOutputFormat());
+            } else if (eobIndex >= 0) {
+                onOutputBuffer(eobIndex, eInfo);
+                if ((eInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                    break;
                 }
+            }
+        }
+        finishSession();
+    }
 
-                if (eobIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
-                    LogTools.d("VideoSenderThread,MediaCodec.INFO_OUTPUT_FORMAT_CHANGED:" +
-                                dstVideoEncoder.getOutputFormat());
-                        sendAVCDecoderConfigurationRecord(0, dstVideoEncoder.getOutputFormat());
-                } else {
-                    if (eobIndex > 0 && dstVideoEncoder.getOutputBuffers() != null) {
-                        LogTools.d("VideoSenderThread,MediaCode,eobIndex=" + eobIndex);
-                        if (startTime == 0) {
-                            startTime = eInfo.presentationTimeUs / 1000;
-                        }
-                        /**
-                         * we send sps pps already in INFO_OUTPUT_FORMAT_CHANGED
-                         * so we ignore MediaCodec.BUFFER_FLAG_CODEC_CONFIG
-                         */
-                        if (eInfo.flags != MediaCodec.BUFFER_FLAG_CODEC_CONFIG && eInfo.size != 0) {
-                            ByteBuffer realData = dstVideoEncoder.getOutputBuffers()[eobIndex];
-                            realData.position(eInfo.offset);
-                            realData.limit(eInfo.offset + eInfo.size);
-                            realData.position(eInfo.offset);
-                            sendRealData((eInfo.presentationTimeUs / 1000) - startTime, realData);
-                        }
-                        dstVideoEncoder.releaseOutputBuffer(eobIndex, false);
-                    } else if (eobIndex == MediaCodec.INFO_TRY_AGAIN_LATER) {
-                        //超时
-                        continue;
-                    }
+    private void onOutputFormatChanged(MediaFormat format) {
+        LogTools.d("VideoEncoder,output format changed:" + format);
+        sendDecoderConfigurationRecord(0, format);
+    }
 
-                    if ((eInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
-                        break;
-                    }
+    /**
+     * send and release one output buffer,encode thread only
+     */
+    private void onOutputBuffer(int index, MediaCodec.BufferInfo info) {
+        /**
+         * we send sps pps already in INFO_OUTPUT_FORMAT_CHANGED
+         * so we ignore MediaCodec.BUFFER_FLAG_CODEC_CONFIG
+         */
+        if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) == 0 && info.size != 0) {
+            ByteBuffer realData = dstVideoEncoder.getOutputBuffer(index);
+            if (realData != null) {
+                realData.limit(info.offset + info.size);
+                realData.position(info.offset);
+                boolean isKeyFrame = (info.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0;
+                long inputNs = encoderStats.onOutput(info.presentationTimeUs);
+                if (inputNs != 0) {
+                    RESPipelineStats.i().recordSince(RESPipelineStats.STAGE_ENCODE, inputNs);
+                }
+                long dtsUs = videoTimestamper.onOutput(info.presentationTimeUs);
+                if (!isFirstFrameSent) {
+                    isFirstFrameSent = true;
+                    RESPipelineStats.i().recordSince(RESPipelineStats.STAGE_FIRST_FRAME, sessionStartNs);
                 }
+                sendRealData(info.presentationTimeUs, dtsUs, realData, isKeyFrame);
             }
         }
-        release();
-        eInfo = null;
+        dstVideoEncoder.releaseOutputBuffer(index, false);
     }
 
-    private void release() {
-        shouldQuit = true;
-        dstVideoEncoder.stop();
-        dstVideoEncoder.release();
-        dstVideoEncoder = null;
+    /**
+     * encode thread,stop the codec and configure it for next session
+     */
+    private void finishSession() {
+        synchronized (syncRunning) {
+            try {
+                dstVideoEncoder.stop();
+            } catch (Exception e) {
+                LogTools.trace("VideoEncoder,stop", e);
+            }
+            releaseInputSurface();
+            isConfigured = false;
+            try {
+                configure();
+            } catch (Exception e) {
+                //tried again by next getInputSurface/start
+                LogTools.trace("VideoEncoder,configure", e);
+            }
+            shouldQuit = true;
+            isRunning = false;
+            sessionStartNs = 0;
+            syncRunning.notifyAll();
+        }
     }
 
-    private void sendAVCDecoderConfigurationRecord(long tms, MediaFormat format) {
+    /**
+     * async mode,called on encode thread
+     */
+    @TargetApi(Build.VERSION_CODES.M)
+    private class EncoderCallback extends MediaCodec.Callback {
+        @Override
+        public void onInputBufferAvailable(MediaCodec codec, int index) {
+            if (!shouldQuit) {
+                freeInputIndexes.offer(index);
+            }
+        }
+
+        @Override
+        public void onOutputBufferAvailable(MediaCodec codec, int index, MediaCodec.BufferInfo info) {
+            if (!shouldQuit) {
+                onOutputBuffer(index, info);
+            }
+        }
+
+        @Override
+        public void onError(MediaCodec codec, MediaCodec.CodecException e) {
+            LogTools.trace("VideoEncoder,onError", e);
+            encoderStats.onError();
+        }
+
+        @Override
+        public void onOutputFormatChanged(MediaCodec codec, MediaFormat format) {
+            if (!shouldQuit) {
+                VideoEncoder.this.onOutputFormatChanged(format);
+            }
+        }
+    }
+
+    /**
+     * parameter sets in Annex-B,muxers build the decoder configuration record from them
+     */
+    private void sendDecoderConfigurationRecord(long tms, MediaFormat format) {
         ////不发送此信息可能导致拉流播放失败
+        //avc:csd-0 sps,csd-1 pps.hevc:csd-0 vps+sps+pps
         ByteBuffer sps = format.getByteBuffer("csd-0");
         ByteBuffer pps = format.getByteBuffer("csd-1");
-        ByteBuffer allocate = ByteBuffer.allocate(sps.limit() + pps.limit());
+        ByteBuffer allocate = ByteBuffer.allocate(sps.limit() + (pps == null ? 0 : pps.limit()));
         allocate.put(sps.array());
-        allocate.put(pps.array());
+        if (pps != null) {
+            allocate.put(pps.array());
+        }
         byte[] config = allocate.array();
 
         RESFlvData resFlvData = new RESFlvData();
         resFlvData.droppable = false;
+        resFlvData.isSequenceHeader = true;
         resFlvData.byteBuffer = config;
         resFlvData.size = config.length;
         resFlvData.dts = (int) tms;
@@ -167,16 +498,15 @@ public class VideoEncoder {
         dataCollecter.collect(resFlvData, RESRtmpSender.FROM_VIDEO);
     }
 
-    private void sendRealData(long tms, ByteBuffer realData) {
-        int realDataLength = realData.remaining();
-        byte[] finalBuff = new byte[realDataLength];
-        realData.get(finalBuff, 0, realDataLength);
-        RESFlvData resFlvData = new RESFlvData();
+    private void sendRealData(long ptsUs, long dtsUs, ByteBuffer realData, boolean isKeyFrame) {
+        RESFlvData resFlvData = RESFlvDataPool.i().obtainCopyOf(realData, resCoreParameters.senderDirectBuffer);
+        resFlvData.outputTimeNs = System.nanoTime();
+        resFlvData.ptsUs = ptsUs;
         resFlvData.droppable = true;
-        resFlvData.byteBuffer = finalBuff;
-        resFlvData.size = finalBuff.length;
-        resFlvData.dts = (int) tms;
+        resFlvData.dts = (int) Math.max(0, (dtsUs - resCoreParameters.mediaClockBaseUs) / 1000);
+        resFlvData.pts = (int) Math.max(0, (ptsUs - resCoreParameters.mediaClockBaseUs) / 1000);
         resFlvData.flvTagType = RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO;
+        resFlvData.videoFrameType = isKeyFrame ? RESFlvData.NALU_TYPE_IDR : RESFlvData.NALU_TYPE_SLICE;
         dataCollecter.collect(resFlvData, RESRtmpSender.FROM_VIDEO);
     }
 }
\ No newline at end of file
@@ -7,12 +7,27 @@ package me.lake.librestreaming.filter.softaudiofilter;
 public class BaseSoftAudioFilter {
     protected int SIZE;
     protected int SIZE_HALF;
+    /**
+     * sample rate of pcm,0 if unknown
+     */
+    protected int SAMPLE_RATE;
 
     public void onInit(int size) {
         SIZE = size;
         SIZE_HALF = size/2;
     }
 
+    /**
+     * called by soft audio core,override {@link #onInit(int)} unless sampleRate is needed there
+     *
+     * @param size       bytes of 16bit mono pcm per frame
+     * @param sampleRate
+     */
+    public void onInit(int size, int sampleRate) {
+        SAMPLE_RATE = sampleRate;
+        onInit(size);
+    }
+
     /**
      *
      * @param orignBuff
@@ -25,6 +40,22 @@ public class BaseSoftAudioFilter {
         return false;
     }
 
+    /**
+     * @return true if onFrame still works when orignBuff and targetBuff are the same array,
+     * e.g. it reads a sample before writing it.groups call it in place then,no buffer is swapped.
+     */
+    public boolean isInPlace() {
+        return false;
+    }
+
+    /**
+     * @return true if onFrame would neither touch the buffers nor return true at the moment,
+     * it is not called then
+     */
+    public boolean isPassthrough() {
+        return false;
+    }
+
     public void onDestroy() {
 
     }
@@ -0,0 +1,42 @@
+package me.lake.librestreaming.filter.softaudiofilter;
+
+import me.lake.librestreaming.tools.PcmTools;
+
+/**
+ * filter working on float samples in [-1,1),for dsp heavy work.<br/>
+ * pcm is converted once per frame,or once per run of float filters inside a {@link SoftAudioGroupFilter}.
+ * results are rounded and clamped back to 16bit when a run ends,filters in the same run see unclamped floats.
+ */
+public abstract class BaseSoftAudioFloatFilter extends BaseSoftAudioFilter {
+    protected int SAMPLE_NUM;
+    private float[] orignSamples;
+    private float[] targetSamples;
+    private short[] scratch;
+
+    @Override
+    public void onInit(int size) {
+        super.onInit(size);
+        SAMPLE_NUM = size / 2;
+        orignSamples = new float[SAMPLE_NUM];
+        targetSamples = new float[SAMPLE_NUM];
+        scratch = new short[SAMPLE_NUM];
+    }
+
+    /**
+     * @param orignSamples   same array as targetSamples if {@link #isInPlace()}
+     * @param targetSamples
+     * @return false if nothing is written,true to use targetSamples
+     */
+    public abstract boolean onFrame(float[] orignSamples, float[] targetSamples, long presentationTimeMs, int sequenceNum);
+
+    @Override
+    public boolean onFrame(byte[] orignBuff, byte[] targetBuff, long presentationTimeMs, int sequenceNum) {
+        PcmTools.bytesToFloats(orignBuff, orignSamples, scratch, SAMPLE_NUM);
+        float[] target = isInPlace() ? orignSamples : targetSamples;
+        if (!onFrame(orignSamples, target, presentationTimeMs, sequenceNum)) {
+            return false;
+        }
+        PcmTools.floatsToBytes(target, targetBuff, scratch, SAMPLE_NUM);
+        return true;
+    }
+}
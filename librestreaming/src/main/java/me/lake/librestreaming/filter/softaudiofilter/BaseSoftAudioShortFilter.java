@@ -0,0 +1,39 @@
+package me.lake.librestreaming.filter.softaudiofilter;
+
+import me.lake.librestreaming.tools.PcmTools;
+
+/**
+ * filter working on 16bit samples instead of pcm bytes.<br/>
+ * pcm is converted once per frame,or once per run of short filters inside a {@link SoftAudioGroupFilter}.
+ */
+public abstract class BaseSoftAudioShortFilter extends BaseSoftAudioFilter {
+    protected int SAMPLE_NUM;
+    private short[] orignSamples;
+    private short[] targetSamples;
+
+    @Override
+    public void onInit(int size) {
+        super.onInit(size);
+        SAMPLE_NUM = size / 2;
+        orignSamples = new short[SAMPLE_NUM];
+        targetSamples = new short[SAMPLE_NUM];
+    }
+
+    /**
+     * @param orignSamples   same array as targetSamples if {@link #isInPlace()}
+     * @param targetSamples
+     * @return false if nothing is written,true to use targetSamples
+     */
+    public abstract boolean onFrame(short[] orignSamples, short[] targetSamples, long presentationTimeMs, int sequenceNum);
+
+    @Override
+    public boolean onFrame(byte[] orignBuff, byte[] targetBuff, long presentationTimeMs, int sequenceNum) {
+        PcmTools.bytesToShorts(orignBuff, orignSamples, SAMPLE_NUM);
+        short[] target = isInPlace() ? orignSamples : targetSamples;
+        if (!onFrame(orignSamples, target, presentationTimeMs, sequenceNum)) {
+            return false;
+        }
+        PcmTools.shortsToBytes(target, targetBuff, SAMPLE_NUM);
+        return true;
+    }
+}
@@ -0,0 +1,32 @@
+package me.lake.librestreaming.filter.softaudiofilter;
+
+/**
+ * source of 16bit pcm for {@link BgmMixAudioFilter}.<br/>
+ * only called on the mixer's prefetch thread,so it may block on I/O or a codec.
+ */
+public interface BgmDecoder {
+    /**
+     * @return sample rate of decoded pcm,valid before first {@link #read(short[], int, int)}
+     */
+    int getSampleRate();
+
+    /**
+     * @return 1 or 2,samples of channels are interleaved
+     */
+    int getChannelCount();
+
+    /**
+     * blocks until some pcm is decoded
+     *
+     * @param sampleNum shorts to read,a multiple of channel count
+     * @return shorts read,a multiple of channel count,-1 at end of stream
+     */
+    int read(short[] dst, int offset, int sampleNum);
+
+    /**
+     * go back to the start of stream,used for looping
+     */
+    void rewind();
+
+    void release();
+}
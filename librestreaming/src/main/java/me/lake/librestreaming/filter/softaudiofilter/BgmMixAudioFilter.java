@@ -0,0 +1,404 @@
+package me.lake.librestreaming.filter.softaudiofilter;
+
+import me.lake.librestreaming.tools.LogTools;
+import me.lake.librestreaming.tools.PcmTools;
+
+/**
+ * mixes background music into mono pcm.<br/>
+ * a prefetch thread decodes,resamples to stream sample rate and fills a ring,
+ * onFrame only copies from the ring,so filter thread never waits on I/O.
+ * when the ring runs dry the missing part is left unmixed and counted as underrun.<br/>
+ * decoder is released in {@link #onDestroy()},so the filter can not be set again after that.
+ */
+public class BgmMixAudioFilter extends BaseSoftAudioShortFilter {
+    private static final int PREFETCH_MS = 1000;
+    //mono samples per decoder read
+    private static final int DECODE_CHUNK = 2048;
+    private final BgmDecoder decoder;
+    private volatile boolean isLooping = false;
+    private int crossfadeMs = 0;
+    private int outSampleRate;
+    //prefetch thread writes free part of ring,filter thread reads filled part,positions guarded by syncRing
+    private final Object syncRing = new Object();
+    private short[] ring;
+    private long ringWritePos;
+    private long ringReadPos;
+    private boolean isDecodeEnded;
+    private PrefetchThread prefetchThread;
+    //filter thread
+    private short[] bgmSamples;
+    private float gain;
+    private float gainStep;
+    private float rampTargetGain;
+    private int rampLeft;
+    private volatile boolean isFinished;
+    private volatile long underrunCount;
+    //from setGain
+    private final Object syncGain = new Object();
+    private float targetGain = 1.0f;
+    private int targetRampMs;
+    private boolean isGainChanged;
+
+    public BgmMixAudioFilter(BgmDecoder decoder) {
+        if (decoder == null) {
+            throw new IllegalArgumentException("decoder can not be null");
+        }
+        this.decoder = decoder;
+    }
+
+    /**
+     * start again from the beginning at end of stream
+     */
+    public void setLooping(boolean looping) {
+        isLooping = looping;
+    }
+
+    /**
+     * overlap end and beginning of the music when looping,set it before the filter is set
+     *
+     * @param crossfadeMs 0 to loop without overlap
+     */
+    public void setCrossfadeMs(int crossfadeMs) {
+        this.crossfadeMs = crossfadeMs;
+    }
+
+    /**
+     * @param gain   bgm volume,1.0 for original
+     * @param rampMs time to move from current gain to gain linearly,0 to jump
+     */
+    public void setGain(float gain, int rampMs) {
+        synchronized (syncGain) {
+            targetGain = gain;
+            targetRampMs = rampMs;
+            isGainChanged = true;
+        }
+    }
+
+    /**
+     * @return true if music ended without looping and every sample of it was mixed
+     */
+    public boolean isFinished() {
+        return isFinished;
+    }
+
+    /**
+     * @return frames which could not get enough bgm from prefetch thread
+     */
+    public long getUnderrunCount() {
+        return underrunCount;
+    }
+
+    @Override
+    public void onInit(int size) {
+        super.onInit(size);
+        stopPrefetch();
+        decoder.rewind();
+        outSampleRate = SAMPLE_RATE > 0 ? SAMPLE_RATE : decoder.getSampleRate();
+        bgmSamples = new short[SAMPLE_NUM];
+        synchronized (syncGain) {
+            gain = targetGain;
+            isGainChanged = false;
+        }
+        rampLeft = 0;
+        isFinished = false;
+        underrunCount = 0;
+        synchronized (syncRing) {
+            ring = new short[Math.max(outSampleRate * PREFETCH_MS / 1000, SAMPLE_NUM)];
+            ringWritePos = 0;
+            ringReadPos = 0;
+            isDecodeEnded = false;
+        }
+        prefetchThread = new PrefetchThread(crossfadeMs);
+        prefetchThread.start();
+    }
+
+    @Override
+    public boolean onFrame(short[] orignSamples, short[] targetSamples, long presentationTimeMs, int sequenceNum) {
+        applyGainChange();
+        int got = readRing(bgmSamples, SAMPLE_NUM);
+        if (got == 0) {
+            return false;
+        }
+        for (int i = 0; i < got; i++) {
+            if (rampLeft > 0) {
+                gain = --rampLeft == 0 ? rampTargetGain : gain + gainStep;
+            }
+            targetSamples[i] = PcmTools.clamp(orignSamples[i] + (int) (bgmSamples[i] * gain));
+        }
+        if (targetSamples != orignSamples) {
+            System.arraycopy(orignSamples, got, targetSamples, got, SAMPLE_NUM - got);
+        }
+        return true;
+    }
+
+    /**
+     * every sample is read before it is written
+     */
+    @Override
+    public boolean isInPlace() {
+        return true;
+    }
+
+    @Override
+    public boolean isPassthrough() {
+        return isFinished;
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        stopPrefetch();
+        decoder.release();
+    }
+
+    private void applyGainChange() {
+        synchronized (syncGain) {
+            if (!isGainChanged) {
+                return;
+            }
+            isGainChanged = false;
+            rampTargetGain = targetGain;
+            rampLeft = (int) ((long) outSampleRate * targetRampMs / 1000);
+        }
+        if (rampLeft <= 0) {
+            gain = rampTargetGain;
+            rampLeft = 0;
+        } else {
+            gainStep = (rampTargetGain - gain) / rampLeft;
+        }
+    }
+
+    /**
+     * filter thread,never blocks
+     *
+     * @return samples copied
+     */
+    private int readRing(short[] dst, int sampleNum) {
+        long readPos;
+        int num;
+        boolean isEnded;
+        synchronized (syncRing) {
+            readPos = ringReadPos;
+            int available = (int) (ringWritePos - ringReadPos);
+            num = Math.min(sampleNum, available);
+            isEnded = isDecodeEnded && num == available;
+        }
+        if (num < sampleNum) {
+            if (isEnded) {
+                if (!isFinished) {
+                    isFinished = true;
+                    LogTools.d("BgmMixAudioFilter,music finished");
+                }
+            } else {
+                underrunCount++;
+            }
+        }
+        int start = (int) (readPos % ring.length);
+        int firstNum = Math.min(num, ring.length - start);
+        System.arraycopy(ring, start, dst, 0, firstNum);
+        System.arraycopy(ring, 0, dst, firstNum, num - firstNum);
+        synchronized (syncRing) {
+            ringReadPos += num;
+            syncRing.notifyAll();
+        }
+        return num;
+    }
+
+    private void stopPrefetch() {
+        if (prefetchThread == null) {
+            return;
+        }
+        prefetchThread.quit();
+        synchronized (syncRing) {
+            syncRing.notifyAll();
+        }
+        try {
+            prefetchThread.join();
+        } catch (InterruptedException ignored) {
+        }
+        prefetchThread = null;
+    }
+
+    private class PrefetchThread extends Thread {
+        private volatile boolean isRunning = true;
+        private final int crossfadeNum;
+
+        PrefetchThread(int crossfadeMs) {
+            super("BgmPrefetchThread");
+            crossfadeNum = (int) ((long) outSampleRate * crossfadeMs / 1000);
+        }
+
+        public void quit() {
+            isRunning = false;
+        }
+
+        @Override
+        public void run() {
+            try {
+                LinearResampler resampler = new LinearResampler(decoder, outSampleRate);
+                //last crossfadeNum samples are held back to be mixed with the beginning when looping
+                short[] pending = new short[crossfadeNum + DECODE_CHUNK];
+                short[] head = new short[crossfadeNum];
+                int pendingNum = 0;
+                long passNum = 0;
+                while (isRunning) {
+                    int num = resampler.read(pending, pendingNum, DECODE_CHUNK);
+                    if (num > 0) {
+                        passNum += num;
+                        pendingNum += num;
+                        int commitNum = pendingNum - crossfadeNum;
+                        if (commitNum > 0) {
+                            if (!writeRing(pending, commitNum)) {
+                                return;
+                            }
+                            System.arraycopy(pending, commitNum, pending, 0, crossfadeNum);
+                            pendingNum = crossfadeNum;
+                        }
+                        continue;
+                    }
+                    //end of stream,an empty one never loops
+                    if (!isLooping || passNum == 0) {
+                        writeRing(pending, pendingNum);
+                        return;
+                    }
+                    decoder.rewind();
+                    resampler.reset();
+                    passNum = 0;
+                    int headNum = 0;
+                    while (headNum < crossfadeNum && (num = resampler.read(head, headNum, crossfadeNum - headNum)) > 0) {
+                        headNum += num;
+                    }
+                    passNum += headNum;
+                    int fadeNum = Math.min(pendingNum, headNum);
+                    int fadeStart = pendingNum - fadeNum;
+                    for (int i = 0; i < fadeNum; i++) {
+                        float w = (i + 1) / (float) (fadeNum + 1);
+                        pending[fadeStart + i] = PcmTools.clamp(Math.round(pending[fadeStart + i] * (1 - w) + head[i] * w));
+                    }
+                    System.arraycopy(head, fadeNum, pending, pendingNum, headNum - fadeNum);
+                    pendingNum += headNum - fadeNum;
+                }
+            } catch (Exception e) {
+                LogTools.trace("BgmMixAudioFilter,prefetch", e);
+            } finally {
+                synchronized (syncRing) {
+                    isDecodeEnded = true;
+                }
+            }
+        }
+
+        /**
+         * blocks while ring is full
+         *
+         * @return false if quit
+         */
+        private boolean writeRing(short[] src, int sampleNum) {
+            int offset = 0;
+            while (sampleNum > 0) {
+                long writePos;
+                int num;
+                synchronized (syncRing) {
+                    while (isRunning && ringWritePos - ringReadPos == ring.length) {
+                        try {
+                            syncRing.wait();
+                        } catch (InterruptedException ignored) {
+                        }
+                    }
+                    if (!isRunning) {
+                        return false;
+                    }
+                    writePos = ringWritePos;
+                    num = Math.min(sampleNum, ring.length - (int) (ringWritePos - ringReadPos));
+                }
+                int start = (int) (writePos % ring.length);
+                int firstNum = Math.min(num, ring.length - start);
+                System.arraycopy(src, offset, ring, start, firstNum);
+                System.arraycopy(src, offset + firstNum, ring, 0, num - firstNum);
+                synchronized (syncRing) {
+                    ringWritePos += num;
+                }
+                offset += num;
+                sampleNum -= num;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * downmixes to mono and converts sample rate by linear interpolation,
+     * samples pass through unchanged when rates are equal
+     */
+    static class LinearResampler {
+        private final BgmDecoder decoder;
+        private final int channelCount;
+        private final double step;
+        private final short[] raw;
+        private final short[] in;
+        private int inNum;
+        private boolean isEnded;
+        //position of next output sample in in[]
+        private double pos;
+
+        LinearResampler(BgmDecoder decoder, int outSampleRate) {
+            this.decoder = decoder;
+            channelCount = decoder.getChannelCount();
+            step = decoder.getSampleRate() / (double) outSampleRate;
+            raw = new short[DECODE_CHUNK * channelCount];
+            in = new short[DECODE_CHUNK + 1];
+            reset();
+        }
+
+        void reset() {
+            inNum = 0;
+            pos = 0;
+            isEnded = false;
+        }
+
+        /**
+         * @return samples written,-1 at end of stream
+         */
+        int read(short[] dst, int offset, int sampleNum) {
+            int num = 0;
+            while (num < sampleNum) {
+                int i = (int) pos;
+                if (i + 1 >= inNum) {
+                    if (!isEnded && refill()) {
+                        continue;
+                    }
+                    isEnded = true;
+                    //last sample has nothing to interpolate with,only emitted if hit exactly
+                    if (i != inNum - 1 || pos != i) {
+                        break;
+                    }
+                    dst[offset + num++] = in[i];
+                    pos += step;
+                    continue;
+                }
+                double frac = pos - i;
+                dst[offset + num++] = (short) Math.round(in[i] + (in[i + 1] - in[i]) * frac);
+                pos += step;
+            }
+            return num == 0 ? -1 : num;
+        }
+
+        private boolean refill() {
+            int keep = Math.min((int) pos, inNum);
+            System.arraycopy(in, keep, in, 0, inNum - keep);
+            inNum -= keep;
+            pos -= keep;
+            int frameNum = Math.min(in.length - inNum, DECODE_CHUNK);
+            int rawNum = decoder.read(raw, 0, frameNum * channelCount);
+            if (rawNum <= 0) {
+                return false;
+            }
+            for (int r = 0; r + channelCount <= rawNum; r += channelCount) {
+                int sum = 0;
+                for (int c = 0; c < channelCount; c++) {
+                    sum += raw[r + c];
+                }
+                in[inNum++] = (short) (sum / channelCount);
+            }
+            return true;
+        }
+    }
+}
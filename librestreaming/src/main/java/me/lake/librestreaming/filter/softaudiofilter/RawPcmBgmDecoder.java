@@ -0,0 +1,71 @@
+package me.lake.librestreaming.filter.softaudiofilter;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+import me.lake.librestreaming.tools.LogTools;
+
+/**
+ * 16bit little endian raw pcm file,memory mapped
+ */
+public class RawPcmBgmDecoder implements BgmDecoder {
+    private final int sampleRate;
+    private final int channelCount;
+    private RandomAccessFile file;
+    private ShortBuffer samples;
+
+    /**
+     * @throws IOException if file can not be mapped
+     */
+    public RawPcmBgmDecoder(String filePath, int sampleRate, int channelCount) throws IOException {
+        this.sampleRate = sampleRate;
+        this.channelCount = channelCount;
+        file = new RandomAccessFile(filePath, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            samples = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+                    .order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    @Override
+    public int getChannelCount() {
+        return channelCount;
+    }
+
+    @Override
+    public int read(short[] dst, int offset, int sampleNum) {
+        int remaining = samples.remaining() / channelCount * channelCount;
+        if (remaining == 0) {
+            return -1;
+        }
+        sampleNum = Math.min(sampleNum, remaining);
+        samples.get(dst, offset, sampleNum);
+        return sampleNum;
+    }
+
+    @Override
+    public void rewind() {
+        samples.rewind();
+    }
+
+    @Override
+    public void release() {
+        try {
+            file.close();
+        } catch (IOException e) {
+            LogTools.trace("RawPcmBgmDecoder", e);
+        }
+    }
+}
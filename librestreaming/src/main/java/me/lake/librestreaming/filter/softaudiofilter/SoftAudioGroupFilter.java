@@ -0,0 +1,233 @@
+package me.lake.librestreaming.filter.softaudiofilter;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import me.lake.librestreaming.tools.PcmTools;
+
+/**
+ * runs soft audio filters one after another.<br/>
+ * in place filters work on the current buffer,others ping-pong between targetBuff and one preallocated buffer.
+ * a filter returning false leaves the pcm where it is,passthrough filters are not called.<br/>
+ * consecutive short/float filters share samples,pcm is converted when a run starts and ends only.
+ */
+public class SoftAudioGroupFilter extends BaseSoftAudioFilter {
+    private static final int DOMAIN_BYTE = 0;
+    private static final int DOMAIN_SHORT = 1;
+    private static final int DOMAIN_FLOAT = 2;
+    private LinkedList<FilterWrapper> filterWrappers;
+    private byte[] swapBuff;
+    private short[] shortBuffA;
+    private short[] shortBuffB;
+    private float[] floatBuffA;
+    private float[] floatBuffB;
+
+    public SoftAudioGroupFilter(List<BaseSoftAudioFilter> filters) {
+        if (filters == null || filters.isEmpty()) {
+            throw new IllegalArgumentException("can not create empty GroupFilter");
+        }
+        filterWrappers = new LinkedList<FilterWrapper>();
+        for (BaseSoftAudioFilter filter : filters) {
+            filterWrappers.add(new FilterWrapper(filter));
+        }
+    }
+
+    @Override
+    public void onInit(int size) {
+        super.onInit(size);
+        swapBuff = new byte[SIZE];
+        int sampleNum = SIZE / 2;
+        for (FilterWrapper wrapper : filterWrappers) {
+            wrapper.filter.onInit(size, SAMPLE_RATE);
+            if (wrapper.domain == DOMAIN_SHORT && shortBuffA == null) {
+                shortBuffA = new short[sampleNum];
+                shortBuffB = new short[sampleNum];
+            } else if (wrapper.domain == DOMAIN_FLOAT && floatBuffA == null) {
+                floatBuffA = new float[sampleNum];
+                floatBuffB = new float[sampleNum];
+            }
+        }
+        if (floatBuffA != null && shortBuffA == null) {
+            shortBuffA = new short[sampleNum];
+        }
+    }
+
+    @Override
+    public boolean onFrame(byte[] orignBuff, byte[] targetBuff, long presentationTimeMs, int sequenceNum) {
+        //count pcm writes that may swap byte buffers:byte filters not in place,and ends of short/float runs but the last one
+        int swapNum = 0;
+        int domain = DOMAIN_BYTE;
+        for (FilterWrapper wrapper : filterWrappers) {
+            wrapper.isSkipped = wrapper.isPassthrough();
+            if (wrapper.isSkipped) {
+                continue;
+            }
+            wrapper.isInPlace = wrapper.filter.isInPlace();
+            if (domain != DOMAIN_BYTE && wrapper.domain != domain) {
+                swapNum++;
+            }
+            if (wrapper.domain == DOMAIN_BYTE && !wrapper.isInPlace) {
+                swapNum++;
+            }
+            domain = wrapper.domain;
+        }
+        int sampleNum = SIZE / 2;
+        //start on the side that makes last swap write targetBuff
+        byte[] current = orignBuff;
+        byte[] next = (swapNum & 1) == 1 ? targetBuff : swapBuff;
+        //samples of current run of short/float filters
+        domain = DOMAIN_BYTE;
+        boolean isRunModified = false;
+        short[] currentShorts = null;
+        float[] currentFloats = null;
+        for (FilterWrapper wrapper : filterWrappers) {
+            if (wrapper.isSkipped) {
+                continue;
+            }
+            if (wrapper.domain != domain) {
+                if (isRunModified) {
+                    writeRun(domain, currentShorts, currentFloats, next, sampleNum);
+                    current = next;
+                    next = current == targetBuff ? swapBuff : targetBuff;
+                }
+                domain = wrapper.domain;
+                isRunModified = false;
+                if (domain == DOMAIN_SHORT) {
+                    currentShorts = shortBuffA;
+                    PcmTools.bytesToShorts(current, currentShorts, sampleNum);
+                } else if (domain == DOMAIN_FLOAT) {
+                    currentFloats = floatBuffA;
+                    PcmTools.bytesToFloats(current, currentFloats, shortBuffA, sampleNum);
+                }
+            }
+            long startNs = System.nanoTime();
+            if (domain == DOMAIN_SHORT) {
+                BaseSoftAudioShortFilter filter = (BaseSoftAudioShortFilter) wrapper.filter;
+                short[] nextShorts = wrapper.isInPlace ? currentShorts : (currentShorts == shortBuffA ? shortBuffB : shortBuffA);
+                if (filter.onFrame(currentShorts, nextShorts, presentationTimeMs, sequenceNum)) {
+                    currentShorts = nextShorts;
+                    isRunModified = true;
+                }
+            } else if (domain == DOMAIN_FLOAT) {
+                BaseSoftAudioFloatFilter filter = (BaseSoftAudioFloatFilter) wrapper.filter;
+                float[] nextFloats = wrapper.isInPlace ? currentFloats : (currentFloats == floatBuffA ? floatBuffB : floatBuffA);
+                if (filter.onFrame(currentFloats, nextFloats, presentationTimeMs, sequenceNum)) {
+                    currentFloats = nextFloats;
+                    isRunModified = true;
+                }
+            } else if (wrapper.isInPlace) {
+                wrapper.filter.onFrame(current, current, presentationTimeMs, sequenceNum);
+            } else if (wrapper.filter.onFrame(current, next, presentationTimeMs, sequenceNum)) {
+                current = next;
+                next = current == targetBuff ? swapBuff : targetBuff;
+            }
+            wrapper.costNs.addAndGet(System.nanoTime() - startNs);
+            wrapper.frameNum.incrementAndGet();
+        }
+        if (isRunModified) {
+            //samples are not in any byte buffer,so write targetBuff directly
+            writeRun(domain, currentShorts, currentFloats, targetBuff, sampleNum);
+            return true;
+        }
+        if (current == orignBuff) {
+            return false;
+        }
+        if (current == swapBuff) {
+            System.arraycopy(swapBuff, 0, targetBuff, 0, SIZE);
+        }
+        return true;
+    }
+
+    private void writeRun(int domain, short[] shorts, float[] floats, byte[] dst, int sampleNum) {
+        if (domain == DOMAIN_SHORT) {
+            PcmTools.shortsToBytes(shorts, dst, sampleNum);
+        } else {
+            //shortBuffA is free,float runs never hold samples in it
+            PcmTools.floatsToBytes(floats, dst, shortBuffA, sampleNum);
+        }
+    }
+
+    @Override
+    public boolean isPassthrough() {
+        for (FilterWrapper wrapper : filterWrappers) {
+            if (!wrapper.isPassthrough()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return onFrame nanoseconds spent by every filter since created or {@link #resetFilterCost()},in chain order
+     */
+    public long[] getFilterCostNs() {
+        long[] costs = new long[filterWrappers.size()];
+        int i = 0;
+        for (FilterWrapper wrapper : filterWrappers) {
+            costs[i++] = wrapper.costNs.get();
+        }
+        return costs;
+    }
+
+    /**
+     * @return onFrame calls of every filter,in chain order.passthrough frames are not counted
+     */
+    public long[] getFilterFrameNum() {
+        long[] nums = new long[filterWrappers.size()];
+        int i = 0;
+        for (FilterWrapper wrapper : filterWrappers) {
+            nums[i++] = wrapper.frameNum.get();
+        }
+        return nums;
+    }
+
+    public void resetFilterCost() {
+        for (FilterWrapper wrapper : filterWrappers) {
+            wrapper.costNs.set(0);
+            wrapper.frameNum.set(0);
+        }
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        for (FilterWrapper wrapper : filterWrappers) {
+            wrapper.filter.onDestroy();
+        }
+    }
+
+    private static class FilterWrapper {
+        final BaseSoftAudioFilter filter;
+        final AtomicLong costNs = new AtomicLong(0);
+        final AtomicLong frameNum = new AtomicLong(0);
+        //filters keeping BaseSoftAudioFilter.onFrame never touch the pcm
+        final boolean isOnFrameOverridden;
+        final int domain;
+        boolean isSkipped;
+        boolean isInPlace;
+
+        FilterWrapper(BaseSoftAudioFilter filter) {
+            this.filter = filter;
+            if (filter instanceof BaseSoftAudioShortFilter) {
+                domain = DOMAIN_SHORT;
+            } else if (filter instanceof BaseSoftAudioFloatFilter) {
+                domain = DOMAIN_FLOAT;
+            } else {
+                domain = DOMAIN_BYTE;
+            }
+            boolean overridden;
+            try {
+                overridden = filter.getClass().getMethod("onFrame", byte[].class, byte[].class, long.class, int.class)
+                        .getDeclaringClass() != BaseSoftAudioFilter.class;
+            } catch (NoSuchMethodException e) {
+                overridden = true;
+            }
+            isOnFrameOverridden = overridden;
+        }
+
+        boolean isPassthrough() {
+            return !isOnFrameOverridden || filter.isPassthrough();
+        }
+    }
+}
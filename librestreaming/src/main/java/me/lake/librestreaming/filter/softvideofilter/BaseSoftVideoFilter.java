@@ -33,6 +33,14 @@ public class BaseSoftVideoFilter {
         return false;
     }
 
+    /**
+     * @return true if onFrame would neither touch the buffers nor return true at the moment,
+     * it is not called then
+     */
+    public boolean isPassthrough() {
+        return false;
+    }
+
     public void onDestroy() {
 
     }
@@ -0,0 +1,46 @@
+package me.lake.librestreaming.filter.softvideofilter;
+
+/**
+ * NV21 filter which can be run in horizontal bands at the same time.<br/>
+ * soft video core splits the frame into bands of even rows and calls {@link #onFrameBand}
+ * for them on several threads,filters which are not tiled keep running serially.
+ */
+public abstract class BaseTiledSoftVideoFilter extends BaseSoftVideoFilter {
+
+    /**
+     * @return rows above and below its band a band may read from orignBuff,
+     * e.g. radius of a blur kernel.bands are never made shorter than this.
+     */
+    public int getHaloRows() {
+        return 0;
+    }
+
+    /**
+     * called once per frame on filter thread,before any band
+     *
+     * @return false to use orignBuff,no band is run
+     */
+    public boolean onFrameBegin(byte[] orignBuff, byte[] targetBuff, long presentationTimeMs, int sequenceNum) {
+        return true;
+    }
+
+    /**
+     * write Y rows [yStart,yEnd) and VU rows [yStart/2,yEnd/2) of targetBuff.<br/>
+     * may read orignBuff rows [yStart-getHaloRows(),yEnd+getHaloRows()),clamped to the frame.<br/>
+     * yStart and yEnd are even.bands run concurrently,so nothing but targetBuff rows of the band may be written.
+     */
+    public abstract void onFrameBand(byte[] orignBuff, byte[] targetBuff, int yStart, int yEnd,
+                                     long presentationTimeMs, int sequenceNum);
+
+    /**
+     * serial path,the whole frame as one band
+     */
+    @Override
+    public boolean onFrame(byte[] orignBuff, byte[] targetBuff, long presentationTimeMs, int sequenceNum) {
+        if (!onFrameBegin(orignBuff, targetBuff, presentationTimeMs, sequenceNum)) {
+            return false;
+        }
+        onFrameBand(orignBuff, targetBuff, 0, SIZE_HEIGHT, presentationTimeMs, sequenceNum);
+        return true;
+    }
+}
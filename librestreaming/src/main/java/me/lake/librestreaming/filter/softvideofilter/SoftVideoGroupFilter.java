@@ -0,0 +1,150 @@
+package me.lake.librestreaming.filter.softvideofilter;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import me.lake.librestreaming.core.RESFilterBandExecutor;
+import me.lake.librestreaming.core.RESLatencyHistogram;
+
+/**
+ * runs soft filters one after another.<br/>
+ * frames ping-pong between targetBuff and one preallocated buffer,
+ * a filter returning false leaves the frame where it is,passthrough filters are not called.<br/>
+ * {@link BaseTiledSoftVideoFilter} members run in bands once an executor is set,see {@link #setBandExecutor}.
+ */
+public class SoftVideoGroupFilter extends BaseSoftVideoFilter {
+    private LinkedList<FilterWrapper> filterWrappers;
+    private byte[] swapBuff;
+    private RESFilterBandExecutor bandExecutor;
+
+    public SoftVideoGroupFilter(List<BaseSoftVideoFilter> filters) {
+        if (filters == null || filters.isEmpty()) {
+            throw new IllegalArgumentException("can not create empty GroupFilter");
+        }
+        filterWrappers = new LinkedList<FilterWrapper>();
+        for (BaseSoftVideoFilter filter : filters) {
+            filterWrappers.add(new FilterWrapper(filter));
+        }
+    }
+
+    /**
+     * set by soft video core with filter lock held,null to run every member serially.
+     * member groups share it.
+     */
+    public void setBandExecutor(RESFilterBandExecutor executor) {
+        bandExecutor = executor;
+        for (FilterWrapper wrapper : filterWrappers) {
+            if (wrapper.filter instanceof SoftVideoGroupFilter) {
+                ((SoftVideoGroupFilter) wrapper.filter).setBandExecutor(executor);
+            }
+        }
+    }
+
+    @Override
+    public void onInit(int VWidth, int VHeight) {
+        super.onInit(VWidth, VHeight);
+        swapBuff = new byte[SIZE_TOTAL];
+        for (FilterWrapper wrapper : filterWrappers) {
+            wrapper.filter.onInit(VWidth, VHeight);
+        }
+    }
+
+    @Override
+    public boolean onFrame(byte[] orignBuff, byte[] targetBuff, long presentationTimeMs, int sequenceNum) {
+        int activeNum = 0;
+        for (FilterWrapper wrapper : filterWrappers) {
+            wrapper.isSkipped = wrapper.isPassthrough();
+            if (!wrapper.isSkipped) {
+                activeNum++;
+            }
+        }
+        //start on the side that makes last filter write targetBuff,if all of them modify the frame
+        byte[] current = orignBuff;
+        byte[] next = (activeNum & 1) == 1 ? targetBuff : swapBuff;
+        for (FilterWrapper wrapper : filterWrappers) {
+            if (wrapper.isSkipped) {
+                continue;
+            }
+            long startNs = System.nanoTime();
+            boolean modified;
+            if (bandExecutor != null && wrapper.filter instanceof BaseTiledSoftVideoFilter) {
+                modified = bandExecutor.runFilter((BaseTiledSoftVideoFilter) wrapper.filter,
+                        current, next, SIZE_HEIGHT, presentationTimeMs, sequenceNum);
+            } else {
+                modified = wrapper.filter.onFrame(current, next, presentationTimeMs, sequenceNum);
+            }
+            wrapper.timeHistogram.record((System.nanoTime() - startNs) / 1000);
+            if (modified) {
+                current = next;
+                next = current == targetBuff ? swapBuff : targetBuff;
+            }
+        }
+        if (current == orignBuff) {
+            return false;
+        }
+        if (current == swapBuff) {
+            System.arraycopy(swapBuff, 0, targetBuff, 0, SIZE_TOTAL);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean isPassthrough() {
+        for (FilterWrapper wrapper : filterWrappers) {
+            if (!wrapper.isPassthrough()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return onFrame time(us) of every filter,in chain order
+     */
+    public List<RESLatencyHistogram.Snapshot> getFilterTimeSnapshots() {
+        List<RESLatencyHistogram.Snapshot> snapshots = new ArrayList<>(filterWrappers.size());
+        for (FilterWrapper wrapper : filterWrappers) {
+            snapshots.add(wrapper.timeHistogram.snapshot());
+        }
+        return snapshots;
+    }
+
+    public void resetFilterTimes() {
+        for (FilterWrapper wrapper : filterWrappers) {
+            wrapper.timeHistogram.reset();
+        }
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        for (FilterWrapper wrapper : filterWrappers) {
+            wrapper.filter.onDestroy();
+        }
+    }
+
+    private static class FilterWrapper {
+        final BaseSoftVideoFilter filter;
+        final RESLatencyHistogram timeHistogram = new RESLatencyHistogram();
+        //filters keeping BaseSoftVideoFilter.onFrame never touch the frame
+        final boolean isOnFrameOverridden;
+        boolean isSkipped;
+
+        FilterWrapper(BaseSoftVideoFilter filter) {
+            this.filter = filter;
+            boolean overridden;
+            try {
+                overridden = filter.getClass().getMethod("onFrame", byte[].class, byte[].class, long.class, int.class)
+                        .getDeclaringClass() != BaseSoftVideoFilter.class;
+            } catch (NoSuchMethodException e) {
+                overridden = true;
+            }
+            isOnFrameOverridden = overridden;
+        }
+
+        boolean isPassthrough() {
+            return !isOnFrameOverridden || filter.isPassthrough();
+        }
+    }
+}
@@ -7,6 +7,14 @@ public class RESAudioBuff {
     public boolean isReadyToFill;
     public int audioFormat = -1;
     public byte[] buff;
+    /**
+     * valid bytes in buff
+     */
+    public int size;
+    /**
+     * pts of first sample in buff,us
+     */
+    public long timestampUs;
 
     public RESAudioBuff(int audioFormat, int size) {
         isReadyToFill = true;
@@ -2,6 +2,7 @@ package me.lake.librestreaming.model;
 
 
 import android.hardware.Camera;
+import android.media.MediaCodecInfo;
 
 /**
  * Created by lake on 16-3-16.
@@ -17,6 +18,46 @@ public class RESConfig {
         public static final int OpenGLES = RESCoreParameters.RENDERING_MODE_OPENGLES;
     }
 
+    public static class RtmpMuxer {
+        /**
+         * native librtmp
+         */
+        public static final int LIBRTMP = RESCoreParameters.RTMP_MUXER_LIBRTMP;
+        /**
+         * pure java,batches chunks into gathering writes
+         */
+        public static final int JAVA = RESCoreParameters.RTMP_MUXER_JAVA;
+    }
+
+    public static class VideoCodec {
+        public static final int AVC = RESCoreParameters.VIDEO_CODEC_AVC;
+        /**
+         * sent in Enhanced RTMP tags,only by {@link RtmpMuxer#JAVA}
+         */
+        public static final int HEVC = RESCoreParameters.VIDEO_CODEC_HEVC;
+    }
+
+    public static class VideoProfile {
+        public static final int BASELINE = MediaCodecInfo.CodecProfileLevel.AVCProfileBaseline;
+        public static final int MAIN = MediaCodecInfo.CodecProfileLevel.AVCProfileMain;
+        public static final int HIGH = MediaCodecInfo.CodecProfileLevel.AVCProfileHigh;
+    }
+
+    public static class SendDropPolicy {
+        /**
+         * drop any droppable video frame when send queue is crowded,never drop audio
+         */
+        public static final int CURRENT = RESCoreParameters.SEND_DROP_POLICY_CURRENT;
+        /**
+         * drop video frames until next keyframe,never drop audio or keyframes
+         */
+        public static final int DROP_UNTIL_NEXT_IDR = RESCoreParameters.SEND_DROP_POLICY_DROP_UNTIL_NEXT_IDR;
+        /**
+         * drop whole GOPs when a newer keyframe is queued,never drop audio
+         */
+        public static final int DROP_OLDEST_GOP = RESCoreParameters.SEND_DROP_POLICY_DROP_OLDEST_GOP;
+    }
+
     public static class DirectionMode {
         public static final int FLAG_DIRECTION_FLIP_HORIZONTAL = RESCoreParameters.FLAG_DIRECTION_FLIP_HORIZONTAL;
         public static final int FLAG_DIRECTION_FLIP_VERTICAL = RESCoreParameters.FLAG_DIRECTION_FLIP_VERTICAL;
@@ -38,6 +79,20 @@ public class RESConfig {
     private int videoFPS;
     private int videoGOP;
     private boolean printDetailMsg;
+    private int sendDropPolicy;
+    private int rtmpMuxer;
+    private int rtmpChunkSize;
+    private boolean requestKeyFrameOnDrop;
+    private boolean adaptiveBitrate;
+    private int minBitRate;
+    private int maxBitRate;
+    private int pipelineStatsLogInterval;
+    private int softVideoFilterThreadNum;
+    private int videoCodec;
+    private int videoProfile;
+    private int videoMaxBFrames;
+    private String capabilityCacheDir;
+    private boolean encoderAsync;
 
     private RESConfig() {
     }
@@ -52,6 +107,20 @@ public class RESConfig {
         res.setVideoBufferQueueNum(5);
         res.setBitRate(2000000);
         res.setPrintDetailMsg(false);
+        res.setSendDropPolicy(SendDropPolicy.CURRENT);
+        res.setRtmpMuxer(RtmpMuxer.LIBRTMP);
+        res.setRtmpChunkSize(4096);
+        res.setRequestKeyFrameOnDrop(false);
+        res.setAdaptiveBitrate(false);
+        res.setMinBitRate(300000);
+        res.setMaxBitRate(-1);
+        res.setPipelineStatsLogInterval(0);
+        res.setSoftVideoFilterThreadNum(0);
+        res.setVideoCodec(VideoCodec.AVC);
+        res.setVideoProfile(VideoProfile.BASELINE);
+        res.setVideoMaxBFrames(0);
+        res.setCapabilityCacheDir(null);
+        res.setEncoderAsync(true);
         res.setDefaultCamera(Camera.CameraInfo.CAMERA_FACING_BACK);
         res.setBackCameraDirectionMode(DirectionMode.FLAG_DIRECTION_ROATATION_0);
         res.setFrontCameraDirectionMode(DirectionMode.FLAG_DIRECTION_ROATATION_0);
@@ -119,7 +188,9 @@ public class RESConfig {
      * set video buffer number for soft mode.<br/>
      * num larger:video Smoother,more memory.
      * @param num
+     * @deprecated soft mode keeps latest camera frame in a triple buffer,num is ignored
      */
+    @Deprecated
     public void setVideoBufferQueueNum(int num) {
         videoBufferQueueNum = num;
     }
@@ -132,6 +203,194 @@ public class RESConfig {
         this.bitRate = bitRate;
     }
 
+    /**
+     * choose rtmp implementation
+     *
+     * @param rtmpMuxer {@link RtmpMuxer}
+     */
+    public void setRtmpMuxer(int rtmpMuxer) {
+        this.rtmpMuxer = rtmpMuxer;
+    }
+
+    /**
+     * outgoing chunk size,only used by {@link RtmpMuxer#JAVA}
+     *
+     * @param rtmpChunkSize bytes,[128,65536]
+     */
+    public void setRtmpChunkSize(int rtmpChunkSize) {
+        this.rtmpChunkSize = rtmpChunkSize;
+    }
+
+    public int getRtmpMuxer() {
+        return rtmpMuxer;
+    }
+
+    public int getRtmpChunkSize() {
+        return rtmpChunkSize;
+    }
+
+    /**
+     * set how rtmp sender abandons frames when network is slower than encoder.
+     *
+     * @param sendDropPolicy {@link SendDropPolicy}
+     */
+    public void setSendDropPolicy(int sendDropPolicy) {
+        this.sendDropPolicy = sendDropPolicy;
+    }
+
+    /**
+     * ask encoder for a keyframe when rtmp sender starts dropping video,
+     * so that dropping ends sooner.
+     *
+     * @param requestKeyFrameOnDrop
+     */
+    public void setRequestKeyFrameOnDrop(boolean requestKeyFrameOnDrop) {
+        this.requestKeyFrameOnDrop = requestKeyFrameOnDrop;
+    }
+
+    /**
+     * let RESClient lower/raise video bitrate by itself according to network.<br/>
+     * bitrate stays in [minBitRate,maxBitRate] and starts from bitRate.
+     *
+     * @param adaptiveBitrate
+     */
+    public void setAdaptiveBitrate(boolean adaptiveBitrate) {
+        this.adaptiveBitrate = adaptiveBitrate;
+    }
+
+    /**
+     * lower bound of adaptive bitrate
+     *
+     * @param minBitRate bits/sec
+     */
+    public void setMinBitRate(int minBitRate) {
+        this.minBitRate = minBitRate;
+    }
+
+    /**
+     * upper bound of adaptive bitrate,-1 to use bitRate
+     *
+     * @param maxBitRate bits/sec
+     */
+    public void setMaxBitRate(int maxBitRate) {
+        this.maxBitRate = maxBitRate;
+    }
+
+    /**
+     * print per stage latency to log periodically while streaming
+     *
+     * @param pipelineStatsLogInterval ms,0 to disable
+     */
+    public void setPipelineStatsLogInterval(int pipelineStatsLogInterval) {
+        this.pipelineStatsLogInterval = pipelineStatsLogInterval;
+    }
+
+    public int getPipelineStatsLogInterval() {
+        return pipelineStatsLogInterval;
+    }
+
+    /**
+     * set thread number to run {@link me.lake.librestreaming.filter.softvideofilter.BaseTiledSoftVideoFilter} bands,soft mode only.<br/>
+     * other soft filters always run on one thread.
+     *
+     * @param softVideoFilterThreadNum 0 to use cpu count(at most 4),1 to run bands serially
+     */
+    public void setSoftVideoFilterThreadNum(int softVideoFilterThreadNum) {
+        this.softVideoFilterThreadNum = softVideoFilterThreadNum;
+    }
+
+    public int getSoftVideoFilterThreadNum() {
+        return softVideoFilterThreadNum;
+    }
+
+    /**
+     * set video codec,HEVC falls back to AVC if device has no hevc encoder or muxer is not {@link RtmpMuxer#JAVA}
+     *
+     * @param videoCodec {@link VideoCodec}
+     */
+    public void setVideoCodec(int videoCodec) {
+        this.videoCodec = videoCodec;
+    }
+
+    public int getVideoCodec() {
+        return videoCodec;
+    }
+
+    /**
+     * set the highest h264 profile to use,hevc always uses Main,
+     * encoder falls back to a lower one it supports.
+     *
+     * @param videoProfile {@link VideoProfile}
+     */
+    public void setVideoProfile(int videoProfile) {
+        this.videoProfile = videoProfile;
+    }
+
+    public int getVideoProfile() {
+        return videoProfile;
+    }
+
+    /**
+     * ask encoder for B-frames,needs android 10+ and MAIN/HIGH {@link VideoProfile}.<br/>
+     * only used by {@link RtmpMuxer#JAVA},librtmp can not send CompositionTime.
+     *
+     * @param videoMaxBFrames 0 to disable
+     */
+    public void setVideoMaxBFrames(int videoMaxBFrames) {
+        this.videoMaxBFrames = videoMaxBFrames;
+    }
+
+    public int getVideoMaxBFrames() {
+        return videoMaxBFrames;
+    }
+
+    /**
+     * keep camera and encoder capabilities in this directory,so next prepare() need not query the device again.
+     * the file is rebuilt after a system update.
+     *
+     * @param capabilityCacheDir e.g. Context.getCacheDir(),null to cache in memory only
+     */
+    public void setCapabilityCacheDir(String capabilityCacheDir) {
+        this.capabilityCacheDir = capabilityCacheDir;
+    }
+
+    public String getCapabilityCacheDir() {
+        return capabilityCacheDir;
+    }
+
+    /**
+     * drive encoders by MediaCodec.Callback instead of polling them,needs android 6.0+,ignored below.
+     *
+     * @param encoderAsync false to poll on every version
+     */
+    public void setEncoderAsync(boolean encoderAsync) {
+        this.encoderAsync = encoderAsync;
+    }
+
+    public boolean isEncoderAsync() {
+        return encoderAsync;
+    }
+
+    public boolean isAdaptiveBitrate() {
+        return adaptiveBitrate;
+    }
+
+    public int getMinBitRate() {
+        return minBitRate;
+    }
+
+    public int getMaxBitRate() {
+        return maxBitRate;
+    }
+
+    public int getSendDropPolicy() {
+        return sendDropPolicy;
+    }
+
+    public boolean isRequestKeyFrameOnDrop() {
+        return requestKeyFrameOnDrop;
+    }
+
     public int getVideoFPS() {
         return videoFPS;
     }
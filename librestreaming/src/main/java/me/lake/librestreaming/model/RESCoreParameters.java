@@ -14,6 +14,16 @@ public class RESCoreParameters {
 
     public static final int RENDERING_MODE_NATIVE_WINDOW = 1;
     public static final int RENDERING_MODE_OPENGLES = 2;
+
+    public static final int RTMP_MUXER_LIBRTMP = 1;
+    public static final int RTMP_MUXER_JAVA = 2;
+
+    public static final int VIDEO_CODEC_AVC = 1;
+    public static final int VIDEO_CODEC_HEVC = 2;
+
+    public static final int SEND_DROP_POLICY_CURRENT = 0;
+    public static final int SEND_DROP_POLICY_DROP_UNTIL_NEXT_IDR = 1;
+    public static final int SEND_DROP_POLICY_DROP_OLDEST_GOP = 2;
     /**
      * same with jni
      */
@@ -41,6 +51,10 @@ public class RESCoreParameters {
     public float cropRatio;
     public int previewColorFormat;
     public int previewBufferSize;
+    /**
+     * codec really used,hevc falls back to avc when it can not be encoded or muxed
+     */
+    public int videoCodec;
     public int mediacodecAVCColorFormat;
     public int mediacdoecAVCBitRate;
     public int videoBufferQueueNum;
@@ -57,6 +71,14 @@ public class RESCoreParameters {
     public int mediacodecAVCIFrameInterval;
     public int mediacodecAVCProfile;
     public int mediacodecAVClevel;
+    /**
+     * B-frames asked from encoder,0 if encoder can not be asked or muxer can not carry CompositionTime
+     */
+    public int mediacodecAVCMaxBFrames;
+    /**
+     * encoders driven by MediaCodec.Callback,only on android 6.0+
+     */
+    public boolean mediacodecAsync;
 
     public int mediacodecAACProfile;
     public int mediacodecAACSampleRate;
@@ -66,6 +88,34 @@ public class RESCoreParameters {
 
     //sender
     public int senderQueueLength;
+    public int senderMuxer;
+    public int senderChunkSize;
+    public int senderDropPolicy;
+    public boolean senderRequestKeyFrameOnDrop;
+    /**
+     * encoders put output into direct ByteBuffer,decided by muxer
+     */
+    public boolean senderDirectBuffer;
+    /**
+     * monotonic time(us) when streaming started,audio & video dts are relative to it.<br/>
+     * System.nanoTime() and SystemClock.uptimeMillis() share this clock on android
+     */
+    public long mediaClockBaseUs;
+
+    //adaptive bitrate
+    public boolean adaptiveBitrate;
+    public int adaptiveMinBitRate;
+    public int adaptiveMaxBitRate;
+
+    /**
+     * log RESPipelineStats every pipelineStatsLogInterval ms,0 to disable
+     */
+    public int pipelineStatsLogInterval;
+
+    /**
+     * threads for tiled soft video filter,0 for cpu count
+     */
+    public int softVideoFilterThreadNum;
 
     public RESCoreParameters() {
         done = false;
@@ -76,6 +126,7 @@ public class RESCoreParameters {
         videoFPS=-1;
         videoGOP=1;
         previewColorFormat = -1;
+        videoCodec = VIDEO_CODEC_AVC;
         mediacodecAVCColorFormat = -1;
         mediacdoecAVCBitRate = -1;
         videoBufferQueueNum = -1;
@@ -84,6 +135,8 @@ public class RESCoreParameters {
         mediacodecAVCIFrameInterval = -1;
         mediacodecAVCProfile = -1;
         mediacodecAVClevel = -1;
+        mediacodecAVCMaxBFrames = 0;
+        mediacodecAsync = false;
         mediacodecAACProfile = -1;
         mediacodecAACSampleRate = -1;
         mediacodecAACChannelCount = -1;
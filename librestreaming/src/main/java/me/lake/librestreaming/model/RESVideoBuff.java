@@ -9,6 +9,10 @@ public class RESVideoBuff {
     public boolean isReadyToFill;
     public int colorFormat = -1;
     public byte[] buff;
+    /**
+     * {@link System#nanoTime()} when buff was filled
+     */
+    public long timestampNs;
 
 
     public RESVideoBuff(int colorFormat, int size) {
@@ -2,6 +2,7 @@ package me.lake.librestreaming.rtmp;
 
 import java.util.ArrayList;
 
+import me.lake.librestreaming.core.Packager;
 import me.lake.librestreaming.model.RESCoreParameters;
 
 /**
@@ -51,8 +52,9 @@ public class FLvMetaData {
                 break;
         }
         //Video
-        //h264
-        setProperty("videocodecid", 7);
+        //h264,or hevc FourCC of Enhanced RTMP
+        setProperty("videocodecid", coreParameters.videoCodec == RESCoreParameters.VIDEO_CODEC_HEVC ?
+                Packager.FLVPackager.FOURCC_HVC1 : 7);
         setProperty("framerate", coreParameters.mediacodecAVCFrameRate);
         setProperty("width", coreParameters.videoWidth);
         setProperty("height", coreParameters.videoHeight);
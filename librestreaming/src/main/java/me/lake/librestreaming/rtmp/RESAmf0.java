@@ -0,0 +1,192 @@
+package me.lake.librestreaming.rtmp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal AMF0 encoding used by rtmp commands.<br/>
+ * number->Double,boolean->Boolean,string->String,object/ecma array->Map,null/undefined->null
+ */
+public class RESAmf0 {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int TYPE_NUMBER = 0x00;
+    private static final int TYPE_BOOLEAN = 0x01;
+    private static final int TYPE_STRING = 0x02;
+    private static final int TYPE_OBJECT = 0x03;
+    private static final int TYPE_NULL = 0x05;
+    private static final int TYPE_UNDEFINED = 0x06;
+    private static final int TYPE_ECMA_ARRAY = 0x08;
+    private static final int TYPE_OBJECT_END = 0x09;
+    private static final int TYPE_STRICT_ARRAY = 0x0A;
+    private static final int TYPE_DATE = 0x0B;
+    private static final int TYPE_LONG_STRING = 0x0C;
+
+    public static class Writer {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+
+        public Writer writeNumber(double value) {
+            out.write(TYPE_NUMBER);
+            writeLong(Double.doubleToLongBits(value));
+            return this;
+        }
+
+        public Writer writeBoolean(boolean value) {
+            out.write(TYPE_BOOLEAN);
+            out.write(value ? 1 : 0);
+            return this;
+        }
+
+        public Writer writeString(String value) {
+            out.write(TYPE_STRING);
+            writeUTF8(value);
+            return this;
+        }
+
+        public Writer writeNull() {
+            out.write(TYPE_NULL);
+            return this;
+        }
+
+        /**
+         * values can be Number,Boolean,String,String[] or null
+         */
+        public Writer writeObject(Map<String, Object> object) {
+            out.write(TYPE_OBJECT);
+            for (Map.Entry<String, Object> entry : object.entrySet()) {
+                writeUTF8(entry.getKey());
+                Object value = entry.getValue();
+                if (value instanceof Number) {
+                    writeNumber(((Number) value).doubleValue());
+                } else if (value instanceof Boolean) {
+                    writeBoolean((Boolean) value);
+                } else if (value instanceof String) {
+                    writeString((String) value);
+                } else if (value instanceof String[]) {
+                    writeStrictArray((String[]) value);
+                } else {
+                    writeNull();
+                }
+            }
+            out.write(0);
+            out.write(0);
+            out.write(TYPE_OBJECT_END);
+            return this;
+        }
+
+        public Writer writeStrictArray(String[] values) {
+            out.write(TYPE_STRICT_ARRAY);
+            writeInt(values.length);
+            for (String value : values) {
+                writeString(value);
+            }
+            return this;
+        }
+
+        /**
+         * append already encoded amf0 values
+         */
+        public Writer writeRaw(byte[] encoded) {
+            out.write(encoded, 0, encoded.length);
+            return this;
+        }
+
+        public byte[] toByteArray() {
+            return out.toByteArray();
+        }
+
+        private void writeUTF8(String value) {
+            byte[] bytes = value.getBytes(UTF8);
+            out.write((bytes.length >> 8) & 0xFF);
+            out.write(bytes.length & 0xFF);
+            out.write(bytes, 0, bytes.length);
+        }
+
+        private void writeInt(int value) {
+            for (int i = 3; i >= 0; i--) {
+                out.write((value >> (8 * i)) & 0xFF);
+            }
+        }
+
+        private void writeLong(long value) {
+            for (int i = 7; i >= 0; i--) {
+                out.write((int) (value >> (8 * i)) & 0xFF);
+            }
+        }
+    }
+
+    /**
+     * decode every value in data
+     */
+    public static List<Object> readAll(byte[] data) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        List<Object> values = new ArrayList<>();
+        try {
+            while (buffer.hasRemaining()) {
+                values.add(readValue(buffer));
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("bad amf0 data", e);
+        }
+        return values;
+    }
+
+    private static Object readValue(ByteBuffer buffer) throws IOException {
+        int type = buffer.get() & 0xFF;
+        switch (type) {
+            case TYPE_NUMBER:
+                return buffer.getDouble();
+            case TYPE_BOOLEAN:
+                return buffer.get() != 0;
+            case TYPE_STRING:
+                return readUTF8(buffer, buffer.getShort() & 0xFFFF);
+            case TYPE_LONG_STRING:
+                return readUTF8(buffer, buffer.getInt());
+            case TYPE_OBJECT:
+                return readProperties(buffer);
+            case TYPE_ECMA_ARRAY:
+                buffer.getInt();
+                return readProperties(buffer);
+            case TYPE_STRICT_ARRAY: {
+                int count = buffer.getInt();
+                List<Object> list = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    list.add(readValue(buffer));
+                }
+                return list;
+            }
+            case TYPE_DATE:
+                double time = buffer.getDouble();
+                buffer.getShort();
+                return time;
+            case TYPE_NULL:
+            case TYPE_UNDEFINED:
+                return null;
+            default:
+                throw new IOException("unsupported amf0 type:" + type);
+        }
+    }
+
+    private static Map<String, Object> readProperties(ByteBuffer buffer) throws IOException {
+        Map<String, Object> map = new HashMap<>();
+        while (true) {
+            String key = readUTF8(buffer, buffer.getShort() & 0xFFFF);
+            if (key.length() == 0 && (buffer.get(buffer.position()) & 0xFF) == TYPE_OBJECT_END) {
+                buffer.get();
+                return map;
+            }
+            map.put(key, readValue(buffer));
+        }
+    }
+
+    private static String readUTF8(ByteBuffer buffer, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF8);
+    }
+}
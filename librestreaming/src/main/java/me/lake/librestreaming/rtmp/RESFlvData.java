@@ -1,5 +1,7 @@
 package me.lake.librestreaming.rtmp;
 
+import java.nio.ByteBuffer;
+
 /**
  * Created by lake on 16-3-16.
  */
@@ -8,20 +10,69 @@ public class RESFlvData {
     public final static int FLV_RTMP_PACKET_TYPE_VIDEO = 9;
     public final static int FLV_RTMP_PACKET_TYPE_AUDIO = 8;
     public final static int FLV_RTMP_PACKET_TYPE_INFO = 18;
+    public final static int NALU_TYPE_SLICE = 1;
     public final static int NALU_TYPE_IDR = 5;
 
     public boolean droppable;
 
+    /**
+     * AVCDecoderConfigurationRecord or AudioSpecificConfig
+     */
+    public boolean isSequenceHeader;
+
     public int dts;//解码时间戳
 
+    /**
+     * presentation time on the same timeline as dts,video only.<br/>
+     * differs from dts when encoder reorders frames(B-frames)
+     */
+    public int pts;
+
     public byte[] byteBuffer; //数据
 
+    /**
+     * direct buffer holding data instead of byteBuffer,null if heap backed.<br/>
+     * data is [0,size),position and limit mean nothing
+     */
+    public ByteBuffer directBuffer;
+
     public int size; //字节长度
 
     public int flvTagType; //视频和音频的分类
 
     public int videoFrameType;
 
+    /**
+     * {@link System#nanoTime()} when encoder output it,0 if not tracked by RESPipelineStats
+     */
+    public long outputTimeNs;
+
+    /**
+     * encoder presentation time,based on SystemClock.uptimeMillis()
+     */
+    public long ptsUs;
+
+    /**
+     * size class in {@link RESFlvDataPool},-1 if not pooled
+     */
+    int poolClass = -1;
+    boolean leased = false;
+    /**
+     * consumers holding it,see {@link RESFlvDataPool#retain(RESFlvData, int)}
+     */
+    volatile int refCount = 0;
+
+    public boolean isDirect() {
+        return directBuffer != null;
+    }
+
+    /**
+     * @return flv CompositionTime(pts-dts),0 for sequence header
+     */
+    public int getCompositionTime() {
+        return isSequenceHeader ? 0 : pts - dts;
+    }
+
     public boolean isKeyframe() {
         return videoFrameType == NALU_TYPE_IDR;
     }
@@ -0,0 +1,69 @@
+package me.lake.librestreaming.rtmp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Hands every RESFlvData from encoders to several collecters,e.g. rtmp sender and file recorder.<br/>
+ * pooled RESFlvData are retained once per extra collecter,every collecter recycles what it gets.<br/>
+ * latest sequence headers are kept so a collecter added mid-stream can start with them.
+ */
+public class RESFlvDataFanOut implements RESFlvDataCollecter {
+    private final Object syncCollecters = new Object();
+    private volatile RESFlvDataCollecter[] collecters = new RESFlvDataCollecter[0];
+    private volatile RESFlvData videoSequenceHeader;
+    private volatile RESFlvData audioSequenceHeader;
+
+    /**
+     * @param replaySequenceHeaders true to feed latest sequence headers to collecter first
+     */
+    public void addCollecter(RESFlvDataCollecter collecter, boolean replaySequenceHeaders) {
+        synchronized (syncCollecters) {
+            if (replaySequenceHeaders) {
+                RESFlvData header = videoSequenceHeader;
+                if (header != null) {
+                    collecter.collect(header, RESRtmpSender.FROM_VIDEO);
+                }
+                header = audioSequenceHeader;
+                if (header != null) {
+                    collecter.collect(header, RESRtmpSender.FROM_AUDIO);
+                }
+            }
+            RESFlvDataCollecter[] newCollecters = Arrays.copyOf(collecters, collecters.length + 1);
+            newCollecters[collecters.length] = collecter;
+            collecters = newCollecters;
+        }
+    }
+
+    public void removeCollecter(RESFlvDataCollecter collecter) {
+        synchronized (syncCollecters) {
+            ArrayList<RESFlvDataCollecter> list = new ArrayList<>(Arrays.asList(collecters));
+            if (list.remove(collecter)) {
+                collecters = list.toArray(new RESFlvDataCollecter[list.size()]);
+            }
+        }
+    }
+
+    /**
+     * called from encoder threads,lock free.
+     */
+    @Override
+    public void collect(RESFlvData flvData, int type) {
+        if (flvData.isSequenceHeader) {
+            if (flvData.flvTagType == RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO) {
+                videoSequenceHeader = flvData;
+            } else {
+                audioSequenceHeader = flvData;
+            }
+        }
+        RESFlvDataCollecter[] current = collecters;
+        if (current.length == 0) {
+            RESFlvDataPool.i().recycle(flvData);
+            return;
+        }
+        RESFlvDataPool.i().retain(flvData, current.length - 1);
+        for (RESFlvDataCollecter collecter : current) {
+            collecter.collect(flvData, type);
+        }
+    }
+}
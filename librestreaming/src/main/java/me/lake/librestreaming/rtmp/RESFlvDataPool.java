@@ -0,0 +1,237 @@
+package me.lake.librestreaming.rtmp;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Size-classed pool of RESFlvData shared by encoders and sender.<br/>
+ * encoders {@link #obtain(int)} a RESFlvData for every encoded frame,
+ * sender {@link #recycle(RESFlvData)} it after it is written or dropped.<br/>
+ * RESFlvData.byteBuffer may be larger than RESFlvData.size,always use size.<br/>
+ * {@link #obtainDirect(int)} gives RESFlvData backed by direct ByteBuffer,they have their own free lists.<br/>
+ * a RESFlvData handed to several consumers is {@link #retain(RESFlvData, int)}ed,
+ * it goes back to pool when every consumer recycled it.
+ */
+public class RESFlvDataPool {
+    /**
+     * size classes are power of two,from 1KB to 2MB
+     */
+    private static final int MIN_CLASS_SHIFT = 10;
+    private static final int MAX_CLASS_SHIFT = 21;
+    private static final int CLASS_NUM = MAX_CLASS_SHIFT - MIN_CLASS_SHIFT + 1;
+    /**
+     * at most 8MB cached per class,at least 4 and at most 256 items
+     */
+    private static final int MAX_CACHED_BYTES_PER_CLASS = 8 * 1024 * 1024;
+    private static final int MIN_CACHED_PER_CLASS = 4;
+    private static final int MAX_CACHED_PER_CLASS = 256;
+    private static final RESFlvDataPool instance = new RESFlvDataPool();
+    private static final AtomicIntegerFieldUpdater<RESFlvData> REF_COUNT =
+            AtomicIntegerFieldUpdater.newUpdater(RESFlvData.class, "refCount");
+
+    private final FreeList[] freeLists;
+    private final FreeList[] directFreeLists;
+    private final AtomicLong leaseCount = new AtomicLong(0);
+    private final AtomicLong hitCount = new AtomicLong(0);
+    private final AtomicInteger outstandingCount = new AtomicInteger(0);
+    private final AtomicLong copiedBytes = new AtomicLong(0);
+
+    public static RESFlvDataPool i() {
+        return instance;
+    }
+
+    private RESFlvDataPool() {
+        freeLists = new FreeList[CLASS_NUM];
+        directFreeLists = new FreeList[CLASS_NUM];
+        for (int i = 0; i < CLASS_NUM; i++) {
+            int capacity = MAX_CACHED_BYTES_PER_CLASS >> (MIN_CLASS_SHIFT + i);
+            capacity = Math.min(MAX_CACHED_PER_CLASS, Math.max(MIN_CACHED_PER_CLASS, capacity));
+            freeLists[i] = new FreeList(capacity);
+            directFreeLists[i] = new FreeList(capacity);
+        }
+    }
+
+    /**
+     * @param size bytes needed
+     * @return RESFlvData with byteBuffer.length>=size and size field set
+     */
+    public RESFlvData obtain(int size) {
+        leaseCount.incrementAndGet();
+        outstandingCount.incrementAndGet();
+        int sizeClass = sizeClassOf(size);
+        RESFlvData flvData = null;
+        if (sizeClass >= 0) {
+            flvData = freeLists[sizeClass].poll();
+        }
+        if (flvData != null) {
+            hitCount.incrementAndGet();
+        } else {
+            flvData = new RESFlvData();
+            flvData.poolClass = sizeClass;
+            flvData.byteBuffer = new byte[sizeClass >= 0 ? 1 << (MIN_CLASS_SHIFT + sizeClass) : size];
+        }
+        flvData.leased = true;
+        REF_COUNT.set(flvData, 1);
+        flvData.size = size;
+        return flvData;
+    }
+
+    /**
+     * @param size bytes needed
+     * @return RESFlvData with directBuffer.capacity()>=size,byteBuffer null and size field set
+     */
+    public RESFlvData obtainDirect(int size) {
+        leaseCount.incrementAndGet();
+        outstandingCount.incrementAndGet();
+        int sizeClass = sizeClassOf(size);
+        RESFlvData flvData = null;
+        if (sizeClass >= 0) {
+            flvData = directFreeLists[sizeClass].poll();
+        }
+        if (flvData != null) {
+            hitCount.incrementAndGet();
+        } else {
+            flvData = new RESFlvData();
+            flvData.poolClass = sizeClass;
+            flvData.directBuffer = ByteBuffer.allocateDirect(sizeClass >= 0 ? 1 << (MIN_CLASS_SHIFT + sizeClass) : size);
+        }
+        flvData.directBuffer.clear();
+        flvData.leased = true;
+        REF_COUNT.set(flvData, 1);
+        flvData.size = size;
+        return flvData;
+    }
+
+    /**
+     * obtain a RESFlvData and copy src remaining bytes into it,src position moves to limit.
+     *
+     * @param direct true to use {@link #obtainDirect(int)}
+     */
+    public RESFlvData obtainCopyOf(ByteBuffer src, boolean direct) {
+        int size = src.remaining();
+        RESFlvData flvData;
+        if (direct) {
+            flvData = obtainDirect(size);
+            flvData.directBuffer.put(src);
+        } else {
+            flvData = obtain(size);
+            src.get(flvData.byteBuffer, 0, size);
+        }
+        copiedBytes.addAndGet(size);
+        return flvData;
+    }
+
+    /**
+     * flvData will be handed to extraConsumers more consumers,
+     * each of them must {@link #recycle(RESFlvData)} it.
+     */
+    public void retain(RESFlvData flvData, int extraConsumers) {
+        if (flvData == null || !flvData.leased || extraConsumers <= 0) {
+            return;
+        }
+        REF_COUNT.addAndGet(flvData, extraConsumers);
+    }
+
+    /**
+     * give flvData back to pool.<br/>
+     * RESFlvData not obtained from pool are ignored,so it is safe to recycle all of them.
+     */
+    public void recycle(RESFlvData flvData) {
+        if (flvData == null || !flvData.leased) {
+            return;
+        }
+        if (REF_COUNT.decrementAndGet(flvData) > 0) {
+            return;
+        }
+        flvData.leased = false;
+        outstandingCount.decrementAndGet();
+        if (flvData.poolClass < 0) {
+            return;
+        }
+        flvData.droppable = false;
+        flvData.isSequenceHeader = false;
+        flvData.dts = 0;
+        flvData.pts = 0;
+        flvData.size = 0;
+        flvData.flvTagType = 0;
+        flvData.videoFrameType = 0;
+        flvData.outputTimeNs = 0;
+        flvData.ptsUs = 0;
+        (flvData.isDirect() ? directFreeLists : freeLists)[flvData.poolClass].offer(flvData);
+    }
+
+    /**
+     * @return hits/leases since created,1.0 if nothing leased
+     */
+    public float getHitRate() {
+        long leases = leaseCount.get();
+        return leases == 0 ? 1.0f : (float) hitCount.get() / (float) leases;
+    }
+
+    public long getLeaseCount() {
+        return leaseCount.get();
+    }
+
+    /**
+     * @return leases served from free lists
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return bytes copied by {@link #obtainCopyOf(ByteBuffer, boolean)}
+     */
+    public long getCopiedBytes() {
+        return copiedBytes.get();
+    }
+
+    /**
+     * @return number of RESFlvData obtained but not recycled yet
+     */
+    public int getOutstandingCount() {
+        return outstandingCount.get();
+    }
+
+    /**
+     * release all cached buffers
+     */
+    public void clear() {
+        for (int i = 0; i < CLASS_NUM; i++) {
+            freeLists[i].clear();
+            directFreeLists[i].clear();
+        }
+    }
+
+    private static int sizeClassOf(int size) {
+        int shift = size <= (1 << MIN_CLASS_SHIFT) ? MIN_CLASS_SHIFT : 32 - Integer.numberOfLeadingZeros(size - 1);
+        return shift > MAX_CLASS_SHIFT ? -1 : shift - MIN_CLASS_SHIFT;
+    }
+
+    private static class FreeList {
+        private final ArrayDeque<RESFlvData> items;
+        private final int capacity;
+
+        FreeList(int capacity) {
+            this.capacity = capacity;
+            items = new ArrayDeque<>(capacity);
+        }
+
+        synchronized RESFlvData poll() {
+            return items.pollLast();
+        }
+
+        synchronized void offer(RESFlvData flvData) {
+            if (items.size() < capacity) {
+                items.addLast(flvData);
+            }
+        }
+
+        synchronized void clear() {
+            items.clear();
+        }
+    }
+}
@@ -0,0 +1,445 @@
+package me.lake.librestreaming.rtmp;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import me.lake.librestreaming.core.Packager;
+import me.lake.librestreaming.model.RESCoreParameters;
+import me.lake.librestreaming.tools.LogTools;
+import me.lake.librestreaming.tools.RESRingQueue;
+
+/**
+ * Writes what encoders produce into a flv file on its own thread.<br/>
+ * {@link #collect(RESFlvData, int)} never blocks,tags are dropped when the queue is full
+ * and counted in {@link #getDroppedTagCount()},video then restarts from next keyframe.<br/>
+ * tags are packed into a large direct buffer and written in WRITE_ALIGNMENT multiples.
+ */
+public class RESFlvFileRecorder implements RESFlvDataCollecter {
+    private static final int QUEUE_LENGTH = 256;
+    private static final int WRITE_BUFFER_SIZE = 1024 * 1024;
+    private static final int WRITE_ALIGNMENT = 64 * 1024;
+    private static final long IDLE_FLUSH_INTERVAL_MS = 1000;
+    private static final long PARK_TIMEOUT_NS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final int FLV_TAG_HEADER_LENGTH = 11;
+    private static final byte[] FLV_HEADER = {'F', 'L', 'V', 0x01, 0x05, 0x00, 0x00, 0x00, 0x09, 0x00, 0x00, 0x00, 0x00};
+
+    private final RESCoreParameters coreParameters;
+    private final boolean isHevc;
+    private final File file;
+    private final RESRingQueue<RESFlvData> writeQueue = new RESRingQueue<>(QUEUE_LENGTH);
+    private final AtomicLong droppedTagCount = new AtomicLong(0);
+    private final AtomicInteger maxQueueDepth = new AtomicInteger(0);
+    private final AtomicBoolean videoDropped = new AtomicBoolean(false);
+    private volatile long writtenBytes = 0;
+    private volatile boolean isParked = false;
+    private volatile boolean shouldQuit = false;
+    private final Object syncFinalDrain = new Object();
+    private boolean writerDone = false;
+    private WriterThread writerThread;
+
+    public RESFlvFileRecorder(RESCoreParameters coreParameters, String filePath) {
+        this.coreParameters = coreParameters;
+        this.isHevc = coreParameters.videoCodec == RESCoreParameters.VIDEO_CODEC_HEVC;
+        this.file = new File(filePath);
+    }
+
+    /**
+     * @return false if file can not be created
+     */
+    public boolean start() {
+        FileChannel channel;
+        try {
+            channel = new FileOutputStream(file).getChannel();
+        } catch (IOException e) {
+            LogTools.trace("RESFlvFileRecorder,can not open " + file, e);
+            return false;
+        }
+        writerThread = new WriterThread(channel);
+        writerThread.start();
+        return true;
+    }
+
+    /**
+     * write what is queued and close the file,wait for at most timeoutMs
+     */
+    public void stop(long timeoutMs) {
+        if (writerThread == null) {
+            return;
+        }
+        shouldQuit = true;
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join(timeoutMs);
+        } catch (InterruptedException ignored) {
+        }
+        writerThread = null;
+    }
+
+    /**
+     * called from encoder threads,lock free.
+     */
+    @Override
+    public void collect(RESFlvData flvData, int type) {
+        if (shouldQuit || !writeQueue.offer(flvData)) {
+            droppedTagCount.incrementAndGet();
+            if (flvData.flvTagType == RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO) {
+                videoDropped.set(true);
+            }
+            RESFlvDataPool.i().recycle(flvData);
+            return;
+        }
+        if (shouldQuit) {
+            //stop raced the offer,writer may have done its final drain already
+            synchronized (syncFinalDrain) {
+                if (writerDone) {
+                    recycleQueued();
+                }
+            }
+            return;
+        }
+        int depth = writeQueue.size();
+        int max = maxQueueDepth.get();
+        while (depth > max && !maxQueueDepth.compareAndSet(max, depth)) {
+            max = maxQueueDepth.get();
+        }
+        WriterThread thread = writerThread;
+        if (isParked && thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return tags abandoned because writer could not keep up
+     */
+    public long getDroppedTagCount() {
+        return droppedTagCount.get();
+    }
+
+    public int getQueueDepth() {
+        return writeQueue.size();
+    }
+
+    /**
+     * @return highest queue depth seen,QUEUE_LENGTH means writer fell behind
+     */
+    public int getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    public int getQueueCapacity() {
+        return writeQueue.capacity();
+    }
+
+    public long getWrittenBytes() {
+        return writtenBytes;
+    }
+
+    /**
+     * only writer thread or,after writerDone,holders of syncFinalDrain poll the queue
+     */
+    private void recycleQueued() {
+        RESFlvData flvData;
+        while ((flvData = writeQueue.poll()) != null) {
+            RESFlvDataPool.i().recycle(flvData);
+        }
+    }
+
+    private class WriterThread extends Thread {
+        private final FileChannel channel;
+        private final byte[] audioTagHeader = new byte[Packager.FLVPackager.FLV_AUDIO_TAG_LENGTH];
+        private final byte[] videoTagHeader = new byte[Packager.FLVPackager.FLV_EX_VIDEO_TAG_MAX_LENGTH + Packager.FLVPackager.NALU_HEADER_LENGTH];
+        private ByteBuffer out = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+        private long lastFlushTime;
+        private boolean videoConfigWritten = false;
+        private boolean audioConfigWritten = false;
+        private boolean waitingKeyFrame = true;
+        private long baseDts = -1;
+
+        WriterThread(FileChannel channel) {
+            super("RESFlvFileRecorder,writerThread");
+            this.channel = channel;
+        }
+
+        @Override
+        public void run() {
+            try {
+                out.put(FLV_HEADER);
+                writeMetaData();
+                lastFlushTime = System.currentTimeMillis();
+                while (true) {
+                    RESFlvData flvData = writeQueue.poll();
+                    if (flvData != null) {
+                        try {
+                            writeFlvData(flvData);
+                        } finally {
+                            RESFlvDataPool.i().recycle(flvData);
+                        }
+                        if (out.position() >= WRITE_BUFFER_SIZE / 2) {
+                            flush(false);
+                        }
+                        continue;
+                    }
+                    if (shouldQuit) {
+                        break;
+                    }
+                    if (out.position() > 0 && System.currentTimeMillis() - lastFlushTime >= IDLE_FLUSH_INTERVAL_MS) {
+                        flush(true);
+                    }
+                    isParked = true;
+                    if (writeQueue.isEmpty() && !shouldQuit) {
+                        LockSupport.parkNanos(this, PARK_TIMEOUT_NS);
+                    }
+                    isParked = false;
+                }
+                flush(true);
+            } catch (IOException e) {
+                LogTools.trace("RESFlvFileRecorder,write failed", e);
+            } finally {
+                synchronized (syncFinalDrain) {
+                    recycleQueued();
+                    writerDone = true;
+                }
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        private void writeMetaData() throws IOException {
+            byte[] metaData = new FLvMetaData(coreParameters).getMetaData();
+            int tagStart = beginTag(RESFlvData.FLV_RTMP_PACKET_TYPE_INFO, 0, metaData.length);
+            out.put(metaData);
+            endTag(tagStart);
+        }
+
+        private void writeFlvData(RESFlvData flvData) throws IOException {
+            ByteBuffer data = flvData.isDirect() ? flvData.directBuffer.duplicate() : ByteBuffer.wrap(flvData.byteBuffer);
+            if (flvData.flvTagType == RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO) {
+                if (videoDropped.getAndSet(false)) {
+                    waitingKeyFrame = true;
+                }
+                if (flvData.isSequenceHeader) {
+                    writeVideoSequenceHeader(data, flvData.size);
+                    return;
+                }
+                if (!videoConfigWritten || (waitingKeyFrame && !flvData.isKeyframe())) {
+                    return;
+                }
+                waitingKeyFrame = false;
+                writeVideoFrame(data, flvData.size, flvData.isKeyframe(), timestampOf(flvData), flvData.getCompositionTime());
+            } else if (flvData.flvTagType == RESFlvData.FLV_RTMP_PACKET_TYPE_AUDIO) {
+                if (!flvData.isSequenceHeader && !audioConfigWritten) {
+                    return;
+                }
+                int ts = flvData.isSequenceHeader ? 0 : timestampOf(flvData);
+                int tagStart = beginTag(RESFlvData.FLV_RTMP_PACKET_TYPE_AUDIO, ts,
+                        Packager.FLVPackager.FLV_AUDIO_TAG_LENGTH + flvData.size);
+                Packager.FLVPackager.fillFlvAudioTag(audioTagHeader, 0, flvData.isSequenceHeader);
+                out.put(audioTagHeader);
+                out.put(slice(data, 0, flvData.size));
+                endTag(tagStart);
+                if (flvData.isSequenceHeader) {
+                    audioConfigWritten = true;
+                }
+            }
+        }
+
+        private void writeVideoSequenceHeader(ByteBuffer data, int size) throws IOException {
+            ByteBuffer vps = null;
+            ByteBuffer sps = null;
+            ByteBuffer pps = null;
+            int codeIndex = Packager.H264Packager.findStartCode(data, 0, size);
+            while (codeIndex >= 0) {
+                int naluStart = codeIndex + 3;
+                int next = Packager.H264Packager.findStartCode(data, naluStart, size);
+                int naluEnd = naluEndOf(data, naluStart, next, size);
+                if (isHevc) {
+                    int type = Packager.H265Packager.getNaluType(data, naluStart);
+                    if (type == Packager.H265Packager.NALU_TYPE_VPS) {
+                        vps = slice(data, naluStart, naluEnd);
+                    } else if (type == Packager.H265Packager.NALU_TYPE_SPS) {
+                        sps = slice(data, naluStart, naluEnd);
+                    } else if (type == Packager.H265Packager.NALU_TYPE_PPS) {
+                        pps = slice(data, naluStart, naluEnd);
+                    }
+                } else {
+                    int type = Packager.H264Packager.getNaluType(data, naluStart);
+                    if (type == Packager.H264Packager.NALU_TYPE_SPS) {
+                        sps = slice(data, naluStart, naluEnd);
+                    } else if (type == Packager.H264Packager.NALU_TYPE_PPS) {
+                        pps = slice(data, naluStart, naluEnd);
+                    }
+                }
+                codeIndex = next;
+            }
+            if (sps == null || pps == null || (isHevc && vps == null)) {
+                LogTools.e("RESFlvFileRecorder,video sequence header without vps/sps/pps");
+                return;
+            }
+            byte[] record = isHevc ?
+                    Packager.H265Packager.generateHEVCDecoderConfigurationRecord(vps, sps, pps) :
+                    Packager.H264Packager.generateAVCDecoderConfigurationRecord(sps, pps);
+            if (record == null) {
+                LogTools.e("RESFlvFileRecorder,bad video sequence header");
+                return;
+            }
+            int tagStart = beginTag(RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO, 0,
+                    Packager.FLVPackager.FLV_EX_VIDEO_TAG_MAX_LENGTH + record.length);
+            putVideoTagHeader(true, true, 0);
+            out.put(record);
+            endTag(tagStart);
+            videoConfigWritten = true;
+            waitingKeyFrame = true;
+        }
+
+        /**
+         * Annex-B to AVCC/HVCC,see {@link #isInBandOnly(ByteBuffer, int)}
+         */
+        private void writeVideoFrame(ByteBuffer data, int size, boolean isKeyFrame, int ts, int compositionTime) throws IOException {
+            //every start code(>=3 bytes) becomes a 4 bytes length
+            int maxBodyLength = Packager.FLVPackager.FLV_EX_VIDEO_TAG_MAX_LENGTH + size + size / 3 + Packager.FLVPackager.NALU_HEADER_LENGTH;
+            int tagStart = beginTag(RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO, ts, maxBodyLength);
+            putVideoTagHeader(false, isKeyFrame, compositionTime);
+            int codeIndex = Packager.H264Packager.findStartCode(data, 0, size);
+            if (codeIndex < 0) {
+                out.putInt(size);
+                out.put(slice(data, 0, size));
+            }
+            while (codeIndex >= 0) {
+                int naluStart = codeIndex + 3;
+                int next = Packager.H264Packager.findStartCode(data, naluStart, size);
+                int naluEnd = naluEndOf(data, naluStart, next, size);
+                if (naluEnd > naluStart && !isInBandOnly(data, naluStart)) {
+                    out.putInt(naluEnd - naluStart);
+                    out.put(slice(data, naluStart, naluEnd));
+                }
+                codeIndex = next;
+            }
+            endTag(tagStart);
+        }
+
+        private void putVideoTagHeader(boolean isSequenceHeader, boolean isKeyFrame, int compositionTime) {
+            if (isHevc) {
+                int length = Packager.FLVPackager.fillFlvExVideoTag(videoTagHeader, 0, Packager.FLVPackager.FOURCC_HVC1,
+                        isSequenceHeader, isKeyFrame, compositionTime);
+                out.put(videoTagHeader, 0, length);
+                return;
+            }
+            Packager.FLVPackager.fillFlvVideoTag(videoTagHeader, 0, isSequenceHeader, isKeyFrame, compositionTime, 0);
+            out.put(videoTagHeader, 0, Packager.FLVPackager.FLV_VIDEO_TAG_LENGTH);
+        }
+
+        /**
+         * vps/sps/pps/aud are left to the sequence header
+         */
+        private boolean isInBandOnly(ByteBuffer data, int naluStart) {
+            if (isHevc) {
+                int type = Packager.H265Packager.getNaluType(data, naluStart);
+                return type >= Packager.H265Packager.NALU_TYPE_VPS && type <= Packager.H265Packager.NALU_TYPE_AUD;
+            }
+            int type = Packager.H264Packager.getNaluType(data, naluStart);
+            return type == Packager.H264Packager.NALU_TYPE_SPS
+                    || type == Packager.H264Packager.NALU_TYPE_PPS
+                    || type == Packager.H264Packager.NALU_TYPE_AUD;
+        }
+
+        /**
+         * make room for a whole tag and write its header,data size is patched by {@link #endTag(int)}
+         *
+         * @return tag start position in out
+         */
+        private int beginTag(int tagType, int ts, int maxBodyLength) throws IOException {
+            int needed = FLV_TAG_HEADER_LENGTH + maxBodyLength + 4;
+            if (out.remaining() < needed) {
+                flush(true);
+                if (out.capacity() < needed) {
+                    out = ByteBuffer.allocateDirect(needed);
+                }
+            }
+            int tagStart = out.position();
+            out.put((byte) tagType);
+            out.put((byte) 0);
+            out.put((byte) 0);
+            out.put((byte) 0);
+            out.put((byte) (ts >> 16));
+            out.put((byte) (ts >> 8));
+            out.put((byte) ts);
+            out.put((byte) (ts >> 24));
+            out.put((byte) 0);
+            out.put((byte) 0);
+            out.put((byte) 0);
+            return tagStart;
+        }
+
+        private void endTag(int tagStart) {
+            int dataSize = out.position() - tagStart - FLV_TAG_HEADER_LENGTH;
+            out.put(tagStart + 1, (byte) (dataSize >> 16));
+            out.put(tagStart + 2, (byte) (dataSize >> 8));
+            out.put(tagStart + 3, (byte) dataSize);
+            out.putInt(dataSize + FLV_TAG_HEADER_LENGTH);
+        }
+
+        private int timestampOf(RESFlvData flvData) {
+            if (baseDts < 0) {
+                baseDts = flvData.dts;
+            }
+            long ts = flvData.dts - baseDts;
+            return ts < 0 ? 0 : (int) ts;
+        }
+
+        /**
+         * @param all false to write only WRITE_ALIGNMENT multiples and keep the tail
+         */
+        private void flush(boolean all) throws IOException {
+            int length = out.position();
+            if (!all) {
+                length -= length % WRITE_ALIGNMENT;
+            }
+            if (length == 0) {
+                return;
+            }
+            out.flip();
+            int end = out.limit();
+            out.limit(length);
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+            out.limit(end);
+            out.compact();
+            writtenBytes += length;
+            lastFlushTime = System.currentTimeMillis();
+        }
+    }
+
+    private static int naluEndOf(ByteBuffer data, int naluStart, int nextStartCode, int size) {
+        if (nextStartCode < 0) {
+            return size;
+        }
+        int naluEnd = nextStartCode;
+        while (naluEnd > naluStart && data.get(naluEnd - 1) == 0) {
+            --naluEnd;
+        }
+        return naluEnd;
+    }
+
+    private static ByteBuffer slice(ByteBuffer data, int start, int end) {
+        ByteBuffer view = data.duplicate();
+        view.clear();
+        view.limit(end);
+        view.position(start);
+        return view;
+    }
+}
@@ -0,0 +1,1002 @@
+package me.lake.librestreaming.rtmp;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import me.lake.librestreaming.core.Packager;
+import me.lake.librestreaming.model.RESCoreParameters;
+import me.lake.librestreaming.tools.LogTools;
+
+/**
+ * Pure java rtmp publisher.<br/>
+ * simple handshake,connect/createStream/publish in AMF0,then flv audio/video tags.<br/>
+ * tags are cut into chunks of senderChunkSize,chunk headers live in a reused arena and payloads are
+ * sliced,not copied,so every tag queued until {@link #flush()} goes out in one gathering write.
+ * payloads passed to write methods must stay untouched until flush() returns.<br/>
+ * video input is Annex-B(start codes),converted to AVCC by slicing around start codes.
+ * hevc goes out in Enhanced RTMP tags('hvc1' FourCC).
+ * audio input is raw AAC,a 2 bytes tag before any config is taken as AudioSpecificConfig.<br/>
+ * the channel is non-blocking once connected,a Selector bounds every wait.
+ * {@link #flush()} parses whatever server sent meanwhile without waiting,
+ * so pings,window ack size and chunk size are handled while publishing,
+ * and an error onStatus or close from server makes flush() fail.
+ */
+public class RESJavaRtmpMuxer implements RESMuxer {
+    private static final int DEFAULT_PORT = 1935;
+    private static final int HANDSHAKE_SIZE = 1536;
+    private static final int CONNECT_TIMEOUT_MS = 5000;
+    private static final int READ_TIMEOUT_MS = 5000;
+    private static final int WRITE_TIMEOUT_MS = 10000;
+    private static final int IN_BUFFER_SIZE = 16 * 1024;
+    private static final int DEFAULT_CHUNK_SIZE = 128;
+    private static final int MAX_CHUNK_HEADER_SIZE = 1 + 11 + 4;
+    private static final int BATCH_MAX_BYTES = 64 * 1024;
+    private static final int BATCH_MAX_BUFFERS = 512;
+    private static final int HEADER_ARENA_SIZE = 16 * 1024;
+    private static final int EXTENDED_TIMESTAMP = 0xFFFFFF;
+
+    private static final int MSG_SET_CHUNK_SIZE = 1;
+    private static final int MSG_ACK = 3;
+    private static final int MSG_USER_CONTROL = 4;
+    private static final int MSG_WINDOW_ACK_SIZE = 5;
+    private static final int MSG_AUDIO = 8;
+    private static final int MSG_VIDEO = 9;
+    private static final int MSG_DATA_AMF0 = 18;
+    private static final int MSG_COMMAND_AMF0 = 20;
+
+    private static final int USER_CONTROL_PING_REQUEST = 6;
+    private static final int USER_CONTROL_PING_RESPONSE = 7;
+
+    private static final int CSID_PROTOCOL = 2;
+    private static final int CSID_COMMAND = 3;
+    private static final int CSID_AUDIO = 4;
+    private static final int CSID_DATA = 5;
+    private static final int CSID_VIDEO = 6;
+
+    private final RESCoreParameters coreParameters;
+    private final int chunkSize;
+    private final boolean isHevc;
+    private SocketChannel channel;
+    private Selector selector;
+    private SelectionKey selectionKey;
+    private volatile boolean connected = false;
+    private String streamName;
+    private int streamId;
+    private int transactionId;
+    private boolean audioConfigSent;
+
+    //incoming
+    private int inChunkSize;
+    private long inBytes;
+    private long inBytesAcked;
+    private int inWindowAckSize;
+    //received bytes not parsed yet,[position,limit)
+    private ByteBuffer inBuffer = ByteBuffer.allocate(IN_BUFFER_SIZE);
+    private final HashMap<Integer, InChunkStream> inChunkStreams = new HashMap<>();
+
+    //outgoing batch
+    private final ArrayList<ByteBuffer> pending = new ArrayList<>();
+    private ByteBuffer[] gatherArray = new ByteBuffer[64];
+    private long pendingBytes;
+    private ByteBuffer headerArena = ByteBuffer.allocateDirect(HEADER_ARENA_SIZE);
+    private final ArrayList<ByteBuffer> bodySegments = new ArrayList<>();
+    private int[] naluStarts = new int[16];
+    private int[] naluEnds = new int[16];
+    private final byte[] tagHeader = new byte[Packager.FLVPackager.FLV_VIDEO_TAG_LENGTH + Packager.FLVPackager.NALU_HEADER_LENGTH];
+
+    public RESJavaRtmpMuxer(RESCoreParameters coreParameters) {
+        this.coreParameters = coreParameters;
+        this.chunkSize = coreParameters.senderChunkSize > 0 ? coreParameters.senderChunkSize : DEFAULT_CHUNK_SIZE;
+        this.isHevc = coreParameters.videoCodec == RESCoreParameters.VIDEO_CODEC_HEVC;
+    }
+
+    @Override
+    public int open(String url, int videoWidth, int videoHeight) {
+        if (channel != null) {
+            closeChannel();
+        }
+        try {
+            RtmpUrl rtmpUrl = RtmpUrl.parse(url);
+            streamName = rtmpUrl.streamName;
+            channel = SocketChannel.open();
+            Socket socket = channel.socket();
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress(rtmpUrl.host, rtmpUrl.port), CONNECT_TIMEOUT_MS);
+            channel.configureBlocking(false);
+            selector = Selector.open();
+            selectionKey = channel.register(selector, 0);
+            resetSession();
+            handshake();
+            sendSetChunkSize();
+            sendConnect(rtmpUrl);
+            waitForResult(transactionId);
+            sendCommand(CSID_COMMAND, 0, new RESAmf0.Writer()
+                    .writeString("releaseStream").writeNumber(++transactionId).writeNull().writeString(streamName));
+            sendCommand(CSID_COMMAND, 0, new RESAmf0.Writer()
+                    .writeString("FCPublish").writeNumber(++transactionId).writeNull().writeString(streamName));
+            sendCommand(CSID_COMMAND, 0, new RESAmf0.Writer()
+                    .writeString("createStream").writeNumber(++transactionId).writeNull());
+            List<Object> result = waitForResult(transactionId);
+            if (result.size() < 4 || !(result.get(3) instanceof Double)) {
+                throw new IOException("createStream result without stream id");
+            }
+            streamId = ((Double) result.get(3)).intValue();
+            sendCommand(CSID_COMMAND, streamId, new RESAmf0.Writer()
+                    .writeString("publish").writeNumber(++transactionId).writeNull().writeString(streamName).writeString("live"));
+            waitForPublishStart();
+            sendMetaData();
+            if (flushPending() < 0) {
+                throw new IOException("send metadata failed");
+            }
+            connected = true;
+            LogTools.d("RESJavaRtmpMuxer,published " + rtmpUrl.host + ":" + rtmpUrl.port + "/" + rtmpUrl.app + "/" + streamName);
+            return 0;
+        } catch (IOException | IllegalArgumentException e) {
+            LogTools.trace("RESJavaRtmpMuxer,open failed", e);
+            closeChannel();
+            return -1;
+        }
+    }
+
+    @Override
+    public boolean isConnected() {
+        return connected;
+    }
+
+    @Override
+    public int writeVideo(byte[] data, int offset, int length, int timestamp, int compositionTime) {
+        return writeVideo(ByteBuffer.wrap(data), offset, length, timestamp, compositionTime);
+    }
+
+    @Override
+    public int writeAudio(byte[] data, int offset, int length, int timestamp) {
+        return writeAudio(ByteBuffer.wrap(data), offset, length, timestamp);
+    }
+
+    @Override
+    public int writeVideo(ByteBuffer data, int offset, int length, int timestamp, int compositionTime) {
+        if (!connected) {
+            return -1;
+        }
+        int naluNum = splitNalus(data, offset, offset + length);
+        boolean hasSlice = false, isKeyFrame = false;
+        int vpsIndex = -1, spsIndex = -1, ppsIndex = -1;
+        for (int i = 0; i < naluNum; i++) {
+            if (isHevc) {
+                int type = Packager.H265Packager.getNaluType(data, naluStarts[i]);
+                if (type == Packager.H265Packager.NALU_TYPE_VPS) {
+                    vpsIndex = i;
+                } else if (type == Packager.H265Packager.NALU_TYPE_SPS) {
+                    spsIndex = i;
+                } else if (type == Packager.H265Packager.NALU_TYPE_PPS) {
+                    ppsIndex = i;
+                } else if (type < Packager.H265Packager.NALU_TYPE_VCL_END) {
+                    hasSlice = true;
+                    isKeyFrame |= Packager.H265Packager.isKeyFrame(type);
+                }
+                continue;
+            }
+            switch (Packager.H264Packager.getNaluType(data, naluStarts[i])) {
+                case Packager.H264Packager.NALU_TYPE_SPS:
+                    spsIndex = i;
+                    break;
+                case Packager.H264Packager.NALU_TYPE_PPS:
+                    ppsIndex = i;
+                    break;
+                case Packager.H264Packager.NALU_TYPE_IDR:
+                    isKeyFrame = true;
+                    hasSlice = true;
+                    break;
+                case Packager.H264Packager.NALU_TYPE_SLICE:
+                    hasSlice = true;
+                    break;
+                default:
+                    break;
+            }
+        }
+        bodySegments.clear();
+        int bodyLength;
+        if (spsIndex >= 0 && ppsIndex >= 0 && (!isHevc || vpsIndex >= 0) && !hasSlice) {
+            byte[] record = isHevc ?
+                    Packager.H265Packager.generateHEVCDecoderConfigurationRecord(
+                            slice(data, naluStarts[vpsIndex], naluEnds[vpsIndex]),
+                            slice(data, naluStarts[spsIndex], naluEnds[spsIndex]),
+                            slice(data, naluStarts[ppsIndex], naluEnds[ppsIndex])) :
+                    Packager.H264Packager.generateAVCDecoderConfigurationRecord(
+                            slice(data, naluStarts[spsIndex], naluEnds[spsIndex]),
+                            slice(data, naluStarts[ppsIndex], naluEnds[ppsIndex]));
+            if (record == null) {
+                LogTools.e("RESJavaRtmpMuxer,bad video sequence header");
+                return -1;
+            }
+            int headerLength = fillVideoTagHeader(true, true, 0);
+            bodyLength = headerLength + record.length;
+            if (!ensureArena(0, bodyLength)) {
+                return -1;
+            }
+            bodySegments.add(videoTagHeader(headerLength));
+            bodySegments.add(ByteBuffer.wrap(record));
+        } else {
+            int headerLength = fillVideoTagHeader(false, isKeyFrame, compositionTime);
+            bodyLength = headerLength;
+            for (int i = 0; i < naluNum; i++) {
+                if (isInBandOnly(data, naluStarts[i])) {
+                    continue;
+                }
+                bodyLength += Packager.FLVPackager.NALU_HEADER_LENGTH + naluEnds[i] - naluStarts[i];
+            }
+            if (!ensureArena(naluNum, bodyLength)) {
+                return -1;
+            }
+            bodySegments.add(videoTagHeader(headerLength));
+            for (int i = 0; i < naluNum; i++) {
+                if (isInBandOnly(data, naluStarts[i])) {
+                    continue;
+                }
+                int start = headerArena.position();
+                headerArena.putInt(naluEnds[i] - naluStarts[i]);
+                bodySegments.add(arenaView(start));
+                bodySegments.add(slice(data, naluStarts[i], naluEnds[i]));
+            }
+        }
+        if (queueMessage(CSID_VIDEO, MSG_VIDEO, timestamp, bodyLength) < 0) {
+            return -1;
+        }
+        return length;
+    }
+
+    @Override
+    public int writeAudio(ByteBuffer data, int offset, int length, int timestamp) {
+        if (!connected) {
+            return -1;
+        }
+        boolean isConfig = !audioConfigSent && length == 2;
+        int bodyLength = Packager.FLVPackager.FLV_AUDIO_TAG_LENGTH + length;
+        if (!ensureArena(0, bodyLength)) {
+            return -1;
+        }
+        bodySegments.clear();
+        int start = headerArena.position();
+        Packager.FLVPackager.fillFlvAudioTag(tagHeader, 0, isConfig);
+        headerArena.put(tagHeader, 0, Packager.FLVPackager.FLV_AUDIO_TAG_LENGTH);
+        bodySegments.add(arenaView(start));
+        bodySegments.add(slice(data, offset, offset + length));
+        if (queueMessage(CSID_AUDIO, MSG_AUDIO, timestamp, bodyLength) < 0) {
+            return -1;
+        }
+        if (isConfig) {
+            audioConfigSent = true;
+        }
+        return length;
+    }
+
+    /**
+     * write every queued chunk with gathering writes,then handle what server sent meanwhile
+     *
+     * @return bytes written,-1 if connection broken
+     */
+    @Override
+    public int flush() {
+        if (!connected) {
+            return -1;
+        }
+        long written = flushPending();
+        if (written < 0) {
+            connected = false;
+            return -1;
+        }
+        try {
+            drainInput();
+        } catch (IOException e) {
+            LogTools.trace("RESJavaRtmpMuxer,read failed", e);
+            connected = false;
+            return -1;
+        }
+        return (int) Math.min(Integer.MAX_VALUE, written);
+    }
+
+    @Override
+    public boolean isDirectBufferPreferred() {
+        return true;
+    }
+
+    @Override
+    public long getBridgedBytes() {
+        return 0;
+    }
+
+    @Override
+    public int close() {
+        if (connected) {
+            try {
+                sendCommand(CSID_COMMAND, 0, new RESAmf0.Writer()
+                        .writeString("FCUnpublish").writeNumber(++transactionId).writeNull().writeString(streamName));
+                sendCommand(CSID_COMMAND, 0, new RESAmf0.Writer()
+                        .writeString("deleteStream").writeNumber(++transactionId).writeNull().writeNumber(streamId));
+                flushPending();
+            } catch (IOException ignored) {
+            }
+        }
+        closeChannel();
+        return 0;
+    }
+
+    private void resetSession() {
+        transactionId = 0;
+        streamId = 0;
+        audioConfigSent = false;
+        inChunkSize = DEFAULT_CHUNK_SIZE;
+        inBytes = 0;
+        inBytesAcked = 0;
+        inWindowAckSize = 0;
+        inChunkStreams.clear();
+        inBuffer.clear();
+        inBuffer.limit(0);
+        clearPending();
+    }
+
+    private void closeChannel() {
+        connected = false;
+        clearPending();
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+        channel = null;
+        if (selector != null) {
+            try {
+                selector.close();
+            } catch (IOException ignored) {
+            }
+        }
+        selector = null;
+        selectionKey = null;
+    }
+
+    /**
+     * simple handshake,C0C1 -> S0S1S2 -> C2(echo S1)
+     */
+    private void handshake() throws IOException {
+        byte[] c0c1 = new byte[1 + HANDSHAKE_SIZE];
+        c0c1[0] = 0x03;
+        new Random().nextBytes(c0c1);
+        c0c1[0] = 0x03;
+        //time and zero
+        for (int i = 1; i < 9; i++) {
+            c0c1[i] = 0;
+        }
+        writeFully(ByteBuffer.wrap(c0c1));
+        byte[] s0s1 = new byte[1 + HANDSHAKE_SIZE];
+        readFully(s0s1);
+        if (s0s1[0] != 0x03) {
+            throw new IOException("unsupported rtmp version:" + s0s1[0]);
+        }
+        writeFully(ByteBuffer.wrap(s0s1, 1, HANDSHAKE_SIZE));
+        readFully(new byte[HANDSHAKE_SIZE]);
+    }
+
+    private void sendSetChunkSize() throws IOException {
+        ByteBuffer body = ByteBuffer.allocate(4);
+        body.putInt(chunkSize & 0x7FFFFFFF);
+        body.flip();
+        sendControl(MSG_SET_CHUNK_SIZE, body);
+    }
+
+    private void sendConnect(RtmpUrl rtmpUrl) throws IOException {
+        Map<String, Object> object = new LinkedHashMap<>();
+        object.put("app", rtmpUrl.app);
+        object.put("type", "nonprivate");
+        object.put("flashVer", "FMLE/3.0 (compatible; FMSc/1.0)");
+        object.put("tcUrl", rtmpUrl.tcUrl);
+        if (isHevc) {
+            //Enhanced RTMP
+            object.put("fourCcList", new String[]{"hvc1"});
+        }
+        sendCommand(CSID_COMMAND, 0, new RESAmf0.Writer()
+                .writeString("connect").writeNumber(++transactionId).writeObject(object));
+    }
+
+    private void sendMetaData() throws IOException {
+        byte[] body = new RESAmf0.Writer()
+                .writeString("@setDataFrame")
+                .writeRaw(new FLvMetaData(coreParameters).getMetaData())
+                .toByteArray();
+        if (!ensureArena(0, body.length)) {
+            throw new IOException("send failed");
+        }
+        bodySegments.clear();
+        bodySegments.add(ByteBuffer.wrap(body));
+        if (queueMessage(CSID_DATA, MSG_DATA_AMF0, 0, body.length) < 0) {
+            throw new IOException("queue metadata failed");
+        }
+    }
+
+    private void sendCommand(int csid, int messageStreamId, RESAmf0.Writer command) throws IOException {
+        byte[] body = command.toByteArray();
+        if (!ensureArena(0, body.length)) {
+            throw new IOException("send failed");
+        }
+        bodySegments.clear();
+        bodySegments.add(ByteBuffer.wrap(body));
+        queueChunks(csid, MSG_COMMAND_AMF0, 0, messageStreamId, body.length);
+        if (flushPending() < 0) {
+            throw new IOException("send command failed");
+        }
+    }
+
+    private void sendControl(int type, ByteBuffer body) throws IOException {
+        if (!ensureArena(0, body.remaining())) {
+            throw new IOException("send failed");
+        }
+        bodySegments.clear();
+        bodySegments.add(body);
+        queueChunks(CSID_PROTOCOL, type, 0, 0, body.remaining());
+        if (flushPending() < 0) {
+            throw new IOException("send control failed");
+        }
+    }
+
+    private List<Object> waitForResult(int transaction) throws IOException {
+        while (true) {
+            InMessage message = readMessage();
+            if (message.type != MSG_COMMAND_AMF0) {
+                continue;
+            }
+            List<Object> values = RESAmf0.readAll(message.payload);
+            if (values.size() < 2 || !(values.get(1) instanceof Double)
+                    || ((Double) values.get(1)).intValue() != transaction) {
+                continue;
+            }
+            if ("_result".equals(values.get(0))) {
+                return values;
+            }
+            throw new IOException("command " + transaction + " failed:" + values);
+        }
+    }
+
+    private void waitForPublishStart() throws IOException {
+        while (true) {
+            InMessage message = readMessage();
+            if (message.type != MSG_COMMAND_AMF0) {
+                continue;
+            }
+            List<Object> values = RESAmf0.readAll(message.payload);
+            if (values.size() < 4 || !"onStatus".equals(values.get(0)) || !(values.get(3) instanceof Map)) {
+                continue;
+            }
+            Map<?, ?> info = (Map<?, ?>) values.get(3);
+            Object code = info.get("code");
+            if ("NetStream.Publish.Start".equals(code)) {
+                return;
+            }
+            if ("error".equals(info.get("level"))) {
+                throw new IOException("publish failed:" + code);
+            }
+        }
+    }
+
+    /**
+     * handle messages server sent while publishing,never blocks
+     *
+     * @throws IOException if server closed the connection,closed the stream or sent an error onStatus
+     */
+    private void drainInput() throws IOException {
+        while (true) {
+            InMessage message;
+            while ((message = pollMessage()) != null) {
+                if (message.type == MSG_COMMAND_AMF0) {
+                    handleServerCommand(RESAmf0.readAll(message.payload));
+                }
+            }
+            if (readInput() == 0) {
+                return;
+            }
+        }
+    }
+
+    private void handleServerCommand(List<Object> values) throws IOException {
+        LogTools.d("RESJavaRtmpMuxer,server:" + values);
+        if (values.isEmpty()) {
+            return;
+        }
+        Object name = values.get(0);
+        if ("close".equals(name)) {
+            throw new IOException("closed by server");
+        }
+        if ("onStatus".equals(name) && values.size() >= 4 && values.get(3) instanceof Map) {
+            Map<?, ?> info = (Map<?, ?>) values.get(3);
+            if ("error".equals(info.get("level"))) {
+                throw new IOException("server error:" + info.get("code"));
+            }
+        }
+    }
+
+    /**
+     * read chunks until a whole message arrives,waits READ_TIMEOUT_MS at most.
+     */
+    private InMessage readMessage() throws IOException {
+        long deadline = System.currentTimeMillis() + READ_TIMEOUT_MS;
+        while (true) {
+            InMessage message = pollMessage();
+            if (message != null) {
+                return message;
+            }
+            awaitInput(deadline);
+        }
+    }
+
+    /**
+     * parse chunks already in inBuffer,protocol control messages are handled here.
+     *
+     * @return null if no whole message was received yet
+     */
+    private InMessage pollMessage() throws IOException {
+        while (true) {
+            int start = inBuffer.position();
+            InMessage message;
+            try {
+                message = parseChunk();
+            } catch (BufferUnderflowException e) {
+                //chunk not fully received,parse it again later
+                inBuffer.position(start);
+                return null;
+            }
+            if (message != null) {
+                handleProtocolMessage(message);
+                return message;
+            }
+        }
+    }
+
+    /**
+     * chunk stream state is only changed once the whole chunk is in inBuffer
+     *
+     * @return message completed by this chunk,null if more chunks are needed
+     * @throws BufferUnderflowException if the chunk is not fully received
+     */
+    private InMessage parseChunk() {
+        int basic = inBuffer.get() & 0xFF;
+        int fmt = basic >> 6;
+        int csid = basic & 0x3F;
+        if (csid == 0) {
+            csid = 64 + (inBuffer.get() & 0xFF);
+        } else if (csid == 1) {
+            csid = 64 + (inBuffer.get() & 0xFF) + ((inBuffer.get() & 0xFF) << 8);
+        }
+        InChunkStream chunkStream = inChunkStreams.get(csid);
+        if (chunkStream == null) {
+            chunkStream = new InChunkStream();
+            inChunkStreams.put(csid, chunkStream);
+        }
+        int timestamp = chunkStream.timestamp;
+        int length = chunkStream.length;
+        int type = chunkStream.type;
+        int messageStreamId = chunkStream.streamId;
+        boolean extended = chunkStream.extended;
+        if (fmt <= 2) {
+            int delta = getInt3(inBuffer);
+            if (fmt <= 1) {
+                length = getInt3(inBuffer);
+                type = inBuffer.get() & 0xFF;
+                if (fmt == 0) {
+                    messageStreamId = Integer.reverseBytes(inBuffer.getInt());
+                }
+            }
+            extended = delta == EXTENDED_TIMESTAMP;
+            if (extended) {
+                delta = inBuffer.getInt();
+            }
+            timestamp = fmt == 0 ? delta : timestamp + delta;
+        } else if (extended) {
+            inBuffer.getInt();
+        }
+        int received = chunkStream.payload == null ? 0 : chunkStream.received;
+        int toRead = Math.min(inChunkSize, length - received);
+        if (inBuffer.remaining() < toRead) {
+            throw new BufferUnderflowException();
+        }
+        chunkStream.timestamp = timestamp;
+        chunkStream.length = length;
+        chunkStream.type = type;
+        chunkStream.streamId = messageStreamId;
+        chunkStream.extended = extended;
+        if (chunkStream.payload == null) {
+            chunkStream.payload = new byte[length];
+            chunkStream.received = 0;
+        }
+        inBuffer.get(chunkStream.payload, chunkStream.received, toRead);
+        chunkStream.received += toRead;
+        if (chunkStream.received < chunkStream.length) {
+            return null;
+        }
+        InMessage message = new InMessage(chunkStream.type, chunkStream.payload);
+        chunkStream.payload = null;
+        return message;
+    }
+
+    private void handleProtocolMessage(InMessage message) throws IOException {
+        ByteBuffer body = ByteBuffer.wrap(message.payload);
+        switch (message.type) {
+            case MSG_SET_CHUNK_SIZE:
+                inChunkSize = body.getInt() & 0x7FFFFFFF;
+                break;
+            case MSG_WINDOW_ACK_SIZE:
+                inWindowAckSize = body.getInt();
+                break;
+            case MSG_USER_CONTROL:
+                if (body.remaining() >= 6 && body.getShort() == USER_CONTROL_PING_REQUEST) {
+                    ByteBuffer pong = ByteBuffer.allocate(6);
+                    pong.putShort((short) USER_CONTROL_PING_RESPONSE);
+                    pong.putInt(body.getInt());
+                    pong.flip();
+                    sendControl(MSG_USER_CONTROL, pong);
+                }
+                break;
+            default:
+                break;
+        }
+        if (inWindowAckSize > 0 && inBytes - inBytesAcked >= inWindowAckSize) {
+            inBytesAcked = inBytes;
+            ByteBuffer ack = ByteBuffer.allocate(4);
+            ack.putInt((int) inBytes);
+            ack.flip();
+            sendControl(MSG_ACK, ack);
+        }
+    }
+
+    /**
+     * chunk bodySegments and queue them,flush when batch is big enough
+     *
+     * @return 0 or -1 if connection broken
+     */
+    private int queueMessage(int csid, int type, int timestamp, int bodyLength) {
+        queueChunks(csid, type, timestamp, streamId, bodyLength);
+        if (pendingBytes >= BATCH_MAX_BYTES || pending.size() >= BATCH_MAX_BUFFERS) {
+            if (flushPending() < 0) {
+                connected = false;
+                return -1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * make sure headerArena can hold headers of next message,
+     * flush or grow it if not.
+     *
+     * @return false if flush failed
+     */
+    private boolean ensureArena(int naluNum, int bodyLength) {
+        int needed = Packager.FLVPackager.FLV_EX_VIDEO_TAG_MAX_LENGTH
+                + naluNum * Packager.FLVPackager.NALU_HEADER_LENGTH
+                + (bodyLength / chunkSize + 1) * MAX_CHUNK_HEADER_SIZE;
+        if (headerArena.remaining() >= needed) {
+            return true;
+        }
+        if (flushPending() < 0) {
+            connected = false;
+            return false;
+        }
+        if (headerArena.capacity() < needed) {
+            headerArena = ByteBuffer.allocateDirect(Math.max(needed, headerArena.capacity() * 2));
+        }
+        return true;
+    }
+
+    private void queueChunks(int csid, int type, int timestamp, int messageStreamId, int bodyLength) {
+        boolean extended = timestamp >= EXTENDED_TIMESTAMP;
+        int start = headerArena.position();
+        headerArena.put((byte) (csid & 0x3F));
+        putInt3(extended ? EXTENDED_TIMESTAMP : timestamp);
+        putInt3(bodyLength);
+        headerArena.put((byte) type);
+        headerArena.putInt(Integer.reverseBytes(messageStreamId));
+        if (extended) {
+            headerArena.putInt(timestamp);
+        }
+        addPending(arenaView(start));
+        int chunkLeft = chunkSize;
+        for (int s = 0; s < bodySegments.size(); s++) {
+            ByteBuffer segment = bodySegments.get(s);
+            int pos = segment.position();
+            int end = segment.limit();
+            while (pos < end) {
+                if (chunkLeft == 0) {
+                    start = headerArena.position();
+                    headerArena.put((byte) (0xC0 | (csid & 0x3F)));
+                    if (extended) {
+                        headerArena.putInt(timestamp);
+                    }
+                    addPending(arenaView(start));
+                    chunkLeft = chunkSize;
+                }
+                int n = Math.min(chunkLeft, end - pos);
+                if (pos == segment.position() && n == end - pos) {
+                    addPending(segment);
+                } else {
+                    addPending(slice(segment, pos, pos + n));
+                }
+                pos += n;
+                chunkLeft -= n;
+            }
+        }
+        bodySegments.clear();
+    }
+
+    private void addPending(ByteBuffer buffer) {
+        pending.add(buffer);
+        pendingBytes += buffer.remaining();
+    }
+
+    /**
+     * @return bytes written,-1 on error
+     */
+    private long flushPending() {
+        int count = pending.size();
+        if (count == 0) {
+            headerArena.clear();
+            return 0;
+        }
+        if (gatherArray.length < count) {
+            gatherArray = new ByteBuffer[Math.max(count, gatherArray.length * 2)];
+        }
+        pending.toArray(gatherArray);
+        long written = 0;
+        try {
+            long deadline = System.currentTimeMillis() + WRITE_TIMEOUT_MS;
+            int first = 0;
+            while (first < count) {
+                long n = channel.write(gatherArray, first, count - first);
+                if (n == 0) {
+                    await(SelectionKey.OP_WRITE, deadline);
+                }
+                written += n;
+                while (first < count && !gatherArray[first].hasRemaining()) {
+                    ++first;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            LogTools.trace("RESJavaRtmpMuxer,write failed", e);
+            written = -1;
+        }
+        for (int i = 0; i < count; i++) {
+            gatherArray[i] = null;
+        }
+        clearPending();
+        return written;
+    }
+
+    private void clearPending() {
+        pending.clear();
+        pendingBytes = 0;
+        headerArena.clear();
+    }
+
+    /**
+     * fill tagHeader
+     *
+     * @return header length
+     */
+    private int fillVideoTagHeader(boolean isSequenceHeader, boolean isKeyFrame, int compositionTime) {
+        if (isHevc) {
+            return Packager.FLVPackager.fillFlvExVideoTag(tagHeader, 0, Packager.FLVPackager.FOURCC_HVC1,
+                    isSequenceHeader, isKeyFrame, compositionTime);
+        }
+        Packager.FLVPackager.fillFlvVideoTag(tagHeader, 0, isSequenceHeader, isKeyFrame, compositionTime, 0);
+        return Packager.FLVPackager.FLV_VIDEO_TAG_LENGTH;
+    }
+
+    private ByteBuffer videoTagHeader(int headerLength) {
+        int start = headerArena.position();
+        headerArena.put(tagHeader, 0, headerLength);
+        return arenaView(start);
+    }
+
+    /**
+     * vps/sps/pps/aud are carried by the sequence header,not by frames
+     */
+    private boolean isInBandOnly(ByteBuffer data, int naluStart) {
+        if (isHevc) {
+            int type = Packager.H265Packager.getNaluType(data, naluStart);
+            return type >= Packager.H265Packager.NALU_TYPE_VPS && type <= Packager.H265Packager.NALU_TYPE_AUD;
+        }
+        int type = Packager.H264Packager.getNaluType(data, naluStart);
+        return type == Packager.H264Packager.NALU_TYPE_SPS
+                || type == Packager.H264Packager.NALU_TYPE_PPS
+                || type == Packager.H264Packager.NALU_TYPE_AUD;
+    }
+
+    /**
+     * fill naluStarts/naluEnds with nalus in data[from,to),start codes excluded
+     *
+     * @return nalu number,data without start code is one nalu
+     */
+    private int splitNalus(ByteBuffer data, int from, int to) {
+        int num = 0;
+        int codeIndex = Packager.H264Packager.findStartCode(data, from, to);
+        if (codeIndex < 0) {
+            naluStarts[0] = from;
+            naluEnds[0] = to;
+            return to > from ? 1 : 0;
+        }
+        while (codeIndex >= 0) {
+            int naluStart = codeIndex + 3;
+            int next = Packager.H264Packager.findStartCode(data, naluStart, to);
+            int naluEnd = next < 0 ? to : next;
+            while (next >= 0 && naluEnd > naluStart && data.get(naluEnd - 1) == 0) {
+                --naluEnd;
+            }
+            if (naluEnd > naluStart) {
+                if (num == naluStarts.length) {
+                    int[] starts = new int[num * 2];
+                    int[] ends = new int[num * 2];
+                    System.arraycopy(naluStarts, 0, starts, 0, num);
+                    System.arraycopy(naluEnds, 0, ends, 0, num);
+                    naluStarts = starts;
+                    naluEnds = ends;
+                }
+                naluStarts[num] = naluStart;
+                naluEnds[num] = naluEnd;
+                ++num;
+            }
+            codeIndex = next;
+        }
+        return num;
+    }
+
+    private ByteBuffer arenaView(int start) {
+        return slice(headerArena, start, headerArena.position());
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int start, int end) {
+        ByteBuffer view = buffer.duplicate();
+        view.clear();
+        view.limit(end);
+        view.position(start);
+        return view;
+    }
+
+    private void putInt3(int value) {
+        headerArena.put((byte) (value >> 16));
+        headerArena.put((byte) (value >> 8));
+        headerArena.put((byte) value);
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        long deadline = System.currentTimeMillis() + WRITE_TIMEOUT_MS;
+        while (buffer.hasRemaining()) {
+            if (channel.write(buffer) == 0) {
+                await(SelectionKey.OP_WRITE, deadline);
+            }
+        }
+    }
+
+    private void readFully(byte[] dst) throws IOException {
+        long deadline = System.currentTimeMillis() + READ_TIMEOUT_MS;
+        while (inBuffer.remaining() < dst.length) {
+            awaitInput(deadline);
+        }
+        inBuffer.get(dst);
+    }
+
+    /**
+     * wait till some bytes were read into inBuffer
+     */
+    private void awaitInput(long deadline) throws IOException {
+        while (readInput() == 0) {
+            await(SelectionKey.OP_READ, deadline);
+        }
+    }
+
+    /**
+     * read what the channel has without waiting,inBuffer grows if a chunk does not fit in it
+     *
+     * @return bytes read
+     */
+    private int readInput() throws IOException {
+        if (inBuffer.position() == 0 && inBuffer.limit() == inBuffer.capacity()) {
+            ByteBuffer bigger = ByteBuffer.allocate(inBuffer.capacity() * 2);
+            bigger.put(inBuffer);
+            bigger.flip();
+            inBuffer = bigger;
+        }
+        inBuffer.compact();
+        int n;
+        try {
+            n = channel.read(inBuffer);
+        } finally {
+            inBuffer.flip();
+        }
+        if (n < 0) {
+            throw new IOException("connection closed by server");
+        }
+        inBytes += n;
+        return n;
+    }
+
+    private void await(int ops, long deadline) throws IOException {
+        long waitMs = deadline - System.currentTimeMillis();
+        if (waitMs <= 0) {
+            throw new SocketTimeoutException(ops == SelectionKey.OP_READ ? "read timeout" : "write timeout");
+        }
+        selectionKey.interestOps(ops);
+        selector.select(waitMs);
+        selector.selectedKeys().clear();
+    }
+
+    private static int getInt3(ByteBuffer buffer) {
+        return (buffer.get() & 0xFF) << 16 | (buffer.get() & 0xFF) << 8 | (buffer.get() & 0xFF);
+    }
+
+    private static class InChunkStream {
+        int timestamp;
+        int length;
+        int type;
+        int streamId;
+        boolean extended;
+        byte[] payload;
+        int received;
+    }
+
+    private static class InMessage {
+        final int type;
+        final byte[] payload;
+
+        InMessage(int type, byte[] payload) {
+            this.type = type;
+            this.payload = payload;
+        }
+    }
+
+    /**
+     * rtmp://host[:port]/app[/instance]/stream
+     */
+    static class RtmpUrl {
+        String host;
+        int port;
+        String app;
+        String streamName;
+        String tcUrl;
+
+        static RtmpUrl parse(String url) {
+            if (url == null || !url.startsWith("rtmp://")) {
+                throw new IllegalArgumentException("not a rtmp url:" + url);
+            }
+            String rest = url.substring("rtmp://".length());
+            int slash = rest.indexOf('/');
+            int lastSlash = rest.lastIndexOf('/');
+            if (slash <= 0 || lastSlash == slash || lastSlash == rest.length() - 1) {
+                throw new IllegalArgumentException("need app and stream name in rtmp url:" + url);
+            }
+            RtmpUrl res = new RtmpUrl();
+            String hostPort = rest.substring(0, slash);
+            int colon = hostPort.lastIndexOf(':');
+            if (colon > 0) {
+                res.host = hostPort.substring(0, colon);
+                res.port = Integer.parseInt(hostPort.substring(colon + 1));
+            } else {
+                res.host = hostPort;
+                res.port = DEFAULT_PORT;
+            }
+            res.app = rest.substring(slash + 1, lastSlash);
+            res.streamName = rest.substring(lastSlash + 1);
+            res.tcUrl = "rtmp://" + hostPort + "/" + res.app;
+            return res;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package me.lake.librestreaming.rtmp;
+
+import net.butterflytv.rtmp_client.RTMPMuxer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link RESMuxer} on top of librtmp.<br/>
+ * librtmp jni only takes byte[],direct ByteBuffer is copied into a reused scratch array first.<br/>
+ * CompositionTime is always written as 0 by jni,so B-frames are disabled with this muxer.
+ */
+public class RESLibrtmpMuxer implements RESMuxer {
+    private final RTMPMuxer rtmpMuxer = new RTMPMuxer();
+    private byte[] scratch = new byte[0];
+    private volatile long bridgedBytes = 0;
+
+    @Override
+    public int open(String url, int videoWidth, int videoHeight) {
+        return rtmpMuxer.open(url, videoWidth, videoHeight);
+    }
+
+    @Override
+    public boolean isConnected() {
+        return rtmpMuxer.isConnected();
+    }
+
+    @Override
+    public int writeVideo(byte[] data, int offset, int length, int timestamp, int compositionTime) {
+        return rtmpMuxer.writeVideo(data, offset, length, timestamp);
+    }
+
+    @Override
+    public int writeAudio(byte[] data, int offset, int length, int timestamp) {
+        return rtmpMuxer.writeAudio(data, offset, length, timestamp);
+    }
+
+    @Override
+    public int writeVideo(ByteBuffer data, int offset, int length, int timestamp, int compositionTime) {
+        if (data.hasArray()) {
+            return rtmpMuxer.writeVideo(data.array(), data.arrayOffset() + offset, length, timestamp);
+        }
+        return rtmpMuxer.writeVideo(bridge(data, offset, length), 0, length, timestamp);
+    }
+
+    @Override
+    public int writeAudio(ByteBuffer data, int offset, int length, int timestamp) {
+        if (data.hasArray()) {
+            return rtmpMuxer.writeAudio(data.array(), data.arrayOffset() + offset, length, timestamp);
+        }
+        return rtmpMuxer.writeAudio(bridge(data, offset, length), 0, length, timestamp);
+    }
+
+    /**
+     * librtmp sends every tag when it is written
+     */
+    @Override
+    public int flush() {
+        return 0;
+    }
+
+    @Override
+    public boolean isDirectBufferPreferred() {
+        return false;
+    }
+
+    @Override
+    public long getBridgedBytes() {
+        return bridgedBytes;
+    }
+
+    @Override
+    public int close() {
+        return rtmpMuxer.close();
+    }
+
+    private byte[] bridge(ByteBuffer data, int offset, int length) {
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        ByteBuffer view = data.duplicate();
+        view.limit(offset + length);
+        view.position(offset);
+        view.get(scratch, 0, length);
+        bridgedBytes += length;
+        return scratch;
+    }
+}
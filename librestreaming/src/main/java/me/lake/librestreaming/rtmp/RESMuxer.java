@@ -0,0 +1,58 @@
+package me.lake.librestreaming.rtmp;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Writes flv tags payload to a rtmp server.<br/>
+ * every method is called on RESRtmpSender work thread only.<br/>
+ * write methods return bytes written,&lt;=0 on error.
+ */
+public interface RESMuxer {
+    /**
+     * @return 0 if success
+     */
+    int open(String url, int videoWidth, int videoHeight);
+
+    boolean isConnected();
+
+    /**
+     * @param timestamp       dts
+     * @param compositionTime pts-dts,ignored by muxers which can not carry it
+     */
+    int writeVideo(byte[] data, int offset, int length, int timestamp, int compositionTime);
+
+    int writeAudio(byte[] data, int offset, int length, int timestamp);
+
+    /**
+     * data position and limit are not changed
+     */
+    int writeVideo(ByteBuffer data, int offset, int length, int timestamp, int compositionTime);
+
+    /**
+     * data position and limit are not changed
+     */
+    int writeAudio(ByteBuffer data, int offset, int length, int timestamp);
+
+    /**
+     * write out tags buffered by muxer.<br/>
+     * buffers passed to write methods may be reused only after this returns.
+     *
+     * @return &gt;=0 if success
+     */
+    int flush();
+
+    /**
+     * @return true if direct ByteBuffer can be written without copying to heap
+     */
+    boolean isDirectBufferPreferred();
+
+    /**
+     * @return bytes copied to heap because muxer can not take the given buffer
+     */
+    long getBridgedBytes();
+
+    /**
+     * @return 0 if success
+     */
+    int close();
+}
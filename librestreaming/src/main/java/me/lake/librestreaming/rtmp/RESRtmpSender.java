@@ -1,18 +1,22 @@
 package me.lake.librestreaming.rtmp;
 
-import android.os.Handler;
-import android.os.HandlerThread;
-import android.os.Looper;
-import android.os.Message;
+import android.os.SystemClock;
 
-import net.butterflytv.rtmp_client.RTMPMuxer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 import me.lake.librestreaming.client.CallbackDelivery;
 import me.lake.librestreaming.core.RESByteSpeedometer;
 import me.lake.librestreaming.core.RESFrameRateMeter;
+import me.lake.librestreaming.core.RESPipelineStats;
 import me.lake.librestreaming.core.listener.RESConnectionListener;
 import me.lake.librestreaming.model.RESCoreParameters;
 import me.lake.librestreaming.tools.LogTools;
+import me.lake.librestreaming.tools.RESRingQueue;
 
 /**
  * Created by lake on 16-4-8.
@@ -21,94 +25,169 @@ public class RESRtmpSender {
     private static final int TIMEGRANULARITY = 3000;
     public static final int FROM_AUDIO = 8;
     public static final int FROM_VIDEO = 6;
-    private WorkHandler workHandler;
-    private HandlerThread workHandlerThread;
+    private volatile WorkThread workThread;
     private final Object syncOp = new Object();
 
     public void prepare(RESCoreParameters coreParameters) {
         synchronized (syncOp) {
-            workHandlerThread = new HandlerThread("RESRtmpSender,workHandlerThread");
-            workHandlerThread.start();
-            workHandler = new WorkHandler(coreParameters.senderQueueLength,
+            RESMuxer muxer = coreParameters.senderMuxer == RESCoreParameters.RTMP_MUXER_JAVA ?
+                    new RESJavaRtmpMuxer(coreParameters) :
+                    new RESLibrtmpMuxer();
+            workThread = new WorkThread(coreParameters.senderQueueLength,
                     coreParameters.videoWidth,
                     coreParameters.videoHeight,
-                    workHandlerThread.getLooper());
+                    RESSendDropPolicy.create(coreParameters.senderDropPolicy),
+                    muxer);
+            workThread.start();
         }
     }
 
     public void setConnectionListener(RESConnectionListener connectionListener) {
         synchronized (syncOp) {
-            workHandler.setConnectionListener(connectionListener);
+            workThread.setConnectionListener(connectionListener);
         }
     }
 
-    public String getServerIpAddr() {
+    /**
+     * takes effect from next tag taken from send queue
+     */
+    public void setDropPolicy(RESSendDropPolicy dropPolicy) {
         synchronized (syncOp) {
-            return workHandler == null ? null : workHandler.getServerIpAddr();
+            workThread.setDropPolicy(dropPolicy);
         }
     }
 
-    public float getSendFrameRate() {
+    /**
+     * @param keyFrameRequester called on sender thread when video starts being dropped,null to disable
+     */
+    public void setKeyFrameRequester(KeyFrameRequester keyFrameRequester) {
         synchronized (syncOp) {
-            return workHandler == null ? 0 : workHandler.getSendFrameRate();
+            workThread.setKeyFrameRequester(keyFrameRequester);
         }
     }
 
+    public String getServerIpAddr() {
+        WorkThread thread = workThread;
+        return thread == null ? null : thread.getServerIpAddr();
+    }
+
+    public float getSendFrameRate() {
+        WorkThread thread = workThread;
+        return thread == null ? 0 : thread.getSendFrameRate();
+    }
+
     public float getSendBufferFreePercent() {
-        synchronized (syncOp) {
-            return workHandler == null ? 0 : workHandler.getSendBufferFreePercent();
-        }
+        WorkThread thread = workThread;
+        return thread == null ? 0 : thread.getSendBufferFreePercent();
+    }
+
+    /**
+     * @return number of tags waiting to be sent
+     */
+    public int getSendQueueDepth() {
+        WorkThread thread = workThread;
+        return thread == null ? 0 : thread.getQueueDepth();
     }
 
     public void start(String rtmpAddr) {
         synchronized (syncOp) {
-            workHandler.sendStart(rtmpAddr);
+            workThread.sendStart(rtmpAddr);
         }
     }
 
+    /**
+     * called from encoder threads,lock free.
+     */
     public void feed(RESFlvData flvData, int type) {
-        synchronized (syncOp) {
-            workHandler.sendFood(flvData, type);
+        WorkThread thread = workThread;
+        if (thread == null) {
+            RESFlvDataPool.i().recycle(flvData);
+            return;
         }
+        thread.sendFood(flvData, type);
     }
 
     public void stop() {
         synchronized (syncOp) {
-            workHandler.sendStop();
+            workThread.sendStop();
         }
     }
 
     public void destroy() {
         synchronized (syncOp) {
-            workHandler.removeCallbacksAndMessages(null);
-            workHandlerThread.quit();
             /**
              * do not wait librtmp to quit
              */
-//        try {
-//            workHandlerThread.join();
-//        } catch (InterruptedException ignored) {
-//        }
+            workThread.quit();
+            workThread = null;
         }
     }
 
+    /**
+     * @return true if encoders should feed direct buffer backed RESFlvData
+     */
+    public boolean isDirectBufferPreferred() {
+        WorkThread thread = workThread;
+        return thread != null && thread.rtmpMuxer.isDirectBufferPreferred();
+    }
+
+    /**
+     * @return bytes copied by muxer because it could not take the buffer as is
+     */
+    public long getBridgedBytes() {
+        WorkThread thread = workThread;
+        return thread == null ? 0 : thread.rtmpMuxer.getBridgedBytes();
+    }
+
     public int getTotalSpeed() {
-        synchronized (syncOp) {
-            if (workHandler != null) {
-                return workHandler.getTotalSpeed();
-            } else {
-                return 0;
-            }
-        }
+        WorkThread thread = workThread;
+        return thread == null ? 0 : thread.getTotalSpeed();
+    }
+
+    /**
+     * @return video bytes/sec written to librtmp
+     */
+    public int getVideoSpeed() {
+        WorkThread thread = workThread;
+        return thread == null ? 0 : thread.getVideoSpeed();
+    }
+
+    public interface KeyFrameRequester {
+        void requestKeyFrame();
     }
 
-    static class WorkHandler extends Handler {
-        private final static int MSG_START = 1;
-        private final static int MSG_WRITE = 2;
-        private final static int MSG_STOP = 3;
+    /**
+     * owns rtmpMuxer,every call to it happens on this thread.<br/>
+     * encoders push tags into a lock free ring,control operations go through opQueue,
+     * the thread parks when both are empty.<br/>
+     * latest sequence headers are kept and written first on every connection,
+     * then video waits for a keyframe,so reconnecting needs no encoder restart.<br/>
+     * written tags are recycled after rtmpMuxer.flush(),which happens when the ring is drained
+     * or FLUSH_MAX_TAGS tags are written,so a buffering muxer can batch them.
+     */
+    static class WorkThread extends Thread {
+        private final static int OP_START = 1;
+        private final static int OP_STOP = 3;
+        private final static long PARK_TIMEOUT_NS = TimeUnit.MILLISECONDS.toNanos(100);
+        private final static long KEYFRAME_REQUEST_INTERVAL_MS = 1000;
+        private final static int FLUSH_MAX_TAGS = 32;
         private int maxQueueLength;
-        private int writeMsgNum = 0;
-        private final Object syncWriteMsgNum = new Object();
+        private final RESRingQueue<RESFlvData> writeQueue;
+        private final ConcurrentLinkedQueue<Op> opQueue = new ConcurrentLinkedQueue<>();
+        /**
+         * video keyframes in writeQueue,sequence headers excluded
+         */
+        private final AtomicInteger queuedKeyFrameNum = new AtomicInteger(0);
+        private volatile RESSendDropPolicy dropPolicy;
+        private volatile KeyFrameRequester keyFrameRequester;
+        private long lastKeyFrameRequestTime = 0;
+        private boolean isDroppingVideo = false;
+        //copies of latest AVCDecoderConfigurationRecord & AudioSpecificConfig
+        private RESFlvData videoSequenceHeader;
+        private RESFlvData audioSequenceHeader;
+        private boolean isWaitingKeyFrame = false;
+        private volatile boolean isParked = false;
+        private volatile boolean shouldQuit = false;
         private RESByteSpeedometer videoByteSpeedometer = new RESByteSpeedometer(TIMEGRANULARITY);
         private RESByteSpeedometer audioByteSpeedometer = new RESByteSpeedometer(TIMEGRANULARITY);
         private RESFrameRateMeter sendFrameRateMeter = new RESFrameRateMeter();
@@ -116,7 +195,8 @@ public class RESRtmpSender {
         private RESConnectionListener connectionListener;
         private final Object syncConnectionListener = new Object();
         private int errorTime = 0;
-        private RTMPMuxer rtmpMuxer = new RTMPMuxer();
+        private final RESMuxer rtmpMuxer;
+        private final ArrayList<RESFlvData> unflushedData = new ArrayList<>(FLUSH_MAX_TAGS);
         private int videoWidth, videoHeight;
 
         private enum STATE {
@@ -127,11 +207,14 @@ public class RESRtmpSender {
 
         private STATE state;
 
-        WorkHandler(int maxQueueLength, int videoWidth, int videoHeight, Looper looper) {
-            super(looper);
+        WorkThread(int maxQueueLength, int videoWidth, int videoHeight, RESSendDropPolicy dropPolicy, RESMuxer rtmpMuxer) {
+            super("RESRtmpSender,workThread");
             this.maxQueueLength = maxQueueLength;
             this.videoWidth = videoWidth;
             this.videoHeight = videoHeight;
+            writeQueue = new RESRingQueue<>(maxQueueLength + 1);
+            this.dropPolicy = dropPolicy;
+            this.rtmpMuxer = rtmpMuxer;
             state = STATE.IDLE;
         }
 
@@ -144,23 +227,71 @@ public class RESRtmpSender {
         }
 
         public float getSendBufferFreePercent() {
-            synchronized (syncWriteMsgNum) {
-                float res = (float) (maxQueueLength - writeMsgNum) / (float) maxQueueLength;
-                return res <= 0 ? 0f : res;
-            }
+            float res = (float) (maxQueueLength - writeQueue.size()) / (float) maxQueueLength;
+            return res <= 0 ? 0f : res;
+        }
+
+        public int getQueueDepth() {
+            return writeQueue.size();
         }
 
         @Override
-        public void handleMessage(Message msg) {
-            switch (msg.what) {
-                case MSG_START:
+        public void run() {
+            LogTools.d("RESRtmpSender,WorkThread,tid=" + Thread.currentThread().getId());
+            while (!shouldQuit) {
+                if (work()) {
+                    continue;
+                }
+                isParked = true;
+                if (opQueue.isEmpty() && writeQueue.isEmpty() && !shouldQuit) {
+                    LockSupport.parkNanos(this, PARK_TIMEOUT_NS);
+                }
+                isParked = false;
+            }
+            recycleUnflushed();
+            discardUntil(writeQueue.getProducerPosition());
+        }
+
+        /**
+         * handle pending ops,then write one tag or flush written ones.<br/>
+         * the loop of {@link #run()},tests call it on their own thread instead of starting this one.
+         *
+         * @return false if there was nothing to do
+         */
+        boolean work() {
+            Op op;
+            while ((op = opQueue.poll()) != null) {
+                handleOp(op);
+            }
+            RESFlvData flvData = writeQueue.poll();
+            if (flvData != null) {
+                onDequeued(flvData);
+                handleWrite(flvData);
+                return true;
+            }
+            if (!unflushedData.isEmpty()) {
+                flushMuxer();
+                return true;
+            }
+            return false;
+        }
+
+        private void handleOp(Op op) {
+            discardUntil(op.discardBefore);
+            switch (op.what) {
+                case OP_START:
                     if (state == STATE.RUNNING) {
                         break;
                     }
                     sendFrameRateMeter.reSet();
-                    LogTools.d("RESRtmpSender,WorkHandler,tid=" + Thread.currentThread().getId());
+                    dropPolicy.reset();
+                    isDroppingVideo = false;
+                    isWaitingKeyFrame = false;
                     //open =0 是成功
-                    int open = rtmpMuxer.open((String) msg.obj, videoWidth, videoHeight);
+                    int open = rtmpMuxer.open(op.rtmpAddr, videoWidth, videoHeight);
+                    if (rtmpMuxer.isConnected()) {
+                        writeSequenceHeaders();
+                    }
 
                     final int openR = rtmpMuxer.isConnected() ? 0 : 1;
                     synchronized (syncConnectionListener) {
@@ -175,10 +306,11 @@ public class RESRtmpSender {
                     }
                     state = STATE.RUNNING;
                     break;
-                case MSG_STOP:
+                case OP_STOP:
                     if (state == STATE.STOPPED) {
                         break;
                     }
+                    flushMuxer();
                     errorTime = 0;
                     int close = rtmpMuxer.close();
                     final int closeR = close;
@@ -194,82 +326,269 @@ public class RESRtmpSender {
                     }
                     state = STATE.STOPPED;
                     break;
-                case MSG_WRITE:
-                    synchronized (syncWriteMsgNum) {
-                        --writeMsgNum;
-                    }
-                    if (state != STATE.RUNNING) {
-                        break;
-                    }
-                    RESFlvData flvData = (RESFlvData) msg.obj;
-                    if (writeMsgNum >= (maxQueueLength * 2 / 3) /*&& flvData.flvTagType == RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO*/ && flvData.droppable) {
-                        LogTools.d("senderQueue is crowded,abandon video");
-                        break;
-                    }
-                    int res = -1;
-                    if (flvData.flvTagType == RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO) {
-                        res = rtmpMuxer.writeVideo(flvData.byteBuffer, 0, flvData.size, flvData.dts);
-                    } else if (flvData.flvTagType == RESFlvData.FLV_RTMP_PACKET_TYPE_AUDIO) {
-                        res = rtmpMuxer.writeAudio(flvData.byteBuffer, 0, flvData.size, flvData.dts);
-                    }
-                    if (res > 0) {
-                        errorTime = 0;
-                        if (flvData.flvTagType == RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO) {
-                            videoByteSpeedometer.gain(flvData.size);
-                            sendFrameRateMeter.count();
-                        } else {
-                            audioByteSpeedometer.gain(flvData.size);
-                        }
-                    } else {
-                        ++errorTime;
-                        synchronized (syncConnectionListener) {
-                            if (connectionListener != null) {
-                                CallbackDelivery.i().post(new RESConnectionListener.RESWriteErrorRunable(connectionListener, res));
-                            }
-                        }
-                    }
-                    break;
                 default:
                     break;
             }
         }
 
-        public void sendStart(String rtmpAddr) {
-            this.removeMessages(MSG_START);
-            synchronized (syncWriteMsgNum) {
-                this.removeMessages(MSG_WRITE);
-                writeMsgNum = 0;
+        private void handleWrite(RESFlvData flvData) {
+            keepSequenceHeader(flvData);
+            if (state != STATE.RUNNING) {
+                RESFlvDataPool.i().recycle(flvData);
+                return;
+            }
+            if (isWaitingKeyFrame && flvData.flvTagType == RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO
+                    && !flvData.isSequenceHeader && !flvData.isKeyframe()) {
+                onVideoDropped();
+                RESFlvDataPool.i().recycle(flvData);
+                return;
+            }
+            if (dropPolicy.shouldDrop(flvData, writeQueue.size(), queuedKeyFrameNum.get(), maxQueueLength)) {
+                LogTools.d("senderQueue is crowded,abandon " + (flvData.flvTagType == RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO ? "video" : "audio"));
+                if (flvData.flvTagType == RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO) {
+                    onVideoDropped();
+                }
+                RESFlvDataPool.i().recycle(flvData);
+                return;
+            }
+            if (flvData.flvTagType == RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO) {
+                isDroppingVideo = false;
+                if (!flvData.isSequenceHeader) {
+                    isWaitingKeyFrame = false;
+                }
+            }
+            int res = writeTag(flvData);
+            if (res > 0) {
+                errorTime = 0;
+                if (flvData.flvTagType == RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO) {
+                    videoByteSpeedometer.gain(flvData.size);
+                    sendFrameRateMeter.count();
+                } else {
+                    audioByteSpeedometer.gain(flvData.size);
+                }
+            } else {
+                onWriteError(res);
+            }
+            unflushedData.add(flvData);
+            if (unflushedData.size() >= FLUSH_MAX_TAGS) {
+                flushMuxer();
             }
-            this.sendMessage(this.obtainMessage(MSG_START, rtmpAddr));
         }
 
-        public void sendStop() {
-            this.removeMessages(MSG_STOP);
-            synchronized (syncWriteMsgNum) {
-                this.removeMessages(MSG_WRITE);
-                writeMsgNum = 0;
+        private int writeTag(RESFlvData flvData) {
+            int res = -1;
+            if (flvData.flvTagType == RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO) {
+                res = flvData.isDirect() ?
+                        rtmpMuxer.writeVideo(flvData.directBuffer, 0, flvData.size, flvData.dts, flvData.getCompositionTime()) :
+                        rtmpMuxer.writeVideo(flvData.byteBuffer, 0, flvData.size, flvData.dts, flvData.getCompositionTime());
+            } else if (flvData.flvTagType == RESFlvData.FLV_RTMP_PACKET_TYPE_AUDIO) {
+                res = flvData.isDirect() ?
+                        rtmpMuxer.writeAudio(flvData.directBuffer, 0, flvData.size, flvData.dts) :
+                        rtmpMuxer.writeAudio(flvData.byteBuffer, 0, flvData.size, flvData.dts);
+            }
+            return res;
+        }
+
+        /**
+         * keep a copy,the tag itself may be pooled or shared with other consumers
+         */
+        private void keepSequenceHeader(RESFlvData flvData) {
+            if (!flvData.isSequenceHeader) {
+                return;
+            }
+            RESFlvData header = new RESFlvData();
+            header.isSequenceHeader = true;
+            header.droppable = false;
+            header.flvTagType = flvData.flvTagType;
+            header.videoFrameType = flvData.videoFrameType;
+            header.size = flvData.size;
+            header.byteBuffer = new byte[flvData.size];
+            if (flvData.isDirect()) {
+                ByteBuffer view = flvData.directBuffer.duplicate();
+                view.clear();
+                view.get(header.byteBuffer, 0, flvData.size);
+            } else {
+                System.arraycopy(flvData.byteBuffer, 0, header.byteBuffer, 0, flvData.size);
+            }
+            if (flvData.flvTagType == RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO) {
+                videoSequenceHeader = header;
+            } else {
+                audioSequenceHeader = header;
+            }
+        }
+
+        /**
+         * a new connection knows nothing about the streams,
+         * headers go first with dts 0 and video waits for next keyframe.<br/>
+         * onMetaData is written by muxers when they open.
+         */
+        private void writeSequenceHeaders() {
+            if (audioSequenceHeader != null) {
+                writeTag(audioSequenceHeader);
+            }
+            if (videoSequenceHeader != null) {
+                writeTag(videoSequenceHeader);
+                isWaitingKeyFrame = true;
+                //tags before it were discarded,so a keyframe is needed now
+                isDroppingVideo = true;
+                requestKeyFrame(true);
+            }
+            rtmpMuxer.flush();
+        }
+
+        private void flushMuxer() {
+            if (unflushedData.isEmpty()) {
+                return;
+            }
+            int res = rtmpMuxer.flush();
+            if (res >= 0) {
+                recordLatency();
+            }
+            recycleUnflushed();
+            if (res < 0) {
+                onWriteError(res);
+            }
+        }
+
+        private void recordLatency() {
+            for (int i = 0; i < unflushedData.size(); i++) {
+                RESFlvData flvData = unflushedData.get(i);
+                if (flvData.outputTimeNs != 0) {
+                    RESPipelineStats.i().recordSince(RESPipelineStats.STAGE_SEND, flvData.outputTimeNs);
+                    RESPipelineStats.i().recordSincePts(RESPipelineStats.STAGE_TOTAL, flvData.ptsUs);
+                }
+            }
+        }
+
+        private void recycleUnflushed() {
+            for (int i = 0; i < unflushedData.size(); i++) {
+                RESFlvDataPool.i().recycle(unflushedData.get(i));
+            }
+            unflushedData.clear();
+        }
+
+        private void onWriteError(int res) {
+            ++errorTime;
+            synchronized (syncConnectionListener) {
+                if (connectionListener != null) {
+                    CallbackDelivery.i().post(new RESConnectionListener.RESWriteErrorRunable(connectionListener, res));
+                }
+            }
+        }
+
+        /**
+         * ask for a keyframe once per dropping period,at most one request per KEYFRAME_REQUEST_INTERVAL_MS
+         */
+        private void onVideoDropped() {
+            if (isDroppingVideo) {
+                return;
+            }
+            isDroppingVideo = true;
+            requestKeyFrame(false);
+        }
+
+        /**
+         * @param force ignore KEYFRAME_REQUEST_INTERVAL_MS
+         */
+        private void requestKeyFrame(boolean force) {
+            KeyFrameRequester requester = keyFrameRequester;
+            long now = SystemClock.uptimeMillis();
+            if (requester != null && (force || now - lastKeyFrameRequestTime >= KEYFRAME_REQUEST_INTERVAL_MS)) {
+                lastKeyFrameRequestTime = now;
+                requester.requestKeyFrame();
+            }
+        }
+
+        private static boolean isQueuedKeyFrame(RESFlvData flvData) {
+            return flvData.flvTagType == RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO
+                    && !flvData.isSequenceHeader
+                    && flvData.isKeyframe();
+        }
+
+        private void onDequeued(RESFlvData flvData) {
+            if (isQueuedKeyFrame(flvData)) {
+                queuedKeyFrameNum.decrementAndGet();
+            }
+        }
+
+        /**
+         * recycle every tag fed before position
+         */
+        private void discardUntil(long position) {
+            while (writeQueue.getConsumerPosition() < position) {
+                RESFlvData flvData = writeQueue.poll();
+                if (flvData == null) {
+                    //claimed by producer but not published yet
+                    Thread.yield();
+                    continue;
+                }
+                onDequeued(flvData);
+                keepSequenceHeader(flvData);
+                RESFlvDataPool.i().recycle(flvData);
             }
-            this.sendEmptyMessage(MSG_STOP);
+        }
+
+        private void postOp(Op op) {
+            op.discardBefore = writeQueue.getProducerPosition();
+            opQueue.offer(op);
+            wakeUp();
+        }
+
+        private void wakeUp() {
+            if (isParked) {
+                LockSupport.unpark(this);
+            }
+        }
+
+        public void sendStart(String rtmpAddr) {
+            Op op = new Op(OP_START);
+            op.rtmpAddr = rtmpAddr;
+            postOp(op);
+        }
+
+        public void sendStop() {
+            postOp(new Op(OP_STOP));
         }
 
         public void sendFood(RESFlvData flvData, int type) {
-            synchronized (syncWriteMsgNum) {
-                //LAKETODO optimize
-                if (writeMsgNum <= maxQueueLength) {
-                    this.sendMessage(this.obtainMessage(MSG_WRITE, type, 0, flvData));
-                    ++writeMsgNum;
-                } else {
-                    LogTools.d("senderQueue is full,abandon");
+            //LAKETODO optimize
+            //count before offer so the consumer never sees the keyframe uncounted
+            boolean isKeyFrame = isQueuedKeyFrame(flvData);
+            if (isKeyFrame) {
+                queuedKeyFrameNum.incrementAndGet();
+            }
+            if (writeQueue.size() <= maxQueueLength && writeQueue.offer(flvData)) {
+                wakeUp();
+            } else {
+                if (isKeyFrame) {
+                    queuedKeyFrameNum.decrementAndGet();
                 }
+                LogTools.d("senderQueue is full,abandon");
+                RESFlvDataPool.i().recycle(flvData);
             }
         }
 
+        public void quit() {
+            shouldQuit = true;
+            LockSupport.unpark(this);
+        }
+
         public void setConnectionListener(RESConnectionListener connectionListener) {
             synchronized (syncConnectionListener) {
                 this.connectionListener = connectionListener;
             }
         }
 
+        public void setDropPolicy(RESSendDropPolicy dropPolicy) {
+            if (dropPolicy != null) {
+                this.dropPolicy = dropPolicy;
+            }
+        }
+
+        public void setKeyFrameRequester(KeyFrameRequester keyFrameRequester) {
+            this.keyFrameRequester = keyFrameRequester;
+        }
+
         public int getTotalSpeed() {
             return getVideoSpeed() + getAudioSpeed();
         }
@@ -281,6 +600,18 @@ public class RESRtmpSender {
         public int getAudioSpeed() {
             return audioByteSpeedometer.getSpeed();
         }
+
+        private static class Op {
+            final int what;
+            String rtmpAddr;
+            /**
+             * tags fed before the op was posted are not sent
+             */
+            long discardBefore;
+
+            Op(int what) {
+                this.what = what;
+            }
+        }
     }
 }
-
@@ -0,0 +1,116 @@
+package me.lake.librestreaming.rtmp;
+
+import me.lake.librestreaming.model.RESCoreParameters;
+
+/**
+ * Decide which tags RESRtmpSender abandons when the send queue is crowded.<br/>
+ * called on the sender thread for every tag taken from the queue,
+ * implementations don`t need to be thread safe.
+ */
+public abstract class RESSendDropPolicy {
+
+    public static RESSendDropPolicy create(int policy) {
+        switch (policy) {
+            case RESCoreParameters.SEND_DROP_POLICY_DROP_UNTIL_NEXT_IDR:
+                return new DropUntilNextIDR();
+            case RESCoreParameters.SEND_DROP_POLICY_DROP_OLDEST_GOP:
+                return new DropOldestGOP();
+            case RESCoreParameters.SEND_DROP_POLICY_CURRENT:
+            default:
+                return new Current();
+        }
+    }
+
+    /**
+     * @param flvData         tag just taken from the queue
+     * @param queueDepth      tags still waiting in the queue
+     * @param queuedKeyFrames video keyframes still waiting in the queue,sequence headers excluded
+     * @param maxQueueLength  capacity of the queue
+     * @return true to abandon flvData
+     */
+    public abstract boolean shouldDrop(RESFlvData flvData, int queueDepth, int queuedKeyFrames, int maxQueueLength);
+
+    /**
+     * called when a new connection starts
+     */
+    public void reset() {
+    }
+
+    protected boolean isCrowded(int queueDepth, int maxQueueLength) {
+        return queueDepth >= (maxQueueLength * 2 / 3);
+    }
+
+    protected boolean isVideoFrame(RESFlvData flvData) {
+        return flvData.flvTagType == RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO && !flvData.isSequenceHeader;
+    }
+
+    /**
+     * drop any droppable video frame while crowded,keyframes included.
+     * P-frames referencing dropped frames are still sent.audio is kept,it costs little and gaps are heard.
+     */
+    static class Current extends RESSendDropPolicy {
+        @Override
+        public boolean shouldDrop(RESFlvData flvData, int queueDepth, int queuedKeyFrames, int maxQueueLength) {
+            return isVideoFrame(flvData) && isCrowded(queueDepth, maxQueueLength) && flvData.droppable;
+        }
+    }
+
+    /**
+     * once a video frame is dropped,drop every following video frame until next keyframe.<br/>
+     * audio,sequence headers and keyframes are never dropped.
+     */
+    static class DropUntilNextIDR extends RESSendDropPolicy {
+        private boolean isDropping = false;
+
+        @Override
+        public boolean shouldDrop(RESFlvData flvData, int queueDepth, int queuedKeyFrames, int maxQueueLength) {
+            if (!isVideoFrame(flvData)) {
+                return false;
+            }
+            if (flvData.isKeyframe()) {
+                isDropping = false;
+                return false;
+            }
+            if (!isDropping && isCrowded(queueDepth, maxQueueLength)) {
+                isDropping = true;
+            }
+            return isDropping;
+        }
+
+        @Override
+        public void reset() {
+            isDropping = false;
+        }
+    }
+
+    /**
+     * while crowded and a newer keyframe is already queued,drop whole GOPs keyframe included,
+     * so the sender jumps to the newest GOP in the queue.<br/>
+     * without newer keyframe queued,behave like {@link DropUntilNextIDR}.<br/>
+     * audio and sequence headers are never dropped.
+     */
+    static class DropOldestGOP extends RESSendDropPolicy {
+        private boolean isDropping = false;
+
+        @Override
+        public boolean shouldDrop(RESFlvData flvData, int queueDepth, int queuedKeyFrames, int maxQueueLength) {
+            if (!isVideoFrame(flvData)) {
+                return false;
+            }
+            boolean crowded = isCrowded(queueDepth, maxQueueLength);
+            if (flvData.isKeyframe()) {
+                isDropping = crowded && queuedKeyFrames > 0;
+                return isDropping;
+            }
+            if (!isDropping && crowded) {
+                isDropping = true;
+            }
+            return isDropping;
+        }
+
+        @Override
+        public void reset() {
+            isDropping = false;
+        }
+    }
+}
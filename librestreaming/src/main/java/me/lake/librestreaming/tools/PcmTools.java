@@ -0,0 +1,66 @@
+package me.lake.librestreaming.tools;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+/**
+ * 16bit little endian pcm <-> short/float samples.<br/>
+ * float samples are in [-1,1),1.0 is 32768.
+ */
+public class PcmTools {
+    private static final float SHORT_TO_FLOAT = 1.0f / 32768;
+
+    /**
+     * @return little endian short view of pcm[0,sampleNum*2)
+     */
+    public static ShortBuffer asShortBuffer(byte[] pcm, int sampleNum) {
+        return ByteBuffer.wrap(pcm, 0, sampleNum * 2).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+    }
+
+    public static void bytesToShorts(byte[] src, short[] dst, int sampleNum) {
+        asShortBuffer(src, sampleNum).get(dst, 0, sampleNum);
+    }
+
+    public static void shortsToBytes(short[] src, byte[] dst, int sampleNum) {
+        asShortBuffer(dst, sampleNum).put(src, 0, sampleNum);
+    }
+
+    public static void shortsToFloats(short[] src, float[] dst, int sampleNum) {
+        for (int i = 0; i < sampleNum; i++) {
+            dst[i] = src[i] * SHORT_TO_FLOAT;
+        }
+    }
+
+    /**
+     * rounds to nearest and clamps to short range
+     */
+    public static void floatsToShorts(float[] src, short[] dst, int sampleNum) {
+        for (int i = 0; i < sampleNum; i++) {
+            dst[i] = clamp(Math.round(src[i] * 32768));
+        }
+    }
+
+    /**
+     * @param scratch at least sampleNum long
+     */
+    public static void bytesToFloats(byte[] src, float[] dst, short[] scratch, int sampleNum) {
+        bytesToShorts(src, scratch, sampleNum);
+        shortsToFloats(scratch, dst, sampleNum);
+    }
+
+    /**
+     * @param scratch at least sampleNum long
+     */
+    public static void floatsToBytes(float[] src, byte[] dst, short[] scratch, int sampleNum) {
+        floatsToShorts(src, scratch, sampleNum);
+        shortsToBytes(scratch, dst, sampleNum);
+    }
+
+    /**
+     * @return v clamped to short range
+     */
+    public static short clamp(int v) {
+        return (short) (v > Short.MAX_VALUE ? Short.MAX_VALUE : (v < Short.MIN_VALUE ? Short.MIN_VALUE : v));
+    }
+}
@@ -0,0 +1,112 @@
+package me.lake.librestreaming.tools;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free queue,multi producer & single consumer.<br/>
+ * Every slot carries a sequence number so producers claim slots with one CAS
+ * and the consumer never touches the producer cursor.<br/>
+ * {@link #poll()} must only be called from one thread at a time.
+ */
+public class RESRingQueue<E> {
+    private final int capacity;
+    private final int mask;
+    private final AtomicReferenceArray<E> buffer;
+    private final AtomicLongArray sequences;
+    private final AtomicLong producerPosition = new AtomicLong(0);
+    private final AtomicLong consumerPosition = new AtomicLong(0);
+
+    /**
+     * @param minCapacity real capacity is rounded up to power of two
+     */
+    public RESRingQueue(int minCapacity) {
+        if (minCapacity <= 0) {
+            throw new IllegalArgumentException("invalid capacity:" + minCapacity);
+        }
+        capacity = minCapacity == 1 ? 1 : Integer.highestOneBit(minCapacity - 1) << 1;
+        mask = capacity - 1;
+        buffer = new AtomicReferenceArray<>(capacity);
+        sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * @return false if queue is full
+     */
+    public boolean offer(E e) {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        long pos = producerPosition.get();
+        for (; ; ) {
+            int index = (int) pos & mask;
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (producerPosition.compareAndSet(pos, pos + 1)) {
+                    buffer.lazySet(index, e);
+                    sequences.set(index, pos + 1);
+                    return true;
+                }
+                pos = producerPosition.get();
+            } else if (diff < 0) {
+                return false;
+            } else {
+                pos = producerPosition.get();
+            }
+        }
+    }
+
+    /**
+     * consumer only
+     *
+     * @return null if empty or the head element is not published yet
+     */
+    public E poll() {
+        long pos = consumerPosition.get();
+        int index = (int) pos & mask;
+        if (sequences.get(index) != pos + 1) {
+            return null;
+        }
+        E e = buffer.get(index);
+        buffer.lazySet(index, null);
+        sequences.lazySet(index, pos + capacity);
+        consumerPosition.lazySet(pos + 1);
+        return e;
+    }
+
+    /**
+     * @return elements claimed by producers but not consumed,may be stale by the time it returns
+     */
+    public int size() {
+        long consumer = consumerPosition.get();
+        long producer = producerPosition.get();
+        long size = producer - consumer;
+        return size < 0 ? 0 : (int) Math.min(size, capacity);
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return total number of elements ever claimed by producers
+     */
+    public long getProducerPosition() {
+        return producerPosition.get();
+    }
+
+    /**
+     * @return total number of elements ever consumed
+     */
+    public long getConsumerPosition() {
+        return consumerPosition.get();
+    }
+}
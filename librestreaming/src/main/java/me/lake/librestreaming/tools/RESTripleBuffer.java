@@ -0,0 +1,119 @@
+package me.lake.librestreaming.tools;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * lock free latest-frame-wins exchange between one producer and one consumer.<br/>
+ * producer fills {@link #getWriteBuff()} then {@link #publish()},
+ * consumer {@link #acquireLatest()} then reads {@link #getReadBuff()}.<br/>
+ * buffers are swapped,never copied.every handover goes through one atomic update of state,
+ * so writes to a buffer happen-before reads of it,and reads happen-before it is written again.
+ */
+public class RESTripleBuffer<E> {
+    private static final int INDEX_MASK = 0x3;
+    //middle buffer holds a frame consumer has not taken
+    private static final int FLAG_FRESH = 0x4;
+    private final Object[] buffs;
+    //index of middle buffer | FLAG_FRESH
+    private final AtomicInteger state;
+    //owned by producer
+    private int writeIndex;
+    //owned by consumer
+    private int readIndex;
+    private final AtomicLong publishedCount = new AtomicLong(0);
+    private final AtomicLong droppedCount = new AtomicLong(0);
+    private final AtomicLong duplicatedCount = new AtomicLong(0);
+
+    public RESTripleBuffer(E buff0, E buff1, E buff2) {
+        if (buff0 == null || buff1 == null || buff2 == null) {
+            throw new NullPointerException();
+        }
+        buffs = new Object[]{buff0, buff1, buff2};
+        writeIndex = 0;
+        state = new AtomicInteger(1);
+        readIndex = 2;
+    }
+
+    /**
+     * producer only
+     */
+    @SuppressWarnings("unchecked")
+    public E getWriteBuff() {
+        return (E) buffs[writeIndex];
+    }
+
+    /**
+     * producer only,hand write buff over as latest frame.<br/>
+     * a latest frame consumer never took is dropped.
+     */
+    public void publish() {
+        int old = state.getAndSet(writeIndex | FLAG_FRESH);
+        writeIndex = old & INDEX_MASK;
+        publishedCount.incrementAndGet();
+        if ((old & FLAG_FRESH) != 0) {
+            droppedCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * consumer only
+     *
+     * @return true if read buff is a newly published frame,
+     * false if it is the same as last time(duplicated)
+     */
+    public boolean acquireLatest() {
+        int old;
+        do {
+            old = state.get();
+            if ((old & FLAG_FRESH) == 0) {
+                duplicatedCount.incrementAndGet();
+                return false;
+            }
+            //producer or discardLatest may have changed it since
+        } while (!state.compareAndSet(old, readIndex));
+        readIndex = old & INDEX_MASK;
+        return true;
+    }
+
+    /**
+     * any thread,drop the latest frame if consumer has not taken it,
+     * consumer then keeps its read buff until next publish.
+     */
+    public void discardLatest() {
+        int old = state.get();
+        while ((old & FLAG_FRESH) != 0) {
+            if (state.compareAndSet(old, old & INDEX_MASK)) {
+                droppedCount.incrementAndGet();
+                return;
+            }
+            old = state.get();
+        }
+    }
+
+    /**
+     * consumer only
+     */
+    @SuppressWarnings("unchecked")
+    public E getReadBuff() {
+        return (E) buffs[readIndex];
+    }
+
+    public long getPublishedCount() {
+        return publishedCount.get();
+    }
+
+    /**
+     * @return frames published but overwritten before consumer took them
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * @return times consumer found no new frame
+     */
+    public long getDuplicatedCount() {
+        return duplicatedCount.get();
+    }
+}
@@ -1,5 +1,5 @@
 //APP_STL := gnustl_static
-APP_ABI := armeabi-v7a arm64-v8a
+APP_ABI := armeabi-v7a arm64-v8a x86 x86_64
 APP_PLATFORM := android-10
 //APP_OPTIM := debug
 //NDK_DEBUG = 1
\ No newline at end of file
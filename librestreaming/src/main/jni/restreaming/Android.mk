@@ -3,7 +3,15 @@ include $(CLEAR_VARS)
 
 
 LOCAL_SRC_FILES := restreaming.c \
-					colorConvert.c 
+					colorConvert.c
+
+#colorKernels.c needs NEON on armeabi-v7a,only it is built with NEON there.
+#NEON is always there on arm64-v8a,SSE2 on x86.host test of the kernels is in test/.
+ifeq ($(TARGET_ARCH_ABI),armeabi-v7a)
+LOCAL_SRC_FILES += colorKernels.c.neon
+else
+LOCAL_SRC_FILES += colorKernels.c
+endif
 
 
 LOCAL_C_INCLUDES :=$(LOCAL_PATH)/
@@ -1,63 +1,25 @@
 #include "colorConvert.h"
+#include "colorKernels.h"
 #include <string.h>
 #include "log.h"
 
 void NV21TOYUV420SP(const unsigned char *src,const unsigned char *dst,int ySize)
 {
 	memcpy(dst,src,ySize);
-	int uvSize = ySize>>1;
-	int uSize = uvSize>>1;
-	memcpy(dst+ySize,src+ySize+1,uvSize-1);
-	unsigned char *nvcur = src+ySize;
-	unsigned char *yuvcur = dst+ySize+1;
-	int i=0;
-	while(i<uSize)
-	{
-		(*yuvcur)=(*nvcur);
-		yuvcur+=2;
-		nvcur+=2;
-		++i;
-	}
+	//VU pairs -> UV pairs
+	swapPairs(src+ySize,dst+ySize,ySize>>2);
 }
 void NV21TOYUV420P(const unsigned char *src,const unsigned char *dst,int ySize)
 {
 	memcpy(dst,src,ySize);
 	int uSize = ySize>>2;
-	unsigned char *srcucur = src+ySize+1;
-	unsigned char *srcvcur = src+ySize;
-	unsigned char *dstucur = dst+ySize;
-	unsigned char *dstvcur = dst+ySize+uSize;
-	int i=0;
-	while(i<uSize)
-	{
-		(*dstucur)=(*srcucur);
-		(*dstvcur)=(*srcvcur);
-		srcucur+=2;
-		srcvcur+=2;
-		++dstucur;
-		++dstvcur;
-		++i;
-	}
+	splitPairs(src+ySize,dst+ySize+uSize,dst+ySize,uSize);
 }
 void YUV420SPTOYUV420P(const unsigned char *src,const unsigned char *dst,int ySize)
 {
 	memcpy(dst,src,ySize);
 	int uSize = ySize>>2;
-	unsigned char *srcucur = src+ySize;
-	unsigned char *srcvcur = src+ySize+1;
-	unsigned char *dstucur = dst+ySize;
-	unsigned char *dstvcur = dst+ySize+uSize;
-	int i=0;
-	while(i<uSize)
-	{
-		(*dstucur)=(*srcucur);
-		(*dstvcur)=(*srcvcur);
-		srcucur+=2;
-		srcvcur+=2;
-		++dstucur;
-		++dstvcur;
-		++i;
-	}
+	splitPairs(src+ySize,dst+ySize,dst+ySize+uSize,uSize);
 }
 void NV21TOARGB(const unsigned char *src,const unsigned int *dst,int width,int height)
 {
@@ -98,6 +60,10 @@ void NV21TOARGB(const unsigned char *src,const unsigned int *dst,int width,int h
 #define IS_FLIP_H ((FLAG_DIRECTION_FLIP_HORIZONTAL&directionFlag)!=0)
 #define IS_FLIP_V ((FLAG_DIRECTION_FLIP_VERTICAL&directionFlag)!=0)
 void NV21Transform(const unsigned char *src,const unsigned char *dst,int srcWidth,int srcHeight,int directionFlag)
+{
+	NV21TransformTo(src,dst,srcWidth,srcHeight,directionFlag,COLOR_FORMAT_NV21);
+}
+void NV21TransformTo(const unsigned char *src,const unsigned char *dst,int srcWidth,int srcHeight,int directionFlag,int dstColorFormat)
 {
 	unsigned char *cdst=dst;
 	unsigned char *csrc=src;
@@ -124,102 +90,50 @@ void NV21Transform(const unsigned char *src,const unsigned char *dst,int srcWidt
 	}
 	int ySize=srcHeight*srcWidth;
 	int totalSize = ySize*3 / 2;
-	int yStart,yStep,xStep;
-	if(rotate==0 && hflip==0 && vflip==0){
-		memcpy(cdst,csrc,totalSize);
-		return;
+	//chroma pairs are converted to dstColorFormat while they are moved
+	int pairsOut=PAIRS_VU;
+	unsigned char *cdstA=cdst+ySize;
+	unsigned char *cdstB=NULL;
+	if(dstColorFormat==COLOR_FORMAT_YUV420SP){
+		pairsOut=PAIRS_UV;
+	}else if(dstColorFormat==COLOR_FORMAT_YUV420P){
+		pairsOut=PAIRS_PLANAR;
+		cdstB=cdst+ySize+(ySize>>2);
 	}
-	int srcX,srcY,srcCurr;
-	int dstX,dstY,dstCurr;
 	int halfHeight=srcHeight>>1,halfWidth=srcWidth>>1;
-	if(rotate==1){
-		//transformY
-		if(hflip==1){
-			yStart=vflip==1?ySize-srcHeight:ySize-1;
-			yStep=vflip==1?1:-1;
-			xStep=-srcHeight;
+	if(rotate==0 && hflip==0 && vflip==0){
+		if(pairsOut==PAIRS_VU){
+			memcpy(cdst,csrc,totalSize);
 		}else{
-			yStart=vflip==1?0:srcHeight-1;
-			yStep=vflip==1?1:-1;
-			xStep=srcHeight;
+			memcpy(cdst,csrc,ySize);
+			transformChroma(csrc+ySize,cdstA,cdstB,halfWidth,halfHeight,pairsOut,0,1,halfWidth);
 		}
-		srcCurr=-1;
-		for(srcY=0;srcY<srcHeight;++srcY){
-			dstCurr = yStart;
-			for(srcX=0;srcX<srcWidth;++srcX){
-				cdst[dstCurr]=csrc[++srcCurr];
-				dstCurr+=xStep;
-			}
-			yStart+=yStep;
-		}
-		//transformVU
+		return;
+	}
+	//VU pairs are moved as 2 bytes elements,steps below are in elements
+	if(rotate==1){
 		if(hflip==1){
-			yStart=vflip==1?totalSize-srcHeight:totalSize-2;
-			yStep=vflip==1?2:-2;
-			xStep=-srcHeight;
+			transformPlane(csrc,cdst,srcWidth,srcHeight,1,
+				vflip==1?ySize-srcHeight:ySize-1,-srcHeight,vflip==1?1:-1);
+			transformChroma(csrc+ySize,cdstA,cdstB,halfWidth,halfHeight,pairsOut,
+				vflip==1?(ySize>>1)/2-halfHeight:(ySize>>1)/2-1,-halfHeight,vflip==1?1:-1);
 		}else{
-			yStart=vflip==1?ySize:ySize+srcHeight-2;
-			yStep=vflip==1?2:-2;
-			xStep=srcHeight;
-		}
-		srcCurr=ySize-1;
-		for(srcY=0;srcY<halfHeight;++srcY){
-			dstCurr = yStart;
-			for(srcX=0;srcX<halfWidth;++srcX){
-				cdst[dstCurr]=csrc[++srcCurr];
-				cdst[dstCurr+1]=csrc[++srcCurr];
-				dstCurr+=xStep;
-			}
-			yStart+=yStep;
+			transformPlane(csrc,cdst,srcWidth,srcHeight,1,
+				vflip==1?0:srcHeight-1,srcHeight,vflip==1?1:-1);
+			transformChroma(csrc+ySize,cdstA,cdstB,halfWidth,halfHeight,pairsOut,
+				vflip==1?0:halfHeight-1,halfHeight,vflip==1?1:-1);
 		}
 	}else{
 		if(vflip==1 && hflip==0){
-			//transformY
-			yStart = ySize-srcWidth;
-			srcCurr=-1;
-			for(srcY=0;srcY<srcHeight;++srcY){
-				dstCurr = yStart-1;
-				for(srcX=0;srcX<srcWidth;++srcX){
-					cdst[++dstCurr]=csrc[++srcCurr];
-				}
-				yStart-=srcWidth;
-			}
-			//transformVU
-			yStart=totalSize-srcWidth;
-			for(srcY=0;srcY<halfHeight;++srcY){
-				dstCurr = yStart-1;
-				for(srcX=0;srcX<halfWidth;++srcX){
-					cdst[++dstCurr]=csrc[++srcCurr];
-					cdst[++dstCurr]=csrc[++srcCurr];
-				}
-				yStart-=srcWidth;
-			}
+			transformPlane(csrc,cdst,srcWidth,srcHeight,1,ySize-srcWidth,1,-srcWidth);
+			transformChroma(csrc+ySize,cdstA,cdstB,halfWidth,halfHeight,pairsOut,(ySize>>1)/2-halfWidth,1,-halfWidth);
 		}else{
-			yStep=vflip==1?-srcWidth:srcWidth;
-			yStart=vflip==1?ySize-1:srcWidth-1;
-			//transformY
-			srcCurr=-1;
-			for(srcY=0;srcY<srcHeight;++srcY){
-				dstCurr = yStart+1;
-				for(srcX=0;srcX<srcWidth;++srcX){
-					cdst[--dstCurr]=csrc[++srcCurr];
-				}
-				yStart+=yStep;
-			}
-			//transformVU
-			yStart=vflip==1?totalSize-1:ySize+srcWidth-1;
-			for(srcY=0;srcY<halfHeight;++srcY){
-				dstCurr = yStart;
-				for(srcX=0;srcX<halfWidth;++srcX){
-					cdst[dstCurr-1]=csrc[++srcCurr];
-					cdst[dstCurr]=csrc[++srcCurr];
-					dstCurr-=2;
-				}
-				yStart+=yStep;
-			}
+			transformPlane(csrc,cdst,srcWidth,srcHeight,1,
+				vflip==1?ySize-1:srcWidth-1,-1,vflip==1?-srcWidth:srcWidth);
+			transformChroma(csrc+ySize,cdstA,cdstB,halfWidth,halfHeight,pairsOut,
+				vflip==1?(ySize>>1)/2-1:halfWidth-1,-1,vflip==1?-halfWidth:halfWidth);
 		}
 	}
-
 }
 void NV21TOYUV(const unsigned char *src,const unsigned char *dstY,const unsigned char *dstU,const unsigned char *dstV,int width,int height)
 {
@@ -229,21 +143,7 @@ void NV21TOYUV(const unsigned char *src,const unsigned char *dstY,const unsigned
 	//y
 	memcpy(dstY,src,ySize);
 	//uv
-	unsigned char *srcucur = src+ySize+1;
-	unsigned char *srcvcur = src+ySize;
-	unsigned char *dstucur = dstU;
-	unsigned char *dstvcur = dstV;
-	int i=0;
-	while(i<uSize)
-	{
-		(*dstucur)=(*srcucur);
-		(*dstvcur)=(*srcvcur);
-		srcucur+=2;
-		srcvcur+=2;
-		++dstucur;
-		++dstvcur;
-		++i;
-	}
+	splitPairs(src+ySize,dstV,dstU,uSize);
 }
 void FIXGLPIXEL(const unsigned int *src,unsigned int *dst,int width,int height)
 {
@@ -2,6 +2,9 @@
 #define __COLORCONVERT_H__
 
 #define COLOR_FORMAT_NV21 17
+//MediaCodecInfo.CodecCapabilities
+#define COLOR_FORMAT_YUV420P 19
+#define COLOR_FORMAT_YUV420SP 21
 
 #define FLAG_DIRECTION_FLIP_HORIZONTAL	0x01
 #define FLAG_DIRECTION_FLIP_VERTICAL	0x02
@@ -15,6 +18,8 @@ void YUV420SPTOYUV420P(const unsigned char *src,const unsigned char *dst,int ySi
 void NV21TOYUV420P(const unsigned char *src,const unsigned char *dst,int ySize);
 void NV21TOARGB(const unsigned char *src,const unsigned int *dst,int width,int height);
 void NV21Transform(const unsigned char *src,const unsigned char *dst,int dstWidth,int dstHeight,int directionFlag);
+//NV21Transform writing dstColorFormat(COLOR_FORMAT_*) instead of NV21
+void NV21TransformTo(const unsigned char *src,const unsigned char *dst,int srcWidth,int srcHeight,int directionFlag,int dstColorFormat);
 void NV21TOYUV(const unsigned char *src,const unsigned char *dstY,const unsigned char *dstU,const unsigned char *dstV,int width,int height);
 void FIXGLPIXEL(const unsigned int *src,unsigned int *dst,int width,int height);
 #endif
\ No newline at end of file
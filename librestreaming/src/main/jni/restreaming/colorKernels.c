@@ -0,0 +1,354 @@
+#include "colorKernels.h"
+#include <string.h>
+
+#if defined(__ARM_NEON) || defined(__ARM_NEON__)
+#include <arm_neon.h>
+#define KERNEL_NEON 1
+#elif defined(__SSE2__)
+#include <emmintrin.h>
+#define KERNEL_SSE2 1
+#endif
+
+//rotation works on BLOCK*BLOCK elements at a time,so both src rows and dst rows stay in cache
+#define BLOCK 64
+
+void swapPairs(const unsigned char *src,unsigned char *dst,int pairs)
+{
+	int n=pairs*2;
+	int i=0;
+#if defined(KERNEL_NEON)
+	for(;i+16<=n;i+=16){
+		vst1q_u8(dst+i,vrev16q_u8(vld1q_u8(src+i)));
+	}
+#elif defined(KERNEL_SSE2)
+	for(;i+16<=n;i+=16){
+		__m128i v=_mm_loadu_si128((const __m128i *)(src+i));
+		_mm_storeu_si128((__m128i *)(dst+i),_mm_or_si128(_mm_slli_epi16(v,8),_mm_srli_epi16(v,8)));
+	}
+#endif
+	for(;i<n;i+=2){
+		dst[i]=src[i+1];
+		dst[i+1]=src[i];
+	}
+}
+
+void splitPairs(const unsigned char *src,unsigned char *dstEven,unsigned char *dstOdd,int pairs)
+{
+	int i=0;
+#if defined(KERNEL_NEON)
+	for(;i+16<=pairs;i+=16){
+		uint8x16x2_t v=vld2q_u8(src+2*i);
+		vst1q_u8(dstEven+i,v.val[0]);
+		vst1q_u8(dstOdd+i,v.val[1]);
+	}
+	for(;i+8<=pairs;i+=8){
+		uint8x8x2_t v=vld2_u8(src+2*i);
+		vst1_u8(dstEven+i,v.val[0]);
+		vst1_u8(dstOdd+i,v.val[1]);
+	}
+#elif defined(KERNEL_SSE2)
+	__m128i lowMask=_mm_set1_epi16(0x00FF);
+	for(;i+16<=pairs;i+=16){
+		__m128i a=_mm_loadu_si128((const __m128i *)(src+2*i));
+		__m128i b=_mm_loadu_si128((const __m128i *)(src+2*i+16));
+		_mm_storeu_si128((__m128i *)(dstEven+i),_mm_packus_epi16(_mm_and_si128(a,lowMask),_mm_and_si128(b,lowMask)));
+		_mm_storeu_si128((__m128i *)(dstOdd+i),_mm_packus_epi16(_mm_srli_epi16(a,8),_mm_srli_epi16(b,8)));
+	}
+	for(;i+8<=pairs;i+=8){
+		__m128i a=_mm_loadu_si128((const __m128i *)(src+2*i));
+		__m128i even=_mm_and_si128(a,lowMask);
+		__m128i odd=_mm_srli_epi16(a,8);
+		_mm_storel_epi64((__m128i *)(dstEven+i),_mm_packus_epi16(even,even));
+		_mm_storel_epi64((__m128i *)(dstOdd+i),_mm_packus_epi16(odd,odd));
+	}
+#endif
+	for(;i<pairs;++i){
+		dstEven[i]=src[2*i];
+		dstOdd[i]=src[2*i+1];
+	}
+}
+
+//dst[count-1-i]=src[i],element wise
+static void reverseRow(const unsigned char *src,unsigned char *dst,int count,int elementSize)
+{
+	int n=count*elementSize;
+	int i=0;
+#if defined(KERNEL_NEON)
+	for(;i+16<=n;i+=16){
+		uint8x16_t v=vld1q_u8(src+i);
+		if(elementSize==1){
+			v=vrev64q_u8(v);
+		}else{
+			v=vreinterpretq_u8_u16(vrev64q_u16(vreinterpretq_u16_u8(v)));
+		}
+		vst1q_u8(dst+n-16-i,vcombine_u8(vget_high_u8(v),vget_low_u8(v)));
+	}
+#elif defined(KERNEL_SSE2)
+	for(;i+16<=n;i+=16){
+		__m128i v=_mm_loadu_si128((const __m128i *)(src+i));
+		if(elementSize==1){
+			v=_mm_or_si128(_mm_slli_epi16(v,8),_mm_srli_epi16(v,8));
+		}
+		v=_mm_shufflelo_epi16(v,_MM_SHUFFLE(0,1,2,3));
+		v=_mm_shufflehi_epi16(v,_MM_SHUFFLE(0,1,2,3));
+		v=_mm_shuffle_epi32(v,_MM_SHUFFLE(1,0,3,2));
+		_mm_storeu_si128((__m128i *)(dst+n-16-i),v);
+	}
+#endif
+	if(elementSize==1){
+		for(;i<n;++i){
+			dst[n-1-i]=src[i];
+		}
+	}else{
+		for(;i<n;i+=2){
+			dst[n-2-i]=src[i];
+			dst[n-1-i]=src[i+1];
+		}
+	}
+}
+
+//pairs VU pairs in a row go to elements e..e+pairs-1
+static void storePairs(const unsigned char *vu,int pairs,unsigned char *dstA,unsigned char *dstB,int pairsOut,int e)
+{
+	if(pairsOut==PAIRS_UV){
+		swapPairs(vu,dstA+2*e,pairs);
+	}else if(pairsOut==PAIRS_PLANAR){
+		splitPairs(vu,dstB+e,dstA+e,pairs);
+	}else{
+		memcpy(dstA+2*e,vu,pairs*2);
+	}
+}
+
+//element by element,for tile edges and strides without a fast path
+static void transformBlockC(const unsigned char *src,unsigned char *dst,unsigned char *dstB,int width,int elementSize,
+							int pairsOut,int dstBase,int xStep,int yStep,int x0,int y0,int x1,int y1)
+{
+	int x,y;
+	for(y=y0;y<y1;++y){
+		const unsigned char *s=src+(y*width+x0)*elementSize;
+		int d=dstBase+y*yStep+x0*xStep;
+		if(elementSize==1){
+			for(x=x0;x<x1;++x){
+				dst[d]=*s++;
+				d+=xStep;
+			}
+		}else if(pairsOut==PAIRS_UV){
+			for(x=x0;x<x1;++x){
+				dst[2*d+1]=*s++;
+				dst[2*d]=*s++;
+				d+=xStep;
+			}
+		}else if(pairsOut==PAIRS_PLANAR){
+			for(x=x0;x<x1;++x){
+				dstB[d]=*s++;
+				dst[d]=*s++;
+				d+=xStep;
+			}
+		}else{
+			for(x=x0;x<x1;++x){
+				dst[2*d]=*s++;
+				dst[2*d+1]=*s++;
+				d+=xStep;
+			}
+		}
+	}
+}
+
+#if defined(KERNEL_NEON) || defined(KERNEL_SSE2)
+#define KERNEL_TRANSPOSE 1
+/**
+ * rows[r] holds 8 elements,element c of every row goes to dst+c*dstStride,in row order.
+ */
+static void transpose8x8Byte(const unsigned char **rows,unsigned char *dst,int dstStride)
+{
+#if defined(KERNEL_NEON)
+	uint8x8x2_t t0=vtrn_u8(vld1_u8(rows[0]),vld1_u8(rows[1]));
+	uint8x8x2_t t1=vtrn_u8(vld1_u8(rows[2]),vld1_u8(rows[3]));
+	uint8x8x2_t t2=vtrn_u8(vld1_u8(rows[4]),vld1_u8(rows[5]));
+	uint8x8x2_t t3=vtrn_u8(vld1_u8(rows[6]),vld1_u8(rows[7]));
+	uint16x4x2_t u0=vtrn_u16(vreinterpret_u16_u8(t0.val[0]),vreinterpret_u16_u8(t1.val[0]));
+	uint16x4x2_t u1=vtrn_u16(vreinterpret_u16_u8(t0.val[1]),vreinterpret_u16_u8(t1.val[1]));
+	uint16x4x2_t u2=vtrn_u16(vreinterpret_u16_u8(t2.val[0]),vreinterpret_u16_u8(t3.val[0]));
+	uint16x4x2_t u3=vtrn_u16(vreinterpret_u16_u8(t2.val[1]),vreinterpret_u16_u8(t3.val[1]));
+	uint32x2x2_t v0=vtrn_u32(vreinterpret_u32_u16(u0.val[0]),vreinterpret_u32_u16(u2.val[0]));
+	uint32x2x2_t v1=vtrn_u32(vreinterpret_u32_u16(u0.val[1]),vreinterpret_u32_u16(u2.val[1]));
+	uint32x2x2_t v2=vtrn_u32(vreinterpret_u32_u16(u1.val[0]),vreinterpret_u32_u16(u3.val[0]));
+	uint32x2x2_t v3=vtrn_u32(vreinterpret_u32_u16(u1.val[1]),vreinterpret_u32_u16(u3.val[1]));
+	vst1_u8(dst,vreinterpret_u8_u32(v0.val[0]));
+	vst1_u8(dst+dstStride,vreinterpret_u8_u32(v2.val[0]));
+	vst1_u8(dst+2*dstStride,vreinterpret_u8_u32(v1.val[0]));
+	vst1_u8(dst+3*dstStride,vreinterpret_u8_u32(v3.val[0]));
+	vst1_u8(dst+4*dstStride,vreinterpret_u8_u32(v0.val[1]));
+	vst1_u8(dst+5*dstStride,vreinterpret_u8_u32(v2.val[1]));
+	vst1_u8(dst+6*dstStride,vreinterpret_u8_u32(v1.val[1]));
+	vst1_u8(dst+7*dstStride,vreinterpret_u8_u32(v3.val[1]));
+#else
+	__m128i a0=_mm_unpacklo_epi8(_mm_loadl_epi64((const __m128i *)rows[0]),_mm_loadl_epi64((const __m128i *)rows[1]));
+	__m128i a1=_mm_unpacklo_epi8(_mm_loadl_epi64((const __m128i *)rows[2]),_mm_loadl_epi64((const __m128i *)rows[3]));
+	__m128i a2=_mm_unpacklo_epi8(_mm_loadl_epi64((const __m128i *)rows[4]),_mm_loadl_epi64((const __m128i *)rows[5]));
+	__m128i a3=_mm_unpacklo_epi8(_mm_loadl_epi64((const __m128i *)rows[6]),_mm_loadl_epi64((const __m128i *)rows[7]));
+	__m128i b0=_mm_unpacklo_epi16(a0,a1);
+	__m128i b1=_mm_unpackhi_epi16(a0,a1);
+	__m128i b2=_mm_unpacklo_epi16(a2,a3);
+	__m128i b3=_mm_unpackhi_epi16(a2,a3);
+	__m128i c0=_mm_unpacklo_epi32(b0,b2);
+	__m128i c1=_mm_unpackhi_epi32(b0,b2);
+	__m128i c2=_mm_unpacklo_epi32(b1,b3);
+	__m128i c3=_mm_unpackhi_epi32(b1,b3);
+	_mm_storel_epi64((__m128i *)dst,c0);
+	_mm_storel_epi64((__m128i *)(dst+dstStride),_mm_unpackhi_epi64(c0,c0));
+	_mm_storel_epi64((__m128i *)(dst+2*dstStride),c1);
+	_mm_storel_epi64((__m128i *)(dst+3*dstStride),_mm_unpackhi_epi64(c1,c1));
+	_mm_storel_epi64((__m128i *)(dst+4*dstStride),c2);
+	_mm_storel_epi64((__m128i *)(dst+5*dstStride),_mm_unpackhi_epi64(c2,c2));
+	_mm_storel_epi64((__m128i *)(dst+6*dstStride),c3);
+	_mm_storel_epi64((__m128i *)(dst+7*dstStride),_mm_unpackhi_epi64(c3,c3));
+#endif
+}
+
+//same as transpose8x8Byte with 2 bytes elements(VU pairs)
+static void transpose8x8Short(const unsigned char **rows,unsigned char *dst,int dstStride)
+{
+#if defined(KERNEL_NEON)
+	uint16x8x2_t t0=vtrnq_u16(vreinterpretq_u16_u8(vld1q_u8(rows[0])),vreinterpretq_u16_u8(vld1q_u8(rows[1])));
+	uint16x8x2_t t1=vtrnq_u16(vreinterpretq_u16_u8(vld1q_u8(rows[2])),vreinterpretq_u16_u8(vld1q_u8(rows[3])));
+	uint16x8x2_t t2=vtrnq_u16(vreinterpretq_u16_u8(vld1q_u8(rows[4])),vreinterpretq_u16_u8(vld1q_u8(rows[5])));
+	uint16x8x2_t t3=vtrnq_u16(vreinterpretq_u16_u8(vld1q_u8(rows[6])),vreinterpretq_u16_u8(vld1q_u8(rows[7])));
+	uint32x4x2_t u0=vtrnq_u32(vreinterpretq_u32_u16(t0.val[0]),vreinterpretq_u32_u16(t1.val[0]));
+	uint32x4x2_t u1=vtrnq_u32(vreinterpretq_u32_u16(t0.val[1]),vreinterpretq_u32_u16(t1.val[1]));
+	uint32x4x2_t u2=vtrnq_u32(vreinterpretq_u32_u16(t2.val[0]),vreinterpretq_u32_u16(t3.val[0]));
+	uint32x4x2_t u3=vtrnq_u32(vreinterpretq_u32_u16(t2.val[1]),vreinterpretq_u32_u16(t3.val[1]));
+	vst1q_u8(dst,vreinterpretq_u8_u32(vcombine_u32(vget_low_u32(u0.val[0]),vget_low_u32(u2.val[0]))));
+	vst1q_u8(dst+dstStride,vreinterpretq_u8_u32(vcombine_u32(vget_low_u32(u1.val[0]),vget_low_u32(u3.val[0]))));
+	vst1q_u8(dst+2*dstStride,vreinterpretq_u8_u32(vcombine_u32(vget_low_u32(u0.val[1]),vget_low_u32(u2.val[1]))));
+	vst1q_u8(dst+3*dstStride,vreinterpretq_u8_u32(vcombine_u32(vget_low_u32(u1.val[1]),vget_low_u32(u3.val[1]))));
+	vst1q_u8(dst+4*dstStride,vreinterpretq_u8_u32(vcombine_u32(vget_high_u32(u0.val[0]),vget_high_u32(u2.val[0]))));
+	vst1q_u8(dst+5*dstStride,vreinterpretq_u8_u32(vcombine_u32(vget_high_u32(u1.val[0]),vget_high_u32(u3.val[0]))));
+	vst1q_u8(dst+6*dstStride,vreinterpretq_u8_u32(vcombine_u32(vget_high_u32(u0.val[1]),vget_high_u32(u2.val[1]))));
+	vst1q_u8(dst+7*dstStride,vreinterpretq_u8_u32(vcombine_u32(vget_high_u32(u1.val[1]),vget_high_u32(u3.val[1]))));
+#else
+	__m128i r0=_mm_loadu_si128((const __m128i *)rows[0]);
+	__m128i r1=_mm_loadu_si128((const __m128i *)rows[1]);
+	__m128i r2=_mm_loadu_si128((const __m128i *)rows[2]);
+	__m128i r3=_mm_loadu_si128((const __m128i *)rows[3]);
+	__m128i r4=_mm_loadu_si128((const __m128i *)rows[4]);
+	__m128i r5=_mm_loadu_si128((const __m128i *)rows[5]);
+	__m128i r6=_mm_loadu_si128((const __m128i *)rows[6]);
+	__m128i r7=_mm_loadu_si128((const __m128i *)rows[7]);
+	__m128i a0=_mm_unpacklo_epi16(r0,r1);
+	__m128i a1=_mm_unpackhi_epi16(r0,r1);
+	__m128i a2=_mm_unpacklo_epi16(r2,r3);
+	__m128i a3=_mm_unpackhi_epi16(r2,r3);
+	__m128i a4=_mm_unpacklo_epi16(r4,r5);
+	__m128i a5=_mm_unpackhi_epi16(r4,r5);
+	__m128i a6=_mm_unpacklo_epi16(r6,r7);
+	__m128i a7=_mm_unpackhi_epi16(r6,r7);
+	__m128i b0=_mm_unpacklo_epi32(a0,a2);
+	__m128i b1=_mm_unpackhi_epi32(a0,a2);
+	__m128i b2=_mm_unpacklo_epi32(a1,a3);
+	__m128i b3=_mm_unpackhi_epi32(a1,a3);
+	__m128i b4=_mm_unpacklo_epi32(a4,a6);
+	__m128i b5=_mm_unpackhi_epi32(a4,a6);
+	__m128i b6=_mm_unpacklo_epi32(a5,a7);
+	__m128i b7=_mm_unpackhi_epi32(a5,a7);
+	_mm_storeu_si128((__m128i *)dst,_mm_unpacklo_epi64(b0,b4));
+	_mm_storeu_si128((__m128i *)(dst+dstStride),_mm_unpackhi_epi64(b0,b4));
+	_mm_storeu_si128((__m128i *)(dst+2*dstStride),_mm_unpacklo_epi64(b1,b5));
+	_mm_storeu_si128((__m128i *)(dst+3*dstStride),_mm_unpackhi_epi64(b1,b5));
+	_mm_storeu_si128((__m128i *)(dst+4*dstStride),_mm_unpacklo_epi64(b2,b6));
+	_mm_storeu_si128((__m128i *)(dst+5*dstStride),_mm_unpackhi_epi64(b2,b6));
+	_mm_storeu_si128((__m128i *)(dst+6*dstStride),_mm_unpacklo_epi64(b3,b7));
+	_mm_storeu_si128((__m128i *)(dst+7*dstStride),_mm_unpackhi_epi64(b3,b7));
+#endif
+}
+#endif
+
+//yStep is 1 or -1
+static void transposePlane(const unsigned char *src,unsigned char *dst,unsigned char *dstB,int width,int height,
+						   int elementSize,int pairsOut,int dstBase,int xStep,int yStep)
+{
+	int bx,by,x,y,r;
+	for(by=0;by<height;by+=BLOCK){
+		int ey=by+BLOCK<height?by+BLOCK:height;
+		for(bx=0;bx<width;bx+=BLOCK){
+			int ex=bx+BLOCK<width?bx+BLOCK:width;
+			y=by;
+#if defined(KERNEL_TRANSPOSE)
+			for(;y+8<=ey;y+=8){
+				const unsigned char *rows[8];
+				unsigned char tile[8*16];
+				x=bx;
+				for(;x+8<=ex;x+=8){
+					//dst column is ascending in memory,so rows are read bottom up if yStep<0
+					for(r=0;r<8;++r){
+						rows[r]=src+((yStep>0?y+r:y+7-r)*width+x)*elementSize;
+					}
+					int e=dstBase+(yStep>0?y:y+7)*yStep+x*xStep;
+					if(elementSize==1){
+						transpose8x8Byte(rows,dst+e,xStep);
+					}else if(pairsOut==PAIRS_VU){
+						transpose8x8Short(rows,dst+e*2,xStep*2);
+					}else{
+						//converted while the tile is still in L1
+						transpose8x8Short(rows,tile,16);
+						for(r=0;r<8;++r){
+							storePairs(tile+r*16,8,dst,dstB,pairsOut,e+r*xStep);
+						}
+					}
+				}
+				if(x<ex){
+					transformBlockC(src,dst,dstB,width,elementSize,pairsOut,dstBase,xStep,yStep,x,y,ex,y+8);
+				}
+			}
+#endif
+			if(y<ey){
+				transformBlockC(src,dst,dstB,width,elementSize,pairsOut,dstBase,xStep,yStep,bx,y,ex,ey);
+			}
+		}
+	}
+}
+
+void transformPlane(const unsigned char *src,unsigned char *dst,int width,int height,int elementSize,
+					int dstBase,int xStep,int yStep)
+{
+	int y;
+	if(xStep==1){
+		for(y=0;y<height;++y){
+			memcpy(dst+(dstBase+y*yStep)*elementSize,src+y*width*elementSize,width*elementSize);
+		}
+	}else if(xStep==-1){
+		for(y=0;y<height;++y){
+			reverseRow(src+y*width*elementSize,dst+(dstBase+y*yStep-(width-1))*elementSize,width,elementSize);
+		}
+	}else if(yStep==1 || yStep==-1){
+		transposePlane(src,dst,NULL,width,height,elementSize,PAIRS_VU,dstBase,xStep,yStep);
+	}else{
+		transformBlockC(src,dst,NULL,width,elementSize,PAIRS_VU,dstBase,xStep,yStep,0,0,width,height);
+	}
+}
+
+void transformChroma(const unsigned char *src,unsigned char *dstA,unsigned char *dstB,int width,int height,
+					 int pairsOut,int dstBase,int xStep,int yStep)
+{
+	int x,y;
+	if(pairsOut==PAIRS_VU){
+		transformPlane(src,dstA,width,height,2,dstBase,xStep,yStep);
+	}else if(xStep==1){
+		for(y=0;y<height;++y){
+			storePairs(src+y*width*2,width,dstA,dstB,pairsOut,dstBase+y*yStep);
+		}
+	}else if(xStep==-1){
+		unsigned char row[BLOCK*2];
+		for(y=0;y<height;++y){
+			for(x=0;x<width;x+=BLOCK){
+				int count=x+BLOCK<width?BLOCK:width-x;
+				reverseRow(src+(y*width+x)*2,row,count,2);
+				storePairs(row,count,dstA,dstB,pairsOut,dstBase+y*yStep-(x+count-1));
+			}
+		}
+	}else if(yStep==1 || yStep==-1){
+		transposePlane(src,dstA,dstB,width,height,2,pairsOut,dstBase,xStep,yStep);
+	}else{
+		transformBlockC(src,dstA,dstB,width,2,pairsOut,dstBase,xStep,yStep,0,0,width,height);
+	}
+}
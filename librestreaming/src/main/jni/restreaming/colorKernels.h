@@ -0,0 +1,31 @@
+#ifndef __COLORKERNELS_H__
+#define __COLORKERNELS_H__
+//
+// plane kernels used by colorConvert.c
+// NEON on arm,SSE2 on x86,plain c elsewhere.all paths give the same bytes.
+//
+
+//dst[2i]=src[2i+1],dst[2i+1]=src[2i]
+void swapPairs(const unsigned char *src,unsigned char *dst,int pairs);
+//dstEven[i]=src[2i],dstOdd[i]=src[2i+1]
+void splitPairs(const unsigned char *src,unsigned char *dstEven,unsigned char *dstOdd,int pairs);
+/**
+ * element (x,y) of src(width*height,elementSize 1 or 2 bytes)
+ * goes to element dstBase+y*yStep+x*xStep of dst.
+ * rows are copied if xStep==1,reversed if xStep==-1,
+ * transposed in cache blocks if yStep==1 or -1.
+ */
+void transformPlane(const unsigned char *src,unsigned char *dst,int width,int height,int elementSize,
+					int dstBase,int xStep,int yStep);
+
+//how transformChroma writes VU pairs
+#define PAIRS_VU 0		//as they are,NV21
+#define PAIRS_UV 1		//swapped,YUV420SP
+#define PAIRS_PLANAR 2	//U to dstA,V to dstB,YUV420P
+/**
+ * transformPlane of a VU pair plane(elementSize 2),converting the pairs on the way out.
+ * dstB is only used by PAIRS_PLANAR,element index e is dstA[2e] or dstA[e]/dstB[e].
+ */
+void transformChroma(const unsigned char *src,unsigned char *dstA,unsigned char *dstB,int width,int height,
+					 int pairsOut,int dstBase,int xStep,int yStep);
+#endif
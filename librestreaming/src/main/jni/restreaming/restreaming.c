@@ -6,31 +6,32 @@
 //
 // Created by lake on 2016.04.05
 //
+//color kernels only touch memory,so arrays are held critical instead of copied
 JNIEXPORT void JNICALL Java_me_lake_librestreaming_core_ColorHelper_NV21TOYUV420SP
 (JNIEnv * env, jobject thiz, jbyteArray srcarray,jbyteArray dstarray,jint ySize) {
-	unsigned char *src = (unsigned char *)(*env)->GetByteArrayElements(env,srcarray, 0);
-	unsigned char *dst = (unsigned char*)(*env)->GetByteArrayElements(env,dstarray, 0);
+	unsigned char *src = (unsigned char *)(*env)->GetPrimitiveArrayCritical(env,srcarray, 0);
+	unsigned char *dst = (unsigned char*)(*env)->GetPrimitiveArrayCritical(env,dstarray, 0);
 	NV21TOYUV420SP(src,dst,ySize);
-	(*env)->ReleaseByteArrayElements(env,srcarray,src,JNI_ABORT);
-	(*env)->ReleaseByteArrayElements(env,dstarray,dst,JNI_ABORT);
+	(*env)->ReleasePrimitiveArrayCritical(env,dstarray,dst,0);
+	(*env)->ReleasePrimitiveArrayCritical(env,srcarray,src,JNI_ABORT);
 	return;
 }
 JNIEXPORT void JNICALL Java_me_lake_librestreaming_core_ColorHelper_YUV420SPTOYUV420P
 (JNIEnv * env, jobject thiz, jbyteArray srcarray,jbyteArray dstarray,jint ySize) {
-	unsigned char *src = (unsigned char *)(*env)->GetByteArrayElements(env,srcarray, 0);
-	unsigned char *dst = (unsigned char*)(*env)->GetByteArrayElements(env,dstarray, 0);
+	unsigned char *src = (unsigned char *)(*env)->GetPrimitiveArrayCritical(env,srcarray, 0);
+	unsigned char *dst = (unsigned char*)(*env)->GetPrimitiveArrayCritical(env,dstarray, 0);
 	YUV420SPTOYUV420P(src,dst,ySize);
-	(*env)->ReleaseByteArrayElements(env,srcarray,src,JNI_ABORT);
-	(*env)->ReleaseByteArrayElements(env,dstarray,dst,JNI_ABORT);
+	(*env)->ReleasePrimitiveArrayCritical(env,dstarray,dst,0);
+	(*env)->ReleasePrimitiveArrayCritical(env,srcarray,src,JNI_ABORT);
 	return;
 }
 JNIEXPORT void JNICALL Java_me_lake_librestreaming_core_ColorHelper_NV21TOYUV420P
 (JNIEnv * env, jobject thiz, jbyteArray srcarray,jbyteArray dstarray,jint ySize) {
-	unsigned char *src = (unsigned char *)(*env)->GetByteArrayElements(env,srcarray, 0);
-	unsigned char *dst = (unsigned char*)(*env)->GetByteArrayElements(env,dstarray, 0);
+	unsigned char *src = (unsigned char *)(*env)->GetPrimitiveArrayCritical(env,srcarray, 0);
+	unsigned char *dst = (unsigned char*)(*env)->GetPrimitiveArrayCritical(env,dstarray, 0);
 	NV21TOYUV420P(src,dst,ySize);
-	(*env)->ReleaseByteArrayElements(env,srcarray,src,JNI_ABORT);
-	(*env)->ReleaseByteArrayElements(env,dstarray,dst,JNI_ABORT);
+	(*env)->ReleasePrimitiveArrayCritical(env,dstarray,dst,0);
+	(*env)->ReleasePrimitiveArrayCritical(env,srcarray,src,JNI_ABORT);
 	return;
 }
 JNIEXPORT void JNICALL Java_me_lake_librestreaming_core_ColorHelper_NV21TOARGB
@@ -45,14 +46,36 @@ JNIEXPORT void JNICALL Java_me_lake_librestreaming_core_ColorHelper_NV21TOARGB
 
 JNIEXPORT void JNICALL Java_me_lake_librestreaming_core_ColorHelper_NV21Transform
 (JNIEnv * env, jobject thiz, jbyteArray srcarray,jbyteArray dstarray,jint srcwidth,jint srcheight,jint directionflag) {
-	unsigned char *src = (unsigned char*)(*env)->GetByteArrayElements(env,srcarray, 0);
-	unsigned char *dst = (unsigned char*)(*env)->GetByteArrayElements(env,dstarray, 0);
+	unsigned char *src = (unsigned char*)(*env)->GetPrimitiveArrayCritical(env,srcarray, 0);
+	unsigned char *dst = (unsigned char*)(*env)->GetPrimitiveArrayCritical(env,dstarray, 0);
 	NV21Transform(src,dst,srcwidth,srcheight,directionflag);
-	(*env)->ReleaseByteArrayElements(env,srcarray,src,JNI_ABORT);
-	(*env)->ReleaseByteArrayElements(env,dstarray,dst,JNI_ABORT);
+	(*env)->ReleasePrimitiveArrayCritical(env,dstarray,dst,0);
+	(*env)->ReleasePrimitiveArrayCritical(env,srcarray,src,JNI_ABORT);
 	return;
 }
 
+JNIEXPORT void JNICALL Java_me_lake_librestreaming_core_ColorHelper_NV21TransformTo
+(JNIEnv * env, jobject thiz, jbyteArray srcarray,jbyteArray dstarray,jint srcwidth,jint srcheight,jint directionflag,jint dstcolorformat) {
+	unsigned char *src = (unsigned char*)(*env)->GetPrimitiveArrayCritical(env,srcarray, 0);
+	unsigned char *dst = (unsigned char*)(*env)->GetPrimitiveArrayCritical(env,dstarray, 0);
+	NV21TransformTo(src,dst,srcwidth,srcheight,directionflag,dstcolorformat);
+	(*env)->ReleasePrimitiveArrayCritical(env,dstarray,dst,0);
+	(*env)->ReleasePrimitiveArrayCritical(env,srcarray,src,JNI_ABORT);
+	return;
+}
+
+JNIEXPORT jboolean JNICALL Java_me_lake_librestreaming_core_ColorHelper_NV21TransformToBuffer
+(JNIEnv * env, jobject thiz, jbyteArray srcarray,jobject dstbuffer,jint srcwidth,jint srcheight,jint directionflag,jint dstcolorformat) {
+	unsigned char *dst = (unsigned char*)(*env)->GetDirectBufferAddress(env,dstbuffer);
+	if(dst==NULL || (*env)->GetDirectBufferCapacity(env,dstbuffer)<srcwidth*srcheight*3/2){
+		return JNI_FALSE;
+	}
+	unsigned char *src = (unsigned char*)(*env)->GetPrimitiveArrayCritical(env,srcarray, 0);
+	NV21TransformTo(src,dst,srcwidth,srcheight,directionflag,dstcolorformat);
+	(*env)->ReleasePrimitiveArrayCritical(env,srcarray,src,JNI_ABORT);
+	return JNI_TRUE;
+}
+
 JNIEXPORT void JNICALL Java_me_lake_librestreaming_render_GLESRender_NV21TOYUV
 (JNIEnv *env, jobject thiz,jbyteArray srcarray,jbyteArray dstYarray,jbyteArray dstUarray,jbyteArray dstVarray,jint width,jint height){
 		unsigned char *src = (unsigned char*)(*env)->GetByteArrayElements(env,srcarray, 0);
@@ -0,0 +1,277 @@
+//
+// host test of colorConvert.c/colorKernels.c,every output is compared byte by byte
+// with the ref* functions below,scalar loops as the kernels were before SIMD.
+// run by test/Makefile,once with the SIMD kernels of the host and once with plain c.
+//
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include "colorConvert.h"
+
+static int failures = 0;
+
+static void refNV21TOYUV420SP(const unsigned char *src,unsigned char *dst,int ySize)
+{
+	memcpy(dst,src,ySize);
+	int uSize = ySize>>2;
+	for(int i=0;i<uSize;i++){
+		dst[ySize+2*i] = src[ySize+2*i+1];
+		dst[ySize+2*i+1] = src[ySize+2*i];
+	}
+}
+static void refNV21TOYUV420P(const unsigned char *src,unsigned char *dst,int ySize)
+{
+	memcpy(dst,src,ySize);
+	int uSize = ySize>>2;
+	for(int i=0;i<uSize;i++){
+		dst[ySize+i] = src[ySize+2*i+1];
+		dst[ySize+uSize+i] = src[ySize+2*i];
+	}
+}
+static void refYUV420SPTOYUV420P(const unsigned char *src,unsigned char *dst,int ySize)
+{
+	memcpy(dst,src,ySize);
+	int uSize = ySize>>2;
+	for(int i=0;i<uSize;i++){
+		dst[ySize+i] = src[ySize+2*i];
+		dst[ySize+uSize+i] = src[ySize+2*i+1];
+	}
+}
+static void refNV21Transform(const unsigned char *src,unsigned char *dst,int srcWidth,int srcHeight,int directionFlag)
+{
+	int isFlipH = (directionFlag&FLAG_DIRECTION_FLIP_HORIZONTAL)!=0;
+	int isFlipV = (directionFlag&FLAG_DIRECTION_FLIP_VERTICAL)!=0;
+	int is0or180 = (directionFlag&(FLAG_DIRECTION_ROATATION_0|FLAG_DIRECTION_ROATATION_180))!=0;
+	int is0or90 = (directionFlag&(FLAG_DIRECTION_ROATATION_0|FLAG_DIRECTION_ROATATION_90))!=0;
+	int rotate = !is0or180;
+	int hflip,vflip;
+	if(is0or90){
+		hflip = isFlipH;
+		vflip = isFlipV;
+	}else{
+		hflip = !isFlipH;
+		vflip = !isFlipV;
+	}
+	int ySize = srcWidth*srcHeight;
+	int totalSize = ySize*3/2;
+	if(!rotate && !hflip && !vflip){
+		memcpy(dst,src,totalSize);
+		return;
+	}
+	int halfWidth = srcWidth>>1,halfHeight = srcHeight>>1;
+	int yStart,yStep,xStep,srcCurr = 0;
+	if(rotate){
+		if(hflip){
+			yStart = vflip?ySize-srcHeight:ySize-1;
+			xStep = -srcHeight;
+		}else{
+			yStart = vflip?0:srcHeight-1;
+			xStep = srcHeight;
+		}
+		yStep = vflip?1:-1;
+		for(int y=0;y<srcHeight;y++,yStart+=yStep){
+			for(int x=0,d=yStart;x<srcWidth;x++,d+=xStep){
+				dst[d] = src[srcCurr++];
+			}
+		}
+		if(hflip){
+			yStart = vflip?totalSize-srcHeight:totalSize-2;
+			xStep = -srcHeight;
+		}else{
+			yStart = vflip?ySize:ySize+srcHeight-2;
+			xStep = srcHeight;
+		}
+		yStep = vflip?2:-2;
+		for(int y=0;y<halfHeight;y++,yStart+=yStep){
+			for(int x=0,d=yStart;x<halfWidth;x++,d+=xStep){
+				dst[d] = src[srcCurr++];
+				dst[d+1] = src[srcCurr++];
+			}
+		}
+	}else if(vflip && !hflip){
+		yStart = ySize-srcWidth;
+		for(int y=0;y<srcHeight;y++,yStart-=srcWidth){
+			memcpy(dst+yStart,src+srcCurr,srcWidth);
+			srcCurr += srcWidth;
+		}
+		yStart = totalSize-srcWidth;
+		for(int y=0;y<halfHeight;y++,yStart-=srcWidth){
+			memcpy(dst+yStart,src+srcCurr,srcWidth);
+			srcCurr += srcWidth;
+		}
+	}else{
+		yStep = vflip?-srcWidth:srcWidth;
+		yStart = vflip?ySize-1:srcWidth-1;
+		for(int y=0;y<srcHeight;y++,yStart+=yStep){
+			for(int x=0,d=yStart;x<srcWidth;x++,d--){
+				dst[d] = src[srcCurr++];
+			}
+		}
+		yStart = vflip?totalSize-1:ySize+srcWidth-1;
+		for(int y=0;y<halfHeight;y++,yStart+=yStep){
+			for(int x=0,d=yStart;x<halfWidth;x++,d-=2){
+				dst[d-1] = src[srcCurr++];
+				dst[d] = src[srcCurr++];
+			}
+		}
+	}
+}
+static void refNV21TransformTo(const unsigned char *src,unsigned char *dst,int srcWidth,int srcHeight,int directionFlag,int dstColorFormat)
+{
+	int ySize = srcWidth*srcHeight;
+	if(dstColorFormat==COLOR_FORMAT_NV21){
+		refNV21Transform(src,dst,srcWidth,srcHeight,directionFlag);
+		return;
+	}
+	unsigned char *nv21 = malloc(ySize*3/2);
+	refNV21Transform(src,nv21,srcWidth,srcHeight,directionFlag);
+	if(dstColorFormat==COLOR_FORMAT_YUV420SP){
+		refNV21TOYUV420SP(nv21,dst,ySize);
+	}else{
+		refNV21TOYUV420P(nv21,dst,ySize);
+	}
+	free(nv21);
+}
+
+static void fillRandom(unsigned char *buff,int length)
+{
+	for(int i=0;i<length;i++){
+		buff[i] = (unsigned char)rand();
+	}
+}
+
+static void expectSame(const char *name,const unsigned char *expected,const unsigned char *actual,int length,
+					   int width,int height,int flag)
+{
+	for(int i=0;i<length;i++){
+		if(expected[i]!=actual[i]){
+			printf("FAIL %s %dx%d flag 0x%02x:byte %d is %d,expected %d\n",name,width,height,flag,i,actual[i],expected[i]);
+			failures++;
+			return;
+		}
+	}
+}
+
+static void testPairs(int width,int height)
+{
+	int ySize = width*height;
+	int totalSize = ySize*3/2;
+	unsigned char *src = malloc(totalSize);
+	unsigned char *expected = malloc(totalSize);
+	unsigned char *actual = malloc(totalSize);
+	fillRandom(src,totalSize);
+
+	refNV21TOYUV420SP(src,expected,ySize);
+	memset(actual,0,totalSize);
+	NV21TOYUV420SP(src,actual,ySize);
+	expectSame("NV21TOYUV420SP",expected,actual,totalSize,width,height,0);
+
+	refNV21TOYUV420P(src,expected,ySize);
+	memset(actual,0,totalSize);
+	NV21TOYUV420P(src,actual,ySize);
+	expectSame("NV21TOYUV420P",expected,actual,totalSize,width,height,0);
+
+	refYUV420SPTOYUV420P(src,expected,ySize);
+	memset(actual,0,totalSize);
+	YUV420SPTOYUV420P(src,actual,ySize);
+	expectSame("YUV420SPTOYUV420P",expected,actual,totalSize,width,height,0);
+
+	//NV21TOYUV is NV21TOYUV420P into separate planes
+	refNV21TOYUV420P(src,expected,ySize);
+	memset(actual,0,totalSize);
+	NV21TOYUV(src,actual,actual+ySize,actual+ySize+(ySize>>2),width,height);
+	expectSame("NV21TOYUV",expected,actual,totalSize,width,height,0);
+
+	free(src);
+	free(expected);
+	free(actual);
+}
+
+static void testTransform(int width,int height)
+{
+	static const int rotations[] = {FLAG_DIRECTION_ROATATION_0,FLAG_DIRECTION_ROATATION_90,
+									FLAG_DIRECTION_ROATATION_180,FLAG_DIRECTION_ROATATION_270};
+	static const int formats[] = {COLOR_FORMAT_NV21,COLOR_FORMAT_YUV420SP,COLOR_FORMAT_YUV420P};
+	static const char *names[] = {"NV21TransformTo(NV21)","NV21TransformTo(YUV420SP)","NV21TransformTo(YUV420P)"};
+	int totalSize = width*height*3/2;
+	unsigned char *src = malloc(totalSize);
+	unsigned char *expected = malloc(totalSize);
+	unsigned char *actual = malloc(totalSize);
+	fillRandom(src,totalSize);
+	for(int r=0;r<4;r++){
+		for(int flip=0;flip<4;flip++){
+			int flag = rotations[r]|flip;
+			for(int f=0;f<3;f++){
+				refNV21TransformTo(src,expected,width,height,flag,formats[f]);
+				memset(actual,0,totalSize);
+				NV21TransformTo(src,actual,width,height,flag,formats[f]);
+				expectSame(names[f],expected,actual,totalSize,width,height,flag);
+			}
+			refNV21Transform(src,expected,width,height,flag);
+			memset(actual,0,totalSize);
+			NV21Transform(src,actual,width,height,flag);
+			expectSame("NV21Transform",expected,actual,totalSize,width,height,flag);
+		}
+	}
+	free(src);
+	free(expected);
+	free(actual);
+}
+
+//VideoEncoder.queueNV21Data used to convert into an array and put it at input buffer position 0,
+//now NV21TransformToBuffer converts into the buffer.input buffers are larger than the frame,
+//bytes after the frame must be left as they were
+static void testEncoderInput(int width,int height)
+{
+	static const int formats[] = {COLOR_FORMAT_NV21,COLOR_FORMAT_YUV420SP,COLOR_FORMAT_YUV420P};
+	static const char *names[] = {"encoder input(NV21)","encoder input(YUV420SP)","encoder input(YUV420P)"};
+	int ySize = width*height;
+	int totalSize = ySize*3/2;
+	//codecs align to 16,1080 rows are allocated as 1088
+	int capacity = ((width+15)&~15)*((height+15)&~15)*3/2;
+	unsigned char *src = malloc(totalSize);
+	unsigned char *converted = malloc(totalSize);
+	unsigned char *expected = malloc(capacity);
+	unsigned char *actual = malloc(capacity);
+	fillRandom(src,totalSize);
+	for(int f=0;f<3;f++){
+		if(formats[f]==COLOR_FORMAT_YUV420SP){
+			refNV21TOYUV420SP(src,converted,ySize);
+		}else if(formats[f]==COLOR_FORMAT_YUV420P){
+			refNV21TOYUV420P(src,converted,ySize);
+		}else{
+			memcpy(converted,src,totalSize);
+		}
+		memset(expected,0xA5,capacity);
+		memcpy(expected,converted,totalSize);
+		memset(actual,0xA5,capacity);
+		NV21TransformTo(src,actual,width,height,FLAG_DIRECTION_ROATATION_0,formats[f]);
+		expectSame(names[f],expected,actual,capacity,width,height,FLAG_DIRECTION_ROATATION_0);
+	}
+	free(src);
+	free(converted);
+	free(expected);
+	free(actual);
+}
+
+int main()
+{
+	//small,not a multiple of vector width,larger than rotation BLOCK,camera sizes
+	static const int sizes[][2] = {{2,2},{6,4},{18,10},{34,66},{64,64},{130,66},{200,136},{320,240},{640,480},{1280,720}};
+	srand(1);
+	for(unsigned i=0;i<sizeof(sizes)/sizeof(sizes[0]);i++){
+		testPairs(sizes[i][0],sizes[i][1]);
+		testTransform(sizes[i][0],sizes[i][1]);
+	}
+	//video sizes of RESConfig,portrait too
+	static const int videoSizes[][2] = {{176,144},{320,240},{368,640},{640,360},{640,480},{960,540},{1280,720},{1920,1080}};
+	for(unsigned i=0;i<sizeof(videoSizes)/sizeof(videoSizes[0]);i++){
+		testEncoderInput(videoSizes[i][0],videoSizes[i][1]);
+	}
+	if(failures>0){
+		printf("%d failures\n",failures);
+		return 1;
+	}
+	printf("OK\n");
+	return 0;
+}
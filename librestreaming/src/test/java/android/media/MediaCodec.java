@@ -0,0 +1,355 @@
+package android.media;
+
+import android.os.Bundle;
+import android.os.Handler;
+import android.view.Surface;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * test double of the framework codec,shadows the mockable android.jar in JVM tests.<br/>
+ * follows the codec state machine and throws IllegalStateException out of state.
+ * every start() is a new session whose output format carries the session number in its csd,
+ * outputs are scripted by the test with {@link #emitOutput(int, long, int)}.
+ * in async mode callbacks are posted to the handler given to {@link #setCallback(Callback, Handler)},
+ * those of an older session are not delivered.
+ */
+public final class MediaCodec {
+    public static final int CONFIGURE_FLAG_ENCODE = 1;
+    public static final int INFO_TRY_AGAIN_LATER = -1;
+    public static final int INFO_OUTPUT_FORMAT_CHANGED = -2;
+    public static final int INFO_OUTPUT_BUFFERS_CHANGED = -3;
+    public static final int BUFFER_FLAG_KEY_FRAME = 1;
+    public static final int BUFFER_FLAG_CODEC_CONFIG = 2;
+    public static final int BUFFER_FLAG_END_OF_STREAM = 4;
+    public static final String PARAMETER_KEY_VIDEO_BITRATE = "video-bitrate";
+    public static final String PARAMETER_KEY_REQUEST_SYNC_FRAME = "request-sync";
+    public static final int INPUT_BUFFER_NUM = 4;
+    public static final int OUTPUT_SIZE = 8;
+    private static final int STATE_UNINITIALIZED = 0;
+    private static final int STATE_CONFIGURED = 1;
+    private static final int STATE_RUNNING = 2;
+    private static final int STATE_RELEASED = 3;
+    private int state = STATE_UNINITIALIZED;
+    private Callback callback;
+    private Handler handler;
+    private int sessionNum = 0;
+    private boolean isFormatPending;
+    private final ByteBuffer[] inputBuffers = new ByteBuffer[INPUT_BUFFER_NUM];
+    //sync mode
+    private final LinkedBlockingQueue<Integer> freeInputIndexes = new LinkedBlockingQueue<>();
+    private final LinkedBlockingQueue<BufferInfo> outputs = new LinkedBlockingQueue<>();
+    private final LinkedBlockingQueue<Integer> outputIndexes = new LinkedBlockingQueue<>();
+
+    /**
+     * configure() calls failing from now on
+     */
+    public int failConfigureNum = 0;
+    /**
+     * queued input buffers are not given back
+     */
+    public volatile boolean isInputWithheld = false;
+    /**
+     * sessions start with INFO_OUTPUT_FORMAT_CHANGED/onOutputFormatChanged
+     */
+    public volatile boolean isFormatEmitted = true;
+    public int configureNum = 0;
+    public int startNum = 0;
+    public int queuedInputNum = 0;
+    public int releasedOutputNum = 0;
+    public MediaFormat configuredFormat;
+    /**
+     * thread outputs were taken on
+     */
+    public volatile Thread outputThread;
+
+    public MediaCodec() {
+        for (int i = 0; i < INPUT_BUFFER_NUM; i++) {
+            inputBuffers[i] = ByteBuffer.allocateDirect(1 << 16);
+        }
+    }
+
+    public static class BufferInfo {
+        public int offset;
+        public int size;
+        public long presentationTimeUs;
+        public int flags;
+
+        public void set(int newOffset, int newSize, long newTimeUs, int newFlags) {
+            offset = newOffset;
+            size = newSize;
+            presentationTimeUs = newTimeUs;
+            flags = newFlags;
+        }
+    }
+
+    public static abstract class Callback {
+        public abstract void onInputBufferAvailable(MediaCodec codec, int index);
+
+        public abstract void onOutputBufferAvailable(MediaCodec codec, int index, BufferInfo info);
+
+        public abstract void onError(MediaCodec codec, CodecException e);
+
+        public abstract void onOutputFormatChanged(MediaCodec codec, MediaFormat format);
+    }
+
+    public final static class CodecException extends IllegalStateException {
+        public CodecException(String detail) {
+            super(detail);
+        }
+    }
+
+    /**
+     * csd-0 of a session,csd-1 is the same with 0x68
+     */
+    public static byte[] csd(int nalType, int session) {
+        return new byte[]{0, 0, 0, 1, (byte) nalType, (byte) session};
+    }
+
+    public synchronized void setCallback(Callback cb, Handler handler) {
+        checkState(STATE_UNINITIALIZED);
+        this.callback = cb;
+        this.handler = handler;
+    }
+
+    public synchronized void configure(MediaFormat format, Surface surface, MediaCrypto crypto, int flags) {
+        checkState(STATE_UNINITIALIZED);
+        if (failConfigureNum > 0) {
+            failConfigureNum--;
+            throw new IllegalStateException("configure failed");
+        }
+        configuredFormat = format;
+        configureNum++;
+        state = STATE_CONFIGURED;
+    }
+
+    public synchronized Surface createInputSurface() {
+        checkState(STATE_CONFIGURED);
+        return new Surface();
+    }
+
+    public synchronized void start() {
+        checkState(STATE_CONFIGURED);
+        state = STATE_RUNNING;
+        sessionNum++;
+        startNum++;
+        freeInputIndexes.clear();
+        outputs.clear();
+        outputIndexes.clear();
+        isFormatPending = isFormatEmitted && callback == null;
+        if (callback != null) {
+            //inputs first,so they are given once the format is seen
+            for (int i = 0; i < INPUT_BUFFER_NUM; i++) {
+                giveInput(i);
+            }
+            if (isFormatEmitted) {
+                post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onOutputFormatChanged(MediaCodec.this, getOutputFormat());
+                    }
+                });
+            }
+        } else {
+            for (int i = 0; i < INPUT_BUFFER_NUM; i++) {
+                freeInputIndexes.offer(i);
+            }
+        }
+    }
+
+    public synchronized void stop() {
+        checkState(STATE_RUNNING);
+        state = STATE_UNINITIALIZED;
+    }
+
+    public synchronized void reset() {
+        checkNotReleased();
+        state = STATE_UNINITIALIZED;
+        callback = null;
+        handler = null;
+    }
+
+    public synchronized void release() {
+        state = STATE_RELEASED;
+    }
+
+    public synchronized boolean isReleased() {
+        return state == STATE_RELEASED;
+    }
+
+    public synchronized boolean isConfigured() {
+        return state == STATE_CONFIGURED;
+    }
+
+    public synchronized boolean isRunning() {
+        return state == STATE_RUNNING;
+    }
+
+    public synchronized int getSessionNum() {
+        return sessionNum;
+    }
+
+    public synchronized void setParameters(Bundle params) {
+        checkState(STATE_RUNNING);
+    }
+
+    public int dequeueInputBuffer(long timeoutUs) {
+        synchronized (this) {
+            checkState(STATE_RUNNING);
+            checkSync();
+        }
+        try {
+            Integer index = freeInputIndexes.poll(timeoutUs, TimeUnit.MICROSECONDS);
+            return index == null ? INFO_TRY_AGAIN_LATER : index;
+        } catch (InterruptedException e) {
+            return INFO_TRY_AGAIN_LATER;
+        }
+    }
+
+    public synchronized ByteBuffer getInputBuffer(int index) {
+        checkState(STATE_RUNNING);
+        return inputBuffers[index];
+    }
+
+    public synchronized void queueInputBuffer(int index, int offset, int size, long presentationTimeUs, int flags) {
+        checkState(STATE_RUNNING);
+        queuedInputNum++;
+        if (isInputWithheld) {
+            return;
+        }
+        if (callback != null) {
+            giveInput(index);
+        } else {
+            freeInputIndexes.offer(index);
+        }
+    }
+
+    public int dequeueOutputBuffer(BufferInfo info, long timeoutUs) {
+        synchronized (this) {
+            checkState(STATE_RUNNING);
+            checkSync();
+            outputThread = Thread.currentThread();
+            if (isFormatPending) {
+                isFormatPending = false;
+                return INFO_OUTPUT_FORMAT_CHANGED;
+            }
+        }
+        try {
+            BufferInfo output = outputs.poll(timeoutUs, TimeUnit.MICROSECONDS);
+            if (output == null) {
+                return INFO_TRY_AGAIN_LATER;
+            }
+            info.set(output.offset, output.size, output.presentationTimeUs, output.flags);
+            return outputIndexes.take();
+        } catch (InterruptedException e) {
+            return INFO_TRY_AGAIN_LATER;
+        }
+    }
+
+    /**
+     * payload of every output is its index repeated
+     */
+    public synchronized ByteBuffer getOutputBuffer(int index) {
+        checkState(STATE_RUNNING);
+        byte[] payload = new byte[OUTPUT_SIZE];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) index;
+        }
+        return ByteBuffer.wrap(payload);
+    }
+
+    public synchronized void releaseOutputBuffer(int index, boolean render) {
+        releasedOutputNum++;
+        notifyAll();
+    }
+
+    public synchronized MediaFormat getOutputFormat() {
+        MediaFormat format = new MediaFormat();
+        format.setByteBuffer("csd-0", ByteBuffer.wrap(csd(0x67, sessionNum)));
+        format.setByteBuffer("csd-1", ByteBuffer.wrap(csd(0x68, sessionNum)));
+        return format;
+    }
+
+    /**
+     * encoder produced output buffer index from the input at ptsUs
+     */
+    public synchronized void emitOutput(final int index, long ptsUs, int flags) {
+        checkState(STATE_RUNNING);
+        final BufferInfo info = new BufferInfo();
+        info.set(0, OUTPUT_SIZE, ptsUs, flags);
+        if (callback != null) {
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onOutputBufferAvailable(MediaCodec.this, index, info);
+                }
+            });
+        } else {
+            outputIndexes.offer(index);
+            outputs.offer(info);
+        }
+    }
+
+    /**
+     * @return false if outputs released are still less than num after timeoutMs
+     */
+    public synchronized boolean awaitReleasedOutputs(int num, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (releasedOutputNum < num) {
+            long left = deadline - System.currentTimeMillis();
+            if (left <= 0) {
+                return false;
+            }
+            wait(left);
+        }
+        return true;
+    }
+
+    private void giveInput(final int index) {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onInputBufferAvailable(MediaCodec.this, index);
+            }
+        });
+    }
+
+    /**
+     * callbacks of older sessions are dropped,like a stopped codec
+     */
+    private void post(final Runnable callbackCall) {
+        final int session = sessionNum;
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (MediaCodec.this) {
+                    if (session != sessionNum || state != STATE_RUNNING) {
+                        return;
+                    }
+                    outputThread = Thread.currentThread();
+                }
+                callbackCall.run();
+            }
+        });
+    }
+
+    private void checkState(int expected) {
+        if (state != expected) {
+            throw new IllegalStateException("state " + state + ",expected " + expected);
+        }
+    }
+
+    private void checkNotReleased() {
+        if (state == STATE_RELEASED) {
+            throw new IllegalStateException("released");
+        }
+    }
+
+    private void checkSync() {
+        if (callback != null) {
+            throw new IllegalStateException("async mode");
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package android.media;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * test double of the framework format,shadows the mockable android.jar in JVM tests
+ */
+public final class MediaFormat {
+    public static final String KEY_MIME = "mime";
+    public static final String KEY_WIDTH = "width";
+    public static final String KEY_HEIGHT = "height";
+    public static final String KEY_BIT_RATE = "bitrate";
+    private final Map<String, Object> values = new HashMap<>();
+
+    public synchronized boolean containsKey(String name) {
+        return values.containsKey(name);
+    }
+
+    public synchronized void setInteger(String name, int value) {
+        values.put(name, value);
+    }
+
+    public synchronized int getInteger(String name) {
+        return (Integer) values.get(name);
+    }
+
+    public synchronized void setString(String name, String value) {
+        values.put(name, value);
+    }
+
+    public synchronized String getString(String name) {
+        return (String) values.get(name);
+    }
+
+    public synchronized void setByteBuffer(String name, ByteBuffer value) {
+        values.put(name, value);
+    }
+
+    public synchronized ByteBuffer getByteBuffer(String name) {
+        return (ByteBuffer) values.get(name);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return values.toString();
+    }
+}
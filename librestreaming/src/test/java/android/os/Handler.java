@@ -0,0 +1,20 @@
+package android.os;
+
+/**
+ * test double of the framework handler,shadows the mockable android.jar in JVM tests
+ */
+public class Handler {
+    private final Looper looper;
+
+    public Handler(Looper looper) {
+        this.looper = looper;
+    }
+
+    public final boolean post(Runnable runnable) {
+        return looper.post(runnable);
+    }
+
+    public final Looper getLooper() {
+        return looper;
+    }
+}
@@ -0,0 +1,39 @@
+package android.os;
+
+/**
+ * test double of the framework thread,shadows the mockable android.jar in JVM tests
+ */
+public class HandlerThread extends Thread {
+    /**
+     * time run() takes to return after quit,so a quit thread not joined is still alive
+     */
+    public static volatile long exitDelayMs = 0;
+    private final Looper looper = new Looper();
+
+    public HandlerThread(String name) {
+        super(name);
+    }
+
+    @Override
+    public void run() {
+        looper.loop();
+        try {
+            Thread.sleep(exitDelayMs);
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    public Looper getLooper() {
+        return looper;
+    }
+
+    public boolean quit() {
+        looper.quit(false);
+        return true;
+    }
+
+    public boolean quitSafely() {
+        looper.quit(true);
+        return true;
+    }
+}
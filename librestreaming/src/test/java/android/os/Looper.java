@@ -0,0 +1,54 @@
+package android.os;
+
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * test double of the framework looper,shadows the mockable android.jar in JVM tests.
+ * runs posted runnables in order on the {@link HandlerThread} owning it.
+ */
+public final class Looper {
+    private static final Runnable QUIT = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
+    private final LinkedBlockingQueue<Runnable> queue = new LinkedBlockingQueue<>();
+    private volatile boolean isQuitting = false;
+
+    Looper() {
+    }
+
+    boolean post(Runnable runnable) {
+        if (isQuitting) {
+            return false;
+        }
+        queue.offer(runnable);
+        return true;
+    }
+
+    /**
+     * @param isSafely run runnables posted before it first
+     */
+    void quit(boolean isSafely) {
+        isQuitting = true;
+        if (!isSafely) {
+            queue.clear();
+        }
+        queue.offer(QUIT);
+    }
+
+    void loop() {
+        while (true) {
+            Runnable runnable;
+            try {
+                runnable = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (runnable == QUIT) {
+                return;
+            }
+            runnable.run();
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package android.view;
+
+/**
+ * test double of the framework surface,shadows the mockable android.jar in JVM tests
+ */
+public class Surface {
+    public volatile boolean isReleased = false;
+
+    public void release() {
+        isReleased = true;
+    }
+}
@@ -0,0 +1,66 @@
+package me.lake.librestreaming.core;
+
+import android.media.MediaCodecInfo.CodecProfileLevel;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class MediaCodecHelperTest {
+
+    @Test
+    public void avcLevelFollowsTableA1() {
+        //MaxFS 1620,MaxMBPS 40500 with 36000
+        assertEquals(CodecProfileLevel.AVCLevel3, avcLevel(640, 480, 30, 800 * 1024));
+        assertEquals(CodecProfileLevel.AVCLevel3, avcLevel(360, 640, 30, 800 * 1024));
+        //MaxMBPS 108000 exactly
+        assertEquals(CodecProfileLevel.AVCLevel31, avcLevel(1280, 720, 30, 4000 * 1024));
+        assertEquals(CodecProfileLevel.AVCLevel32, avcLevel(1280, 720, 60, 4000 * 1024));
+        //1088 rows,8160 MBs
+        assertEquals(CodecProfileLevel.AVCLevel4, avcLevel(1920, 1080, 30, 6000 * 1024));
+        assertEquals(CodecProfileLevel.AVCLevel42, avcLevel(1920, 1080, 60, 6000 * 1024));
+        assertEquals(CodecProfileLevel.AVCLevel1, avcLevel(176, 144, 15, 64000));
+        assertEquals(CodecProfileLevel.AVCLevel11, avcLevel(176, 144, 30, 64000));
+    }
+
+    @Test
+    public void avcLevelRaisedByBitrate() {
+        assertEquals(CodecProfileLevel.AVCLevel31, avcLevel(640, 480, 30, 14000000));
+        assertEquals(CodecProfileLevel.AVCLevel32, avcLevel(640, 480, 30, 14000001));
+        assertEquals(CodecProfileLevel.AVCLevel41, avcLevel(1920, 1080, 30, 25000000));
+        //High has 1.25 times MaxBR
+        assertEquals(CodecProfileLevel.AVCLevel4, MediaCodecHelper.avcLevelOf(CodecProfileLevel.AVCProfileHigh,
+                1920, 1080, 30, 25000000));
+    }
+
+    @Test
+    public void avcLevelLimitsSide() {
+        //256 MBs fit level 1.1,but a side of 256 MBs needs MaxFS>=8192
+        assertEquals(CodecProfileLevel.AVCLevel4, avcLevel(16, 4096, 1, 64000));
+    }
+
+    @Test
+    public void avcLevelCappedAtHighest() {
+        assertEquals(CodecProfileLevel.AVCLevel52, avcLevel(4096, 2304, 60, 8000000));
+        assertEquals(CodecProfileLevel.AVCLevel52, avcLevel(8192, 4320, 30, 8000000));
+    }
+
+    @Test
+    public void hevcLevelFollowsTableA8() {
+        assertEquals(CodecProfileLevel.HEVCMainTierLevel31, MediaCodecHelper.hevcLevelOf(1280, 720, 30, 2000000));
+        assertEquals(CodecProfileLevel.HEVCMainTierLevel4, MediaCodecHelper.hevcLevelOf(1920, 1080, 30, 4000000));
+        assertEquals(CodecProfileLevel.HEVCMainTierLevel41, MediaCodecHelper.hevcLevelOf(1920, 1080, 60, 4000000));
+        //MaxBR 12000 of level 4
+        assertEquals(CodecProfileLevel.HEVCMainTierLevel41, MediaCodecHelper.hevcLevelOf(1920, 1080, 30, 12000001));
+        assertEquals(CodecProfileLevel.HEVCMainTierLevel5, MediaCodecHelper.hevcLevelOf(3840, 2160, 30, 20000000));
+        assertEquals(CodecProfileLevel.HEVCMainTierLevel2, MediaCodecHelper.hevcLevelOf(352, 288, 30, 1000000));
+        //sqrt(8*MaxLumaPs) is 8444 for level 5
+        assertEquals(CodecProfileLevel.HEVCMainTierLevel5, MediaCodecHelper.hevcLevelOf(8440, 64, 1, 1000000));
+        assertEquals(CodecProfileLevel.HEVCMainTierLevel6, MediaCodecHelper.hevcLevelOf(8448, 64, 1, 1000000));
+        assertEquals(CodecProfileLevel.HEVCMainTierLevel62, MediaCodecHelper.hevcLevelOf(16384, 16384, 60, 1000000));
+    }
+
+    private static int avcLevel(int width, int height, int frameRate, int bitRate) {
+        return MediaCodecHelper.avcLevelOf(CodecProfileLevel.AVCProfileMain, width, height, frameRate, bitRate);
+    }
+}
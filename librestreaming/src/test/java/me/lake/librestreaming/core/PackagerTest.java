@@ -0,0 +1,144 @@
+package me.lake.librestreaming.core;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class PackagerTest {
+    //x265 main 1920x1080,level 3.1
+    private static final byte[] VPS = bytes(0x40, 0x01, 0x0C, 0x01, 0xFF, 0xFF, 0x01, 0x60, 0x00, 0x00, 0x03, 0x00, 0xB0,
+            0x00, 0x00, 0x03, 0x00, 0x00, 0x03, 0x00, 0x5D, 0xAC, 0x09);
+    private static final byte[] SPS = bytes(0x42, 0x01, 0x01, 0x01, 0x60, 0x00, 0x00, 0x03, 0x00, 0xB0, 0x00, 0x00, 0x03,
+            0x00, 0x00, 0x03, 0x00, 0x5D, 0xA0, 0x03, 0xC0, 0x80, 0x10, 0xE5, 0x96, 0x56, 0x69, 0x24, 0xCA, 0xE0, 0x10,
+            0x00, 0x00, 0x03, 0x00, 0x10, 0x00, 0x00, 0x03, 0x01, 0xE0, 0x80);
+    private static final byte[] PPS = bytes(0x44, 0x01, 0xC1, 0x72, 0xB4, 0x62, 0x40);
+    private static final byte[] HVC1 = {'h', 'v', 'c', '1'};
+
+    @Test
+    public void parsesX265Sps() {
+        Packager.H265Packager.SpsInfo info = Packager.H265Packager.parseSps(ByteBuffer.wrap(SPS));
+        assertNotNull(info);
+        //emulation prevention bytes inside profile_tier_level are removed
+        assertArrayEquals(bytes(0x01, 0x60, 0x00, 0x00, 0x00, 0xB0, 0x00, 0x00, 0x00, 0x00, 0x00, 0x5D), info.generalProfile);
+        assertEquals(1, info.maxSubLayers);
+        assertEquals(1, info.temporalIdNesting);
+        assertEquals(1, info.chromaFormatIdc);
+        assertEquals(0, info.bitDepthLumaMinus8);
+        assertEquals(0, info.bitDepthChromaMinus8);
+    }
+
+    @Test
+    public void generatesHevcDecoderConfigurationRecord() {
+        byte[] record = Packager.H265Packager.generateHEVCDecoderConfigurationRecord(
+                ByteBuffer.wrap(VPS), ByteBuffer.wrap(SPS), ByteBuffer.wrap(PPS));
+        byte[] header = bytes(
+                //configurationVersion
+                0x01,
+                //main profile,compatibility 1 and 2,progressive|frame only,level 3.1
+                0x01, 0x60, 0x00, 0x00, 0x00, 0xB0, 0x00, 0x00, 0x00, 0x00, 0x00, 0x5D,
+                //min_spatial_segmentation_idc,parallelismType
+                0xF0, 0x00, 0xFC,
+                //4:2:0,8 bit luma and chroma
+                0xFD, 0xF8, 0xF8,
+                //avgFrameRate
+                0x00, 0x00,
+                //1 temporal layer,temporalIdNested,4 bytes nalu length
+                0x0F,
+                //numOfArrays
+                0x03);
+        byte[] expected = concat(header,
+                bytes(0xA0, 0x00, 0x01, 0x00, VPS.length), VPS,
+                bytes(0xA1, 0x00, 0x01, 0x00, SPS.length), SPS,
+                bytes(0xA2, 0x00, 0x01, 0x00, PPS.length), PPS);
+        assertArrayEquals(expected, record);
+    }
+
+    @Test
+    public void readsNalusFromPosition() {
+        ByteBuffer vps = ByteBuffer.wrap(concat(bytes(0x00, 0x00, 0x01), VPS));
+        ByteBuffer sps = ByteBuffer.wrap(concat(bytes(0x00, 0x00, 0x01), SPS));
+        ByteBuffer pps = ByteBuffer.wrap(concat(bytes(0x00, 0x00, 0x01), PPS));
+        vps.position(3);
+        sps.position(3);
+        pps.position(3);
+        byte[] record = Packager.H265Packager.generateHEVCDecoderConfigurationRecord(vps, sps, pps);
+        assertArrayEquals(Packager.H265Packager.generateHEVCDecoderConfigurationRecord(
+                ByteBuffer.wrap(VPS), ByteBuffer.wrap(SPS), ByteBuffer.wrap(PPS)), record);
+        //buffers are left untouched
+        assertEquals(3, sps.position());
+    }
+
+    @Test
+    public void truncatedSpsIsRejected() {
+        ByteBuffer sps = ByteBuffer.wrap(SPS, 0, 20);
+        assertNull(Packager.H265Packager.parseSps(sps));
+        assertNull(Packager.H265Packager.generateHEVCDecoderConfigurationRecord(
+                ByteBuffer.wrap(VPS), sps, ByteBuffer.wrap(PPS)));
+    }
+
+    @Test
+    public void fillsExVideoTagHeader() {
+        byte[] dst = new byte[Packager.FLVPackager.FLV_EX_VIDEO_TAG_MAX_LENGTH + 1];
+        int length = Packager.FLVPackager.fillFlvExVideoTag(dst, 1, Packager.FLVPackager.FOURCC_HVC1, true, true, 40);
+        //sequence start ignores CompositionTime
+        assertEquals(Packager.FLVPackager.FLV_EX_VIDEO_TAG_LENGTH, length);
+        assertArrayEquals(concat(bytes(0x90), HVC1), slice(dst, 1, length));
+
+        length = Packager.FLVPackager.fillFlvExVideoTag(dst, 1, Packager.FLVPackager.FOURCC_HVC1, false, true, 0);
+        assertEquals(Packager.FLVPackager.FLV_EX_VIDEO_TAG_LENGTH, length);
+        assertArrayEquals(concat(bytes(0x93), HVC1), slice(dst, 1, length));
+
+        length = Packager.FLVPackager.fillFlvExVideoTag(dst, 1, Packager.FLVPackager.FOURCC_HVC1, false, false, 67);
+        assertEquals(Packager.FLVPackager.FLV_EX_VIDEO_TAG_MAX_LENGTH, length);
+        assertArrayEquals(concat(bytes(0xA1), HVC1, bytes(0x00, 0x00, 0x43)), slice(dst, 1, length));
+
+        //negative CompositionTime is SI24
+        length = Packager.FLVPackager.fillFlvExVideoTag(dst, 1, Packager.FLVPackager.FOURCC_HVC1, false, false, -33);
+        assertArrayEquals(concat(bytes(0xA1), HVC1, bytes(0xFF, 0xFF, 0xDF)), slice(dst, 1, length));
+
+        length = Packager.FLVPackager.fillFlvExVideoTag(dst, 1, Packager.FLVPackager.FOURCC_HVC1, false, true, 0x1000000);
+        assertArrayEquals(concat(bytes(0x91), HVC1, bytes(0x7F, 0xFF, 0xFF)), slice(dst, 1, length));
+    }
+
+    @Test
+    public void fillsVideoTagHeader() {
+        byte[] dst = new byte[Packager.FLVPackager.FLV_VIDEO_TAG_LENGTH + Packager.FLVPackager.NALU_HEADER_LENGTH];
+        Packager.FLVPackager.fillFlvVideoTag(dst, 0, false, false, -40, 0x123456);
+        assertArrayEquals(bytes(0x27, 0x01, 0xFF, 0xFF, 0xD8, 0x00, 0x12, 0x34, 0x56), dst);
+        Packager.FLVPackager.fillFlvVideoTag(dst, 0, true, true, 40, 0);
+        assertArrayEquals(bytes(0x17, 0x00, 0x00, 0x00, 0x00), slice(dst, 0, Packager.FLVPackager.FLV_VIDEO_TAG_LENGTH));
+    }
+
+    private static byte[] slice(byte[] data, int start, int length) {
+        byte[] result = new byte[length];
+        System.arraycopy(data, start, result, 0, length);
+        return result;
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] result = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = (byte) values[i];
+        }
+        return result;
+    }
+
+    private static byte[] concat(byte[]... arrays) {
+        int length = 0;
+        for (byte[] array : arrays) {
+            length += array.length;
+        }
+        byte[] result = new byte[length];
+        int pos = 0;
+        for (byte[] array : arrays) {
+            System.arraycopy(array, 0, result, pos, array.length);
+            pos += array.length;
+        }
+        return result;
+    }
+}
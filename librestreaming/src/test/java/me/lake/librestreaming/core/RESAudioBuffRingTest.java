@@ -0,0 +1,175 @@
+package me.lake.librestreaming.core;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import me.lake.librestreaming.model.RESAudioBuff;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RESAudioBuffRingTest {
+    private static final int QUEUE_NUM = 5;
+    //2048 samples of 16bit pcm
+    private static final int SLICE_SIZE = 4096;
+    private static final int SLICE_NUM = 20000;
+
+    /**
+     * producer stamps every sample with the slice number,like AudioRecord.read into the slot,
+     * consumer checks them twice,before and after a pause,so a slot refilled while consumer
+     * still owns it shows up as overwritten samples.slow consumer forces overruns.
+     */
+    @Test
+    public void slicesAreNeverTornOrOverwritten() throws Exception {
+        final LinkedBlockingQueue<RESAudioBuff> handlerQueue = new LinkedBlockingQueue<>();
+        final RESAudioBuffRing ring = new RESAudioBuffRing(1, new RESAudioBuffRing.OnBuffQueuedListener() {
+            @Override
+            public void onBuffQueued(RESAudioBuff buff) {
+                handlerQueue.add(buff);
+            }
+        });
+        ring.start(QUEUE_NUM, SLICE_SIZE, 2);
+        final AtomicReference<String> failure = new AtomicReference<>();
+        final int[] queuedNum = new int[1];
+        final int[] canceledNum = new int[1];
+        final int[] consumedNum = new int[1];
+        Thread producer = new Thread() {
+            @Override
+            public void run() {
+                for (int seq = 1; seq <= SLICE_NUM; seq++) {
+                    RESAudioBuff fillBuff = ring.dequeueFillBuff();
+                    if (fillBuff == null) {
+                        continue;
+                    }
+                    int size = SLICE_SIZE - (seq % 4) * 2;
+                    for (int i = 0; i < size; i += 2) {
+                        fillBuff.buff[i] = (byte) seq;
+                        fillBuff.buff[i + 1] = (byte) (seq >> 8);
+                    }
+                    fillBuff.timestampUs = seq;
+                    if (seq % 97 == 0) {
+                        //AudioRecord.read failed
+                        ring.releaseBuff(fillBuff);
+                        canceledNum[0]++;
+                        continue;
+                    }
+                    assertTrue(ring.queueFillBuff(fillBuff, size));
+                    queuedNum[0]++;
+                }
+            }
+        };
+        Thread consumer = new Thread() {
+            @Override
+            public void run() {
+                Random random = new Random(0);
+                long lastSeq = 0;
+                try {
+                    while (true) {
+                        RESAudioBuff buff = handlerQueue.poll(1, TimeUnit.SECONDS);
+                        if (buff == null) {
+                            return;
+                        }
+                        long seq = buff.timestampUs;
+                        if (seq <= lastSeq) {
+                            failure.compareAndSet(null, "slice " + seq + " after " + lastSeq);
+                            return;
+                        }
+                        if (buff.size != SLICE_SIZE - (seq % 4) * 2) {
+                            failure.compareAndSet(null, "slice " + seq + " has size " + buff.size);
+                            return;
+                        }
+                        String error = check(buff, seq);
+                        if (error == null) {
+                            //encoder taking its time,producer may run into overrun
+                            if (random.nextInt(8) == 0) {
+                                Thread.sleep(0, 200000);
+                            } else {
+                                Thread.yield();
+                            }
+                            error = check(buff, seq);
+                        }
+                        if (error != null) {
+                            failure.compareAndSet(null, error);
+                            return;
+                        }
+                        lastSeq = seq;
+                        consumedNum[0]++;
+                        ring.releaseBuff(buff);
+                    }
+                } catch (InterruptedException e) {
+                    failure.compareAndSet(null, e.toString());
+                }
+            }
+        };
+        producer.start();
+        consumer.start();
+        producer.join();
+        consumer.join();
+        assertNull(failure.get());
+        assertEquals(queuedNum[0], consumedNum[0]);
+        //every slice is either consumed,given back,or abandoned as overrun
+        assertEquals(SLICE_NUM, queuedNum[0] + canceledNum[0] + ring.getOverrunCount());
+        assertTrue("no overrun was exercised", ring.getOverrunCount() > 0);
+    }
+
+    @Test
+    public void overrunWhenConsumerHoldsEverySlot() {
+        final LinkedBlockingQueue<RESAudioBuff> handlerQueue = new LinkedBlockingQueue<>();
+        RESAudioBuffRing ring = new RESAudioBuffRing(1, new RESAudioBuffRing.OnBuffQueuedListener() {
+            @Override
+            public void onBuffQueued(RESAudioBuff buff) {
+                handlerQueue.add(buff);
+            }
+        });
+        assertNull("not started", ring.dequeueFillBuff());
+        ring.start(3, 16, 2);
+        for (int i = 0; i < 3; i++) {
+            RESAudioBuff buff = ring.dequeueFillBuff();
+            assertNotNull(buff);
+            assertTrue(ring.queueFillBuff(buff, 16));
+        }
+        assertNull(ring.dequeueFillBuff());
+        assertEquals(1, ring.getOverrunCount());
+        //oldest slot comes back first
+        RESAudioBuff oldest = handlerQueue.poll();
+        ring.releaseBuff(oldest);
+        assertSame(oldest, ring.dequeueFillBuff());
+    }
+
+    @Test
+    public void stopReleasesLateSlot() {
+        RESAudioBuffRing ring = new RESAudioBuffRing(1, new RESAudioBuffRing.OnBuffQueuedListener() {
+            @Override
+            public void onBuffQueued(RESAudioBuff buff) {
+                throw new AssertionError("queued after stop");
+            }
+        });
+        ring.start(2, 16, 2);
+        RESAudioBuff buff = ring.dequeueFillBuff();
+        ring.stop();
+        assertFalse(ring.queueFillBuff(buff, 16));
+        assertTrue(buff.isReadyToFill);
+        assertNull(ring.dequeueFillBuff());
+        ring.start(2, 16, 2);
+        assertEquals(0, ring.getOverrunCount());
+        assertNotNull(ring.dequeueFillBuff());
+    }
+
+    private static String check(RESAudioBuff buff, long seq) {
+        for (int i = 0; i < buff.size; i += 2) {
+            int sample = (buff.buff[i] & 0xFF) | ((buff.buff[i + 1] & 0xFF) << 8);
+            if (sample != (seq & 0xFFFF)) {
+                return "slice " + seq + " torn at byte " + i + " by " + sample;
+            }
+        }
+        return null;
+    }
+}
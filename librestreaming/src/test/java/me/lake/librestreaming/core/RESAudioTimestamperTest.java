@@ -0,0 +1,116 @@
+package me.lake.librestreaming.core;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RESAudioTimestamperTest {
+    private static final int SAMPLE_RATE = 44100;
+    private static final int SAMPLES_PER_READ = 2048;
+    private static final long HOURS_2_US = 2L * 3600 * 1000000;
+    //read latency never goes below it
+    private static final long BASE_LATENCY_US = 2000;
+
+    @Test
+    public void noDriftWithJitteryDelivery() {
+        Result result = simulate(1.0, 0);
+        assertTrue("max error " + result.maxErrorUs, result.maxErrorUs < 3000);
+        assertTrue("end error " + result.endErrorUs, Math.abs(result.endErrorUs) < 3000);
+    }
+
+    /**
+     * microphone runs 200ppm fast,1.44s over 2 hours if pts only counted samples
+     */
+    @Test
+    public void followsFastSampleClock() {
+        Result result = simulate(1.0002, 0);
+        assertTrue("max error " + result.maxErrorUs, result.maxErrorUs < 5000);
+        assertTrue("end error " + result.endErrorUs, Math.abs(result.endErrorUs) < 3000);
+    }
+
+    @Test
+    public void followsSlowSampleClock() {
+        Result result = simulate(0.9997, 0);
+        assertTrue("max error " + result.maxErrorUs, result.maxErrorUs < 5000);
+        assertTrue("end error " + result.endErrorUs, Math.abs(result.endErrorUs) < 3000);
+    }
+
+    /**
+     * half a second of samples lost once an hour,pts jumps instead of drifting
+     */
+    @Test
+    public void resyncsAfterLostSamples() {
+        Result result = simulate(1.0, 500000);
+        assertTrue("end error " + result.endErrorUs, Math.abs(result.endErrorUs) < 3000);
+        //one window to notice each gap
+        assertTrue("reads with error over 5ms:" + result.badReads, result.badReads < 2 * 2 * RESAudioTimestamper.WINDOW_US / 46000);
+    }
+
+    @Test
+    public void resetStartsOver() {
+        RESAudioTimestamper timestamper = new RESAudioTimestamper(SAMPLE_RATE);
+        long readUs = 5000000;
+        timestamper.onSamplesRead(SAMPLES_PER_READ, readUs);
+        timestamper.reset();
+        assertEquals(9000000 - 1000000L * SAMPLES_PER_READ / SAMPLE_RATE, timestamper.onSamplesRead(SAMPLES_PER_READ, 9000000));
+    }
+
+    static class Result {
+        long maxErrorUs;
+        long endErrorUs;
+        int badReads;
+    }
+
+    /**
+     * @param clockRatio real sample rate/SAMPLE_RATE
+     * @param lostUsPerHour samples lost at every hour,0 for none
+     */
+    private static Result simulate(double clockRatio, long lostUsPerHour) {
+        Random random = new Random(11);
+        RESAudioTimestamper timestamper = new RESAudioTimestamper(SAMPLE_RATE);
+        double realRate = SAMPLE_RATE * clockRatio;
+        long startUs = 1000000;
+        long samples = 0;
+        long lastPtsUs = Long.MIN_VALUE;
+        long lastReadUs = 0;
+        long nextLossUs = 3600L * 1000000;
+        Result result = new Result();
+        //reads held back by a busy thread come out back to back
+        long stallUntilUs = 0;
+        while (true) {
+            long firstSampleUs = startUs + (long) (samples * 1000000.0 / realRate);
+            if (firstSampleUs - startUs >= HOURS_2_US) {
+                break;
+            }
+            if (lostUsPerHour > 0 && firstSampleUs - startUs >= nextLossUs) {
+                samples += (long) (lostUsPerHour * realRate / 1000000);
+                nextLossUs += 3600L * 1000000;
+                continue;
+            }
+            samples += SAMPLES_PER_READ;
+            long lastSampleUs = startUs + (long) (samples * 1000000.0 / realRate);
+            long latencyUs = BASE_LATENCY_US + (long) Math.abs(random.nextGaussian() * 4000);
+            if (random.nextInt(500) == 0) {
+                stallUntilUs = lastSampleUs + 80000 + random.nextInt(120000);
+            }
+            long readUs = Math.max(Math.max(lastSampleUs + latencyUs, stallUntilUs), lastReadUs);
+            lastReadUs = readUs;
+            long ptsUs = timestamper.onSamplesRead(SAMPLES_PER_READ, readUs);
+            assertTrue("pts goes back", ptsUs > lastPtsUs);
+            lastPtsUs = ptsUs;
+            //pts should be when the first sample was captured,plus the latency that can not be seen
+            long errorUs = ptsUs - firstSampleUs - BASE_LATENCY_US;
+            if (firstSampleUs - startUs > 60L * 1000000) {
+                result.maxErrorUs = Math.max(result.maxErrorUs, Math.abs(errorUs));
+            }
+            if (Math.abs(errorUs) > 5000) {
+                result.badReads++;
+            }
+            result.endErrorUs = errorUs;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,193 @@
+package me.lake.librestreaming.core;
+
+import org.junit.Test;
+
+import java.util.LinkedList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RESBitrateAlgorithmTest {
+    private static final int MIN = 300 * 1000;
+    private static final int MAX = 3000 * 1000;
+    private static final int STEP = (int) (MAX * RESBitrateAlgorithm.INCREASE_STEP_RATIO);
+    private static final long TICK_MS = 500;
+
+    /**
+     * encoder feeding a link whose capacity drops,oscillates and recovers,
+     * every decision checked against the rules
+     */
+    @Test
+    public void followsScriptedLink() {
+        RESBitrateAlgorithm algorithm = new RESBitrateAlgorithm(MIN, MAX);
+        //1s of max bitrate
+        double queueCapacityBits = MAX;
+        double queueBits = 0;
+        int bitrate = 2000 * 1000;
+        long lastDecreaseMs = Long.MIN_VALUE / 2;
+        long lastIncreaseMs = Long.MIN_VALUE / 2;
+        LinkedList<Float> recentOccupancy = new LinkedList<>();
+        int decreaseNum = 0;
+        int increaseNum = 0;
+        long congestedSum = 0;
+        int congestedTicks = 0;
+        for (long now = 0; now < 200000; now += TICK_MS) {
+            double capacity = capacityAt(now);
+            double produced = bitrate * TICK_MS / 1000.0;
+            double sent = Math.min(capacity * TICK_MS / 1000.0, queueBits + produced);
+            queueBits = Math.min(queueCapacityBits, queueBits + produced - sent);
+            float occupancy = (float) (queueBits / queueCapacityBits);
+            int measured = (int) (sent * 1000 / TICK_MS);
+            recentOccupancy.addLast(occupancy);
+            if (recentOccupancy.size() > RESBitrateAlgorithm.INCREASE_STABLE_TICKS) {
+                recentOccupancy.removeFirst();
+            }
+
+            int next = algorithm.onSample(bitrate, occupancy, measured, now);
+            String at = "at " + now + "ms";
+            assertTrue(at, next >= MIN && next <= MAX);
+            if (next < bitrate) {
+                assertEquals(at, RESBitrateAlgorithm.STATE_DECREASE, algorithm.getState());
+                assertTrue(at, occupancy >= RESBitrateAlgorithm.CONGESTED_OCCUPANCY);
+                int expected = Math.min((int) (bitrate * RESBitrateAlgorithm.DECREASE_FACTOR),
+                        (int) (measured * RESBitrateAlgorithm.THROUGHPUT_HEADROOM));
+                assertEquals(at, Math.max(MIN, expected), next);
+                assertTrue(at + " cut too soon", now - lastDecreaseMs >= RESBitrateAlgorithm.DECREASE_COOLDOWN_MS);
+                lastDecreaseMs = now;
+                decreaseNum++;
+            } else if (next > bitrate) {
+                assertEquals(at, RESBitrateAlgorithm.STATE_INCREASE, algorithm.getState());
+                assertEquals(at, RESBitrateAlgorithm.INCREASE_STABLE_TICKS, recentOccupancy.size());
+                for (float recent : recentOccupancy) {
+                    assertTrue(at, recent <= RESBitrateAlgorithm.CLEAR_OCCUPANCY);
+                }
+                assertTrue(at + " raised too soon after cut",
+                        now - lastDecreaseMs >= RESBitrateAlgorithm.INCREASE_AFTER_DECREASE_MS);
+                assertTrue(at + " raised too soon",
+                        now - lastIncreaseMs >= RESBitrateAlgorithm.INCREASE_STABLE_TICKS * TICK_MS);
+                assertEquals(at, Math.min(MAX, bitrate + STEP), next);
+                lastIncreaseMs = now;
+                increaseNum++;
+            } else {
+                assertEquals(at, RESBitrateAlgorithm.STATE_HOLD, algorithm.getState());
+            }
+            bitrate = next;
+
+            //sawtooth around the 1Mbps link once settled
+            if (now >= 30000 && now < 60000) {
+                assertTrue(at + " probing too far:" + bitrate, bitrate <= 1250 * 1000);
+                congestedSum += bitrate;
+                congestedTicks++;
+            }
+        }
+        assertTrue(decreaseNum > 0);
+        assertTrue(increaseNum > 0);
+        assertTrue("mean over the 1Mbps link:" + congestedSum / congestedTicks, congestedSum / congestedTicks <= 1000 * 1000);
+        assertEquals("recovered", MAX, bitrate);
+    }
+
+    /**
+     * 3.5Mbps,1Mbps from 20s,0.5/4Mbps every other tick from 60s,3.5Mbps from 90s
+     */
+    private static double capacityAt(long nowMs) {
+        if (nowMs < 20000) {
+            return 3500 * 1000;
+        }
+        if (nowMs < 60000) {
+            return 1000 * 1000;
+        }
+        if (nowMs < 90000) {
+            return (nowMs / TICK_MS) % 2 == 0 ? 500 * 1000 : 4000 * 1000;
+        }
+        return 3500 * 1000;
+    }
+
+    /**
+     * queue jumping between clear and half way never raises,clear ticks must be consecutive
+     */
+    @Test
+    public void oscillatingQueueHoldsIncrease() {
+        RESBitrateAlgorithm algorithm = new RESBitrateAlgorithm(MIN, MAX);
+        int bitrate = 1000 * 1000;
+        long now = 10000;
+        for (int i = 0; i < 100; i++, now += TICK_MS) {
+            float occupancy = i % 4 == 3 ? 0.1f : 0.0f;
+            assertEquals("tick " + i, bitrate, algorithm.onSample(bitrate, occupancy, bitrate, now));
+        }
+        //4 clear ticks in a row
+        for (int i = 0; i < RESBitrateAlgorithm.INCREASE_STABLE_TICKS - 1; i++, now += TICK_MS) {
+            assertEquals(bitrate, algorithm.onSample(bitrate, 0.0f, bitrate, now));
+        }
+        assertEquals(bitrate + STEP, algorithm.onSample(bitrate, RESBitrateAlgorithm.CLEAR_OCCUPANCY, bitrate, now));
+        //counting starts over after an increase
+        bitrate += STEP;
+        for (int i = 0; i < RESBitrateAlgorithm.INCREASE_STABLE_TICKS - 1; i++) {
+            now += TICK_MS;
+            assertEquals(bitrate, algorithm.onSample(bitrate, 0.0f, bitrate, now));
+        }
+        now += TICK_MS;
+        assertEquals(bitrate + STEP, algorithm.onSample(bitrate, 0.0f, bitrate, now));
+    }
+
+    @Test
+    public void cutsAreSpacedAndIncreaseWaitsAfterCut() {
+        RESBitrateAlgorithm algorithm = new RESBitrateAlgorithm(MIN, MAX);
+        long now = 100000;
+        assertEquals(1400 * 1000, algorithm.onSample(2000 * 1000, 0.5f, 0, now));
+        int bitrate = 1400 * 1000;
+        for (long t = now + TICK_MS; t < now + RESBitrateAlgorithm.DECREASE_COOLDOWN_MS; t += TICK_MS) {
+            assertEquals(bitrate, algorithm.onSample(bitrate, 1.0f, 500 * 1000, t));
+            assertEquals(RESBitrateAlgorithm.STATE_HOLD, algorithm.getState());
+        }
+        now += RESBitrateAlgorithm.DECREASE_COOLDOWN_MS;
+        //throughput bound is lower than 0.7
+        assertEquals(450 * 1000, algorithm.onSample(bitrate, 0.5f, 500 * 1000, now));
+        bitrate = 450 * 1000;
+        //clear queue right after the cut,4 ticks are not enough before 5s
+        long t = now;
+        for (; t < now + RESBitrateAlgorithm.INCREASE_AFTER_DECREASE_MS; t += TICK_MS) {
+            assertEquals("at " + (t - now), bitrate, algorithm.onSample(bitrate, 0.0f, bitrate, t));
+        }
+        assertEquals(bitrate + STEP, algorithm.onSample(bitrate, 0.0f, bitrate, t));
+    }
+
+    @Test
+    public void clampsToRange() {
+        RESBitrateAlgorithm algorithm = new RESBitrateAlgorithm(MIN, MAX);
+        long now = 100000;
+        //encoder outside the range is brought back on hold
+        assertEquals(MAX, algorithm.onSample(MAX * 2, 0.1f, 0, now));
+        assertEquals(MIN, algorithm.onSample(MIN / 2, 0.1f, 0, now));
+        //cut stops at min,at min nothing is cut
+        assertEquals(MIN, algorithm.onSample(MIN + 1000, 0.9f, 1000, now));
+        assertEquals(RESBitrateAlgorithm.STATE_DECREASE, algorithm.getState());
+        assertEquals(MIN, algorithm.onSample(MIN, 0.9f, 1000, now + 10000));
+        assertEquals(RESBitrateAlgorithm.STATE_HOLD, algorithm.getState());
+        //increase stops at max
+        algorithm.reset();
+        int bitrate = MAX - STEP / 2;
+        for (int i = 1; i < RESBitrateAlgorithm.INCREASE_STABLE_TICKS; i++) {
+            assertEquals(bitrate, algorithm.onSample(bitrate, 0.0f, 0, now + i * TICK_MS));
+        }
+        assertEquals(MAX, algorithm.onSample(bitrate, 0.0f, 0, now + 10 * TICK_MS));
+        for (int i = 0; i < 3 * RESBitrateAlgorithm.INCREASE_STABLE_TICKS; i++) {
+            assertEquals(MAX, algorithm.onSample(MAX, 0.0f, 0, now + (11 + i) * TICK_MS));
+            assertEquals(RESBitrateAlgorithm.STATE_HOLD, algorithm.getState());
+        }
+    }
+
+    @Test
+    public void rejectsBadRange() {
+        for (int[] range : new int[][]{{0, MAX}, {-1, MAX}, {MAX, MIN}}) {
+            try {
+                new RESBitrateAlgorithm(range[0], range[1]);
+                fail(range[0] + "~" + range[1]);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+        RESBitrateAlgorithm fixed = new RESBitrateAlgorithm(MIN, MIN);
+        assertEquals(MIN, fixed.onSample(MIN, 0.0f, 0, 0));
+        assertEquals(MIN, fixed.onSample(MIN, 1.0f, 0, 0));
+    }
+}
@@ -0,0 +1,248 @@
+package me.lake.librestreaming.core;
+
+import org.junit.Test;
+
+import java.util.LinkedList;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RESByteSpeedometerTest {
+    private static final int TIMEGRANULARITY = 3000;
+
+    /**
+     * random gains and reads,same speed as the LinkedList implementation at every read
+     */
+    @Test
+    public void equalsListImplementation() {
+        for (int granularity : new int[]{TIMEGRANULARITY, 1000, 250, 1}) {
+            Random random = new Random(granularity);
+            FakeClockSpeedometer speedometer = new FakeClockSpeedometer(granularity);
+            ListSpeedometer reference = new ListSpeedometer(granularity);
+            long now = 1476000000000L;
+            for (int i = 0; i < 200000; i++) {
+                int step = random.nextInt(100);
+                if (step < 40) {
+                    //same ms
+                } else if (step < 95) {
+                    now += random.nextInt(50);
+                } else if (step < 99) {
+                    now += random.nextInt(2 * granularity + 2);
+                } else {
+                    now += granularity;
+                }
+                speedometer.time = now;
+                if (random.nextInt(4) == 0) {
+                    assertEquals("read " + i + " of granularity " + granularity,
+                            reference.getSpeed(now), speedometer.getSpeed());
+                } else if (random.nextInt(5000) == 0) {
+                    reference.reset();
+                    speedometer.reset();
+                } else {
+                    int byteCount = random.nextInt(64 * 1024);
+                    reference.gain(now, byteCount);
+                    speedometer.gain(byteCount);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void windowEndsAreIncluded() {
+        FakeClockSpeedometer speedometer = new FakeClockSpeedometer(TIMEGRANULARITY);
+        speedometer.time = 10000;
+        speedometer.gain(3000);
+        speedometer.time = 10000 + TIMEGRANULARITY;
+        assertEquals(1000, speedometer.getSpeed());
+        speedometer.time++;
+        assertEquals(0, speedometer.getSpeed());
+    }
+
+    /**
+     * a gain whose clock was read before its bucket expired is dropped,as the list trims it
+     */
+    @Test
+    public void staleGainIsDropped() {
+        FakeClockSpeedometer speedometer = new FakeClockSpeedometer(TIMEGRANULARITY);
+        speedometer.time = 10000;
+        speedometer.gain(3000);
+        speedometer.time = 10000 + TIMEGRANULARITY + 5;
+        assertEquals(0, speedometer.getSpeed());
+        speedometer.time = 10000;
+        speedometer.gain(6000);
+        speedometer.time = 10000 + TIMEGRANULARITY + 5;
+        assertEquals(0, speedometer.getSpeed());
+        speedometer.gain(3000);
+        assertEquals(1000, speedometer.getSpeed());
+        //idle far longer than the ring
+        speedometer.time += 100 * TIMEGRANULARITY;
+        assertEquals(0, speedometer.getSpeed());
+        speedometer.gain(6000);
+        assertEquals(2000, speedometer.getSpeed());
+    }
+
+    @Test
+    public void concurrentGainsAreAllCounted() throws Exception {
+        final FakeClockSpeedometer speedometer = new FakeClockSpeedometer(TIMEGRANULARITY);
+        speedometer.time = 5000;
+        final int threadNum = 4;
+        final int gainNum = 100000;
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[threadNum];
+        for (int i = 0; i < threadNum; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException ignored) {
+                    }
+                    for (int n = 0; n < gainNum; n++) {
+                        speedometer.gain(3);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(3L * threadNum * gainNum * 1000 / TIMEGRANULARITY, speedometer.getSpeed());
+    }
+
+    /**
+     * ns per call of a 30fps video plus 43fps audio stream,against the list and the ring summing every bucket.
+     * getSpeed no longer depends on timeGranularity
+     */
+    @Test
+    public void benchmarkAgainstFormerImplementations() {
+        final int rounds = 5;
+        final int callNum = 200000;
+        long[] best = new long[]{Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE};
+        long blackhole = 0;
+        for (int round = 0; round < rounds; round++) {
+            FakeClockSpeedometer speedometer = new FakeClockSpeedometer(TIMEGRANULARITY);
+            ListSpeedometer list = new ListSpeedometer(TIMEGRANULARITY);
+            RingSpeedometer ring = new RingSpeedometer(TIMEGRANULARITY);
+            long now = 1476000000000L;
+            long[] costNs = new long[3];
+            for (int i = 0; i < callNum; i++) {
+                //a gain every ~14ms,a read per gain like RESRtmpSender
+                now += (i % 7 == 0) ? 13 : 14;
+                int byteCount = 1000 + (i & 1023);
+                long startNs = System.nanoTime();
+                speedometer.time = now;
+                speedometer.gain(byteCount);
+                blackhole += speedometer.getSpeed();
+                long newNs = System.nanoTime();
+                list.gain(now, byteCount);
+                blackhole += list.getSpeed(now);
+                long listNs = System.nanoTime();
+                ring.gain(now, byteCount);
+                blackhole += ring.getSpeed(now);
+                long ringNs = System.nanoTime();
+                costNs[0] += newNs - startNs;
+                costNs[1] += listNs - newNs;
+                costNs[2] += ringNs - listNs;
+            }
+            for (int i = 0; i < best.length; i++) {
+                best[i] = Math.min(best[i], costNs[i] / callNum);
+            }
+        }
+        System.out.println("RESByteSpeedometer gain+getSpeed ns:running sum " + best[0]
+                + ",list " + best[1] + ",bucket ring " + best[2] + " (" + blackhole + ")");
+        assertTrue("running sum " + best[0] + "ns,bucket ring " + best[2] + "ns", best[0] < best[2]);
+    }
+
+    static class FakeClockSpeedometer extends RESByteSpeedometer {
+        volatile long time;
+
+        FakeClockSpeedometer(int timeGranularity) {
+            super(timeGranularity);
+        }
+
+        @Override
+        long now() {
+            return time;
+        }
+    }
+
+    /**
+     * former RESByteSpeedometer,time passed in
+     */
+    static class ListSpeedometer {
+        private final int timeGranularity;
+        private final LinkedList<long[]> byteList = new LinkedList<>();
+
+        ListSpeedometer(int timeGranularity) {
+            this.timeGranularity = timeGranularity;
+        }
+
+        int getSpeed(long now) {
+            trim(now);
+            long sumByte = 0;
+            for (long[] byteFrame : byteList) {
+                sumByte += byteFrame[1];
+            }
+            return (int) (sumByte * 1000 / timeGranularity);
+        }
+
+        void gain(long now, int byteCount) {
+            byteList.addLast(new long[]{now, byteCount});
+            trim(now);
+        }
+
+        void reset() {
+            byteList.clear();
+        }
+
+        private void trim(long time) {
+            while (!byteList.isEmpty() && (time - byteList.getFirst()[0]) > timeGranularity) {
+                byteList.removeFirst();
+            }
+        }
+    }
+
+    /**
+     * previous RESByteSpeedometer,getSpeed sums every bucket,time passed in
+     */
+    static class RingSpeedometer {
+        private static final int COUNT_BITS = 24;
+        private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+        private static final long EPOCH_MASK = (1L << (64 - COUNT_BITS)) - 1;
+        private final int timeGranularity;
+        private final AtomicLongArray buckets;
+
+        RingSpeedometer(int timeGranularity) {
+            this.timeGranularity = timeGranularity;
+            buckets = new AtomicLongArray(timeGranularity + 1);
+        }
+
+        int getSpeed(long now) {
+            long sumByte = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                long value = buckets.get((int) ((now - i) % buckets.length()));
+                if ((value >>> COUNT_BITS) == ((now - i) & EPOCH_MASK)) {
+                    sumByte += value & COUNT_MASK;
+                }
+            }
+            return (int) (sumByte * 1000 / timeGranularity);
+        }
+
+        void gain(long now, int byteCount) {
+            int index = (int) (now % buckets.length());
+            long packedEpoch = now << COUNT_BITS;
+            while (true) {
+                long old = buckets.get(index);
+                long count = (old & ~COUNT_MASK) == packedEpoch ? (old & COUNT_MASK) + byteCount : byteCount;
+                if (buckets.compareAndSet(index, old, packedEpoch | Math.min(count, COUNT_MASK))) {
+                    return;
+                }
+            }
+        }
+    }
+}
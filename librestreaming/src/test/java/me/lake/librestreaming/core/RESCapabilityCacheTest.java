@@ -0,0 +1,283 @@
+package me.lake.librestreaming.core;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import me.lake.librestreaming.model.Size;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RESCapabilityCacheTest {
+    private static final String FINGERPRINT = "vendor/device/device:7.0/NRD90M/1234:user/release-keys";
+    private static final String AVC = "video/avc";
+    private static final String HEVC = "video/hevc";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void savedEntriesAreReadBack() throws IOException {
+        File file = cacheFile();
+        RESCapabilityCache cache = new RESCapabilityCache();
+        cache.open(file, FINGERPRINT);
+        assertNull(cache.getCamera(0));
+        assertNull(cache.getEncoder(AVC));
+        fill(cache);
+        cache.save();
+        assertTrue(file.exists());
+        assertFalse("tmp file left", new File(file.getPath() + ".tmp").exists());
+
+        RESCapabilityCache loaded = new RESCapabilityCache();
+        loaded.open(file, FINGERPRINT);
+        assertCamera(backCamera(), loaded.getCamera(0));
+        assertCamera(frontCamera(), loaded.getCamera(1));
+        assertNull(loaded.getCamera(2));
+        assertEquals(avcEncoder(), loaded.getEncoder(AVC));
+        assertEquals(RESCapabilityCache.EncoderCaps.ABSENT, loaded.getEncoder(HEVC));
+        assertFalse(loaded.getEncoder(HEVC).isPresent);
+    }
+
+    @Test
+    public void saveWritesOnlyChanges() throws IOException {
+        File file = cacheFile();
+        RESCapabilityCache cache = new RESCapabilityCache();
+        cache.open(file, FINGERPRINT);
+        fill(cache);
+        cache.save();
+
+        RESCapabilityCache loaded = new RESCapabilityCache();
+        loaded.open(file, FINGERPRINT);
+        assertTrue(file.delete());
+        loaded.save();
+        assertFalse("nothing changed since open", file.exists());
+        assertFalse("same caps", loaded.putEncoder(AVC, avcEncoder()));
+        loaded.save();
+        assertFalse(file.exists());
+        loaded.removeCamera(5);
+        loaded.save();
+        assertFalse("nothing removed", file.exists());
+        loaded.removeCamera(1);
+        loaded.save();
+        assertTrue(file.exists());
+
+        RESCapabilityCache reloaded = new RESCapabilityCache();
+        reloaded.open(file, FINGERPRINT);
+        assertNotNull(reloaded.getCamera(0));
+        assertNull(reloaded.getCamera(1));
+    }
+
+    @Test
+    public void reopenKeepsMemory() throws IOException {
+        File file = cacheFile();
+        RESCapabilityCache cache = new RESCapabilityCache();
+        cache.open(file, FINGERPRINT);
+        fill(cache);
+        cache.save();
+        cache.removeCamera(0);
+        cache.open(file, FINGERPRINT);
+        assertNull("file is not read twice", cache.getCamera(0));
+    }
+
+    /**
+     * OTA changes the fingerprint,every entry is probed again
+     */
+    @Test
+    public void otherFingerprintDropsFile() throws IOException {
+        File file = cacheFile();
+        RESCapabilityCache cache = new RESCapabilityCache();
+        cache.open(file, FINGERPRINT);
+        fill(cache);
+        cache.save();
+
+        RESCapabilityCache updated = new RESCapabilityCache();
+        updated.open(file, FINGERPRINT + ".ota");
+        assertNull(updated.getCamera(0));
+        assertNull(updated.getEncoder(AVC));
+        assertFalse(file.exists());
+        updated.putCamera(0, frontCamera());
+        updated.save();
+
+        RESCapabilityCache loaded = new RESCapabilityCache();
+        loaded.open(file, FINGERPRINT + ".ota");
+        assertCamera(frontCamera(), loaded.getCamera(0));
+        RESCapabilityCache old = new RESCapabilityCache();
+        old.open(file, FINGERPRINT);
+        assertNull(old.getCamera(0));
+    }
+
+    @Test
+    public void otherVersionDropsFile() throws IOException {
+        for (int version : new int[]{RESCapabilityCache.VERSION - 1, RESCapabilityCache.VERSION + 1}) {
+            File file = cacheFile();
+            writeHeader(file, 0x52455343, version);
+            RESCapabilityCache cache = new RESCapabilityCache();
+            cache.putCamera(3, backCamera());
+            cache.open(file, FINGERPRINT);
+            assertNull(cache.getCamera(3));
+            assertFalse("version " + version, file.exists());
+        }
+        File file = cacheFile();
+        writeHeader(file, 0x52455344, RESCapabilityCache.VERSION);
+        new RESCapabilityCache().open(file, FINGERPRINT);
+        assertFalse("bad magic", file.exists());
+        //header alone is a valid empty cache
+        writeHeader(file, 0x52455343, RESCapabilityCache.VERSION);
+        new RESCapabilityCache().open(file, FINGERPRINT);
+        assertTrue(file.exists());
+    }
+
+    /**
+     * a file cut at any byte,e.g. by a crash without the tmp rename,is dropped and nothing of it is used
+     */
+    @Test
+    public void truncatedFileIsDropped() throws IOException {
+        File file = cacheFile();
+        RESCapabilityCache cache = new RESCapabilityCache();
+        cache.open(file, FINGERPRINT);
+        fill(cache);
+        cache.save();
+        byte[] whole = Files.readAllBytes(file.toPath());
+        for (int length = 0; length < whole.length; length++) {
+            writeBytes(file, Arrays.copyOf(whole, length));
+            RESCapabilityCache loaded = new RESCapabilityCache();
+            loaded.putCamera(7, frontCamera());
+            loaded.open(file, FINGERPRINT);
+            assertNull("length " + length, loaded.getCamera(0));
+            assertNull("length " + length, loaded.getCamera(7));
+            assertNull("length " + length, loaded.getEncoder(AVC));
+            assertFalse("length " + length, file.exists());
+        }
+    }
+
+    /**
+     * flipped bytes either load or drop the file,never throw
+     */
+    @Test
+    public void corruptedFileNeverThrows() throws IOException {
+        File file = cacheFile();
+        RESCapabilityCache cache = new RESCapabilityCache();
+        cache.open(file, FINGERPRINT);
+        fill(cache);
+        cache.save();
+        byte[] whole = Files.readAllBytes(file.toPath());
+        Random random = new Random(23);
+        for (int i = 0; i < 2000; i++) {
+            byte[] corrupted = whole.clone();
+            for (int n = 1 + random.nextInt(3); n > 0; n--) {
+                corrupted[random.nextInt(corrupted.length)] ^= (byte) (1 << random.nextInt(8));
+            }
+            writeBytes(file, corrupted);
+            RESCapabilityCache loaded = new RESCapabilityCache();
+            loaded.open(file, FINGERPRINT);
+            if (file.exists()) {
+                RESCapabilityCache.CameraCaps camera = loaded.getCamera(0);
+                assertTrue(camera == null || !camera.previewSizes.isEmpty());
+            }
+        }
+    }
+
+    @Test
+    public void memoryOnlyWithoutFile() {
+        RESCapabilityCache cache = new RESCapabilityCache();
+        cache.open(null, FINGERPRINT);
+        fill(cache);
+        cache.save();
+        assertCamera(backCamera(), cache.getCamera(0));
+        cache.clear();
+        assertNull(cache.getCamera(0));
+        assertNull(cache.getEncoder(AVC));
+    }
+
+    @Test
+    public void encoderCapsLookups() {
+        RESCapabilityCache.EncoderCaps caps = avcEncoder();
+        assertEquals(512, caps.maxLevelOf(8));
+        assertEquals(2048, caps.maxLevelOf(1));
+        assertEquals(0, caps.maxLevelOf(64));
+        assertTrue(caps.isBitrateModeSupported(2));
+        assertFalse(caps.isBitrateModeSupported(0));
+        assertFalse(caps.equals(new RESCapabilityCache.EncoderCaps(true, new int[]{21}, new int[]{1, 8},
+                new int[]{2048, 1024}, new int[]{1, 2})));
+        assertSame(RESCapabilityCache.i(), RESCapabilityCache.i());
+    }
+
+    private File cacheFile() throws IOException {
+        return new File(folder.newFolder(), RESCapabilityCache.FILE_NAME);
+    }
+
+    private static void fill(RESCapabilityCache cache) {
+        cache.putCamera(0, backCamera());
+        cache.putCamera(1, frontCamera());
+        assertTrue(cache.putEncoder(AVC, avcEncoder()));
+        assertTrue(cache.putEncoder(HEVC, RESCapabilityCache.EncoderCaps.ABSENT));
+    }
+
+    private static RESCapabilityCache.CameraCaps backCamera() {
+        List<Size> sizes = new ArrayList<>(Arrays.asList(new Size(1920, 1080), new Size(1280, 720), new Size(640, 480)));
+        List<int[]> fpsRanges = new ArrayList<>(Arrays.asList(new int[]{15000, 15000}, new int[]{7000, 30000}));
+        return new RESCapabilityCache.CameraCaps(sizes, fpsRanges, new ArrayList<>(Arrays.asList(17, 842094169)));
+    }
+
+    private static RESCapabilityCache.CameraCaps frontCamera() {
+        List<Size> sizes = new ArrayList<>(Arrays.asList(new Size(1280, 720)));
+        List<int[]> fpsRanges = new ArrayList<>(Arrays.asList(new int[]{30000, 30000}));
+        return new RESCapabilityCache.CameraCaps(sizes, fpsRanges, new ArrayList<>(Arrays.asList(17)));
+    }
+
+    private static RESCapabilityCache.EncoderCaps avcEncoder() {
+        return new RESCapabilityCache.EncoderCaps(true, new int[]{21, 19, 2130708361}, new int[]{1, 2, 8, 8},
+                new int[]{2048, 2048, 256, 512}, new int[]{1, 2});
+    }
+
+    private static void assertCamera(RESCapabilityCache.CameraCaps expected, RESCapabilityCache.CameraCaps actual) {
+        assertNotNull(actual);
+        assertEquals(expected.previewSizes, actual.previewSizes);
+        assertEquals(expected.previewFormats, actual.previewFormats);
+        assertEquals(expected.fpsRanges.size(), actual.fpsRanges.size());
+        for (int i = 0; i < expected.fpsRanges.size(); i++) {
+            assertArrayEquals(expected.fpsRanges.get(i), actual.fpsRanges.get(i));
+        }
+    }
+
+    /**
+     * header and fingerprint followed by no camera and no encoder
+     */
+    private static void writeHeader(File file, int magic, int version) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(magic);
+        out.writeInt(version);
+        out.writeUTF(FINGERPRINT);
+        out.writeInt(0);
+        out.writeInt(0);
+        out.close();
+        writeBytes(file, bytes.toByteArray());
+    }
+
+    private static void writeBytes(File file, byte[] bytes) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+}
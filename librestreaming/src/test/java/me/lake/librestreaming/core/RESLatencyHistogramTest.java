@@ -0,0 +1,200 @@
+package me.lake.librestreaming.core;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RESLatencyHistogramTest {
+    private static final int SAMPLE_NUM = 200000;
+    private static final double[] PERCENTILES = {50, 95, 99, 99.9, 100};
+
+    /**
+     * 0~100ms
+     */
+    @Test
+    public void uniform() {
+        Random random = new Random(1);
+        long[] values = new long[SAMPLE_NUM];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextInt(100 * 1000);
+        }
+        assertMatchesSorted(values);
+    }
+
+    /**
+     * fast path around 5ms,slow one around 80ms
+     */
+    @Test
+    public void bimodal() {
+        Random random = new Random(2);
+        long[] values = new long[SAMPLE_NUM];
+        for (int i = 0; i < values.length; i++) {
+            double value = random.nextInt(5) == 0 ? 80000 + random.nextGaussian() * 5000 : 5000 + random.nextGaussian() * 500;
+            values[i] = Math.max(0, (long) value);
+        }
+        assertMatchesSorted(values);
+    }
+
+    /**
+     * pareto from 1ms,a few samples reach seconds
+     */
+    @Test
+    public void heavyTail() {
+        Random random = new Random(3);
+        long[] values = new long[SAMPLE_NUM];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = Math.min(RESLatencyHistogram.MAX_VALUE_US, (long) (1000 * Math.pow(1 - random.nextDouble(), -1 / 1.5)));
+        }
+        long[] sorted = assertMatchesSorted(values);
+        assertTrue("tail not exercised", sorted[sorted.length - 1] > 1000 * 1000);
+    }
+
+    /**
+     * every value lands in a bucket whose highest value is within 1/32 above it
+     */
+    @Test
+    public void bucketsAreWithinBound() {
+        for (long value = 0; value <= RESLatencyHistogram.MAX_VALUE_US; value = value < 100000 ? value + 1 : value + value / 997) {
+            int index = RESLatencyHistogram.indexOf(value);
+            long highest = RESLatencyHistogram.highestValueOf(index);
+            assertTrue("value " + value, highest >= value);
+            assertTrue("value " + value + " in bucket up to " + highest, highest - value <= value / 32);
+            assertEquals("value " + value, index, RESLatencyHistogram.indexOf(highest));
+            if (value < 64) {
+                assertEquals(value, highest);
+            }
+        }
+    }
+
+    @Test
+    public void zeroAndOutOfRange() {
+        RESLatencyHistogram histogram = new RESLatencyHistogram();
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getMean());
+        histogram.record(0);
+        histogram.record(-5);
+        assertEquals(0, histogram.getValueAtPercentile(100));
+        assertEquals(0, histogram.getMax());
+        assertEquals(2, histogram.getCount());
+
+        histogram.record(RESLatencyHistogram.MAX_VALUE_US * 10);
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(RESLatencyHistogram.MAX_VALUE_US, histogram.getMax());
+        assertEquals(RESLatencyHistogram.MAX_VALUE_US, histogram.getValueAtPercentile(99));
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        assertEquals(RESLatencyHistogram.MAX_VALUE_US / 2, histogram.getMean());
+        //percentile out of range
+        assertEquals(RESLatencyHistogram.MAX_VALUE_US, histogram.getValueAtPercentile(150));
+        assertEquals(0, histogram.getValueAtPercentile(0));
+    }
+
+    @Test
+    public void concurrentRecordsAreAllCounted() throws Exception {
+        final RESLatencyHistogram histogram = new RESLatencyHistogram();
+        final int threadNum = 4;
+        final int recordNum = 100000;
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[threadNum];
+        for (int t = 0; t < threadNum; t++) {
+            final int seed = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    Random random = new Random(seed);
+                    try {
+                        start.await();
+                    } catch (InterruptedException ignored) {
+                    }
+                    for (int i = 0; i < recordNum; i++) {
+                        histogram.record(random.nextInt(50000));
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        RESLatencyHistogram serial = new RESLatencyHistogram();
+        for (int t = 0; t < threadNum; t++) {
+            Random random = new Random(t);
+            for (int i = 0; i < recordNum; i++) {
+                serial.record(random.nextInt(50000));
+            }
+        }
+        assertEquals(threadNum * recordNum, histogram.getCount());
+        assertEquals(serial.getMax(), histogram.getMax());
+        assertEquals(serial.getMean(), histogram.getMean());
+        for (double percentile : PERCENTILES) {
+            assertEquals("p" + percentile, serial.getValueAtPercentile(percentile), histogram.getValueAtPercentile(percentile));
+        }
+    }
+
+    @Test
+    public void snapshotAndReset() {
+        RESLatencyHistogram histogram = new RESLatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i * 1000);
+        }
+        RESLatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(100, snapshot.count);
+        assertEquals(histogram.getValueAtPercentile(50), snapshot.p50);
+        assertEquals(histogram.getValueAtPercentile(95), snapshot.p95);
+        assertEquals(histogram.getValueAtPercentile(99), snapshot.p99);
+        assertEquals(100000, snapshot.max);
+        assertEquals(50500, snapshot.mean);
+        assertWithinBound(50000, snapshot.p50);
+        assertWithinBound(95000, snapshot.p95);
+        assertWithinBound(99000, snapshot.p99);
+
+        histogram.reset();
+        //taken before reset,not changed by it
+        assertEquals(100, snapshot.count);
+        RESLatencyHistogram.Snapshot empty = histogram.snapshot();
+        assertEquals(0, empty.count);
+        assertEquals(0, empty.p50);
+        assertEquals(0, empty.p99);
+        assertEquals(0, empty.max);
+        assertEquals(0, empty.mean);
+        histogram.record(7);
+        assertEquals(7, histogram.snapshot().p50);
+        assertEquals(7, histogram.snapshot().max);
+    }
+
+    /**
+     * @return values sorted
+     */
+    private static long[] assertMatchesSorted(long[] values) {
+        RESLatencyHistogram histogram = new RESLatencyHistogram();
+        long sum = 0;
+        for (long value : values) {
+            histogram.record(value);
+            sum += value;
+        }
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        for (double percentile : PERCENTILES) {
+            long exact = sorted[(int) Math.ceil(percentile / 100 * sorted.length) - 1];
+            assertWithinBound(exact, histogram.getValueAtPercentile(percentile));
+        }
+        assertEquals(sorted[sorted.length - 1], histogram.getMax());
+        assertEquals(sum / values.length, histogram.getMean());
+        assertEquals(values.length, histogram.getCount());
+        return sorted;
+    }
+
+    /**
+     * same bucket as exact,so at most 1/32 above it
+     */
+    private static void assertWithinBound(long exact, long value) {
+        assertTrue(value + " below exact " + exact, value >= exact);
+        assertTrue(value + " too far from exact " + exact, value - exact <= exact / 32);
+    }
+}
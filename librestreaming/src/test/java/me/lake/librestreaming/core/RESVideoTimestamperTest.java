@@ -0,0 +1,109 @@
+package me.lake.librestreaming.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RESVideoTimestamperTest {
+    //25fps
+    private static final long INTERVAL_US = 40000;
+
+    @Test
+    public void withoutReorderDtsIsPts() {
+        RESVideoTimestamper timestamper = new RESVideoTimestamper(0);
+        for (int i = 0; i < 100; i++) {
+            timestamper.onInput(i * INTERVAL_US);
+            //encoder skips every 10th frame
+            if (i % 10 != 9) {
+                assertEquals(i * INTERVAL_US, timestamper.onOutput(i * INTERVAL_US));
+            }
+        }
+        assertEquals(0, timestamper.getDelayUs());
+    }
+
+    /**
+     * I0 P2 B1 P4 B3 ...,encoder configured with 1 B-frame
+     */
+    @Test
+    public void bFramesGetCompositionTime() {
+        RESVideoTimestamper timestamper = new RESVideoTimestamper(INTERVAL_US);
+        long[] outputPts = decodeOrder(41);
+        //dts of n-th output is pts of n-th input shifted by one frame
+        long[] expectedCompositionMs = new long[outputPts.length];
+        expectedCompositionMs[0] = 40;
+        for (int i = 1; i < outputPts.length; i++) {
+            expectedCompositionMs[i] = i % 2 == 1 ? 80 : 0;
+        }
+        long[] dts = run(timestamper, outputPts);
+        for (int i = 0; i < outputPts.length; i++) {
+            assertEquals("dts of output " + i, (i - 1) * INTERVAL_US, dts[i]);
+            assertEquals("CompositionTime of output " + i, expectedCompositionMs[i], (outputPts[i] - dts[i]) / 1000);
+        }
+        assertEquals(INTERVAL_US, timestamper.getDelayUs());
+    }
+
+    /**
+     * encoder uses B-frames it was not asked for,delay grows once
+     */
+    @Test
+    public void unexpectedBFramesGrowDelay() {
+        RESVideoTimestamper timestamper = new RESVideoTimestamper(0);
+        long[] outputPts = decodeOrder(41);
+        long[] dts = run(timestamper, outputPts);
+        assertEquals(INTERVAL_US, timestamper.getDelayUs());
+        //input of B1 was taken as skipped by P2,B1 keeps dts of P2 and grows delay
+        assertEquals(0, dts[0]);
+        assertEquals(2 * INTERVAL_US, dts[1]);
+        assertEquals(2 * INTERVAL_US, dts[2]);
+        for (int i = 3; i < outputPts.length; i++) {
+            assertEquals((i - 1) * INTERVAL_US, dts[i]);
+            assertTrue(dts[i] <= outputPts[i]);
+        }
+    }
+
+    @Test
+    public void resetRestoresInitialDelay() {
+        RESVideoTimestamper timestamper = new RESVideoTimestamper(0);
+        run(timestamper, decodeOrder(9));
+        assertEquals(INTERVAL_US, timestamper.getDelayUs());
+        timestamper.reset();
+        assertEquals(0, timestamper.getDelayUs());
+        timestamper.onInput(0);
+        assertEquals(0, timestamper.onOutput(0));
+    }
+
+    /**
+     * feeds inputs in display order one frame ahead of outputs,like an encoder holding one frame back
+     *
+     * @return dts of every output
+     */
+    private static long[] run(RESVideoTimestamper timestamper, long[] outputPts) {
+        long[] dts = new long[outputPts.length];
+        int inputNum = 0;
+        long lastDts = Long.MIN_VALUE;
+        for (int i = 0; i < outputPts.length; i++) {
+            while (inputNum * INTERVAL_US <= outputPts[i]) {
+                timestamper.onInput(inputNum * INTERVAL_US);
+                inputNum++;
+            }
+            dts[i] = timestamper.onOutput(outputPts[i]);
+            assertTrue("dts goes back at output " + i, dts[i] >= lastDts);
+            lastDts = dts[i];
+        }
+        return dts;
+    }
+
+    /**
+     * @param frameNum odd
+     * @return pts of I0 P2 B1 P4 B3 ... in output order
+     */
+    private static long[] decodeOrder(int frameNum) {
+        long[] pts = new long[frameNum];
+        for (int i = 1; i < frameNum; i += 2) {
+            pts[i] = (i + 1) * INTERVAL_US;
+            pts[i + 1] = i * INTERVAL_US;
+        }
+        return pts;
+    }
+}
@@ -0,0 +1,158 @@
+package me.lake.librestreaming.encoder;
+
+import android.media.MediaCodec;
+import android.os.HandlerThread;
+
+import org.junit.Test;
+
+import me.lake.librestreaming.core.RESEncoderStats;
+
+import static me.lake.librestreaming.encoder.VideoEncoderTest.FakeCodecFactory;
+import static me.lake.librestreaming.encoder.VideoEncoderTest.FlvCollector;
+import static me.lake.librestreaming.encoder.VideoEncoderTest.MODES;
+import static me.lake.librestreaming.encoder.VideoEncoderTest.WAIT_MS;
+import static me.lake.librestreaming.encoder.VideoEncoderTest.parameters;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * runs on the MediaCodec/HandlerThread test doubles in src/test/java/android
+ */
+public class AudioEncoderTest {
+
+    @Test(timeout = 20000)
+    public void reusesCodecAcrossSessions() throws Exception {
+        for (boolean isAsync : MODES) {
+            String mode = isAsync ? "async" : "sync";
+            FakeCodecFactory factory = new FakeCodecFactory();
+            AudioEncoder encoder = new AudioEncoder(parameters(), isAsync, factory);
+            MediaCodec codec = factory.last();
+            assertTrue(mode, codec.isConfigured());
+            Thread encodeThread = null;
+            for (int session = 1; session <= 3; session++) {
+                String at = mode + ",session " + session;
+                FlvCollector collector = new FlvCollector();
+                encoder.start(collector);
+                assertEquals(at, session, codec.startNum);
+                collector.awaitHeaders(1);
+                //AudioSpecificConfig of this session
+                assertArrayEquals(at, MediaCodec.csd(0x67, session), collector.getHeaders().get(0).byteBuffer);
+                codec.emitOutput(2, session * 1000, 0);
+                assertTrue(at, codec.awaitReleasedOutputs(session, WAIT_MS));
+                assertEquals(at, 1, collector.getFrames().size());
+                if (encodeThread == null) {
+                    encodeThread = codec.outputThread;
+                } else {
+                    assertSame(at, encodeThread, codec.outputThread);
+                }
+                encoder.stop();
+                assertTrue(at, codec.isConfigured());
+                assertEquals(at, session + 1, codec.configureNum);
+            }
+            assertEquals(mode, 1, factory.codecs.size());
+
+            HandlerThread.exitDelayMs = 50;
+            try {
+                encoder.release();
+            } finally {
+                HandlerThread.exitDelayMs = 0;
+            }
+            assertFalse(mode + ",encode thread joined", encodeThread.isAlive());
+            assertTrue(mode, codec.isReleased());
+            encoder.stop();
+        }
+    }
+
+    /**
+     * reconfigure at stop fails,so does the codec replacing it,next start configures the new one
+     */
+    @Test(timeout = 20000)
+    public void recreatesCodecAfterFailedConfigure() throws Exception {
+        for (boolean isAsync : MODES) {
+            String mode = isAsync ? "async" : "sync";
+            FakeCodecFactory factory = new FakeCodecFactory();
+            AudioEncoder encoder = new AudioEncoder(parameters(), isAsync, factory);
+            MediaCodec first = factory.last();
+            FlvCollector collector = new FlvCollector();
+            encoder.start(collector);
+            collector.awaitHeaders(1);
+            first.failConfigureNum = 1;
+            factory.failConfigureNum = 1;
+            encoder.stop();
+            assertTrue(mode, first.isReleased());
+            assertEquals(mode, 2, factory.codecs.size());
+            MediaCodec second = factory.last();
+            assertFalse(mode, second.isConfigured());
+
+            collector = new FlvCollector();
+            encoder.start(collector);
+            assertTrue(mode, second.isRunning());
+            collector.awaitHeaders(1);
+            second.emitOutput(1, 1000, 0);
+            assertTrue(mode, second.awaitReleasedOutputs(1, WAIT_MS));
+            assertEquals(mode, 1, collector.getFrames().size());
+            encoder.stop();
+            assertTrue(mode, second.isConfigured());
+            encoder.release();
+            assertTrue(mode, second.isReleased());
+        }
+    }
+
+    /**
+     * output index 0 is sent,pcm without a free input buffer is dropped and counted
+     */
+    @Test(timeout = 20000)
+    public void sendsIndexZeroAndDropsWithoutInputBuffer() throws Exception {
+        for (boolean isAsync : MODES) {
+            String mode = isAsync ? "async" : "sync";
+            FakeCodecFactory factory = new FakeCodecFactory();
+            AudioEncoder encoder = new AudioEncoder(parameters(), isAsync, factory);
+            MediaCodec codec = factory.last();
+            FlvCollector collector = new FlvCollector();
+            encoder.start(collector);
+            collector.awaitHeaders(1);
+            byte[] pcm = new byte[2048];
+            encoder.queueData(pcm, pcm.length, 0);
+            codec.emitOutput(0, 0, 0);
+            assertTrue(mode, codec.awaitReleasedOutputs(1, WAIT_MS));
+            assertEquals(mode, 1, collector.getFrames().size());
+            assertEquals(mode, 0, collector.getFrames().get(0).byteBuffer[0]);
+
+            codec.isInputWithheld = true;
+            long ptsUs = 23220;
+            for (int i = 0; i < MediaCodec.INPUT_BUFFER_NUM; i++, ptsUs += 23220) {
+                encoder.queueData(pcm, pcm.length, ptsUs);
+            }
+            long startNs = System.nanoTime();
+            encoder.queueData(pcm, pcm.length, ptsUs);
+            encoder.queueData(pcm, pcm.length, ptsUs + 23220);
+            long costMs = (System.nanoTime() - startNs) / 1000000;
+            assertTrue(mode + ",blocked " + costMs + "ms", costMs < 400);
+            assertEquals(mode, 1 + MediaCodec.INPUT_BUFFER_NUM, codec.queuedInputNum);
+            RESEncoderStats.Snapshot stats = encoder.getStats();
+            assertEquals(mode, 2, stats.droppedInputNum);
+            assertEquals(mode, MediaCodec.INPUT_BUFFER_NUM, stats.queueDepth);
+            assertEquals(mode, 1, stats.latency.count);
+            encoder.release();
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void stopReturnsWithoutOutput() throws Exception {
+        for (boolean isAsync : MODES) {
+            FakeCodecFactory factory = new FakeCodecFactory();
+            factory.isFormatEmitted = false;
+            AudioEncoder encoder = new AudioEncoder(parameters(), isAsync, factory);
+            FlvCollector collector = new FlvCollector();
+            encoder.start(collector);
+            Thread.sleep(20);
+            encoder.stop();
+            assertTrue(factory.last().isConfigured());
+            assertTrue(collector.getHeaders().isEmpty());
+            encoder.release();
+        }
+    }
+}
@@ -0,0 +1,334 @@
+package me.lake.librestreaming.encoder;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.os.HandlerThread;
+import android.view.Surface;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import me.lake.librestreaming.core.RESEncoderStats;
+import me.lake.librestreaming.model.RESCoreParameters;
+import me.lake.librestreaming.rtmp.RESFlvData;
+import me.lake.librestreaming.rtmp.RESFlvDataCollecter;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * runs on the MediaCodec/HandlerThread test doubles in src/test/java/android
+ */
+public class VideoEncoderTest {
+    static final boolean[] MODES = {false, true};
+    static final long WAIT_MS = 2000;
+
+    @Test(timeout = 20000)
+    public void reusesCodecAcrossSessions() throws Exception {
+        for (boolean isAsync : MODES) {
+            String mode = isAsync ? "async" : "sync";
+            FakeCodecFactory factory = new FakeCodecFactory();
+            RESCoreParameters parameters = parameters();
+            VideoEncoder encoder = new VideoEncoder(parameters, isAsync, factory);
+            MediaCodec codec = factory.last();
+            //configured in prepare
+            assertTrue(mode, codec.isConfigured());
+            Thread encodeThread = null;
+            for (int session = 1; session <= 3; session++) {
+                String at = mode + ",session " + session;
+                FlvCollector collector = new FlvCollector();
+                Surface surface = encoder.getInputSurface();
+                encoder.start(collector);
+                assertEquals(at, session, codec.startNum);
+                collector.awaitHeaders(1);
+                assertArrayEquals(at, videoHeader(session), collector.getHeaders().get(0).byteBuffer);
+                codec.emitOutput(0, session * 1000, MediaCodec.BUFFER_FLAG_KEY_FRAME);
+                assertTrue(at, codec.awaitReleasedOutputs(session, WAIT_MS));
+                assertEquals(at, 1, collector.getFrames().size());
+                assertTrue(at, collector.getFrames().get(0).isKeyframe());
+                if (encodeThread == null) {
+                    encodeThread = codec.outputThread;
+                } else {
+                    assertSame(at, encodeThread, codec.outputThread);
+                }
+
+                encoder.stop();
+                assertTrue(at, surface.isReleased);
+                //configured again for next session
+                assertTrue(at, codec.isConfigured());
+                assertEquals(at, session + 1, codec.configureNum);
+            }
+            //resize while stopped keeps the codec
+            parameters.videoWidth = 32;
+            parameters.videoHeight = 64;
+            encoder.resize();
+            assertTrue(mode, codec.isConfigured());
+            assertEquals(mode, 32, codec.configuredFormat.getInteger(MediaFormat.KEY_WIDTH));
+            assertEquals(mode, 64, codec.configuredFormat.getInteger(MediaFormat.KEY_HEIGHT));
+            FlvCollector collector = new FlvCollector();
+            encoder.start(collector);
+            collector.awaitHeaders(1);
+            encoder.stop();
+            assertEquals(mode, 1, factory.codecs.size());
+
+            HandlerThread.exitDelayMs = 50;
+            try {
+                encoder.release();
+            } finally {
+                HandlerThread.exitDelayMs = 0;
+            }
+            assertFalse(mode + ",encode thread joined", encodeThread.isAlive());
+            assertTrue(mode, codec.isReleased());
+            encoder.stop();
+        }
+    }
+
+    /**
+     * reconfigure at stop fails,so does the codec replacing it,next start configures the new one
+     */
+    @Test(timeout = 20000)
+    public void recreatesCodecAfterFailedConfigure() throws Exception {
+        for (boolean isAsync : MODES) {
+            String mode = isAsync ? "async" : "sync";
+            FakeCodecFactory factory = new FakeCodecFactory();
+            VideoEncoder encoder = new VideoEncoder(parameters(), isAsync, factory);
+            MediaCodec first = factory.last();
+            FlvCollector collector = new FlvCollector();
+            encoder.start(collector);
+            collector.awaitHeaders(1);
+            first.failConfigureNum = 1;
+            factory.failConfigureNum = 1;
+            encoder.stop();
+            assertTrue(mode, first.isReleased());
+            assertEquals(mode, 2, factory.codecs.size());
+            MediaCodec second = factory.last();
+            assertFalse(mode, second.isConfigured());
+
+            collector = new FlvCollector();
+            encoder.start(collector);
+            assertTrue(mode, second.isRunning());
+            collector.awaitHeaders(1);
+            assertArrayEquals(mode, videoHeader(1), collector.getHeaders().get(0).byteBuffer);
+            second.emitOutput(1, 1000, 0);
+            assertTrue(mode, second.awaitReleasedOutputs(1, WAIT_MS));
+            assertEquals(mode, 1, collector.getFrames().size());
+            encoder.stop();
+            assertTrue(mode, second.isConfigured());
+            encoder.release();
+            assertTrue(mode, second.isReleased());
+        }
+    }
+
+    @Test
+    public void failsWithoutCodec() {
+        FakeCodecFactory factory = new FakeCodecFactory();
+        factory.isUnavailable = true;
+        try {
+            new VideoEncoder(parameters(), false, factory);
+            fail();
+        } catch (RuntimeException expected) {
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void stopReturnsWithoutOutput() throws Exception {
+        for (boolean isAsync : MODES) {
+            FakeCodecFactory factory = new FakeCodecFactory();
+            factory.isFormatEmitted = false;
+            VideoEncoder encoder = new VideoEncoder(parameters(), isAsync, factory);
+            FlvCollector collector = new FlvCollector();
+            encoder.getInputSurface();
+            encoder.start(collector);
+            Thread.sleep(20);
+            encoder.stop();
+            assertTrue(factory.last().isConfigured());
+            assertTrue(collector.getHeaders().isEmpty());
+            encoder.release();
+        }
+    }
+
+    /**
+     * encoder holding every input buffer,frames are dropped after INPUT_WAIT_US and counted
+     */
+    @Test(timeout = 20000)
+    public void dropsFrameWithoutInputBuffer() throws Exception {
+        for (boolean isAsync : MODES) {
+            String mode = isAsync ? "async" : "sync";
+            FakeCodecFactory factory = new FakeCodecFactory();
+            VideoEncoder encoder = new VideoEncoder(parameters(), isAsync, factory);
+            MediaCodec codec = factory.last();
+            FlvCollector collector = new FlvCollector();
+            encoder.start(collector);
+            collector.awaitHeaders(1);
+            codec.isInputWithheld = true;
+            byte[] frame = new byte[64];
+            long timeMs = 0;
+            for (int i = 0; i < MediaCodec.INPUT_BUFFER_NUM; i++, timeMs += 33) {
+                encoder.queueData(frame, timeMs);
+            }
+            assertEquals(mode, MediaCodec.INPUT_BUFFER_NUM, codec.queuedInputNum);
+            for (int i = 0; i < 5; i++, timeMs += 33) {
+                long startNs = System.nanoTime();
+                encoder.queueData(frame, timeMs);
+                long costMs = (System.nanoTime() - startNs) / 1000000;
+                assertTrue(mode + ",blocked " + costMs + "ms", costMs < 200);
+            }
+            assertEquals(mode, MediaCodec.INPUT_BUFFER_NUM, codec.queuedInputNum);
+            RESEncoderStats.Snapshot stats = encoder.getStats();
+            assertEquals(mode, 5, stats.droppedInputNum);
+            assertEquals(mode, MediaCodec.INPUT_BUFFER_NUM, stats.queueDepth);
+
+            //outputs of the queued frames,index 0 included
+            for (int i = 0; i < MediaCodec.INPUT_BUFFER_NUM; i++) {
+                codec.emitOutput(i, i * 33 * 1000, i == 0 ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0);
+            }
+            assertTrue(mode, codec.awaitReleasedOutputs(MediaCodec.INPUT_BUFFER_NUM, WAIT_MS));
+            List<RESFlvData> frames = collector.getFrames();
+            assertEquals(mode, MediaCodec.INPUT_BUFFER_NUM, frames.size());
+            for (int i = 0; i < frames.size(); i++) {
+                assertEquals(mode, i, frames.get(i).byteBuffer[0]);
+            }
+            stats = encoder.getStats();
+            assertEquals(mode, 0, stats.queueDepth);
+            assertEquals(mode, MediaCodec.INPUT_BUFFER_NUM, stats.latency.count);
+
+            encoder.stop();
+            assertEquals(mode + ",kept after stop", 5, encoder.getStats().droppedInputNum);
+            encoder.start(new FlvCollector());
+            assertEquals(mode + ",reset by start", 0, encoder.getStats().droppedInputNum);
+            encoder.release();
+        }
+    }
+
+    /**
+     * 60 frames leaving the encoder after 10ms,4 after 60ms
+     */
+    @Test(timeout = 20000)
+    public void statsFollowScriptedOutputs() throws Exception {
+        for (boolean isAsync : MODES) {
+            String mode = isAsync ? "async" : "sync";
+            FakeCodecFactory factory = new FakeCodecFactory();
+            VideoEncoder encoder = new VideoEncoder(parameters(), isAsync, factory);
+            MediaCodec codec = factory.last();
+            FlvCollector collector = new FlvCollector();
+            encoder.start(collector);
+            collector.awaitHeaders(1);
+            long timeMs = 0;
+            int outputNum = 0;
+            for (int round = 0; round < 22; round++) {
+                int depth = round < 20 ? 3 : 2;
+                long delayMs = round < 20 ? 10 : 60;
+                long firstTimeMs = timeMs;
+                for (int i = 0; i < depth; i++, timeMs += 33) {
+                    encoder.queueData(new byte[64], timeMs);
+                }
+                assertEquals(mode, depth, encoder.getStats().queueDepth);
+                Thread.sleep(delayMs);
+                for (int i = 0; i < depth; i++) {
+                    codec.emitOutput(i, (firstTimeMs + i * 33) * 1000, 0);
+                }
+                outputNum += depth;
+                assertTrue(mode, codec.awaitReleasedOutputs(outputNum, WAIT_MS));
+                assertEquals(mode, 0, encoder.getStats().queueDepth);
+            }
+            RESEncoderStats.Snapshot stats = encoder.getStats();
+            String at = mode + "," + stats;
+            assertEquals(at, 64, stats.latency.count);
+            assertEquals(at, 3, stats.maxQueueDepth);
+            assertEquals(at, 0, stats.droppedInputNum);
+            assertEquals(at, 0, stats.errorNum);
+            assertTrue(at, stats.latency.p50 >= 10000 && stats.latency.p50 < 40000);
+            assertTrue(at, stats.latency.p95 >= 60000 && stats.latency.p95 < 120000);
+            assertTrue(at, stats.latency.p99 >= 60000 && stats.latency.p99 < 120000);
+            assertTrue(at, stats.latency.max >= 60000);
+            assertEquals(at, 64, collector.getFrames().size());
+            encoder.release();
+        }
+    }
+
+    static RESCoreParameters parameters() {
+        RESCoreParameters parameters = new RESCoreParameters();
+        parameters.videoWidth = 16;
+        parameters.videoHeight = 16;
+        parameters.mediacdoecAVCBitRate = 1000 * 1000;
+        parameters.mediacodecAVCFrameRate = 30;
+        return parameters;
+    }
+
+    /**
+     * sps+pps of the output format of a session
+     */
+    private static byte[] videoHeader(int session) {
+        byte[] sps = MediaCodec.csd(0x67, session);
+        byte[] pps = MediaCodec.csd(0x68, session);
+        byte[] header = new byte[sps.length + pps.length];
+        System.arraycopy(sps, 0, header, 0, sps.length);
+        System.arraycopy(pps, 0, header, sps.length, pps.length);
+        return header;
+    }
+
+    static class FakeCodecFactory implements MediaCodecFactory {
+        final List<MediaCodec> codecs = new CopyOnWriteArrayList<>();
+        /**
+         * configure() calls failing on next codec created
+         */
+        volatile int failConfigureNum = 0;
+        volatile boolean isFormatEmitted = true;
+        volatile boolean isUnavailable = false;
+
+        @Override
+        public MediaCodec create(RESCoreParameters resCoreParameters, MediaFormat format) {
+            if (isUnavailable) {
+                return null;
+            }
+            format.setInteger(MediaFormat.KEY_WIDTH, resCoreParameters.videoWidth);
+            format.setInteger(MediaFormat.KEY_HEIGHT, resCoreParameters.videoHeight);
+            MediaCodec codec = new MediaCodec();
+            codec.failConfigureNum = failConfigureNum;
+            failConfigureNum = 0;
+            codec.isFormatEmitted = isFormatEmitted;
+            codecs.add(codec);
+            return codec;
+        }
+
+        MediaCodec last() {
+            return codecs.get(codecs.size() - 1);
+        }
+    }
+
+    static class FlvCollector implements RESFlvDataCollecter {
+        private final List<RESFlvData> headers = new ArrayList<>();
+        private final List<RESFlvData> frames = new ArrayList<>();
+
+        @Override
+        public synchronized void collect(RESFlvData flvData, int type) {
+            if (flvData.isSequenceHeader) {
+                headers.add(flvData);
+            } else {
+                frames.add(flvData);
+            }
+            notifyAll();
+        }
+
+        synchronized void awaitHeaders(int num) throws InterruptedException {
+            while (headers.size() < num) {
+                wait();
+            }
+        }
+
+        synchronized List<RESFlvData> getHeaders() {
+            return new ArrayList<>(headers);
+        }
+
+        synchronized List<RESFlvData> getFrames() {
+            return new ArrayList<>(frames);
+        }
+    }
+}
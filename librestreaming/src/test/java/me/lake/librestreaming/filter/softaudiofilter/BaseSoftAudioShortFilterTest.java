@@ -0,0 +1,145 @@
+package me.lake.librestreaming.filter.softaudiofilter;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import me.lake.librestreaming.tools.PcmTools;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BaseSoftAudioShortFilterTest {
+    //100ms of 44.1k mono
+    private static final int SIZE = 4410 * 2;
+    private static final int FRAME_NUM = 400;
+
+    /**
+     * bgm mix written on pcm bytes and on shorts,bit-exact through the byte bridge,
+     * wraparound of the mix included
+     */
+    @Test
+    public void shortMixEqualsByteMix() {
+        for (int inPlace = 0; inPlace < 2; inPlace++) {
+            Random random = new Random(inPlace);
+            byte[] bgm = new byte[SIZE * 4];
+            random.nextBytes(bgm);
+            ByteMixFilter byteFilter = new ByteMixFilter(bgm);
+            ShortMixFilter shortFilter = new ShortMixFilter(bgm, inPlace == 1);
+            byteFilter.onInit(SIZE);
+            shortFilter.onInit(SIZE);
+            for (int frame = 0; frame < FRAME_NUM; frame++) {
+                byte[] orign = new byte[SIZE];
+                random.nextBytes(orign);
+                byte[] byteTarget = new byte[SIZE];
+                byte[] shortTarget = new byte[SIZE];
+                byte[] orignCopy = orign.clone();
+                assertTrue(byteFilter.onFrame(orign, byteTarget, 0, frame));
+                assertTrue(shortFilter.onFrame(orignCopy, shortTarget, 0, frame));
+                assertArrayEquals("frame " + frame, byteTarget, shortTarget);
+                assertArrayEquals("orignBuff untouched,frame " + frame, orign, orignCopy);
+            }
+        }
+    }
+
+    /**
+     * float bridge rounds and clamps,same as doing it on shorts
+     */
+    @Test
+    public void floatGainEqualsShortGain() {
+        Random random = new Random(2);
+        FloatGainFilter floatFilter = new FloatGainFilter(2.5f);
+        floatFilter.onInit(SIZE);
+        for (int frame = 0; frame < 50; frame++) {
+            byte[] orign = new byte[SIZE];
+            random.nextBytes(orign);
+            short[] samples = new short[SIZE / 2];
+            PcmTools.bytesToShorts(orign, samples, samples.length);
+            for (int i = 0; i < samples.length; i++) {
+                samples[i] = PcmTools.clamp(Math.round(samples[i] * 2.5f));
+            }
+            byte[] expected = new byte[SIZE];
+            PcmTools.shortsToBytes(samples, expected, samples.length);
+            byte[] target = new byte[SIZE];
+            assertTrue(floatFilter.onFrame(orign, target, 0, frame));
+            assertArrayEquals("frame " + frame, expected, target);
+        }
+    }
+
+    /**
+     * PcmBgmAudioFilter of the sample before it took shorts
+     */
+    static class ByteMixFilter extends BaseSoftAudioFilter {
+        private final byte[] bgmStream;
+        private int bgmPos;
+
+        ByteMixFilter(byte[] bgmStream) {
+            this.bgmStream = bgmStream;
+        }
+
+        @Override
+        public boolean onFrame(byte[] orignBuff, byte[] targetBuff, long presentationTimeMs, int sequenceNum) {
+            for (int i = 0; i < SIZE; i += 2) {
+                int b = (bgmPos + i) % bgmStream.length;
+                short origin = (short) (((orignBuff[i + 1] << 8) | orignBuff[i] & 0xff));
+                short bg = (short) (((bgmStream[b + 1] << 8) | bgmStream[b] & 0xff));
+                bg /= 32;
+                origin *= 4;
+                short res = (short) (origin + bg);
+                targetBuff[i + 1] = (byte) (res >> 8);
+                targetBuff[i] = (byte) (res);
+            }
+            bgmPos = (bgmPos + SIZE) % bgmStream.length;
+            return true;
+        }
+    }
+
+    static class ShortMixFilter extends BaseSoftAudioShortFilter {
+        private final short[] bgmStream;
+        private final boolean inPlace;
+        private int bgmPos;
+
+        ShortMixFilter(byte[] bgmStream, boolean inPlace) {
+            this.bgmStream = new short[bgmStream.length / 2];
+            PcmTools.bytesToShorts(bgmStream, this.bgmStream, this.bgmStream.length);
+            this.inPlace = inPlace;
+        }
+
+        @Override
+        public boolean onFrame(short[] orignSamples, short[] targetSamples, long presentationTimeMs, int sequenceNum) {
+            for (int i = 0; i < SAMPLE_NUM; i++) {
+                short origin = (short) (orignSamples[i] * 4);
+                short bg = (short) (bgmStream[(bgmPos + i) % bgmStream.length] / 32);
+                targetSamples[i] = (short) (origin + bg);
+            }
+            bgmPos = (bgmPos + SAMPLE_NUM) % bgmStream.length;
+            return true;
+        }
+
+        @Override
+        public boolean isInPlace() {
+            return inPlace;
+        }
+    }
+
+    static class FloatGainFilter extends BaseSoftAudioFloatFilter {
+        private final float gain;
+
+        FloatGainFilter(float gain) {
+            this.gain = gain;
+        }
+
+        @Override
+        public boolean onFrame(float[] orignSamples, float[] targetSamples, long presentationTimeMs, int sequenceNum) {
+            for (int i = 0; i < SAMPLE_NUM; i++) {
+                targetSamples[i] = orignSamples[i] * gain;
+            }
+            return true;
+        }
+
+        @Override
+        public boolean isInPlace() {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,348 @@
+package me.lake.librestreaming.filter.softaudiofilter;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BgmMixAudioFilterTest {
+    private static final int AMPLITUDE = 10000;
+
+    @Test
+    public void sameRatePassesThrough() {
+        short[] in = sine(22050, 44100, 440);
+        short[] out = readAll(new BgmMixAudioFilter.LinearResampler(new ArrayDecoder(in, 44100, 1, 0), 44100), 4096);
+        assertArrayEquals(in, out);
+    }
+
+    /**
+     * even outputs hit input samples,odd ones are halfway
+     */
+    @Test
+    public void upsamplesByInterpolation() {
+        short[] in = noise(5000, 1);
+        short[] out = readAll(new BgmMixAudioFilter.LinearResampler(new ArrayDecoder(in, 22050, 1, 0), 44100), 4096);
+        assertEquals(2 * in.length - 1, out.length);
+        for (int k = 0; k < in.length; k++) {
+            assertEquals("sample " + 2 * k, in[k], out[2 * k]);
+            if (k + 1 < in.length) {
+                assertEquals("sample " + (2 * k + 1), Math.round(in[k] + (in[k + 1] - in[k]) * 0.5), out[2 * k + 1]);
+            }
+        }
+    }
+
+    /**
+     * 48k sine to 44.1k,every output within linear interpolation error of the real curve
+     */
+    @Test
+    public void downsamplesSineAccurately() {
+        int inRate = 48000;
+        int outRate = 44100;
+        int frequency = 440;
+        short[] in = sine(inRate * 3, inRate, frequency);
+        short[] out = readAll(new BgmMixAudioFilter.LinearResampler(new ArrayDecoder(in, inRate, 1, 0), outRate), 4096);
+        double step = inRate / (double) outRate;
+        int expectedNum = (int) ((in.length - 1) / step) + 1;
+        assertTrue("got " + out.length + " instead of " + expectedNum, Math.abs(out.length - expectedNum) <= 1);
+        //A*(w*h)^2/8 between two samples,plus rounding
+        double w = 2 * Math.PI * frequency / inRate;
+        double maxError = AMPLITUDE * w * w / 8 + 1;
+        for (int k = 0; k < out.length; k++) {
+            double expected = AMPLITUDE * Math.sin(w * k * step);
+            assertTrue("sample " + k + " is " + out[k] + " instead of " + expected, Math.abs(out[k] - expected) <= maxError);
+        }
+    }
+
+    @Test
+    public void downmixesStereo() {
+        short[] stereo = noise(8000, 2);
+        short[] mono = new short[stereo.length / 2];
+        for (int k = 0; k < mono.length; k++) {
+            mono[k] = (short) ((stereo[2 * k] + stereo[2 * k + 1]) / 2);
+        }
+        short[] out = readAll(new BgmMixAudioFilter.LinearResampler(new ArrayDecoder(stereo, 44100, 2, 0), 44100), 4096);
+        assertArrayEquals(mono, out);
+    }
+
+    /**
+     * decoder returning a few samples at a time and reads of any size,same stream as reading all at once
+     */
+    @Test
+    public void shortDecoderReadsGiveSameStream() {
+        for (int inRate : new int[]{8000, 22050, 44100, 48000}) {
+            for (int channelCount = 1; channelCount <= 2; channelCount++) {
+                short[] in = noise(6000 * channelCount, 3);
+                short[] expected = readAll(new BgmMixAudioFilter.LinearResampler(new ArrayDecoder(in, inRate, channelCount, 0), 44100), 100000);
+                Random random = new Random(inRate + channelCount);
+                ArrayDecoder decoder = new ArrayDecoder(in, inRate, channelCount, 1 + random.nextInt(300));
+                BgmMixAudioFilter.LinearResampler resampler = new BgmMixAudioFilter.LinearResampler(decoder, 44100);
+                short[] out = new short[expected.length + 1];
+                int outNum = 0;
+                int num;
+                while ((num = resampler.read(out, outNum, Math.min(1 + random.nextInt(700), out.length - outNum))) > 0) {
+                    outNum += num;
+                }
+                assertArrayEquals("rate " + inRate + ",channels " + channelCount, expected, Arrays.copyOf(out, outNum));
+            }
+        }
+    }
+
+    @Test
+    public void endsAndRestartsAfterReset() {
+        short[] in = noise(3000, 4);
+        ArrayDecoder decoder = new ArrayDecoder(in, 32000, 1, 0);
+        BgmMixAudioFilter.LinearResampler resampler = new BgmMixAudioFilter.LinearResampler(decoder, 44100);
+        short[] first = readAll(resampler, 4096);
+        assertEquals(-1, resampler.read(new short[16], 0, 16));
+        assertEquals(-1, resampler.read(new short[16], 0, 16));
+        decoder.rewind();
+        resampler.reset();
+        assertArrayEquals(first, readAll(resampler, 4096));
+    }
+
+    /**
+     * decoder stalls,frames mix what the ring holds,leave the rest untouched and count underruns.
+     * every delivered sample is mixed once and in order.
+     */
+    @Test
+    public void underrunLeavesFrameUnmixed() throws Exception {
+        final int frameNum = 1500;
+        final short mic = 100;
+        ChunkDecoder decoder = new ChunkDecoder(44100);
+        BgmMixAudioFilter filter = new BgmMixAudioFilter(decoder);
+        filter.onInit(frameNum * 2, 44100);
+        short[] frame = new short[frameNum];
+        int[] bgmPos = new int[1];
+        try {
+            //nothing decoded yet
+            Arrays.fill(frame, mic);
+            assertFalse(filter.onFrame(frame, frame, 0, 0));
+            assertEquals(1, filter.getUnderrunCount());
+            assertTrue(allEqual(frame, 0, frameNum, mic));
+
+            //resampler keeps one sample for interpolation,so 2048 reach the ring
+            decoder.deliver(0, 2048);
+            decoder.deliver(2048, 952);
+            decoder.awaitReads(3);
+            assertTrue(mixFrame(filter, frame, mic, bgmPos));
+            assertEquals(frameNum, bgmPos[0]);
+            assertEquals(1, filter.getUnderrunCount());
+            assertTrue(mixFrame(filter, frame, mic, bgmPos));
+            assertEquals(2048, bgmPos[0]);
+            assertEquals(2, filter.getUnderrunCount());
+            assertTrue("rest of partial frame is mic only", allEqual(frame, 548, frameNum, mic));
+            assertFalse(mixFrame(filter, frame, mic, bgmPos));
+            assertEquals(3, filter.getUnderrunCount());
+
+            decoder.deliver(3000, 2048);
+            decoder.awaitReads(4);
+            assertTrue(mixFrame(filter, frame, mic, bgmPos));
+            assertEquals(2048 + frameNum, bgmPos[0]);
+            assertEquals(3, filter.getUnderrunCount());
+
+            decoder.end();
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!filter.isFinished()) {
+                assertTrue("music never finished", System.currentTimeMillis() < deadline);
+                if (!mixFrame(filter, frame, mic, bgmPos)) {
+                    Thread.sleep(1);
+                }
+            }
+            assertEquals(2048 + 952 + 2048, bgmPos[0]);
+            assertTrue(filter.isPassthrough());
+        } finally {
+            decoder.end();
+            filter.onDestroy();
+        }
+    }
+
+    /**
+     * @return onFrame result,mixed samples checked against bgm stream and counted into bgmPos
+     */
+    private static boolean mixFrame(BgmMixAudioFilter filter, short[] frame, short mic, int[] bgmPos) {
+        Arrays.fill(frame, mic);
+        boolean mixed = filter.onFrame(frame, frame, 0, 0);
+        for (int i = 0; i < frame.length && frame[i] != mic; i++) {
+            assertEquals("bgm sample " + bgmPos[0], mic + ChunkDecoder.sampleAt(bgmPos[0]), frame[i]);
+            bgmPos[0]++;
+        }
+        return mixed;
+    }
+
+    private static boolean allEqual(short[] samples, int from, int to, short value) {
+        for (int i = from; i < to; i++) {
+            if (samples[i] != value) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static short[] readAll(BgmMixAudioFilter.LinearResampler resampler, int readNum) {
+        short[] out = new short[readNum];
+        int outNum = 0;
+        int num;
+        while ((num = resampler.read(out, outNum, readNum)) > 0) {
+            outNum += num;
+            if (out.length - outNum < readNum) {
+                out = Arrays.copyOf(out, out.length * 2);
+            }
+        }
+        return Arrays.copyOf(out, outNum);
+    }
+
+    private static short[] sine(int sampleNum, int sampleRate, int frequency) {
+        short[] samples = new short[sampleNum];
+        for (int k = 0; k < sampleNum; k++) {
+            samples[k] = (short) Math.round(AMPLITUDE * Math.sin(2 * Math.PI * frequency * k / sampleRate));
+        }
+        return samples;
+    }
+
+    private static short[] noise(int sampleNum, long seed) {
+        Random random = new Random(seed);
+        short[] samples = new short[sampleNum];
+        for (int k = 0; k < sampleNum; k++) {
+            samples[k] = (short) random.nextInt(1 << 16);
+        }
+        return samples;
+    }
+
+    static class ArrayDecoder implements BgmDecoder {
+        private final short[] samples;
+        private final int sampleRate;
+        private final int channelCount;
+        private final int maxRead;
+        private int pos;
+
+        /**
+         * @param maxRead frames per read at most,0 for no limit
+         */
+        ArrayDecoder(short[] samples, int sampleRate, int channelCount, int maxRead) {
+            this.samples = samples;
+            this.sampleRate = sampleRate;
+            this.channelCount = channelCount;
+            this.maxRead = maxRead;
+        }
+
+        @Override
+        public int getSampleRate() {
+            return sampleRate;
+        }
+
+        @Override
+        public int getChannelCount() {
+            return channelCount;
+        }
+
+        @Override
+        public int read(short[] dst, int offset, int sampleNum) {
+            if (pos == samples.length) {
+                return -1;
+            }
+            int num = Math.min(sampleNum, samples.length - pos);
+            if (maxRead > 0) {
+                num = Math.min(num, maxRead * channelCount);
+            }
+            System.arraycopy(samples, pos, dst, offset, num);
+            pos += num;
+            return num;
+        }
+
+        @Override
+        public void rewind() {
+            pos = 0;
+        }
+
+        @Override
+        public void release() {
+        }
+    }
+
+    /**
+     * mono,blocks until the test delivers samples
+     */
+    static class ChunkDecoder implements BgmDecoder {
+        private static final short[] END = new short[0];
+        private final int sampleRate;
+        private final LinkedBlockingQueue<short[]> chunks = new LinkedBlockingQueue<>();
+        private final Semaphore readCalls = new Semaphore(0);
+        private short[] current;
+        private int currentPos;
+
+        ChunkDecoder(int sampleRate) {
+            this.sampleRate = sampleRate;
+        }
+
+        static short sampleAt(int pos) {
+            return (short) (pos % 1000 + 1);
+        }
+
+        void deliver(int from, int num) {
+            short[] chunk = new short[num];
+            for (int i = 0; i < num; i++) {
+                chunk[i] = sampleAt(from + i);
+            }
+            chunks.add(chunk);
+        }
+
+        void end() {
+            chunks.add(END);
+        }
+
+        /**
+         * wait until read was entered readNum times in total
+         */
+        void awaitReads(int readNum) throws InterruptedException {
+            assertTrue("decoder not read", readCalls.tryAcquire(readNum, 5, TimeUnit.SECONDS));
+            readCalls.release(readNum);
+        }
+
+        @Override
+        public int getSampleRate() {
+            return sampleRate;
+        }
+
+        @Override
+        public int getChannelCount() {
+            return 1;
+        }
+
+        @Override
+        public int read(short[] dst, int offset, int sampleNum) {
+            readCalls.release();
+            if (current == null || currentPos == current.length) {
+                try {
+                    current = chunks.poll(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    current = null;
+                }
+                currentPos = 0;
+                if (current == null || current == END) {
+                    current = END;
+                    return -1;
+                }
+            }
+            int num = Math.min(sampleNum, current.length - currentPos);
+            System.arraycopy(current, currentPos, dst, offset, num);
+            currentPos += num;
+            return num;
+        }
+
+        @Override
+        public void rewind() {
+        }
+
+        @Override
+        public void release() {
+        }
+    }
+}
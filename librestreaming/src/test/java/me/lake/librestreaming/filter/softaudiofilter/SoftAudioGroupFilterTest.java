@@ -0,0 +1,315 @@
+package me.lake.librestreaming.filter.softaudiofilter;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static me.lake.librestreaming.filter.softaudiofilter.BaseSoftAudioShortFilterTest.ByteMixFilter;
+import static me.lake.librestreaming.filter.softaudiofilter.BaseSoftAudioShortFilterTest.FloatGainFilter;
+import static me.lake.librestreaming.filter.softaudiofilter.BaseSoftAudioShortFilterTest.ShortMixFilter;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SoftAudioGroupFilterTest {
+    private static final int SIZE = 64;
+    private static final int FRAME_NUM = 4;
+    private static final int VOLUME = 0;
+    private static final int BGM = 1;
+    private static final int BYTE_SWAP = 2;
+    private static final int BYTE_IN_PLACE = 3;
+    private static final int PASS_VOLUME = 4;
+    private static final int NO_OP = 5;
+    private static final int FLOAT_GAIN = 6;
+    private static final int DECLINE = 7;
+    private static final int FILTER_TYPE_NUM = 8;
+    private static final byte[] BGM_STREAM = new byte[SIZE * 3];
+
+    static {
+        new Random(7).nextBytes(BGM_STREAM);
+    }
+
+    /**
+     * every order of in place,swapping,passthrough and declining filters,
+     * group output equals applying each filter alone
+     */
+    @Test
+    public void anyOrderEqualsFiltersAlone() {
+        int[] order = new int[FILTER_TYPE_NUM];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        int permutationNum = 0;
+        do {
+            assertChainEqualsAlone(order);
+            permutationNum++;
+        } while (nextPermutation(order));
+        assertEquals(40320, permutationNum);
+    }
+
+    /**
+     * shorter chains,so every filter is also first,last and alone next to each kind
+     */
+    @Test
+    public void pairsEqualFiltersAlone() {
+        for (int a = 0; a < FILTER_TYPE_NUM; a++) {
+            assertChainEqualsAlone(new int[]{a});
+            for (int b = 0; b < FILTER_TYPE_NUM; b++) {
+                //a float run rounds once at its end,alone every filter rounds
+                if (a == FLOAT_GAIN && b == FLOAT_GAIN) {
+                    continue;
+                }
+                assertChainEqualsAlone(new int[]{a, b});
+            }
+        }
+    }
+
+    @Test
+    public void countsFilterCost() throws Exception {
+        SetVolumeFilter volume = new SetVolumeFilter(0.5f);
+        SetVolumeFilter passthrough = new SetVolumeFilter(1.0f);
+        SlowFilter slow = new SlowFilter();
+        List<BaseSoftAudioFilter> filters = new ArrayList<BaseSoftAudioFilter>();
+        filters.add(volume);
+        filters.add(passthrough);
+        filters.add(slow);
+        filters.add(new BaseSoftAudioFilter());
+        SoftAudioGroupFilter group = new SoftAudioGroupFilter(filters);
+        group.onInit(SIZE, 44100);
+        assertFalse(group.isPassthrough());
+        for (int frame = 0; frame < 5; frame++) {
+            group.onFrame(new byte[SIZE], new byte[SIZE], 0, frame);
+        }
+        assertArrayEquals(new long[]{5, 0, 5, 0}, group.getFilterFrameNum());
+        long[] costs = group.getFilterCostNs();
+        assertEquals(0, costs[1]);
+        assertEquals(0, costs[3]);
+        assertTrue("slow filter cost " + costs[2], costs[2] >= 5 * SlowFilter.SLEEP_MS * 1000000L);
+        assertTrue("volume cost " + costs[0], costs[0] < costs[2]);
+
+        group.resetFilterCost();
+        assertArrayEquals(new long[4], group.getFilterFrameNum());
+        assertArrayEquals(new long[4], group.getFilterCostNs());
+
+        //passthrough is decided every frame
+        volume.setVolumeScale(1.0f);
+        passthrough.setVolumeScale(2.0f);
+        for (int frame = 0; frame < 3; frame++) {
+            group.onFrame(new byte[SIZE], new byte[SIZE], 0, frame);
+        }
+        assertArrayEquals(new long[]{0, 3, 3, 0}, group.getFilterFrameNum());
+        assertEquals(0, group.getFilterCostNs()[0]);
+
+        filters.remove(slow);
+        filters.remove(passthrough);
+        SoftAudioGroupFilter idle = new SoftAudioGroupFilter(filters);
+        idle.onInit(SIZE, 44100);
+        assertTrue(idle.isPassthrough());
+    }
+
+    private static void assertChainEqualsAlone(int[] order) {
+        BaseSoftAudioFilter[] alone = new BaseSoftAudioFilter[order.length];
+        List<BaseSoftAudioFilter> chained = new ArrayList<BaseSoftAudioFilter>();
+        for (int i = 0; i < order.length; i++) {
+            alone[i] = create(order[i]);
+            alone[i].onInit(SIZE, 44100);
+            chained.add(create(order[i]));
+        }
+        SoftAudioGroupFilter group = new SoftAudioGroupFilter(chained);
+        group.onInit(SIZE, 44100);
+        Random random = new Random(Arrays.hashCode(order));
+        for (int frame = 0; frame < FRAME_NUM; frame++) {
+            String at = Arrays.toString(order) + ",frame " + frame;
+            byte[] orign = new byte[SIZE];
+            random.nextBytes(orign);
+
+            byte[] expected = orign.clone();
+            boolean isExpectedModified = false;
+            for (BaseSoftAudioFilter filter : alone) {
+                byte[] target = new byte[SIZE];
+                if (filter.onFrame(expected.clone(), target, 0, frame)) {
+                    expected = target;
+                    isExpectedModified = true;
+                }
+            }
+
+            byte[] target = new byte[SIZE];
+            boolean isModified = group.onFrame(orign, target, 0, frame);
+            //in place byte filters may leave the result in orignBuff
+            assertArrayEquals(at, expected, isModified ? target : orign);
+            if (isModified) {
+                assertTrue(at, isExpectedModified);
+            }
+
+            //last filter swapping byte buffers is handed targetBuff,no copy after it
+            BaseSoftAudioFilter last = lastCalled(chained);
+            if (last instanceof RecordingByteMixFilter && !isAnyDeclined(chained, frame)) {
+                assertSame(at, target, ((RecordingByteMixFilter) last).lastTargetBuff);
+            }
+        }
+    }
+
+    private static BaseSoftAudioFilter lastCalled(List<BaseSoftAudioFilter> filters) {
+        BaseSoftAudioFilter last = null;
+        for (BaseSoftAudioFilter filter : filters) {
+            if (!filter.isPassthrough() && filter.getClass() != BaseSoftAudioFilter.class) {
+                last = filter;
+            }
+        }
+        return last;
+    }
+
+    private static boolean isAnyDeclined(List<BaseSoftAudioFilter> filters, int frame) {
+        for (BaseSoftAudioFilter filter : filters) {
+            if (filter instanceof RecordingByteMixFilter && ((RecordingByteMixFilter) filter).isDeclined(frame)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static BaseSoftAudioFilter create(int type) {
+        switch (type) {
+            case VOLUME:
+                return new SetVolumeFilter(0.5f);
+            case BGM:
+                return new ShortMixFilter(BGM_STREAM, false);
+            case BYTE_SWAP:
+                return new RecordingByteMixFilter(false);
+            case BYTE_IN_PLACE:
+                return new InvertFilter();
+            case PASS_VOLUME:
+                return new SetVolumeFilter(1.0f);
+            case NO_OP:
+                return new BaseSoftAudioFilter();
+            case FLOAT_GAIN:
+                return new FloatGainFilter(0.8f);
+            case DECLINE:
+                return new RecordingByteMixFilter(true);
+            default:
+                throw new IllegalArgumentException("type " + type);
+        }
+    }
+
+    /**
+     * next lexicographic permutation
+     *
+     * @return false if order was the last one
+     */
+    private static boolean nextPermutation(int[] order) {
+        int i = order.length - 2;
+        while (i >= 0 && order[i] >= order[i + 1]) {
+            i--;
+        }
+        if (i < 0) {
+            return false;
+        }
+        int j = order.length - 1;
+        while (order[j] <= order[i]) {
+            j--;
+        }
+        swap(order, i, j);
+        for (int l = i + 1, r = order.length - 1; l < r; l++, r--) {
+            swap(order, l, r);
+        }
+        return true;
+    }
+
+    private static void swap(int[] order, int i, int j) {
+        int t = order[i];
+        order[i] = order[j];
+        order[j] = t;
+    }
+
+    /**
+     * SetVolumeAudioFilter of the sample
+     */
+    static class SetVolumeFilter extends BaseSoftAudioShortFilter {
+        private float volumeScale;
+
+        SetVolumeFilter(float scale) {
+            volumeScale = scale;
+        }
+
+        void setVolumeScale(float scale) {
+            volumeScale = scale;
+        }
+
+        @Override
+        public boolean onFrame(short[] orignSamples, short[] targetSamples, long presentationTimeMs, int sequenceNum) {
+            for (int i = 0; i < SAMPLE_NUM; i++) {
+                targetSamples[i] = (short) (orignSamples[i] * volumeScale);
+            }
+            return true;
+        }
+
+        @Override
+        public boolean isInPlace() {
+            return true;
+        }
+
+        @Override
+        public boolean isPassthrough() {
+            return volumeScale == 1.0f;
+        }
+    }
+
+    /**
+     * swaps byte buffers,remembers where it wrote.declining one skips odd frames
+     */
+    static class RecordingByteMixFilter extends ByteMixFilter {
+        private final boolean isDeclining;
+        byte[] lastTargetBuff;
+
+        RecordingByteMixFilter(boolean isDeclining) {
+            super(BGM_STREAM);
+            this.isDeclining = isDeclining;
+        }
+
+        boolean isDeclined(int sequenceNum) {
+            return isDeclining && (sequenceNum & 1) == 1;
+        }
+
+        @Override
+        public boolean onFrame(byte[] orignBuff, byte[] targetBuff, long presentationTimeMs, int sequenceNum) {
+            if (isDeclined(sequenceNum)) {
+                return false;
+            }
+            lastTargetBuff = targetBuff;
+            return super.onFrame(orignBuff, targetBuff, presentationTimeMs, sequenceNum);
+        }
+    }
+
+    static class InvertFilter extends BaseSoftAudioFilter {
+        @Override
+        public boolean onFrame(byte[] orignBuff, byte[] targetBuff, long presentationTimeMs, int sequenceNum) {
+            for (int i = 0; i < SIZE; i++) {
+                targetBuff[i] = (byte) ~orignBuff[i];
+            }
+            return true;
+        }
+
+        @Override
+        public boolean isInPlace() {
+            return true;
+        }
+    }
+
+    static class SlowFilter extends BaseSoftAudioFilter {
+        static final int SLEEP_MS = 2;
+
+        @Override
+        public boolean onFrame(byte[] orignBuff, byte[] targetBuff, long presentationTimeMs, int sequenceNum) {
+            try {
+                Thread.sleep(SLEEP_MS);
+            } catch (InterruptedException ignored) {
+            }
+            return false;
+        }
+    }
+}
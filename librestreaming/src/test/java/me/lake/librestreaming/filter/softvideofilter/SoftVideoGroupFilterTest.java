@@ -0,0 +1,286 @@
+package me.lake.librestreaming.filter.softvideofilter;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import me.lake.librestreaming.core.RESFilterBandExecutor;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SoftVideoGroupFilterTest {
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 240;
+    private static final int SIZE_TOTAL = WIDTH * HEIGHT * 3 / 2;
+
+    /**
+     * every on/off combination of members,odd and even active counts,
+     * result must equal applying modifying members one after another
+     */
+    @Test
+    public void pingPongParity() {
+        RESFilterBandExecutor executor = new RESFilterBandExecutor(4);
+        try {
+            byte[] orign = randomFrame(1);
+            for (int mask = 0; mask < (1 << 5); mask++) {
+                List<BaseSoftVideoFilter> filters = new ArrayList<>();
+                filters.add(new AddFilter(3, (mask & 1) != 0));
+                filters.add(new ShiftBandFilter((mask & 2) != 0));
+                filters.add(new AddFilter(-7, (mask & 4) != 0));
+                filters.add(new XorBandFilter(0x5A, (mask & 8) != 0));
+                filters.add(new AddFilter(11, (mask & 16) != 0));
+                for (int run = 0; run < 2; run++) {
+                    SoftVideoGroupFilter group = new SoftVideoGroupFilter(filters);
+                    group.onInit(WIDTH, HEIGHT);
+                    group.setBandExecutor(run == 0 ? null : executor);
+                    byte[] orignCopy = orign.clone();
+                    byte[] target = new byte[SIZE_TOTAL];
+                    boolean modified = group.onFrame(orignCopy, target, 0, mask);
+                    byte[] expected = applySerially(filters, orign);
+                    assertArrayEquals("orignBuff untouched,mask " + mask, orign, orignCopy);
+                    assertEquals("mask " + mask, mask != 0, modified);
+                    if (modified) {
+                        assertArrayEquals("mask " + mask + ",run " + run, expected, target);
+                    }
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void tiledMembersRunInBands() {
+        RESFilterBandExecutor executor = new RESFilterBandExecutor(4);
+        try {
+            XorBandFilter tiled = new XorBandFilter(0xFF, true);
+            List<BaseSoftVideoFilter> filters = new ArrayList<>();
+            filters.add(new AddFilter(1, true));
+            filters.add(tiled);
+            SoftVideoGroupFilter group = new SoftVideoGroupFilter(filters);
+            group.onInit(WIDTH, HEIGHT);
+
+            tiled.bandNum = 0;
+            assertTrue(group.onFrame(randomFrame(2), new byte[SIZE_TOTAL], 0, 0));
+            assertEquals("serial without executor", 1, tiled.bandNum);
+
+            group.setBandExecutor(executor);
+            tiled.bandNum = 0;
+            assertTrue(group.onFrame(randomFrame(2), new byte[SIZE_TOTAL], 0, 1));
+            assertTrue("bands " + tiled.bandNum, tiled.bandNum > 1);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void nestedGroupSharesExecutor() {
+        RESFilterBandExecutor executor = new RESFilterBandExecutor(4);
+        try {
+            XorBandFilter tiled = new XorBandFilter(0x0F, true);
+            SoftVideoGroupFilter inner = new SoftVideoGroupFilter(Collections.<BaseSoftVideoFilter>singletonList(tiled));
+            SoftVideoGroupFilter outer = new SoftVideoGroupFilter(Arrays.<BaseSoftVideoFilter>asList(new AddFilter(5, true), inner));
+            outer.onInit(WIDTH, HEIGHT);
+            outer.setBandExecutor(executor);
+            byte[] orign = randomFrame(3);
+            byte[] target = new byte[SIZE_TOTAL];
+            assertTrue(outer.onFrame(orign, target, 0, 0));
+            assertTrue(tiled.bandNum > 1);
+            assertArrayEquals(applySerially(Arrays.<BaseSoftVideoFilter>asList(new AddFilter(5, true), new XorBandFilter(0x0F, true)), orign), target);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void allFalseKeepsOrign() {
+        List<BaseSoftVideoFilter> filters = new ArrayList<>();
+        filters.add(new AddFilter(1, false));
+        filters.add(new XorBandFilter(1, false));
+        SoftVideoGroupFilter group = new SoftVideoGroupFilter(filters);
+        group.onInit(WIDTH, HEIGHT);
+        assertFalse(group.onFrame(randomFrame(4), new byte[SIZE_TOTAL], 0, 0));
+    }
+
+    /**
+     * ms per 720p frame of a 3x3 blur group,serial against bands on 4 threads.
+     * speedup depends on the cores of the host,so only the output is asserted
+     */
+    @Test
+    public void benchmarkSerialAgainstBands() {
+        final int width = 1280;
+        final int height = 720;
+        final int rounds = 5;
+        final int frameNum = 20;
+        RESFilterBandExecutor executor = new RESFilterBandExecutor(4);
+        try {
+            byte[] orign = new byte[width * height * 3 / 2];
+            new Random(5).nextBytes(orign);
+            byte[][] results = new byte[2][];
+            long[] bestNs = new long[]{Long.MAX_VALUE, Long.MAX_VALUE};
+            for (int round = 0; round < rounds; round++) {
+                for (int run = 0; run < 2; run++) {
+                    SoftVideoGroupFilter group = new SoftVideoGroupFilter(
+                            Arrays.<BaseSoftVideoFilter>asList(new BlurBandFilter(), new BlurBandFilter()));
+                    group.onInit(width, height);
+                    group.setBandExecutor(run == 0 ? null : executor);
+                    byte[] target = new byte[orign.length];
+                    long startNs = System.nanoTime();
+                    for (int i = 0; i < frameNum; i++) {
+                        assertTrue(group.onFrame(orign, target, 0, i));
+                    }
+                    bestNs[run] = Math.min(bestNs[run], (System.nanoTime() - startNs) / frameNum);
+                    results[run] = target;
+                }
+                assertArrayEquals("round " + round, results[0], results[1]);
+            }
+            System.out.println("SoftVideoGroupFilter 720p 2x blur ms/frame:serial " + bestNs[0] / 1e6
+                    + ",bands on " + executor.getParallelism() + " threads " + bestNs[1] / 1e6
+                    + ",cpus " + Runtime.getRuntime().availableProcessors());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static byte[] applySerially(List<BaseSoftVideoFilter> filters, byte[] orign) {
+        byte[] current = orign.clone();
+        for (BaseSoftVideoFilter filter : filters) {
+            filter.onInit(WIDTH, HEIGHT);
+            byte[] next = new byte[SIZE_TOTAL];
+            if (filter.onFrame(current, next, 0, 0)) {
+                current = next;
+            }
+        }
+        return current;
+    }
+
+    private static byte[] randomFrame(long seed) {
+        byte[] frame = new byte[SIZE_TOTAL];
+        new Random(seed).nextBytes(frame);
+        return frame;
+    }
+
+    /**
+     * serial member,scribbles over targetBuff when it returns false
+     */
+    static class AddFilter extends BaseSoftVideoFilter {
+        private final int value;
+        private final boolean modify;
+
+        AddFilter(int value, boolean modify) {
+            this.value = value;
+            this.modify = modify;
+        }
+
+        @Override
+        public boolean onFrame(byte[] orignBuff, byte[] targetBuff, long presentationTimeMs, int sequenceNum) {
+            if (!modify) {
+                Arrays.fill(targetBuff, (byte) 0x7E);
+                return false;
+            }
+            for (int i = 0; i < SIZE_TOTAL; i++) {
+                targetBuff[i] = (byte) (orignBuff[i] + value);
+            }
+            return true;
+        }
+    }
+
+    static class XorBandFilter extends BaseTiledSoftVideoFilter {
+        private final int mask;
+        private final boolean modify;
+        final Set<Integer> bandStarts = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+        volatile int bandNum;
+
+        XorBandFilter(int mask, boolean modify) {
+            this.mask = mask;
+            this.modify = modify;
+        }
+
+        @Override
+        public boolean onFrameBegin(byte[] orignBuff, byte[] targetBuff, long presentationTimeMs, int sequenceNum) {
+            bandStarts.clear();
+            return modify;
+        }
+
+        @Override
+        public void onFrameBand(byte[] orignBuff, byte[] targetBuff, int yStart, int yEnd, long presentationTimeMs, int sequenceNum) {
+            bandStarts.add(yStart);
+            bandNum = bandStarts.size();
+            for (int i = yStart * SIZE_WIDTH; i < yEnd * SIZE_WIDTH; i++) {
+                targetBuff[i] = (byte) (orignBuff[i] ^ mask);
+            }
+            for (int i = SIZE_Y + yStart / 2 * SIZE_WIDTH; i < SIZE_Y + yEnd / 2 * SIZE_WIDTH; i++) {
+                targetBuff[i] = (byte) (orignBuff[i] ^ mask);
+            }
+        }
+    }
+
+    /**
+     * reads the row above from orignBuff,so bands must not see targetBuff of others
+     */
+    static class ShiftBandFilter extends BaseTiledSoftVideoFilter {
+        private final boolean modify;
+
+        ShiftBandFilter(boolean modify) {
+            this.modify = modify;
+        }
+
+        @Override
+        public int getHaloRows() {
+            return 1;
+        }
+
+        @Override
+        public boolean onFrameBegin(byte[] orignBuff, byte[] targetBuff, long presentationTimeMs, int sequenceNum) {
+            return modify;
+        }
+
+        @Override
+        public void onFrameBand(byte[] orignBuff, byte[] targetBuff, int yStart, int yEnd, long presentationTimeMs, int sequenceNum) {
+            for (int y = yStart; y < yEnd; y++) {
+                int src = Math.max(0, y - 1);
+                System.arraycopy(orignBuff, src * SIZE_WIDTH, targetBuff, y * SIZE_WIDTH, SIZE_WIDTH);
+            }
+            System.arraycopy(orignBuff, SIZE_Y + yStart / 2 * SIZE_WIDTH, targetBuff, SIZE_Y + yStart / 2 * SIZE_WIDTH,
+                    (yEnd - yStart) / 2 * SIZE_WIDTH);
+        }
+    }
+
+    /**
+     * 3x3 box blur of Y,VU copied,reads one row of halo
+     */
+    static class BlurBandFilter extends BaseTiledSoftVideoFilter {
+        @Override
+        public int getHaloRows() {
+            return 1;
+        }
+
+        @Override
+        public void onFrameBand(byte[] orignBuff, byte[] targetBuff, int yStart, int yEnd, long presentationTimeMs, int sequenceNum) {
+            for (int y = yStart; y < yEnd; y++) {
+                int above = Math.max(0, y - 1) * SIZE_WIDTH;
+                int row = y * SIZE_WIDTH;
+                int below = Math.min(SIZE_HEIGHT - 1, y + 1) * SIZE_WIDTH;
+                for (int x = 0; x < SIZE_WIDTH; x++) {
+                    int left = Math.max(0, x - 1);
+                    int right = Math.min(SIZE_WIDTH - 1, x + 1);
+                    int sum = (orignBuff[above + left] & 0xFF) + (orignBuff[above + x] & 0xFF) + (orignBuff[above + right] & 0xFF)
+                            + (orignBuff[row + left] & 0xFF) + (orignBuff[row + x] & 0xFF) + (orignBuff[row + right] & 0xFF)
+                            + (orignBuff[below + left] & 0xFF) + (orignBuff[below + x] & 0xFF) + (orignBuff[below + right] & 0xFF);
+                    targetBuff[row + x] = (byte) (sum / 9);
+                }
+            }
+            System.arraycopy(orignBuff, SIZE_Y + yStart / 2 * SIZE_WIDTH, targetBuff, SIZE_Y + yStart / 2 * SIZE_WIDTH,
+                    (yEnd - yStart) / 2 * SIZE_WIDTH);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package me.lake.librestreaming.rtmp;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RESFlvDataPoolTest {
+    private static final int FRAME_NUM = 10000;
+    //tags waiting in sender queue
+    private static final int IN_FLIGHT = 16;
+
+    /**
+     * once warmed up,every lease is served from the free lists and nothing is allocated
+     */
+    @Test
+    public void steadyStateAllocatesNothing() {
+        RESFlvDataPool pool = RESFlvDataPool.i();
+        ByteBuffer videoFrame = ByteBuffer.allocate(60 * 1024);
+        ByteBuffer audioFrame = ByteBuffer.allocate(400);
+        ArrayDeque<RESFlvData> inFlight = new ArrayDeque<>(IN_FLIGHT * 2);
+        int outstanding = pool.getOutstandingCount();
+        runFrames(pool, FRAME_NUM, videoFrame, audioFrame, inFlight, false);
+        runFrames(pool, FRAME_NUM, videoFrame, audioFrame, inFlight, true);
+
+        long leases = pool.getLeaseCount();
+        long hits = pool.getHitCount();
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        long allocatedBefore = allocatedBytes(threadMXBean);
+        runFrames(pool, FRAME_NUM, videoFrame, audioFrame, inFlight, false);
+        runFrames(pool, FRAME_NUM, videoFrame, audioFrame, inFlight, true);
+        long allocated = allocatedBytes(threadMXBean) - allocatedBefore;
+
+        long newLeases = pool.getLeaseCount() - leases;
+        long newHits = pool.getHitCount() - hits;
+        assertEquals(FRAME_NUM * 4, newLeases);
+        assertEquals("every steady state lease is a hit", newLeases, newHits);
+        if (allocated >= 0) {
+            //40000 frames would allocate more than 300MB without the pool
+            assertTrue("allocated " + allocated + " bytes", allocated < 64 * 1024);
+        }
+        while (!inFlight.isEmpty()) {
+            pool.recycle(inFlight.poll());
+        }
+        assertEquals(outstanding, pool.getOutstandingCount());
+    }
+
+    @Test
+    public void fanOutRecyclesAfterEveryConsumer() {
+        RESFlvDataPool pool = RESFlvDataPool.i();
+        int outstanding = pool.getOutstandingCount();
+        RESFlvDataFanOut fanOut = new RESFlvDataFanOut();
+        ListCollecter[] collecters = new ListCollecter[3];
+        for (int i = 0; i < collecters.length; i++) {
+            collecters[i] = new ListCollecter();
+            fanOut.addCollecter(collecters[i], false);
+        }
+        RESFlvData flvData = pool.obtain(5000);
+        flvData.flvTagType = RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO;
+        fanOut.collect(flvData, RESRtmpSender.FROM_VIDEO);
+        assertEquals(3, flvData.refCount);
+        for (ListCollecter collecter : collecters) {
+            assertSame(flvData, collecter.items.get(0));
+        }
+        pool.recycle(flvData);
+        pool.recycle(flvData);
+        assertTrue("still held by last consumer", flvData.leased);
+        assertEquals(outstanding + 1, pool.getOutstandingCount());
+        pool.recycle(flvData);
+        assertFalse(flvData.leased);
+        assertEquals(outstanding, pool.getOutstandingCount());
+        //extra recycle of a returned item is ignored
+        pool.recycle(flvData);
+        assertEquals(outstanding, pool.getOutstandingCount());
+        assertSame("freed item is reused", flvData, pool.obtain(5000));
+        pool.recycle(flvData);
+    }
+
+    @Test
+    public void fanOutWithoutCollecterRecycles() {
+        RESFlvDataPool pool = RESFlvDataPool.i();
+        int outstanding = pool.getOutstandingCount();
+        RESFlvData flvData = pool.obtain(100);
+        new RESFlvDataFanOut().collect(flvData, RESRtmpSender.FROM_AUDIO);
+        assertFalse(flvData.leased);
+        assertEquals(outstanding, pool.getOutstandingCount());
+    }
+
+    @Test
+    public void notPooledDataIsIgnored() {
+        RESFlvDataPool pool = RESFlvDataPool.i();
+        int outstanding = pool.getOutstandingCount();
+        RESFlvData flvData = new RESFlvData();
+        pool.retain(flvData, 2);
+        pool.recycle(flvData);
+        assertEquals(0, flvData.refCount);
+        assertEquals(outstanding, pool.getOutstandingCount());
+    }
+
+    @Test
+    public void copyKeepsBytes() {
+        RESFlvDataPool pool = RESFlvDataPool.i();
+        byte[] bytes = {1, 2, 3, 4, 5};
+        ByteBuffer src = ByteBuffer.wrap(bytes);
+        src.position(1);
+        RESFlvData heap = pool.obtainCopyOf(src, false);
+        assertEquals(4, heap.size);
+        assertEquals(2, heap.byteBuffer[0]);
+        assertEquals(5, heap.byteBuffer[3]);
+        src.position(1);
+        RESFlvData direct = pool.obtainCopyOf(src, true);
+        assertTrue(direct.isDirect());
+        assertEquals(4, direct.size);
+        assertEquals(5, direct.directBuffer.get(3));
+        pool.recycle(heap);
+        pool.recycle(direct);
+    }
+
+    private static void runFrames(RESFlvDataPool pool, int frameNum, ByteBuffer videoFrame, ByteBuffer audioFrame,
+                                  ArrayDeque<RESFlvData> inFlight, boolean direct) {
+        for (int i = 0; i < frameNum; i++) {
+            //key frames are bigger
+            videoFrame.limit(i % 30 == 0 ? videoFrame.capacity() : 3000 + (i * 37) % 9000);
+            videoFrame.position(0);
+            audioFrame.clear();
+            inFlight.add(pool.obtainCopyOf(videoFrame, direct));
+            inFlight.add(pool.obtainCopyOf(audioFrame, direct));
+            while (inFlight.size() > IN_FLIGHT) {
+                pool.recycle(inFlight.poll());
+            }
+        }
+    }
+
+    /**
+     * @return -1 if not supported
+     */
+    private static long allocatedBytes(ThreadMXBean threadMXBean) {
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) threadMXBean;
+            if (sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled()) {
+                return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    private static class ListCollecter implements RESFlvDataCollecter {
+        final ArrayList<RESFlvData> items = new ArrayList<>();
+
+        @Override
+        public void collect(RESFlvData flvData, int type) {
+            items.add(flvData);
+        }
+    }
+}
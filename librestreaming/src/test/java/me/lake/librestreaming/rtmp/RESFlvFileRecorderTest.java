@@ -0,0 +1,268 @@
+package me.lake.librestreaming.rtmp;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import me.lake.librestreaming.core.Packager;
+import me.lake.librestreaming.model.RESCoreParameters;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RESFlvFileRecorderTest {
+    private static final byte[] START_CODE = {0x00, 0x00, 0x00, 0x01};
+    //x264 baseline 640x480
+    private static final byte[] AVC_SPS = {0x67, 0x42, (byte) 0xC0, 0x1E, (byte) 0xDA, 0x02, (byte) 0x80, (byte) 0xF6, (byte) 0xC0, 0x44};
+    private static final byte[] AVC_PPS = {0x68, (byte) 0xCE, 0x3C, (byte) 0x80};
+    //x265 main 1920x1080,level 3.1
+    static final byte[] HEVC_VPS = bytes(0x40, 0x01, 0x0C, 0x01, 0xFF, 0xFF, 0x01, 0x60, 0x00, 0x00, 0x03, 0x00, 0xB0,
+            0x00, 0x00, 0x03, 0x00, 0x00, 0x03, 0x00, 0x5D, 0xAC, 0x09);
+    static final byte[] HEVC_SPS = bytes(0x42, 0x01, 0x01, 0x01, 0x60, 0x00, 0x00, 0x03, 0x00, 0xB0, 0x00, 0x00, 0x03,
+            0x00, 0x00, 0x03, 0x00, 0x5D, 0xA0, 0x03, 0xC0, 0x80, 0x10, 0xE5, 0x96, 0x56, 0x69, 0x24, 0xCA, 0xE0, 0x10,
+            0x00, 0x00, 0x03, 0x00, 0x10, 0x00, 0x00, 0x03, 0x01, 0xE0, 0x80);
+    static final byte[] HEVC_PPS = bytes(0x44, 0x01, 0xC1, 0x72, 0xB4, 0x62, 0x40);
+    private static final byte[] AAC_CONFIG = {0x12, 0x10};
+
+    @Test
+    public void writesAvcTags() throws IOException {
+        File file = File.createTempFile("recorder", ".flv");
+        file.deleteOnExit();
+        int outstanding = RESFlvDataPool.i().getOutstandingCount();
+        RESFlvFileRecorder recorder = new RESFlvFileRecorder(parameters(RESCoreParameters.VIDEO_CODEC_AVC), file.getPath());
+        assertTrue(recorder.start());
+        byte[] idr = {0x65, (byte) 0x88, 0x04, 0x00};
+        byte[] slice = {0x41, (byte) 0x9A, 0x02};
+        byte[] aac = {0x21, 0x10, 0x05};
+        recorder.collect(video(concat(START_CODE, AVC_SPS, START_CODE, AVC_PPS), true, false, 0, 0), 0);
+        recorder.collect(audio(AAC_CONFIG, true, 0), 0);
+        //frames before the first key frame are skipped
+        recorder.collect(video(concat(START_CODE, slice), false, false, 960, 960), 0);
+        recorder.collect(video(concat(START_CODE, AVC_SPS, START_CODE, AVC_PPS, new byte[]{0, 0, 1}, idr), false, true, 1000, 1040), 0);
+        recorder.collect(audio(aac, false, 1010), 0);
+        recorder.collect(video(concat(START_CODE, slice), false, false, 1040, 1120), 0);
+        recorder.stop(5000);
+
+        List<Tag> tags = readTags(file);
+        assertEquals(6, tags.size());
+        assertEquals(RESFlvData.FLV_RTMP_PACKET_TYPE_INFO, tags.get(0).type);
+
+        Tag config = tags.get(1);
+        assertEquals(RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO, config.type);
+        assertArrayEquals(bytes(0x17, 0x00, 0x00, 0x00, 0x00), config.head(5));
+        ByteBuffer record = ByteBuffer.wrap(Packager.H264Packager.generateAVCDecoderConfigurationRecord(
+                ByteBuffer.wrap(AVC_SPS), ByteBuffer.wrap(AVC_PPS)));
+        assertArrayEquals(record.array(), config.from(5));
+
+        assertArrayEquals(concat(bytes(0xAE, 0x00), AAC_CONFIG), tags.get(2).data);
+
+        Tag key = tags.get(3);
+        assertEquals(0, key.ts);
+        //CompositionTime 40,parameter sets left to the sequence header
+        assertArrayEquals(concat(bytes(0x17, 0x01, 0x00, 0x00, 0x28, 0x00, 0x00, 0x00, idr.length), idr), key.data);
+
+        Tag sound = tags.get(4);
+        assertEquals(RESFlvData.FLV_RTMP_PACKET_TYPE_AUDIO, sound.type);
+        assertEquals(10, sound.ts);
+        assertArrayEquals(concat(bytes(0xAE, 0x01), aac), sound.data);
+
+        Tag inter = tags.get(5);
+        assertEquals(40, inter.ts);
+        assertArrayEquals(concat(bytes(0x27, 0x01, 0x00, 0x00, 0x50, 0x00, 0x00, 0x00, slice.length), slice), inter.data);
+        assertEquals(file.length(), recorder.getWrittenBytes());
+        assertEquals(outstanding, RESFlvDataPool.i().getOutstandingCount());
+    }
+
+    @Test
+    public void writesHvc1Tags() throws IOException {
+        File file = File.createTempFile("recorder", ".flv");
+        file.deleteOnExit();
+        RESFlvFileRecorder recorder = new RESFlvFileRecorder(parameters(RESCoreParameters.VIDEO_CODEC_HEVC), file.getPath());
+        assertTrue(recorder.start());
+        //IDR_W_RADL,TRAIL_R
+        byte[] idr = {0x26, 0x01, (byte) 0xAF, 0x1D};
+        byte[] trail = {0x02, 0x01, (byte) 0xD0, 0x09};
+        byte[] aud = {0x46, 0x01, 0x50};
+        recorder.collect(video(concat(START_CODE, HEVC_VPS, START_CODE, HEVC_SPS, START_CODE, HEVC_PPS), true, false, 0, 0), 0);
+        recorder.collect(video(concat(START_CODE, aud, START_CODE, HEVC_VPS, START_CODE, idr), false, true, 2000, 2000), 0);
+        recorder.collect(video(concat(START_CODE, trail), false, false, 2033, 2100), 0);
+        recorder.stop(5000);
+
+        List<Tag> tags = readTags(file);
+        assertEquals(4, tags.size());
+
+        Tag config = tags.get(1);
+        //IsExHeader|key frame|SequenceStart
+        assertArrayEquals(concat(bytes(0x90), "hvc1".getBytes("US-ASCII")), config.head(5));
+        byte[] record = config.from(5);
+        assertArrayEquals(Packager.H265Packager.generateHEVCDecoderConfigurationRecord(
+                ByteBuffer.wrap(HEVC_VPS), ByteBuffer.wrap(HEVC_SPS), ByteBuffer.wrap(HEVC_PPS)), record);
+        assertEquals(1, record[0]);
+        //main profile,level 3.1
+        assertEquals(1, record[1]);
+        assertEquals(93, record[12]);
+        assertEquals(3, record[22]);
+
+        Tag key = tags.get(2);
+        assertEquals(0, key.ts);
+        //CodedFramesX,no CompositionTime
+        assertArrayEquals(concat(bytes(0x93), "hvc1".getBytes("US-ASCII"), bytes(0x00, 0x00, 0x00, idr.length), idr), key.data);
+
+        Tag inter = tags.get(3);
+        assertEquals(33, inter.ts);
+        //CodedFrames,CompositionTime 67
+        assertArrayEquals(concat(bytes(0xA1), "hvc1".getBytes("US-ASCII"), bytes(0x00, 0x00, 0x43, 0x00, 0x00, 0x00, trail.length), trail), inter.data);
+    }
+
+    /**
+     * tags offered while stop runs are recycled,either by the writer or by collect itself
+     */
+    @Test
+    public void collectRacingStopLeaksNothing() throws Exception {
+        RESFlvDataPool pool = RESFlvDataPool.i();
+        int outstanding = pool.getOutstandingCount();
+        for (int round = 0; round < 50; round++) {
+            File file = File.createTempFile("recorder", ".flv");
+            file.deleteOnExit();
+            final RESFlvFileRecorder recorder = new RESFlvFileRecorder(parameters(RESCoreParameters.VIDEO_CODEC_AVC), file.getPath());
+            assertTrue(recorder.start());
+            final AtomicBoolean running = new AtomicBoolean(true);
+            final CountDownLatch started = new CountDownLatch(2);
+            Thread[] producers = new Thread[2];
+            for (int i = 0; i < producers.length; i++) {
+                producers[i] = new Thread() {
+                    @Override
+                    public void run() {
+                        started.countDown();
+                        int dts = 0;
+                        while (running.get()) {
+                            recorder.collect(audio(new byte[]{0x21, 0x10}, false, dts++), 0);
+                        }
+                    }
+                };
+                producers[i].start();
+            }
+            started.await();
+            recorder.stop(5000);
+            running.set(false);
+            for (Thread producer : producers) {
+                producer.join();
+            }
+            file.delete();
+        }
+        assertEquals(outstanding, pool.getOutstandingCount());
+    }
+
+    private static RESCoreParameters parameters(int videoCodec) {
+        RESCoreParameters parameters = new RESCoreParameters();
+        parameters.videoCodec = videoCodec;
+        parameters.videoWidth = 640;
+        parameters.videoHeight = 480;
+        parameters.mediacodecAVCFrameRate = 30;
+        parameters.mediacodecAACBitRate = 32 * 1024;
+        parameters.mediacodecAACSampleRate = 44100;
+        return parameters;
+    }
+
+    private static RESFlvData video(byte[] data, boolean isSequenceHeader, boolean isKeyFrame, int dts, int pts) {
+        RESFlvData flvData = pooled(data);
+        flvData.flvTagType = RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO;
+        flvData.isSequenceHeader = isSequenceHeader;
+        flvData.videoFrameType = isKeyFrame ? RESFlvData.NALU_TYPE_IDR : RESFlvData.NALU_TYPE_SLICE;
+        flvData.dts = dts;
+        flvData.pts = pts;
+        return flvData;
+    }
+
+    private static RESFlvData audio(byte[] data, boolean isSequenceHeader, int dts) {
+        RESFlvData flvData = pooled(data);
+        flvData.flvTagType = RESFlvData.FLV_RTMP_PACKET_TYPE_AUDIO;
+        flvData.isSequenceHeader = isSequenceHeader;
+        flvData.dts = dts;
+        return flvData;
+    }
+
+    private static RESFlvData pooled(byte[] data) {
+        RESFlvData flvData = RESFlvDataPool.i().obtain(data.length);
+        System.arraycopy(data, 0, flvData.byteBuffer, 0, data.length);
+        flvData.size = data.length;
+        return flvData;
+    }
+
+    static class Tag {
+        int type;
+        int ts;
+        byte[] data;
+
+        byte[] head(int length) {
+            return Arrays.copyOf(data, length);
+        }
+
+        byte[] from(int start) {
+            return Arrays.copyOfRange(data, start, data.length);
+        }
+    }
+
+    /**
+     * flv file reader,checks header and every PreviousTagSize on the way
+     */
+    static List<Tag> readTags(File file) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        byte[] signature = new byte[3];
+        in.get(signature);
+        assertArrayEquals("FLV".getBytes("US-ASCII"), signature);
+        assertEquals(1, in.get());
+        //audio and video
+        assertEquals(5, in.get());
+        assertEquals(9, in.getInt());
+        assertEquals(0, in.getInt());
+        List<Tag> tags = new ArrayList<>();
+        while (in.hasRemaining()) {
+            Tag tag = new Tag();
+            tag.type = in.get() & 0xFF;
+            int dataSize = getInt3(in);
+            tag.ts = getInt3(in) | ((in.get() & 0xFF) << 24);
+            assertEquals("stream id", 0, getInt3(in));
+            tag.data = new byte[dataSize];
+            in.get(tag.data);
+            assertEquals("PreviousTagSize", dataSize + 11, in.getInt());
+            tags.add(tag);
+        }
+        return tags;
+    }
+
+    private static int getInt3(ByteBuffer in) {
+        return ((in.get() & 0xFF) << 16) | ((in.get() & 0xFF) << 8) | (in.get() & 0xFF);
+    }
+
+    static byte[] bytes(int... values) {
+        byte[] result = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = (byte) values[i];
+        }
+        return result;
+    }
+
+    static byte[] concat(byte[]... arrays) {
+        int length = 0;
+        for (byte[] array : arrays) {
+            length += array.length;
+        }
+        byte[] result = new byte[length];
+        int pos = 0;
+        for (byte[] array : arrays) {
+            System.arraycopy(array, 0, result, pos, array.length);
+            pos += array.length;
+        }
+        return result;
+    }
+}
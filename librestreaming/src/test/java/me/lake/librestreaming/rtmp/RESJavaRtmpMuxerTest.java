@@ -0,0 +1,362 @@
+package me.lake.librestreaming.rtmp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import me.lake.librestreaming.model.RESCoreParameters;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * publishes to an in-process rtmp server stub on loopback
+ */
+public class RESJavaRtmpMuxerTest {
+    private static final byte[] SPS = {0x67, 0x42, (byte) 0xC0, 0x1F, (byte) 0x8C, 0x68, 0x05, 0x00, 0x5B, 0x20};
+    private static final byte[] PPS = {0x68, (byte) 0xCE, 0x3C, (byte) 0x80};
+    private LoopbackServer server;
+    private RESJavaRtmpMuxer muxer;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new LoopbackServer();
+        server.start();
+        RESCoreParameters coreParameters = new RESCoreParameters();
+        coreParameters.senderChunkSize = 4096;
+        muxer = new RESJavaRtmpMuxer(coreParameters);
+    }
+
+    @After
+    public void tearDown() {
+        muxer.close();
+        server.shutdown();
+    }
+
+    @Test
+    public void publishesTagsInChunks() throws Exception {
+        assertEquals(0, muxer.open(server.url(), 1280, 720));
+        assertTrue(muxer.isConnected());
+        assertEquals(RESAmf0.readAll(server.take(18).payload).get(0), "@setDataFrame");
+
+        muxer.writeVideo(annexB(SPS, PPS), 0, 8 + SPS.length + PPS.length, 0, 0);
+        byte[] idr = new byte[10000];
+        idr[0] = 0x65;
+        for (int i = 1; i < idr.length; i++) {
+            idr[i] = (byte) (i % 251 + 1);
+        }
+        byte[] frame = annexB(idr);
+        muxer.writeVideo(frame, 0, frame.length, 40, 0);
+        muxer.writeAudio(new byte[]{0x12, 0x10}, 0, 2, 0);
+        muxer.writeAudio(new byte[]{1, 2, 3}, 0, 3, 23);
+        assertTrue(muxer.flush() > 0);
+
+        Message header = server.take(9);
+        assertEquals(0x17, header.payload[0]);
+        assertEquals(0, header.payload[1]);
+        assertEquals(1, header.streamId);
+        Message video = server.take(9);
+        assertEquals(40, video.timestamp);
+        assertEquals(0x17, video.payload[0]);
+        assertEquals(1, video.payload[1]);
+        //AVCC length prefix replaces the start code
+        assertEquals(idr.length, ByteBuffer.wrap(video.payload, 5, 4).getInt());
+        byte[] nalu = new byte[idr.length];
+        System.arraycopy(video.payload, 9, nalu, 0, nalu.length);
+        assertArrayEquals(idr, nalu);
+        Message audioConfig = server.take(8);
+        assertEquals(0, audioConfig.payload[1]);
+        Message audio = server.take(8);
+        assertEquals(1, audio.payload[1]);
+        assertEquals(23, audio.timestamp);
+    }
+
+    @Test
+    public void rejectedPublishFailsOpen() throws Exception {
+        server.publishLevel = "error";
+        server.publishCode = "NetStream.Publish.BadName";
+        assertEquals(-1, muxer.open(server.url(), 1280, 720));
+        assertFalse(muxer.isConnected());
+    }
+
+    @Test
+    public void errorStatusWhilePublishingFailsFlush() throws Exception {
+        assertEquals(0, muxer.open(server.url(), 1280, 720));
+        Map<String, Object> info = new LinkedHashMap<>();
+        info.put("level", "error");
+        info.put("code", "NetStream.Publish.Denied");
+        server.send(5, 20, 1, new RESAmf0.Writer().writeString("onStatus").writeNumber(0).writeNull().writeObject(info).toByteArray());
+        assertTrue("flush must fail after server error", flushUntilFailed());
+        assertFalse(muxer.isConnected());
+    }
+
+    @Test
+    public void serverCloseFailsFlush() throws Exception {
+        assertEquals(0, muxer.open(server.url(), 1280, 720));
+        server.closeClient();
+        assertTrue("flush must fail after server closed", flushUntilFailed());
+        assertFalse(muxer.isConnected());
+    }
+
+    /**
+     * server raises its chunk size and sends a message bigger than the default chunk,then pings
+     */
+    @Test
+    public void controlMessagesHandledWhilePublishing() throws Exception {
+        assertEquals(0, muxer.open(server.url(), 1280, 720));
+        server.send(2, 1, 0, ByteBuffer.allocate(4).putInt(4096).array());
+        server.outChunkSize = 4096;
+        Map<String, Object> info = new LinkedHashMap<>();
+        info.put("level", "status");
+        info.put("code", "NetStream.Publish.Start");
+        StringBuilder description = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            description.append("long description ");
+        }
+        info.put("description", description.toString());
+        server.send(5, 20, 1, new RESAmf0.Writer().writeString("onStatus").writeNumber(0).writeNull().writeObject(info).toByteArray());
+        server.send(2, 4, 0, ByteBuffer.allocate(6).putShort((short) 6).putInt(123456).array());
+        Message pong = null;
+        long deadline = System.currentTimeMillis() + 3000;
+        while (pong == null && System.currentTimeMillis() < deadline) {
+            assertTrue(muxer.writeAudio(new byte[]{0x12, 0x10}, 0, 2, 0) > 0);
+            assertTrue(muxer.flush() >= 0);
+            pong = server.poll(4, 20);
+        }
+        assertNotNull("ping answered", pong);
+        ByteBuffer body = ByteBuffer.wrap(pong.payload);
+        assertEquals(7, body.getShort());
+        assertEquals(123456, body.getInt());
+        assertTrue(muxer.isConnected());
+    }
+
+    private boolean flushUntilFailed() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 3000;
+        while (System.currentTimeMillis() < deadline) {
+            muxer.writeAudio(new byte[]{0x12, 0x10}, 0, 2, 0);
+            if (muxer.flush() < 0) {
+                return true;
+            }
+            Thread.sleep(10);
+        }
+        return false;
+    }
+
+    private static byte[] annexB(byte[]... nalus) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] nalu : nalus) {
+            out.write(0);
+            out.write(0);
+            out.write(0);
+            out.write(1);
+            out.write(nalu, 0, nalu.length);
+        }
+        return out.toByteArray();
+    }
+
+    static class Message {
+        int type;
+        int streamId;
+        int timestamp;
+        byte[] payload;
+    }
+
+    /**
+     * answers connect/createStream/publish,queues every other message client sends
+     */
+    static class LoopbackServer extends Thread {
+        final ServerSocket serverSocket;
+        final LinkedBlockingQueue<Message> messages = new LinkedBlockingQueue<>();
+        volatile String publishLevel = "status";
+        volatile String publishCode = "NetStream.Publish.Start";
+        volatile int outChunkSize = 128;
+        private volatile Socket client;
+        private OutputStream out;
+
+        LoopbackServer() throws IOException {
+            super("LoopbackRtmpServer");
+            serverSocket = new ServerSocket(0);
+            setDaemon(true);
+        }
+
+        String url() {
+            return "rtmp://127.0.0.1:" + serverSocket.getLocalPort() + "/live/test";
+        }
+
+        @Override
+        public void run() {
+            try {
+                client = serverSocket.accept();
+                out = client.getOutputStream();
+                DataInputStream in = new DataInputStream(client.getInputStream());
+                byte[] c0c1 = new byte[1537];
+                in.readFully(c0c1);
+                byte[] s0s1s2 = new byte[1 + 1536 * 2];
+                s0s1s2[0] = 3;
+                System.arraycopy(c0c1, 1, s0s1s2, 1537, 1536);
+                synchronized (this) {
+                    out.write(s0s1s2);
+                }
+                in.readFully(new byte[1536]);
+                readMessages(in);
+            } catch (IOException ignored) {
+            }
+        }
+
+        private void readMessages(DataInputStream in) throws IOException {
+            int inChunkSize = 128;
+            Map<Integer, Message> streams = new HashMap<>();
+            Map<Integer, Integer> received = new HashMap<>();
+            while (true) {
+                int basic = in.readUnsignedByte();
+                int fmt = basic >> 6;
+                int csid = basic & 0x3F;
+                Message message = streams.get(csid);
+                if (message == null) {
+                    message = new Message();
+                    streams.put(csid, message);
+                }
+                if (fmt <= 2) {
+                    int timestamp = readInt3(in);
+                    if (fmt <= 1) {
+                        message.payload = new byte[readInt3(in)];
+                        message.type = in.readUnsignedByte();
+                        if (fmt == 0) {
+                            message.streamId = Integer.reverseBytes(in.readInt());
+                        }
+                    }
+                    message.timestamp = fmt == 0 ? timestamp : message.timestamp + timestamp;
+                }
+                int offset = received.containsKey(csid) ? received.get(csid) : 0;
+                int n = Math.min(inChunkSize, message.payload.length - offset);
+                in.readFully(message.payload, offset, n);
+                offset += n;
+                if (offset < message.payload.length) {
+                    received.put(csid, offset);
+                    continue;
+                }
+                received.remove(csid);
+                Message whole = new Message();
+                whole.type = message.type;
+                whole.streamId = message.streamId;
+                whole.timestamp = message.timestamp;
+                whole.payload = message.payload.clone();
+                if (whole.type == 1) {
+                    inChunkSize = ByteBuffer.wrap(whole.payload).getInt();
+                } else if (whole.type != 20 || !answer(RESAmf0.readAll(whole.payload))) {
+                    messages.add(whole);
+                }
+            }
+        }
+
+        /**
+         * @return true if command was answered
+         */
+        private boolean answer(List<Object> command) throws IOException {
+            Object name = command.get(0);
+            double transaction = (Double) command.get(1);
+            if ("connect".equals(name)) {
+                Map<String, Object> info = new LinkedHashMap<>();
+                info.put("code", "NetConnection.Connect.Success");
+                send(3, 20, 0, new RESAmf0.Writer().writeString("_result").writeNumber(transaction)
+                        .writeNull().writeObject(info).toByteArray());
+                return true;
+            }
+            if ("createStream".equals(name)) {
+                send(3, 20, 0, new RESAmf0.Writer().writeString("_result").writeNumber(transaction)
+                        .writeNull().writeNumber(1).toByteArray());
+                return true;
+            }
+            if ("publish".equals(name)) {
+                Map<String, Object> info = new LinkedHashMap<>();
+                info.put("level", publishLevel);
+                info.put("code", publishCode);
+                send(5, 20, 1, new RESAmf0.Writer().writeString("onStatus").writeNumber(0)
+                        .writeNull().writeObject(info).toByteArray());
+                return true;
+            }
+            return "releaseStream".equals(name) || "FCPublish".equals(name);
+        }
+
+        /**
+         * type 0 chunk,then type 3 chunks of outChunkSize
+         */
+        synchronized void send(int csid, int type, int streamId, byte[] payload) throws IOException {
+            ByteArrayOutputStream chunks = new ByteArrayOutputStream();
+            chunks.write(csid);
+            writeInt3(chunks, 0);
+            writeInt3(chunks, payload.length);
+            chunks.write(type);
+            chunks.write(ByteBuffer.allocate(4).putInt(Integer.reverseBytes(streamId)).array(), 0, 4);
+            int chunkSize = outChunkSize;
+            for (int offset = 0; offset < payload.length; offset += chunkSize) {
+                if (offset > 0) {
+                    chunks.write(0xC0 | csid);
+                }
+                chunks.write(payload, offset, Math.min(chunkSize, payload.length - offset));
+            }
+            out.write(chunks.toByteArray());
+            out.flush();
+        }
+
+        Message take(int type) throws InterruptedException {
+            Message message = poll(type, 3000);
+            assertNotNull("no message of type " + type, message);
+            return message;
+        }
+
+        /**
+         * skips messages of other types
+         */
+        Message poll(int type, long timeoutMs) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + timeoutMs;
+            while (true) {
+                Message message = messages.poll(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                if (message == null || message.type == type) {
+                    return message;
+                }
+            }
+        }
+
+        void closeClient() throws IOException {
+            client.close();
+        }
+
+        void shutdown() {
+            try {
+                serverSocket.close();
+                if (client != null) {
+                    client.close();
+                }
+            } catch (IOException ignored) {
+            }
+        }
+
+        private static int readInt3(DataInputStream in) throws IOException {
+            return in.readUnsignedByte() << 16 | in.readUnsignedByte() << 8 | in.readUnsignedByte();
+        }
+
+        private static void writeInt3(ByteArrayOutputStream out, int value) {
+            out.write(value >> 16);
+            out.write(value >> 8);
+            out.write(value);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package me.lake.librestreaming.rtmp;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import me.lake.librestreaming.model.RESCoreParameters;
+
+import static me.lake.librestreaming.rtmp.RESSendDropPolicyTest.FakeMuxer;
+import static me.lake.librestreaming.rtmp.RESSendDropPolicyTest.audio;
+import static me.lake.librestreaming.rtmp.RESSendDropPolicyTest.header;
+import static me.lake.librestreaming.rtmp.RESSendDropPolicyTest.video;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * sequence headers are written again on reconnect without encoder restart
+ */
+public class RESRtmpSenderTest {
+    private static final int AUDIO_HEADER = 1;
+    private static final int VIDEO_HEADER = 2;
+    private static final int NEW_VIDEO_HEADER = 3;
+    private final Set<Integer> keyFrameIds = new HashSet<>();
+
+    @Test
+    public void reconnectWritesCachedHeadersFirst() {
+        FakeMuxer muxer = new FakeMuxer();
+        RESRtmpSender.WorkThread sender = newSender(RESCoreParameters.SEND_DROP_POLICY_CURRENT, muxer);
+        sender.sendStart("rtmp://fake/live");
+        sender.sendFood(header(AUDIO_HEADER, RESFlvData.FLV_RTMP_PACKET_TYPE_AUDIO), RESRtmpSender.FROM_AUDIO);
+        sender.sendFood(header(VIDEO_HEADER, RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO), RESRtmpSender.FROM_VIDEO);
+        feedVideo(sender, 10, true);
+        sender.sendFood(audio(11, 10), RESRtmpSender.FROM_AUDIO);
+        feedVideo(sender, 12, false);
+        drain(sender);
+        assertEquals(Arrays.asList(AUDIO_HEADER, VIDEO_HEADER, 10, 11, 12), muxer.writtenIds);
+
+        sender.sendStop();
+        drain(sender);
+        //encoder keeps running while disconnected,its format changes
+        feedVideo(sender, 20, false);
+        sender.sendFood(header(NEW_VIDEO_HEADER, RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO), RESRtmpSender.FROM_VIDEO);
+        feedVideo(sender, 21, true);
+        drain(sender);
+
+        sender.sendStart("rtmp://fake/live");
+        feedVideo(sender, 30, false);
+        sender.sendFood(audio(31, 10), RESRtmpSender.FROM_AUDIO);
+        feedVideo(sender, 32, false);
+        feedVideo(sender, 33, true);
+        feedVideo(sender, 34, false);
+        drain(sender);
+        assertEquals(2, muxer.openPositions.size());
+        assertEquals(Arrays.asList(AUDIO_HEADER, NEW_VIDEO_HEADER, 31, 33, 34), session(muxer, 1));
+        assertNoPFrameBeforeKeyFrame(muxer);
+
+        //third connection,headers fed before it are still the latest
+        sender.sendStop();
+        sender.sendStart("rtmp://fake/live");
+        feedVideo(sender, 40, true);
+        drain(sender);
+        assertEquals(Arrays.asList(AUDIO_HEADER, NEW_VIDEO_HEADER, 40), session(muxer, 2));
+    }
+
+    @Test
+    public void headersFedBeforeStartAreKept() {
+        FakeMuxer muxer = new FakeMuxer();
+        RESRtmpSender.WorkThread sender = newSender(RESCoreParameters.SEND_DROP_POLICY_CURRENT, muxer);
+        //encoders started before the connection,tags fed before start are discarded
+        sender.sendFood(header(AUDIO_HEADER, RESFlvData.FLV_RTMP_PACKET_TYPE_AUDIO), RESRtmpSender.FROM_AUDIO);
+        sender.sendFood(header(VIDEO_HEADER, RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO), RESRtmpSender.FROM_VIDEO);
+        feedVideo(sender, 10, true);
+        sender.sendStart("rtmp://fake/live");
+        feedVideo(sender, 11, false);
+        feedVideo(sender, 12, true);
+        drain(sender);
+        assertEquals(Arrays.asList(AUDIO_HEADER, VIDEO_HEADER, 12), muxer.writtenIds);
+    }
+
+    /**
+     * first keyframe after reconnect is dropped by the policy,video keeps waiting for the next one
+     */
+    @Test
+    public void waitsPastKeyFrameDroppedByPolicy() {
+        for (int policy : new int[]{RESCoreParameters.SEND_DROP_POLICY_CURRENT,
+                RESCoreParameters.SEND_DROP_POLICY_DROP_OLDEST_GOP}) {
+            FakeMuxer muxer = new FakeMuxer();
+            RESRtmpSender.WorkThread sender = newSender(policy, muxer);
+            sender.sendStart("rtmp://fake/live");
+            sender.sendFood(header(AUDIO_HEADER, RESFlvData.FLV_RTMP_PACKET_TYPE_AUDIO), RESRtmpSender.FROM_AUDIO);
+            sender.sendFood(header(VIDEO_HEADER, RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO), RESRtmpSender.FROM_VIDEO);
+            drain(sender);
+            sender.sendStop();
+            sender.sendStart("rtmp://fake/live");
+            //queue crowded when the first keyframe is taken
+            int id = 100;
+            feedVideo(sender, id++, true);
+            for (int i = 0; i < 22; i++) {
+                feedVideo(sender, id++, false);
+            }
+            int secondKeyFrame = id;
+            feedVideo(sender, id++, true);
+            feedVideo(sender, id++, false);
+            sender.sendFood(audio(id++, 10), RESRtmpSender.FROM_AUDIO);
+            drain(sender);
+            List<Integer> session = session(muxer, 1);
+            assertEquals("policy " + policy, Arrays.asList(AUDIO_HEADER, VIDEO_HEADER, secondKeyFrame,
+                    secondKeyFrame + 1, secondKeyFrame + 2), session);
+            assertNoPFrameBeforeKeyFrame(muxer);
+        }
+    }
+
+    private static RESRtmpSender.WorkThread newSender(int policy, FakeMuxer muxer) {
+        muxer.budget = Long.MAX_VALUE;
+        return new RESRtmpSender.WorkThread(30, 1280, 720, RESSendDropPolicy.create(policy), muxer);
+    }
+
+    private static void drain(RESRtmpSender.WorkThread sender) {
+        while (sender.work()) {
+        }
+    }
+
+    /**
+     * @return ids written by connection index
+     */
+    private static List<Integer> session(FakeMuxer muxer, int index) {
+        int end = index + 1 < muxer.openPositions.size() ? muxer.openPositions.get(index + 1) : muxer.writtenIds.size();
+        return muxer.writtenIds.subList(muxer.openPositions.get(index), end);
+    }
+
+    private void feedVideo(RESRtmpSender.WorkThread sender, int id, boolean isKeyFrame) {
+        if (isKeyFrame) {
+            keyFrameIds.add(id);
+        }
+        sender.sendFood(video(id, isKeyFrame, 100), RESRtmpSender.FROM_VIDEO);
+    }
+
+    /**
+     * every connection:video frames written before its first keyframe are sequence headers only
+     */
+    private void assertNoPFrameBeforeKeyFrame(FakeMuxer muxer) {
+        for (int index = 0; index < muxer.openPositions.size(); index++) {
+            int start = muxer.openPositions.get(index);
+            List<Integer> session = session(muxer, index);
+            boolean isKeyFrameWritten = false;
+            for (int i = 0; i < session.size(); i++) {
+                int id = session.get(i);
+                if (muxer.writtenTypes.get(start + i) != RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO || id <= NEW_VIDEO_HEADER) {
+                    continue;
+                }
+                isKeyFrameWritten |= keyFrameIds.contains(id);
+                assertTrue("connection " + index + ",P-frame " + id + " before keyframe", isKeyFrameWritten);
+            }
+        }
+    }
+}
@@ -0,0 +1,405 @@
+package me.lake.librestreaming.rtmp;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import me.lake.librestreaming.model.RESCoreParameters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * synthetic streams through the sender loop and a fake muxer sending a scripted number of bytes per tick
+ */
+public class RESSendDropPolicyTest {
+    private static final int TICK_MS = 10;
+    private static final int DURATION_MS = 60000;
+    private static final int QUEUE_LENGTH = 150;
+    private static final int FPS = 25;
+    private static final int GOP = 50;
+    private static final int KEY_FRAME_SIZE = 40000;
+    private static final int P_FRAME_SIZE = 6000;
+    private static final int AUDIO_SIZE = 300;
+    private static final int[] POLICIES = {RESCoreParameters.SEND_DROP_POLICY_CURRENT,
+            RESCoreParameters.SEND_DROP_POLICY_DROP_UNTIL_NEXT_IDR,
+            RESCoreParameters.SEND_DROP_POLICY_DROP_OLDEST_GOP};
+
+    @Test
+    public void audioAndHeadersAreNeverDropped() {
+        for (int policy : POLICIES) {
+            Simulation simulation = new Simulation(policy);
+            simulation.run();
+            String name = "policy " + policy;
+            assertTrue(name + ",congestion dropped nothing", simulation.droppedVideoNum() > 0);
+            assertEquals(name, simulation.fedIds(Tag.AUDIO), simulation.writtenIds(Tag.AUDIO));
+            assertEquals(name, simulation.fedIds(Tag.HEADER), simulation.writtenIds(Tag.HEADER));
+            //link recovered,last GOP goes out whole
+            List<Tag> video = simulation.fed(Tag.VIDEO);
+            for (int i = video.size() - GOP; i < video.size(); i++) {
+                assertTrue(name + ",frame " + i + " after recovery", simulation.isWritten(video.get(i)));
+            }
+        }
+    }
+
+    /**
+     * decodable stream:a written P-frame always follows its written reference
+     */
+    @Test
+    public void dropUntilNextIDRKeepsReferences() {
+        Simulation simulation = new Simulation(RESCoreParameters.SEND_DROP_POLICY_DROP_UNTIL_NEXT_IDR);
+        simulation.run();
+        assertTrue(simulation.droppedVideoNum() > 0);
+        assertReferencesWritten(simulation);
+        for (Tag tag : simulation.fed(Tag.VIDEO)) {
+            if (tag.isKeyFrame) {
+                assertTrue("keyframe " + tag.id, simulation.isWritten(tag));
+            }
+        }
+    }
+
+    @Test
+    public void dropOldestGOPKeepsReferences() {
+        Simulation simulation = new Simulation(RESCoreParameters.SEND_DROP_POLICY_DROP_OLDEST_GOP);
+        simulation.run();
+        assertTrue(simulation.droppedVideoNum() > 0);
+        assertReferencesWritten(simulation);
+    }
+
+    /**
+     * the former behaviour,P-frames after a dropped one are still sent
+     */
+    @Test
+    public void currentBreaksReferences() {
+        Simulation simulation = new Simulation(RESCoreParameters.SEND_DROP_POLICY_CURRENT);
+        simulation.run();
+        List<Tag> video = simulation.fed(Tag.VIDEO);
+        boolean isBroken = false;
+        for (int i = 1; i < video.size(); i++) {
+            if (!video.get(i).isKeyFrame && simulation.isWritten(video.get(i)) && !simulation.isWritten(video.get(i - 1))) {
+                isBroken = true;
+            }
+        }
+        assertTrue(isBroken);
+    }
+
+    /**
+     * queue stays crowded,older GOPs go keyframe included and sending resumes at the newest queued keyframe
+     */
+    @Test
+    public void dropOldestGOPSkipsToNewestKeyFrame() {
+        RESSendDropPolicy policy = RESSendDropPolicy.create(RESCoreParameters.SEND_DROP_POLICY_DROP_OLDEST_GOP);
+        List<RESFlvData> queue = new ArrayList<>();
+        int id = 0;
+        for (int gop = 0; gop < 4; gop++) {
+            for (int i = 0; i < 5; i++) {
+                queue.add(video(id++, i == 0, 100));
+            }
+            queue.add(audio(id++, 10));
+        }
+        List<Integer> kept = drain(policy, queue, 30, 20);
+        //audio of every GOP,and the last keyframe
+        assertEquals("[5, 11, 17, 18, 23]", kept.toString());
+
+        policy.reset();
+        queue.clear();
+        queue.add(video(0, true, 100));
+        queue.add(video(1, false, 100));
+        queue.add(video(2, false, 100));
+        //no newer keyframe queued,keyframe goes out,then like DropUntilNextIDR
+        assertEquals("[0]", drain(policy, queue, 30, 20).toString());
+        queue.add(video(3, true, 100));
+        queue.add(video(4, false, 100));
+        assertEquals("not crowded", "[3, 4]", drain(policy, queue, 30, 0).toString());
+    }
+
+    @Test
+    public void dropUntilNextIDRStopsAtKeyFrame() {
+        RESSendDropPolicy policy = RESSendDropPolicy.create(RESCoreParameters.SEND_DROP_POLICY_DROP_UNTIL_NEXT_IDR);
+        List<RESFlvData> queue = new ArrayList<>();
+        queue.add(video(0, false, 100));
+        queue.add(audio(1, 10));
+        assertEquals("[1]", drain(policy, queue, 30, 20).toString());
+        queue.add(video(2, false, 100));
+        queue.add(header(3, RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO));
+        queue.add(video(4, true, 100));
+        queue.add(video(5, false, 100));
+        //dropping goes on after crowding ended,until the keyframe
+        assertEquals("[3, 4, 5]", drain(policy, queue, 30, 0).toString());
+    }
+
+    private static void assertReferencesWritten(Simulation simulation) {
+        List<Tag> video = simulation.fed(Tag.VIDEO);
+        for (int i = 1; i < video.size(); i++) {
+            Tag tag = video.get(i);
+            if (!tag.isKeyFrame && simulation.isWritten(tag)) {
+                assertTrue("P-frame " + tag.id + " written after dropped " + video.get(i - 1).id,
+                        simulation.isWritten(video.get(i - 1)));
+            }
+        }
+    }
+
+    /**
+     * run policy over queue like the sender loop
+     *
+     * @param backlog tags behind the queue,counted in queue depth
+     * @return ids kept
+     */
+    private static List<Integer> drain(RESSendDropPolicy policy, List<RESFlvData> queue, int maxQueueLength, int backlog) {
+        List<Integer> kept = new ArrayList<>();
+        while (!queue.isEmpty()) {
+            RESFlvData flvData = queue.remove(0);
+            int queuedKeyFrames = 0;
+            for (RESFlvData queued : queue) {
+                if (queued.flvTagType == RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO && !queued.isSequenceHeader && queued.isKeyframe()) {
+                    queuedKeyFrames++;
+                }
+            }
+            if (!policy.shouldDrop(flvData, queue.size() + backlog, queuedKeyFrames, maxQueueLength)) {
+                kept.add(idOf(flvData.byteBuffer, 0));
+            }
+        }
+        return kept;
+    }
+
+    static RESFlvData video(int id, boolean isKeyFrame, int size) {
+        RESFlvData flvData = tag(id, RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO, size);
+        flvData.videoFrameType = isKeyFrame ? RESFlvData.NALU_TYPE_IDR : RESFlvData.NALU_TYPE_SLICE;
+        flvData.droppable = true;
+        return flvData;
+    }
+
+    static RESFlvData audio(int id, int size) {
+        RESFlvData flvData = tag(id, RESFlvData.FLV_RTMP_PACKET_TYPE_AUDIO, size);
+        flvData.droppable = true;
+        return flvData;
+    }
+
+    static RESFlvData header(int id, int flvTagType) {
+        RESFlvData flvData = tag(id, flvTagType, 16);
+        flvData.isSequenceHeader = true;
+        flvData.videoFrameType = RESFlvData.NALU_TYPE_IDR;
+        return flvData;
+    }
+
+    /**
+     * not pooled,payload starts with id
+     */
+    private static RESFlvData tag(int id, int flvTagType, int size) {
+        RESFlvData flvData = new RESFlvData();
+        flvData.flvTagType = flvTagType;
+        flvData.byteBuffer = new byte[size];
+        ByteBuffer.wrap(flvData.byteBuffer).putInt(id);
+        flvData.size = size;
+        flvData.dts = id;
+        flvData.pts = id;
+        return flvData;
+    }
+
+    static int idOf(byte[] data, int offset) {
+        return ByteBuffer.wrap(data, offset, 4).getInt();
+    }
+
+    static class Tag {
+        static final int AUDIO = 0;
+        static final int VIDEO = 1;
+        static final int HEADER = 2;
+        final int id;
+        final int kind;
+        final boolean isKeyFrame;
+
+        Tag(int id, int kind, boolean isKeyFrame) {
+            this.id = id;
+            this.kind = kind;
+            this.isKeyFrame = isKeyFrame;
+        }
+    }
+
+    /**
+     * records every tag written,write methods spend budget and the test refills it per tick
+     */
+    static class FakeMuxer implements RESMuxer {
+        final List<Integer> writtenIds = new ArrayList<>();
+        final List<Integer> writtenTypes = new ArrayList<>();
+        /**
+         * size of writtenIds at every open
+         */
+        final List<Integer> openPositions = new ArrayList<>();
+        long budget = 0;
+        private boolean isConnected = false;
+
+        @Override
+        public int open(String url, int videoWidth, int videoHeight) {
+            openPositions.add(writtenIds.size());
+            isConnected = true;
+            return 0;
+        }
+
+        @Override
+        public boolean isConnected() {
+            return isConnected;
+        }
+
+        @Override
+        public int writeVideo(byte[] data, int offset, int length, int timestamp, int compositionTime) {
+            return write(RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO, idOf(data, offset), length);
+        }
+
+        @Override
+        public int writeAudio(byte[] data, int offset, int length, int timestamp) {
+            return write(RESFlvData.FLV_RTMP_PACKET_TYPE_AUDIO, idOf(data, offset), length);
+        }
+
+        @Override
+        public int writeVideo(ByteBuffer data, int offset, int length, int timestamp, int compositionTime) {
+            return write(RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO, data.getInt(offset), length);
+        }
+
+        @Override
+        public int writeAudio(ByteBuffer data, int offset, int length, int timestamp) {
+            return write(RESFlvData.FLV_RTMP_PACKET_TYPE_AUDIO, data.getInt(offset), length);
+        }
+
+        private int write(int type, int id, int length) {
+            assertTrue("write while closed", isConnected);
+            writtenIds.add(id);
+            writtenTypes.add(type);
+            budget -= length;
+            return length;
+        }
+
+        @Override
+        public int flush() {
+            return 0;
+        }
+
+        @Override
+        public boolean isDirectBufferPreferred() {
+            return false;
+        }
+
+        @Override
+        public long getBridgedBytes() {
+            return 0;
+        }
+
+        @Override
+        public int close() {
+            isConnected = false;
+            return 0;
+        }
+    }
+
+    /**
+     * 25fps video with 2s GOPs and AAC audio,link gives 300KB/s,
+     * 60KB/s from 10s to 30s,then 300KB/s again.
+     * a new video sequence header comes in the middle of congestion.
+     */
+    static class Simulation {
+        private final FakeMuxer muxer = new FakeMuxer();
+        private final RESRtmpSender.WorkThread sender;
+        private final List<Tag> fedTags = new ArrayList<>();
+        private final HashMap<Integer, Tag> tagsById = new HashMap<>();
+        private Set<Integer> written;
+        private int nextId = 0;
+
+        Simulation(int policy) {
+            sender = new RESRtmpSender.WorkThread(QUEUE_LENGTH, 1280, 720, RESSendDropPolicy.create(policy), muxer);
+        }
+
+        void run() {
+            sender.sendStart("rtmp://fake/live");
+            feed(header(nextId, RESFlvData.FLV_RTMP_PACKET_TYPE_AUDIO), Tag.HEADER, false);
+            feed(header(nextId, RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO), Tag.HEADER, false);
+            long audioNum = 0;
+            int videoNum = 0;
+            for (int now = 0; now < DURATION_MS; now += TICK_MS) {
+                while (audioNum * 1024 * 1000 / 44100 <= now) {
+                    feed(audio(nextId, AUDIO_SIZE), Tag.AUDIO, false);
+                    audioNum++;
+                }
+                while (videoNum * 1000 / FPS <= now) {
+                    boolean isKeyFrame = videoNum % GOP == 0;
+                    feed(video(nextId, isKeyFrame, isKeyFrame ? KEY_FRAME_SIZE : P_FRAME_SIZE), Tag.VIDEO, isKeyFrame);
+                    videoNum++;
+                }
+                if (now == 20000) {
+                    feed(header(nextId, RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO), Tag.HEADER, false);
+                }
+                long tickBudget = bytesPerSecond(now) * TICK_MS / 1000;
+                muxer.budget = Math.min(muxer.budget + tickBudget, tickBudget);
+                while (muxer.budget > 0 && sender.work()) {
+                }
+            }
+            //drain what is left
+            muxer.budget = Long.MAX_VALUE;
+            while (sender.work()) {
+            }
+            written = new HashSet<>(muxer.writtenIds);
+            assertEquals("tag written twice", written.size(), muxer.writtenIds.size());
+        }
+
+        private static long bytesPerSecond(int now) {
+            return now >= 10000 && now < 30000 ? 60 * 1024 : 300 * 1024;
+        }
+
+        private void feed(RESFlvData flvData, int kind, boolean isKeyFrame) {
+            Tag tag = new Tag(nextId++, kind, isKeyFrame);
+            fedTags.add(tag);
+            tagsById.put(tag.id, tag);
+            sender.sendFood(flvData, kind == Tag.AUDIO ? RESRtmpSender.FROM_AUDIO : RESRtmpSender.FROM_VIDEO);
+        }
+
+        List<Tag> fed(int kind) {
+            List<Tag> tags = new ArrayList<>();
+            for (Tag tag : fedTags) {
+                if (tag.kind == kind) {
+                    tags.add(tag);
+                }
+            }
+            return tags;
+        }
+
+        List<Integer> fedIds(int kind) {
+            List<Integer> ids = new ArrayList<>();
+            for (Tag tag : fed(kind)) {
+                ids.add(tag.id);
+            }
+            return ids;
+        }
+
+        /**
+         * in write order
+         */
+        List<Integer> writtenIds(int kind) {
+            List<Integer> ids = new ArrayList<>();
+            for (int id : muxer.writtenIds) {
+                if (tagsById.get(id).kind == kind) {
+                    ids.add(id);
+                }
+            }
+            return ids;
+        }
+
+        boolean isWritten(Tag tag) {
+            return written.contains(tag.id);
+        }
+
+        int droppedVideoNum() {
+            int dropped = 0;
+            for (Tag tag : fed(Tag.VIDEO)) {
+                if (!isWritten(tag)) {
+                    dropped++;
+                }
+            }
+            assertFalse(dropped == fed(Tag.VIDEO).size());
+            return dropped;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package me.lake.librestreaming.tools;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class PcmToolsTest {
+    private static final int SHORT_NUM = 1 << 16;
+
+    /**
+     * every 16bit value,little endian both ways
+     */
+    @Test
+    public void bytesAndShortsRoundTrip() {
+        short[] samples = allShorts();
+        byte[] pcm = new byte[SHORT_NUM * 2];
+        PcmTools.shortsToBytes(samples, pcm, SHORT_NUM);
+        for (int i = 0; i < SHORT_NUM; i++) {
+            assertEquals(samples[i] & 0xFF, pcm[2 * i] & 0xFF);
+            assertEquals((samples[i] >> 8) & 0xFF, pcm[2 * i + 1] & 0xFF);
+        }
+        short[] back = new short[SHORT_NUM];
+        PcmTools.bytesToShorts(pcm, back, SHORT_NUM);
+        assertArrayEquals(samples, back);
+    }
+
+    @Test
+    public void onlySampleNumIsConverted() {
+        byte[] pcm = new byte[]{1, 2, 3, 4, 5, 6};
+        short[] samples = new short[]{-1, -1, -1};
+        PcmTools.bytesToShorts(pcm, samples, 2);
+        assertArrayEquals(new short[]{0x0201, 0x0403, -1}, samples);
+        byte[] out = new byte[6];
+        Arrays.fill(out, (byte) 7);
+        PcmTools.shortsToBytes(new short[]{0x0102, 0x0304, 0x0506}, out, 2);
+        assertArrayEquals(new byte[]{2, 1, 4, 3, 7, 7}, out);
+    }
+
+    /**
+     * short->float->short is lossless,floats in [-1,1)
+     */
+    @Test
+    public void floatsRoundTrip() {
+        short[] samples = allShorts();
+        float[] floats = new float[SHORT_NUM];
+        PcmTools.shortsToFloats(samples, floats, SHORT_NUM);
+        assertEquals(-1.0f, floats[0], 0);
+        assertEquals(32767 / 32768.0f, floats[SHORT_NUM - 1], 0);
+        short[] back = new short[SHORT_NUM];
+        PcmTools.floatsToShorts(floats, back, SHORT_NUM);
+        assertArrayEquals(samples, back);
+
+        byte[] pcm = new byte[SHORT_NUM * 2];
+        PcmTools.shortsToBytes(samples, pcm, SHORT_NUM);
+        short[] scratch = new short[SHORT_NUM];
+        PcmTools.bytesToFloats(pcm, floats, scratch, SHORT_NUM);
+        byte[] pcmBack = new byte[SHORT_NUM * 2];
+        PcmTools.floatsToBytes(floats, pcmBack, scratch, SHORT_NUM);
+        assertArrayEquals(pcm, pcmBack);
+    }
+
+    @Test
+    public void floatsToShortsClamps() {
+        float[] floats = new float[]{1.0f, -1.0f, 1.5f, -1.5f, 1000f, -1000f,
+                Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.MAX_VALUE, -Float.MAX_VALUE, Float.NaN,
+                32767.4f / 32768, 32767.6f / 32768, -32768.4f / 32768, -32768.6f / 32768};
+        short[] samples = new short[floats.length];
+        PcmTools.floatsToShorts(floats, samples, floats.length);
+        assertArrayEquals(new short[]{32767, -32768, 32767, -32768, 32767, -32768,
+                32767, -32768, 32767, -32768, 0,
+                32767, 32767, -32768, -32768}, samples);
+    }
+
+    /**
+     * nearest,halves go up like Math.round
+     */
+    @Test
+    public void floatsToShortsRounds() {
+        float[] floats = new float[]{0.4f / 32768, 0.5f / 32768, 0.6f / 32768, -0.4f / 32768, -0.5f / 32768, -0.6f / 32768,
+                100.5f / 32768, -100.5f / 32768};
+        short[] samples = new short[floats.length];
+        PcmTools.floatsToShorts(floats, samples, floats.length);
+        assertArrayEquals(new short[]{0, 1, 1, 0, 0, -1, 101, -100}, samples);
+    }
+
+    @Test
+    public void clampsInts() {
+        assertEquals(32767, PcmTools.clamp(32767));
+        assertEquals(32767, PcmTools.clamp(32768));
+        assertEquals(32767, PcmTools.clamp(Integer.MAX_VALUE));
+        assertEquals(-32768, PcmTools.clamp(-32768));
+        assertEquals(-32768, PcmTools.clamp(-32769));
+        assertEquals(-32768, PcmTools.clamp(Integer.MIN_VALUE));
+        assertEquals(-5, PcmTools.clamp(-5));
+    }
+
+    private static short[] allShorts() {
+        short[] samples = new short[SHORT_NUM];
+        for (int i = 0; i < SHORT_NUM; i++) {
+            samples[i] = (short) (Short.MIN_VALUE + i);
+        }
+        return samples;
+    }
+}
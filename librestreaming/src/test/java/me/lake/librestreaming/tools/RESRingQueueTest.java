@@ -0,0 +1,92 @@
+package me.lake.librestreaming.tools;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RESRingQueueTest {
+    private static final int ITEM_NUM = 1000000;
+
+    @Test
+    public void capacityIsRoundedUpToPowerOfTwo() {
+        assertEquals(1, new RESRingQueue<Integer>(1).capacity());
+        assertEquals(8, new RESRingQueue<Integer>(5).capacity());
+        assertEquals(16, new RESRingQueue<Integer>(16).capacity());
+    }
+
+    @Test
+    public void offerFailsWhenFullAndPollInOrder() {
+        RESRingQueue<Integer> queue = new RESRingQueue<>(4);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(queue.offer(i));
+        }
+        assertFalse(queue.offer(4));
+        assertEquals(4, queue.size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(Integer.valueOf(i), queue.poll());
+        }
+        assertNull(queue.poll());
+        assertTrue(queue.isEmpty());
+        assertEquals(4, queue.getProducerPosition());
+        assertEquals(4, queue.getConsumerPosition());
+    }
+
+    /**
+     * two producers,one consumer:every item arrives exactly once and in the order its producer offered it
+     */
+    @Test
+    public void twoProducersStress() throws Exception {
+        final RESRingQueue<Long> queue = new RESRingQueue<>(64);
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        Thread[] producers = new Thread[2];
+        for (int p = 0; p < producers.length; p++) {
+            final long producerId = p;
+            producers[p] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        startLatch.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (long i = 0; i < ITEM_NUM; i++) {
+                        Long item = producerId << 32 | i;
+                        while (!queue.offer(item)) {
+                            Thread.yield();
+                        }
+                    }
+                }
+            };
+            producers[p].start();
+        }
+        startLatch.countDown();
+        long[] nextSeq = new long[producers.length];
+        long received = 0;
+        long deadline = System.currentTimeMillis() + 60000;
+        while (received < (long) ITEM_NUM * producers.length) {
+            Long item = queue.poll();
+            if (item == null) {
+                assertTrue("consumer starved", System.currentTimeMillis() < deadline);
+                Thread.yield();
+                continue;
+            }
+            int producerId = (int) (item >>> 32);
+            long seq = item & 0xFFFFFFFFL;
+            assertEquals("producer " + producerId + " out of order", nextSeq[producerId], seq);
+            nextSeq[producerId]++;
+            received++;
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        assertNull(queue.poll());
+        assertEquals(ITEM_NUM, nextSeq[0]);
+        assertEquals(ITEM_NUM, nextSeq[1]);
+        assertEquals(queue.getProducerPosition(), queue.getConsumerPosition());
+    }
+}
@@ -0,0 +1,139 @@
+package me.lake.librestreaming.tools;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RESTripleBufferTest {
+    private static final int FRAME_LENGTH = 4096;
+    private static final int FRAME_NUM = 100000;
+
+    @Test
+    public void latestFrameWins() {
+        byte[] a = new byte[1];
+        byte[] b = new byte[1];
+        byte[] c = new byte[1];
+        RESTripleBuffer<byte[]> buffer = new RESTripleBuffer<>(a, b, c);
+        assertFalse(buffer.acquireLatest());
+        assertEquals(1, buffer.getDuplicatedCount());
+
+        buffer.getWriteBuff()[0] = 1;
+        buffer.publish();
+        buffer.getWriteBuff()[0] = 2;
+        buffer.publish();
+        assertEquals(1, buffer.getDroppedCount());
+        assertTrue(buffer.acquireLatest());
+        assertEquals(2, buffer.getReadBuff()[0]);
+        assertFalse(buffer.acquireLatest());
+        assertEquals(2, buffer.getReadBuff()[0]);
+    }
+
+    @Test
+    public void discardKeepsReadBuff() {
+        RESTripleBuffer<byte[]> buffer = new RESTripleBuffer<>(new byte[1], new byte[1], new byte[1]);
+        buffer.getWriteBuff()[0] = 1;
+        buffer.publish();
+        assertTrue(buffer.acquireLatest());
+        byte[] read = buffer.getReadBuff();
+        buffer.getWriteBuff()[0] = 2;
+        buffer.publish();
+        buffer.discardLatest();
+        assertEquals(1, buffer.getDroppedCount());
+        assertFalse(buffer.acquireLatest());
+        assertSame(read, buffer.getReadBuff());
+        assertEquals(1, read[0]);
+        //nothing to discard
+        buffer.discardLatest();
+        assertEquals(1, buffer.getDroppedCount());
+        buffer.getWriteBuff()[0] = 3;
+        buffer.publish();
+        assertTrue(buffer.acquireLatest());
+        assertEquals(3, buffer.getReadBuff()[0]);
+    }
+
+    /**
+     * producer fills whole frames with its sequence number,like queueVideo does with NV21Transform,
+     * consumer checks every byte while a third thread discards like setCurrentCamera.
+     * a torn frame would mix two sequence numbers.
+     */
+    @Test
+    public void concurrentFramesAreNeverTorn() throws Exception {
+        final RESTripleBuffer<int[]> buffer = new RESTripleBuffer<>(
+                new int[FRAME_LENGTH], new int[FRAME_LENGTH], new int[FRAME_LENGTH]);
+        final AtomicBoolean producing = new AtomicBoolean(true);
+        final AtomicReference<String> failure = new AtomicReference<>();
+        final long[] consumed = new long[1];
+        Thread producer = new Thread() {
+            @Override
+            public void run() {
+                for (int seq = 1; seq <= FRAME_NUM; seq++) {
+                    int[] frame = buffer.getWriteBuff();
+                    for (int i = 0; i < FRAME_LENGTH; i++) {
+                        frame[i] = seq;
+                        if ((seq & 0xF) == 0 && i == FRAME_LENGTH / 2) {
+                            Thread.yield();
+                        }
+                    }
+                    buffer.publish();
+                }
+                producing.set(false);
+            }
+        };
+        Thread consumer = new Thread() {
+            @Override
+            public void run() {
+                int last = 0;
+                while (true) {
+                    boolean stopped = !producing.get();
+                    if (buffer.acquireLatest()) {
+                        consumed[0]++;
+                        int[] frame = buffer.getReadBuff();
+                        int seq = frame[0];
+                        if (seq <= last) {
+                            failure.compareAndSet(null, "went back from " + last + " to " + seq);
+                            return;
+                        }
+                        if ((seq & 0x7) == 0) {
+                            Thread.yield();
+                        }
+                        for (int i = 0; i < FRAME_LENGTH; i++) {
+                            if (frame[i] != seq) {
+                                failure.compareAndSet(null, "frame " + seq + " torn at " + i + " by " + frame[i]);
+                                return;
+                            }
+                        }
+                        last = seq;
+                    } else if (stopped) {
+                        return;
+                    }
+                }
+            }
+        };
+        Thread discarder = new Thread() {
+            @Override
+            public void run() {
+                while (producing.get()) {
+                    buffer.discardLatest();
+                    Thread.yield();
+                }
+            }
+        };
+        producer.start();
+        consumer.start();
+        discarder.start();
+        producer.join();
+        consumer.join();
+        discarder.join();
+        assertNull(failure.get());
+        assertEquals(FRAME_NUM, buffer.getPublishedCount());
+        assertEquals(buffer.getPublishedCount(), consumed[0] + buffer.getDroppedCount());
+        assertTrue(consumed[0] > 0);
+    }
+}
@@ -13,10 +13,12 @@ import android.widget.SeekBar;
 import android.widget.TextView;
 
 import java.util.ArrayList;
+import java.util.LinkedList;
 import java.util.List;
 
 import me.lake.librestreaming.filter.softaudiofilter.BaseSoftAudioFilter;
 import me.lake.librestreaming.filter.softvideofilter.BaseSoftVideoFilter;
+import me.lake.librestreaming.filter.softvideofilter.SoftVideoGroupFilter;
 import me.lake.librestreaming.model.RESConfig;
 import me.lake.librestreaming.sample.audiofilter.SetVolumeAudioFilter;
 import me.lake.librestreaming.sample.softfilter.AnimationFilterSoft;
@@ -51,6 +53,11 @@ public class SoftStreamingActivity extends BaseStreamingActivity {
         filterItems.add(new FilterItem("BlurFilter", new BlurFilterSoft(this)));
         filterItems.add(new FilterItem("SkinBlurFilter", new SkinBlurFilterSoft(this)));
         filterItems.add(new FilterItem("FixYFilter", new FixYFilterSoft((byte) 0)));
+        LinkedList<BaseSoftVideoFilter> filters = new LinkedList<>();
+        filters.add(new GrayFilterSoft());
+        filters.add(new DoNothingFilterSoft());
+        filters.add(new IconFilterSoft(bitmap));
+        filterItems.add(new FilterItem("GroupFilter", new SoftVideoGroupFilter(filters)));
         Bitmap[] ans = new Bitmap[4];
         ans[0] = BitmapFactory.decodeResource(getResources(), R.drawable.animationa);
         ans[1] = BitmapFactory.decodeResource(getResources(), R.drawable.animationb);
@@ -5,16 +5,18 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 
-import me.lake.librestreaming.filter.softaudiofilter.BaseSoftAudioFilter;
+import me.lake.librestreaming.filter.softaudiofilter.BaseSoftAudioShortFilter;
+import me.lake.librestreaming.tools.PcmTools;
 
 /**
  * Created by lake on 14/06/16.
  * Librestreaming project.
  */
-public class PcmBgmAudioFilter extends BaseSoftAudioFilter {
+public class PcmBgmAudioFilter extends BaseSoftAudioShortFilter {
     FileInputStream fis;
     String filePath;
-    byte[] bgm;
+    byte[] bgmBuff;
+    short[] bgm;
 
     public PcmBgmAudioFilter(String filepath) {
         filePath = filepath;
@@ -32,30 +34,36 @@ public class PcmBgmAudioFilter extends BaseSoftAudioFilter {
             fis.mark(fis.available());
         } catch (IOException e) {
         }
-        bgm = new byte[SIZE];
+        bgmBuff = new byte[SIZE];
+        bgm = new short[SAMPLE_NUM];
     }
 
     @Override
-    public boolean onFrame(byte[] orignBuff, byte[] targetBuff, long presentationTimeMs, int sequenceNum) {
+    public boolean onFrame(short[] orignSamples, short[] targetSamples, long presentationTimeMs, int sequenceNum) {
         try {
-            if (fis.read(bgm, 0, SIZE) < SIZE) {
+            if (fis.read(bgmBuff, 0, SIZE) < SIZE) {
                 return false;
             }
         } catch (IOException e) {
             e.printStackTrace();
         }
-        for (int i = 0; i < SIZE; i += 2) {
-            short origin = (short) (((orignBuff[i + 1] << 8) | orignBuff[i] & 0xff));
-            short bg = (short) (((bgm[i + 1] << 8) | bgm[i] & 0xff));
-            bg /= 32;
-            origin *=4;
-            short res = (short) (origin + bg);
-            targetBuff[i + 1] = (byte) (res >> 8);
-            targetBuff[i] = (byte) (res);
+        PcmTools.bytesToShorts(bgmBuff, bgm, SAMPLE_NUM);
+        for (int i = 0; i < SAMPLE_NUM; i++) {
+            short origin = (short) (orignSamples[i] * 4);
+            short bg = (short) (bgm[i] / 32);
+            targetSamples[i] = (short) (origin + bg);
         }
         return true;
     }
 
+    /**
+     * every sample is read before it is written
+     */
+    @Override
+    public boolean isInPlace() {
+        return true;
+    }
+
     @Override
     public void onDestroy() {
         super.onDestroy();
@@ -1,12 +1,12 @@
 package me.lake.librestreaming.sample.audiofilter;
 
-import me.lake.librestreaming.filter.softaudiofilter.BaseSoftAudioFilter;
+import me.lake.librestreaming.filter.softaudiofilter.BaseSoftAudioShortFilter;
 
 /**
  * Created by lake on 14/06/16.
  * Librestreaming project.
  */
-public class SetVolumeAudioFilter extends BaseSoftAudioFilter {
+public class SetVolumeAudioFilter extends BaseSoftAudioShortFilter {
     private float volumeScale=1.0f;
 
     public SetVolumeAudioFilter() {
@@ -20,13 +20,20 @@ public class SetVolumeAudioFilter extends BaseSoftAudioFilter {
     }
 
     @Override
-    public boolean onFrame(byte[] orignBuff, byte[] targetBuff, long presentationTimeMs, int sequenceNum) {
-        for (int i = 0; i < SIZE; i += 2) {
-            short origin = (short) (((orignBuff[i + 1] << 8) | orignBuff[i] & 0xff));
-            origin = (short) (origin * volumeScale);
-            orignBuff[i + 1] = (byte) (origin >> 8);
-            orignBuff[i] = (byte) (origin);
+    public boolean onFrame(short[] orignSamples, short[] targetSamples, long presentationTimeMs, int sequenceNum) {
+        for (int i = 0; i < SAMPLE_NUM; i++) {
+            targetSamples[i] = (short) (orignSamples[i] * volumeScale);
         }
-        return false;
+        return true;
+    }
+
+    @Override
+    public boolean isInPlace() {
+        return true;
+    }
+
+    @Override
+    public boolean isPassthrough() {
+        return volumeScale == 1.0f;
     }
 }
@@ -10,4 +10,9 @@ public class DoNothingFilterSoft extends BaseSoftVideoFilter {
     public boolean onFrame(byte[] orignBuff, byte[] targetBuff, long presentationTimeMs, int sequenceNum) {
         return false;
     }
+
+    @Override
+    public boolean isPassthrough() {
+        return true;
+    }
 }
@@ -1,17 +1,17 @@
 package me.lake.librestreaming.sample.softfilter;
 
-import me.lake.librestreaming.filter.softvideofilter.BaseSoftVideoFilter;
+import me.lake.librestreaming.filter.softvideofilter.BaseTiledSoftVideoFilter;
 
 /**
  * Created by lake on 16-4-1.
  */
-public class GrayFilterSoft extends BaseSoftVideoFilter {
+public class GrayFilterSoft extends BaseTiledSoftVideoFilter {
     @Override
-    public boolean onFrame(byte[] orignBuff, byte[] targetBuff, long presentationTimeMs, int sequenceNum) {
-        System.arraycopy(orignBuff,0,targetBuff,0,SIZE_Y);
-        for (int i = SIZE_Y; i < SIZE_TOTAL; i++) {
+    public void onFrameBand(byte[] orignBuff, byte[] targetBuff, int yStart, int yEnd, long presentationTimeMs, int sequenceNum) {
+        System.arraycopy(orignBuff, yStart * SIZE_WIDTH, targetBuff, yStart * SIZE_WIDTH, (yEnd - yStart) * SIZE_WIDTH);
+        int uvEnd = SIZE_Y + yEnd / 2 * SIZE_WIDTH;
+        for (int i = SIZE_Y + yStart / 2 * SIZE_WIDTH; i < uvEnd; i++) {
             targetBuff[i] = 127;
         }
-        return true;
     }
 }
@@ -2,17 +2,19 @@ package me.lake.librestreaming.sample.softfilter;
 
 import android.graphics.Bitmap;
 
-import me.lake.librestreaming.filter.softvideofilter.BaseSoftVideoFilter;
+import me.lake.librestreaming.filter.softvideofilter.BaseTiledSoftVideoFilter;
 
 /**
  * Created by lake on 16-4-1.
  */
-public class IconFilterSoft extends BaseSoftVideoFilter {
+public class IconFilterSoft extends BaseTiledSoftVideoFilter {
     byte[] imageByte;
     int iconYSize;
     private int iconW;
     private int iconH;
     private int xPos;
+    //xPos of current frame,same for all bands
+    private int frameXPos;
 
     public void setXPos(int x) {
         xPos = x;
@@ -52,9 +54,20 @@ public class IconFilterSoft extends BaseSoftVideoFilter {
     }
 
     @Override
-    public boolean onFrame(byte[] orignBuff, byte[] targetBuff, long presentationTimeMs, int sequenceNum) {
-        System.arraycopy(orignBuff, 0, targetBuff, 0, SIZE_TOTAL);
-        for (int y = 0; y < iconH; y++) {
+    public boolean onFrameBegin(byte[] orignBuff, byte[] targetBuff, long presentationTimeMs, int sequenceNum) {
+        frameXPos = xPos;
+        return true;
+    }
+
+    @Override
+    public void onFrameBand(byte[] orignBuff, byte[] targetBuff, int yStart, int yEnd, long presentationTimeMs, int sequenceNum) {
+        System.arraycopy(orignBuff, yStart * SIZE_WIDTH, targetBuff, yStart * SIZE_WIDTH, (yEnd - yStart) * SIZE_WIDTH);
+        System.arraycopy(orignBuff, SIZE_Y + yStart / 2 * SIZE_WIDTH, targetBuff, SIZE_Y + yStart / 2 * SIZE_WIDTH, (yEnd - yStart) / 2 * SIZE_WIDTH);
+        int xPos = frameXPos;
+        //icon row y goes to Y row y+50 and VU row y/2+25,both inside band for y in [yStart-50,yEnd-50)
+        int iconYStart = Math.max(0, yStart - 50);
+        int iconYEnd = Math.min(iconH, yEnd - 50);
+        for (int y = iconYStart; y < iconYEnd; y++) {
             for (int x = 0; x < iconW; x++) {
                 if (imageByte[y * iconW + x] != 0) {
                     targetBuff[xPos + (y + 50) * SIZE_WIDTH + x] = imageByte[y * iconW + x];
@@ -70,6 +83,5 @@ public class IconFilterSoft extends BaseSoftVideoFilter {
                 }
             }
         }
-        return true;
     }
 }